@@ -33,6 +33,7 @@ import org.apache.hadoop.chukwa.datacollection.adaptor.Adaptor;
 
 public class ChunkImpl implements org.apache.hadoop.io.Writable, Chunk {
   public final static int PROTOCOL_VERSION = 1;
+  private final static byte[] EMPTY_DATA = new byte[0];
 
   protected DataFactory dataFactory = DataFactory.getInstance();
   private String source = "";
@@ -79,6 +80,24 @@ public class ChunkImpl implements org.apache.hadoop.io.Writable, Chunk {
     this.initiator = source;
   }
 
+  /**
+   * Create a chunk that takes ownership of data instead of copying it.
+   * The caller must not modify data once the chunk has been created.
+   * @param dataType is the data type of the chunk
+   * @param streamName is the stream name, e.g. file name
+   * @param seq is the sequence id of the last byte of data
+   * @param data is the chunk payload, not copied
+   * @param source is the adaptor that created the chunk
+   * @return a chunk backed by data
+   */
+  public static ChunkImpl wrap(String dataType, String streamName, long seq,
+                               byte[] data, Adaptor source) {
+    ChunkImpl chunk = new ChunkImpl(dataType, streamName, seq, EMPTY_DATA,
+        source);
+    chunk.data = data;
+    return chunk;
+  }
+
   /**
    * @see org.apache.hadoop.chukwa.Chunk#getData()
    */
@@ -199,6 +218,14 @@ public class ChunkImpl implements org.apache.hadoop.io.Writable, Chunk {
    * @see org.apache.hadoop.io.Writable#readFields(java.io.DataInput)
    */
   public void readFields(DataInput in) throws IOException {
+    readFields(in, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Read the fields of a chunk, unless its data is longer than maxLength.
+   * @return false, before allocating the data, if it is longer than maxLength
+   */
+  private boolean readFields(DataInput in, long maxLength) throws IOException {
     setProtocolVersion(in.readInt());
     if (protocolVersion != PROTOCOL_VERSION) {
       throw new IOException(
@@ -213,12 +240,20 @@ public class ChunkImpl implements org.apache.hadoop.io.Writable, Chunk {
     setDebugInfo(in.readUTF());
 
     int numRecords = in.readInt();
+    // every record holds at least one byte
+    if (numRecords > maxLength) {
+      return false;
+    }
     recordEndOffsets = new int[numRecords];
     for (int i = 0; i < numRecords; ++i)
       recordEndOffsets[i] = in.readInt();
-    data = new byte[recordEndOffsets[recordEndOffsets.length - 1] + 1];
+    int length = recordEndOffsets[recordEndOffsets.length - 1] + 1;
+    if (length > maxLength) {
+      return false;
+    }
+    data = new byte[length];
     in.readFully(data);
-
+    return true;
   }
 
   /**
@@ -250,6 +285,18 @@ public class ChunkImpl implements org.apache.hadoop.io.Writable, Chunk {
     return w;
   }
 
+  /**
+   * Read a chunk, checking the length its data is declared to have before
+   * allocating it.
+   * @param in is the stream to read from
+   * @param maxLength is the longest data to accept, in bytes
+   * @return the chunk, or null if its data is longer than maxLength
+   */
+  public static ChunkImpl read(DataInput in, long maxLength) throws IOException {
+    ChunkImpl w = new ChunkImpl();
+    return w.readFields(in, maxLength) ? w : null;
+  }
+
   public String toString() {
     StringBuilder buffer = new StringBuilder();
     buffer.append(source);
@@ -33,7 +33,7 @@ import org.apache.log4j.Logger;
  * If there was still data available in any file, the adaptor will loop again.
  * 
  */
-class FileTailer extends Thread {
+class FileTailer extends Thread implements FileTailerEngine {
   static Logger log = Logger.getLogger(FileTailer.class);
 
   private List<LWFTAdaptor> adaptors;
@@ -63,12 +63,12 @@ class FileTailer extends Thread {
   }
 
   // called by FileTailingAdaptor, only
-  void startWatchingFile(LWFTAdaptor f) {
+  public void startWatchingFile(LWFTAdaptor f) {
     adaptors.add(f);
   }
 
   // called by FileTailingAdaptor, only
-  void stopWatchingFile(LWFTAdaptor f) {
+  public void stopWatchingFile(LWFTAdaptor f) {
     adaptors.remove(f);
   }
 
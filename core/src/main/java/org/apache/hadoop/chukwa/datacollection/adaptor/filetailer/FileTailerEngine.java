@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
+
+/**
+ * The thread pool shared by all LWFTAdaptors which decides when each
+ * adaptor's tailFile() gets called.
+ *
+ * Implementations must never call tailFile() on the same adaptor from two
+ * threads at once.
+ */
+interface FileTailerEngine {
+
+  // called by LWFTAdaptor and subclasses, only
+  void startWatchingFile(LWFTAdaptor f);
+
+  // called by LWFTAdaptor and subclasses, only
+  void stopWatchingFile(LWFTAdaptor f);
+
+}
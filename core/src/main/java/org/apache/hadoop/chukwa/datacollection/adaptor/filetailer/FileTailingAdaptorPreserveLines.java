@@ -29,18 +29,12 @@ import org.apache.hadoop.chukwa.datacollection.ChunkReceiver;
  */
 public class FileTailingAdaptorPreserveLines extends FileTailingAdaptor {
 
-  private static final char SEPARATOR = '\n';
+  private final RecordBoundaryScanner scanner = new RecordBoundaryScanner();
 
   @Override
   protected int extractRecords(ChunkReceiver eq, long buffOffsetInFile,
       byte[] buf) throws InterruptedException {
-    int lastNewLineOffset = 0;
-    for (int i = buf.length - 1; i >= 0; --i) {
-      if (buf[i] == SEPARATOR) {
-        lastNewLineOffset = i;
-        break;
-      }
-    }
+    int lastNewLineOffset = scanner.lastIndexOf(buf);
 
     if (lastNewLineOffset > 0) {
       int[] offsets_i = { lastNewLineOffset };
@@ -48,8 +42,9 @@ public class FileTailingAdaptorPreserveLines extends FileTailingAdaptor {
       int bytesUsed = lastNewLineOffset + 1; // char at last
                                              // offset uses a byte
       assert bytesUsed > 0 : " shouldn't send empty events";
-      ChunkImpl event = new ChunkImpl(type, toWatch.getAbsolutePath(),
-          buffOffsetInFile + bytesUsed, Arrays.copyOf(buf, bytesUsed), this);
+      byte[] data = bytesUsed == buf.length ? buf : Arrays.copyOf(buf, bytesUsed);
+      ChunkImpl event = ChunkImpl.wrap(type, toWatch.getAbsolutePath(),
+          buffOffsetInFile + bytesUsed, data, this);
 
       event.setRecordOffsets(offsets_i);
       eq.add(event);
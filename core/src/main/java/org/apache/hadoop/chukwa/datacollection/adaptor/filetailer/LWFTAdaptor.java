@@ -20,6 +20,10 @@ package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.hadoop.chukwa.ChunkImpl;
@@ -51,10 +55,34 @@ public class LWFTAdaptor extends AbstractAdaptor {
   public static final String MAX_READ_SIZE_OPT = 
       "chukwaAgent.fileTailingAdaptor.maxReadSize";
 
+  /**
+   * If true, tailFile() keeps the file open between polls and only reopens
+   * it when the file behind the path changes (rotation), instead of opening
+   * and closing it on every poll.
+   */
+  public static final String KEEP_FILE_OPEN_OPT =
+      "chukwaAgent.fileTailingAdaptor.keepFileOpen";
+
+  /**
+   * If more than this many bytes are waiting to be read, the adaptor
+   * switches to catch-up mode: the backlog is memory mapped a window at a
+   * time and split into MAX_READ_SIZE chunks in one pass, instead of one
+   * chunk per tailer pass. Zero disables catch-up mode.
+   */
+  public static final String CATCH_UP_THRESHOLD_OPT =
+      "chukwaAgent.fileTailingAdaptor.catchUp.threshold";
+  public static final String CATCH_UP_WINDOW_OPT =
+      "chukwaAgent.fileTailingAdaptor.catchUp.windowSize";
+  public static final int DEFAULT_CATCH_UP_WINDOW = 16 * 1024 * 1024;
+
   int MAX_READ_SIZE = DEFAULT_MAX_READ_SIZE;
+  boolean keepFileOpen = false;
+  long CATCH_UP_THRESHOLD = 0;
+  int CATCH_UP_WINDOW = DEFAULT_CATCH_UP_WINDOW;
+  private boolean catchingUp = false;
   
   static Logger log;
-  static FileTailer tailer;
+  static FileTailerEngine tailer;
   
   static {
     tailer = null;
@@ -79,16 +107,61 @@ public class LWFTAdaptor extends AbstractAdaptor {
 
   File toWatch;
 
+  /**
+   * The open file and its identity (device and inode on Unix), used by
+   * tailFile() when keepFileOpen is set. shutdown() runs on another thread
+   * than the tailer, so the reader is opened, read from and closed under
+   * readerLock, and readerClosed stops a late tailFile() from reopening or
+   * reading it. The lock is not held while chunks are queued, which can
+   * block for as long as the queue is full.
+   */
+  private final Object readerLock = new Object();
+  private RandomAccessFile openReader = null;
+  private Object openFileKey = null;
+  private boolean readerClosed = false;
+
   @Override
   public void start(long offset) {
     synchronized(LWFTAdaptor.class) {
       if(tailer == null)
-        tailer = new FileTailer(control.getConfiguration());
+        tailer = createTailer(control.getConfiguration());
     }
     this.fileReadOffset = offset - offsetOfFirstByte;    
+    synchronized(readerLock) {
+      readerClosed = false;
+    }
     tailer.startWatchingFile(this);
   }
   
+  /**
+   * Use the single FileTailer thread unless more than one tailer thread
+   * is configured.
+   */
+  static FileTailerEngine createTailer(Configuration conf) {
+    if(conf.getInt(ParallelFileTailer.THREADS_OPT, 1) > 1)
+      return new ParallelFileTailer(conf);
+    return new FileTailer(conf);
+  }
+
+  /**
+   * Forget the shared tailer, so the next adaptor started creates one from
+   * its own configuration. Used by tests.
+   */
+  static void resetTailer() {
+    synchronized(LWFTAdaptor.class) {
+      tailer = null;
+    }
+  }
+
+  /**
+   * @return the tailer this adaptor was handed to
+   */
+  FileTailerEngine getTailer() {
+    synchronized(LWFTAdaptor.class) {
+      return tailer;
+    }
+  }
+  
   /**
    * @see org.apache.hadoop.chukwa.datacollection.adaptor.Adaptor#getCurrentStatus()
    */
@@ -108,6 +181,10 @@ public class LWFTAdaptor extends AbstractAdaptor {
   public String parseArgs(String params) { 
     conf = control.getConfiguration();
     MAX_READ_SIZE = conf.getInt(MAX_READ_SIZE_OPT, DEFAULT_MAX_READ_SIZE);
+    keepFileOpen = conf.getBoolean(KEEP_FILE_OPEN_OPT, false);
+    CATCH_UP_THRESHOLD = conf.getLong(CATCH_UP_THRESHOLD_OPT, 0);
+    CATCH_UP_WINDOW = Math.max(MAX_READ_SIZE,
+        conf.getInt(CATCH_UP_WINDOW_OPT, DEFAULT_CATCH_UP_WINDOW));
 
     Pattern cmd = Pattern.compile("(\\d+)\\s+(.+)\\s?");
     Matcher m = cmd.matcher(params);
@@ -124,6 +201,12 @@ public class LWFTAdaptor extends AbstractAdaptor {
   public long shutdown(AdaptorShutdownPolicy shutdownPolicy)
       throws AdaptorException {
     tailer.stopWatchingFile(this);
+    synchronized(readerLock) {
+      // waits for a read in progress on the tailer thread, but not for the
+      // rest of its slurp()
+      readerClosed = true;
+      closeOpenReader();
+    }
     return fileReadOffset + offsetOfFirstByte;
   }
   
@@ -142,19 +225,33 @@ public class LWFTAdaptor extends AbstractAdaptor {
     if(buf.length == 0)
       return 0;
     
-    ChunkImpl chunk = new ChunkImpl(type, toWatch.getAbsolutePath(),
+    ChunkImpl chunk = ChunkImpl.wrap(type, toWatch.getAbsolutePath(),
         buffOffsetInFile + buf.length, buf, this);
 
     eq.add(chunk);
     return buf.length;
   }
   
+  /**
+   * Read the next block of the file and pass it to extractRecords().
+   * The buffer passed to extractRecords() is never reused, so subclasses
+   * may hand it to ChunkImpl.wrap() instead of copying it.
+   */
   protected boolean slurp(long len, RandomAccessFile reader) throws IOException,
   InterruptedException{
     boolean hasMoreData = false;
 
-    log.debug("Adaptor|" + adaptorID + "|seeking|" + fileReadOffset);
-    reader.seek(fileReadOffset);
+    if (CATCH_UP_THRESHOLD > 0 && len - fileReadOffset > CATCH_UP_THRESHOLD) {
+      if (!catchingUp) {
+        log.info("Adaptor|" + adaptorID + "|catching up|" + toWatch
+            + "|backlog|" + (len - fileReadOffset));
+        catchingUp = true;
+      }
+      return catchUp(len, reader);
+    } else if (catchingUp) {
+      log.info("Adaptor|" + adaptorID + "|caught up|" + toWatch);
+      catchingUp = false;
+    }
 
     long bufSize = len - fileReadOffset;
 
@@ -167,12 +264,10 @@ public class LWFTAdaptor extends AbstractAdaptor {
     long curOffset = fileReadOffset;
 
     lastSlurpTime = System.currentTimeMillis();
-    int bufferRead = reader.read(buf);
-    assert reader.getFilePointer() == fileReadOffset + bufSize : " event size arithmetic is broken: "
-        + " pointer is "
-        + reader.getFilePointer()
-        + " but offset is "
-        + fileReadOffset + bufSize;
+    int bufferRead = read(reader, buf);
+    if (bufferRead < 0) {
+      return false;
+    }
 
     int bytesUsed = extractRecords(dest,
         fileReadOffset + offsetOfFirstByte, buf);
@@ -200,6 +295,73 @@ public class LWFTAdaptor extends AbstractAdaptor {
     return hasMoreData;
   }
   
+  /**
+   * Read buf from fileReadOffset, unless shutdown() has closed the reader
+   * kept open.
+   * @return the number of bytes read, or -1 if nothing could be read
+   */
+  private int read(RandomAccessFile reader, byte[] buf) throws IOException {
+    synchronized(readerLock) {
+      if(keepFileOpen && readerClosed) {
+        return -1;
+      }
+      log.debug("Adaptor|" + adaptorID + "|seeking|" + fileReadOffset);
+      reader.seek(fileReadOffset);
+      int bufferRead = reader.read(buf);
+      assert reader.getFilePointer() == fileReadOffset + buf.length : " event size arithmetic is broken: "
+          + " pointer is "
+          + reader.getFilePointer()
+          + " but offset is "
+          + fileReadOffset + buf.length;
+      return bufferRead;
+    }
+  }
+
+  /**
+   * Map the next CATCH_UP_WINDOW bytes of the backlog and feed them to
+   * extractRecords() in MAX_READ_SIZE pieces. Back-pressure comes from the
+   * chunk queue, whose add() blocks while the queue is full.
+   * @return true if the backlog extends beyond the mapped window
+   */
+  private boolean catchUp(long len, RandomAccessFile reader)
+      throws IOException, InterruptedException {
+    long windowStart = fileReadOffset;
+    long windowSize = Math.min(len - windowStart, CATCH_UP_WINDOW);
+    MappedByteBuffer window;
+    synchronized(readerLock) {
+      if(keepFileOpen && readerClosed) {
+        return false;
+      }
+      // the mapping stays valid after the reader is closed
+      window = reader.getChannel().map(FileChannel.MapMode.READ_ONLY,
+          windowStart, windowSize);
+    }
+    lastSlurpTime = System.currentTimeMillis();
+
+    while (window.hasRemaining()) {
+      int bufSize = Math.min(window.remaining(), MAX_READ_SIZE);
+      byte[] buf = new byte[bufSize];
+      window.get(buf);
+      int bytesUsed = extractRecords(dest,
+          fileReadOffset + offsetOfFirstByte, buf);
+      if (bytesUsed == 0) {
+        if (bufSize < MAX_READ_SIZE) {
+          break; // partial record at the end of the window; remap next time
+        }
+        log.warn("bufferRead == MAX_READ_SIZE AND bytesUsed == 0, dropping current buffer: startOffset="
+            + fileReadOffset + ", MAX_READ_SIZE=" + MAX_READ_SIZE
+            + ", for " + toWatch.getPath());
+        bytesUsed = bufSize;
+      }
+      fileReadOffset += bytesUsed;
+      window.position((int) (fileReadOffset - windowStart));
+    }
+
+    log.debug("Adaptor|" + adaptorID + "|catch up|start|" + windowStart
+        + "|end|" + fileReadOffset);
+    return windowStart + windowSize < len;
+  }
+  
   public boolean tailFile()
   throws InterruptedException {
     boolean hasMoreData = false;
@@ -214,22 +376,69 @@ public class LWFTAdaptor extends AbstractAdaptor {
         //file shrank; probably some data went missing.
         handleShrunkenFile(len);
       } else if(len > fileReadOffset) {
-        RandomAccessFile reader = new RandomAccessFile(toWatch, "r");
-        hasMoreData = slurp(len, reader);
-        reader.close();
+        if(keepFileOpen) {
+          RandomAccessFile reader = null;
+          synchronized(readerLock) {
+            if(!readerClosed) {
+              reader = getOpenReader();
+            }
+          }
+          if(reader != null) {
+            hasMoreData = slurp(len, reader);
+          }
+        } else {
+          RandomAccessFile reader = new RandomAccessFile(toWatch, "r");
+          hasMoreData = slurp(len, reader);
+          reader.close();
+        }
       }
     } catch(IOException e) {
       log.warn("IOException in tailer", e);
+      closeOpenReader();
       deregisterAndStop();
     }
     
     return hasMoreData;
   }
 
+  /**
+   * Returns the reader kept open across polls, reopening it if the path
+   * now refers to a different file than the one that is open. Must be
+   * called with readerLock held.
+   */
+  private RandomAccessFile getOpenReader() throws IOException {
+    Object fileKey = Files.readAttributes(toWatch.toPath(),
+        BasicFileAttributes.class).fileKey();
+    if(openReader != null && (fileKey == null || !fileKey.equals(openFileKey))) {
+      log.debug("Adaptor|" + adaptorID + "|reopening|" + toWatch);
+      closeOpenReader();
+    }
+    if(openReader == null) {
+      openReader = new RandomAccessFile(toWatch, "r");
+      openFileKey = fileKey;
+    }
+    return openReader;
+  }
+
+  private void closeOpenReader() {
+    synchronized(readerLock) {
+      if(openReader != null) {
+        try {
+          openReader.close();
+        } catch(IOException e) {
+          log.debug("Exception while closing " + toWatch, e);
+        }
+        openReader = null;
+        openFileKey = null;
+      }
+    }
+  }
+
   private void handleShrunkenFile(long measuredLen) {
     log.info("file "+ toWatch +"shrank from " + fileReadOffset + " to " + measuredLen);
     offsetOfFirstByte = measuredLen;
     fileReadOffset = 0;
+    closeOpenReader();
   }
 
 }
@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+/**
+ * A FileTailerEngine that spreads the adaptors over a pool of worker
+ * threads, so a slow or very large file only delays the other files of its
+ * own worker.
+ *
+ * Directories of the tailed files are registered with a WatchService. An
+ * adaptor is tailed as soon as its directory reports a change to a matching
+ * file, and otherwise only every chukwaAgent.fileTailer.rescan.interval ms,
+ * as a safety net for file systems that drop notifications. Adaptors whose
+ * directory could not be registered, or all adaptors if no WatchService is
+ * available, are polled every chukwaAgent.adaptor.context.switch.time ms
+ * like FileTailer does.
+ */
+class ParallelFileTailer implements FileTailerEngine {
+  static Logger log = Logger.getLogger(ParallelFileTailer.class);
+
+  public static final String THREADS_OPT = "chukwaAgent.fileTailer.threads";
+  public static final String WATCH_OPT = "chukwaAgent.fileTailer.watchService";
+  public static final String RESCAN_OPT = "chukwaAgent.fileTailer.rescan.interval";
+  public static final int DEFAULT_RESCAN_INTERVAL = 30 * 1000;
+
+  int DEFAULT_SAMPLE_PERIOD_MS = 1000 * 2;
+  int SAMPLE_PERIOD_MS = DEFAULT_SAMPLE_PERIOD_MS;
+  int RESCAN_INTERVAL_MS = DEFAULT_RESCAN_INTERVAL;
+
+  private final TailerWorker[] workers;
+  private final Map<LWFTAdaptor, TailerWorker> assignments =
+      new ConcurrentHashMap<LWFTAdaptor, TailerWorker>();
+
+  private WatchService watcher = null;
+  private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+  private final Map<Path, WatchKey> dirKeys = new HashMap<Path, WatchKey>();
+  private final Map<Path, Set<LWFTAdaptor>> adaptorsByDir =
+      new ConcurrentHashMap<Path, Set<LWFTAdaptor>>();
+
+  ParallelFileTailer(Configuration conf) {
+    SAMPLE_PERIOD_MS = conf.getInt("chukwaAgent.adaptor.context.switch.time",
+        DEFAULT_SAMPLE_PERIOD_MS);
+    RESCAN_INTERVAL_MS = conf.getInt(RESCAN_OPT, DEFAULT_RESCAN_INTERVAL);
+    int threads = conf.getInt(THREADS_OPT,
+        Runtime.getRuntime().availableProcessors());
+    if (threads < 1) {
+      threads = 1;
+    }
+
+    if (conf.getBoolean(WATCH_OPT, true)) {
+      try {
+        watcher = FileSystems.getDefault().newWatchService();
+        Thread watchThread = new Thread(new WatchDispatcher(),
+            "FileTailer watch service");
+        watchThread.setDaemon(true);
+        watchThread.start();
+      } catch (IOException e) {
+        log.warn("WatchService unavailable, polling all tailed files", e);
+        watcher = null;
+      } catch (UnsupportedOperationException e) {
+        log.warn("WatchService unavailable, polling all tailed files", e);
+        watcher = null;
+      }
+    }
+
+    workers = new TailerWorker[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new TailerWorker(i);
+      workers[i].start();
+    }
+    log.info("Started " + threads + " file tailer threads, watch service "
+        + (watcher == null ? "disabled" : "enabled"));
+  }
+
+  public void startWatchingFile(LWFTAdaptor f) {
+    TailerWorker worker = workers[0];
+    for (TailerWorker w : workers) {
+      if (w.adaptors.size() < worker.adaptors.size()) {
+        worker = w;
+      }
+    }
+    assignments.put(f, worker);
+    boolean watched = watchDirectory(f);
+    worker.add(f, watched);
+  }
+
+  public void stopWatchingFile(LWFTAdaptor f) {
+    TailerWorker worker = assignments.remove(f);
+    if (worker != null) {
+      worker.remove(f);
+    }
+    unwatchDirectory(f);
+  }
+
+  private static Path dirOf(LWFTAdaptor f) {
+    File parent = f.toWatch.getAbsoluteFile().getParentFile();
+    return parent == null ? null : parent.toPath();
+  }
+
+  /**
+   * Register the directory of the tailed file with the watch service.
+   * @return true if change notifications will be delivered for f
+   */
+  private synchronized boolean watchDirectory(LWFTAdaptor f) {
+    Path dir = dirOf(f);
+    if (watcher == null || dir == null) {
+      return false;
+    }
+    if (!dirKeys.containsKey(dir)) {
+      try {
+        WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY,
+            ENTRY_DELETE);
+        dirKeys.put(dir, key);
+        watchedDirs.put(key, dir);
+      } catch (IOException e) {
+        log.info("Could not watch " + dir + ", polling " + f.toWatch
+            + " instead: " + e.getMessage());
+        return false;
+      }
+    }
+    Set<LWFTAdaptor> adaptors = adaptorsByDir.get(dir);
+    if (adaptors == null) {
+      adaptors = new CopyOnWriteArraySet<LWFTAdaptor>();
+      adaptorsByDir.put(dir, adaptors);
+    }
+    adaptors.add(f);
+    return true;
+  }
+
+  private synchronized void unwatchDirectory(LWFTAdaptor f) {
+    Path dir = dirOf(f);
+    if (dir == null) {
+      return;
+    }
+    Set<LWFTAdaptor> adaptors = adaptorsByDir.get(dir);
+    if (adaptors == null) {
+      return;
+    }
+    adaptors.remove(f);
+    if (adaptors.isEmpty()) {
+      adaptorsByDir.remove(dir);
+      WatchKey key = dirKeys.remove(dir);
+      if (key != null) {
+        watchedDirs.remove(key);
+        key.cancel();
+      }
+    }
+  }
+
+  private synchronized Path dirForKey(WatchKey key) {
+    return watchedDirs.get(key);
+  }
+
+  /**
+   * Wake up the workers of every adaptor in dir that tails changed, or of
+   * every adaptor in dir when changed is null.
+   */
+  private void dispatch(Path dir, Path changed) {
+    Set<LWFTAdaptor> adaptors = adaptorsByDir.get(dir);
+    if (adaptors == null) {
+      return;
+    }
+    String name = changed == null ? null : changed.toString();
+    for (LWFTAdaptor f : adaptors) {
+      // prefix match, so rotated siblings like foo.log.1 also count
+      if (name == null || name.startsWith(f.toWatch.getName())) {
+        TailerWorker worker = assignments.get(f);
+        if (worker != null) {
+          worker.markDirty(f);
+        }
+      }
+    }
+  }
+
+  private class WatchDispatcher implements Runnable {
+    public void run() {
+      while (true) {
+        WatchKey key;
+        try {
+          key = watcher.take();
+        } catch (InterruptedException e) {
+          return;
+        } catch (ClosedWatchServiceException e) {
+          return;
+        }
+        Path dir = dirForKey(key);
+        if (dir != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+              dispatch(dir, null);
+            } else {
+              dispatch(dir, (Path) event.context());
+            }
+          }
+        }
+        key.reset();
+      }
+    }
+  }
+
+  /**
+   * Tails one shard of the adaptors. Adaptors are tailed when they are
+   * marked dirty, when they still had data left on the previous pass, or
+   * when their poll or rescan interval has passed.
+   */
+  private class TailerWorker extends Thread {
+    private final List<LWFTAdaptor> adaptors =
+        new CopyOnWriteArrayList<LWFTAdaptor>();
+    private final Set<LWFTAdaptor> polled = new CopyOnWriteArraySet<LWFTAdaptor>();
+    private final Set<LWFTAdaptor> dirty = new LinkedHashSet<LWFTAdaptor>();
+    private long nextPoll = 0;
+    private long nextRescan = 0;
+
+    TailerWorker(int id) {
+      super("FileTailer-" + id);
+      setDaemon(true);
+    }
+
+    void add(LWFTAdaptor f, boolean watched) {
+      adaptors.add(f);
+      if (!watched) {
+        polled.add(f);
+      }
+      markDirty(f);
+    }
+
+    void remove(LWFTAdaptor f) {
+      adaptors.remove(f);
+      polled.remove(f);
+      synchronized (this) {
+        dirty.remove(f);
+      }
+    }
+
+    synchronized void markDirty(LWFTAdaptor f) {
+      if (dirty.add(f)) {
+        notify();
+      }
+    }
+
+    private synchronized Set<LWFTAdaptor> takeDirty(long now)
+        throws InterruptedException {
+      long wakeUp = Math.min(nextPoll, nextRescan);
+      while (dirty.isEmpty() && now < wakeUp) {
+        wait(wakeUp - now);
+        now = System.currentTimeMillis();
+      }
+      Set<LWFTAdaptor> batch = new LinkedHashSet<LWFTAdaptor>(dirty);
+      dirty.clear();
+      return batch;
+    }
+
+    public void run() {
+      while (true) {
+        try {
+          Set<LWFTAdaptor> batch = takeDirty(System.currentTimeMillis());
+          long now = System.currentTimeMillis();
+          if (now >= nextRescan) {
+            batch.addAll(adaptors);
+            nextRescan = now + RESCAN_INTERVAL_MS;
+          }
+          if (now >= nextPoll) {
+            batch.addAll(polled);
+            nextPoll = now + SAMPLE_PERIOD_MS;
+          }
+          long startTime = now;
+          for (LWFTAdaptor f : batch) {
+            if (!adaptors.contains(f)) {
+              continue; // stopped while queued
+            }
+            if (f.tailFile()) {
+              markDirty(f);
+            }
+          }
+          long timeToReadFiles = System.currentTimeMillis() - startTime;
+          if (timeToReadFiles > FileTailer.MAX_SAMPLE_PERIOD) {
+            log.warn(getName() + " took " + timeToReadFiles
+                + " ms to check " + batch.size() + " files");
+          }
+        } catch (InterruptedException e) {
+          return;
+        } catch (Throwable e) {
+          log.warn("Exception in " + getName() + ", while loop", e);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Finds the record separators in a buffer read by a file tailing adaptor.
+ *
+ * The buffer is examined eight bytes at a time: each long is XORed with the
+ * separator repeated in every byte, and a carry-free zero-byte test marks
+ * the matching bytes. Offsets are collected in a growable int[] instead of
+ * a list of boxed Integers.
+ *
+ * Instances are not thread safe; each adaptor keeps its own.
+ */
+public class RecordBoundaryScanner {
+
+  private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final byte separator;
+  private final long pattern;
+  private int[] offsets = new int[INITIAL_CAPACITY];
+  private int count = 0;
+
+  public RecordBoundaryScanner() {
+    this((byte) '\n');
+  }
+
+  public RecordBoundaryScanner(byte separator) {
+    this.separator = separator;
+    this.pattern = (separator & 0xFFL) * 0x0101010101010101L;
+  }
+
+  /**
+   * Find every separator in buf.
+   * @param buf is the data read from the file
+   * @return the number of separators found
+   */
+  public int scan(byte[] buf) {
+    return scan(buf, null);
+  }
+
+  /**
+   * Find every separator in buf that is not immediately preceded by
+   * escape.
+   * @param buf is the data read from the file
+   * @param escape is the escape sequence, or null if there is none
+   * @return the number of separators found
+   */
+  public int scan(byte[] buf, byte[] escape) {
+    count = 0;
+    int len = buf.length;
+    int i = 0;
+    if (len >= 8) {
+      ByteBuffer words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+      for (; i <= len - 8; i += 8) {
+        long matches = matches(words.getLong(i));
+        while (matches != 0) {
+          int pos = i + (Long.numberOfTrailingZeros(matches) >>> 3);
+          if (escape == null || !isEscaped(buf, pos, escape)) {
+            add(pos);
+          }
+          matches &= matches - 1;
+        }
+      }
+    }
+    for (; i < len; i++) {
+      if (buf[i] == separator
+          && (escape == null || !isEscaped(buf, i, escape))) {
+        add(i);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param buf is the data read from the file
+   * @return the offset of the last separator in buf, or -1 if there is none
+   */
+  public int lastIndexOf(byte[] buf) {
+    int i = buf.length;
+    if (i >= 8) {
+      ByteBuffer words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+      for (; i >= 8; i -= 8) {
+        long matches = matches(words.getLong(i - 8));
+        if (matches != 0) {
+          return i - 8 + ((63 - Long.numberOfLeadingZeros(matches)) >>> 3);
+        }
+      }
+    }
+    for (i = i - 1; i >= 0; i--) {
+      if (buf[i] == separator) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return a word with the high bit set in exactly the bytes of word that
+   *         equal the separator
+   */
+  private long matches(long word) {
+    long x = word ^ pattern;
+    long t = ((x & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | x;
+    return ~(t | LOW_SEVEN_BITS);
+  }
+
+  private static boolean isEscaped(byte[] buf, int pos, byte[] escape) {
+    int start = pos - escape.length;
+    if (start < 0) {
+      return false;
+    }
+    for (int j = 0; j < escape.length; j++) {
+      if (buf[start + j] != escape[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void add(int offset) {
+    if (count == offsets.length) {
+      offsets = Arrays.copyOf(offsets, count * 2);
+    }
+    offsets[count++] = offset;
+  }
+
+  /**
+   * @return the number of separators found by the last scan
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * @return the offset of the last separator found by the last scan
+   */
+  public int last() {
+    return offsets[count - 1];
+  }
+
+  /**
+   * @return a copy of the offsets found by the last scan
+   */
+  public int[] toArray() {
+    return Arrays.copyOf(offsets, count);
+  }
+}
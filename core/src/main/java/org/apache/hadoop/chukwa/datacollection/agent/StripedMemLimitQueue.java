@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.datacollection.agent;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.datacollection.ChunkQueue;
+import org.apache.hadoop.chukwa.datacollection.agent.metrics.ChunkQueueMetrics;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+/**
+ * An event queue that blocks once a fixed upper limit of data is enqueued,
+ * like MemLimitQueue, but without a single monitor on the enqueue path.
+ *
+ * Chunks are spread over a number of lock-free stripes, picked by the
+ * adaptor that created the chunk, so the order of chunks from one adaptor
+ * is preserved. Admission is controlled by an atomic byte counter; the lock
+ * is only taken when a producer has to wait for space or the consumer has
+ * to wait for data.
+ */
+public class StripedMemLimitQueue implements ChunkQueue {
+  static Logger log = Logger.getLogger(StripedMemLimitQueue.class);
+  static final ChunkQueueMetrics metrics = new ChunkQueueMetrics("chukwaAgent",
+      "chunkQueue");
+  static final String CHUNK_QUEUE_LIMIT = "chukwaAgent.chunk.queue.limit";
+  static final String CHUNK_QUEUE_STRIPES = "chukwaAgent.chunk.queue.stripes";
+  static final int QUEUE_SIZE = 10 * 1024 * 1024;
+
+  private ConcurrentLinkedQueue<Chunk>[] stripes;
+  private final AtomicLong dataSize = new AtomicLong(0);
+  private final AtomicInteger chunkCount = new AtomicInteger(0);
+  private final AtomicInteger waitingProducers = new AtomicInteger(0);
+  private final AtomicInteger waitingConsumers = new AtomicInteger(0);
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition notEmpty = lock.newCondition();
+  private int nextStripe = 0;
+  private long MAX_MEM_USAGE;
+
+  public StripedMemLimitQueue(Configuration conf) {
+    configure(conf);
+  }
+
+  /**
+   * @see org.apache.hadoop.chukwa.datacollection.ChunkQueue#add(org.apache.hadoop.chukwa.Chunk)
+   */
+  public void add(Chunk chunk) throws InterruptedException {
+    assert chunk != null : "can't enqueue null chunks";
+    int chunkSize = chunk.getData().length;
+    if (!reserve(chunk, chunkSize)) {
+      return;
+    }
+    stripes[stripeFor(chunk)].offer(chunk);
+    int count = chunkCount.incrementAndGet();
+    metrics.addedChunk.inc();
+    metrics.queueSize.set(count);
+    metrics.dataSize.set(dataSize.get());
+    if (waitingConsumers.get() > 0) {
+      lock.lock();
+      try {
+        notEmpty.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Claim chunkSize bytes of the memory budget, waiting while the queue is
+   * full.
+   *
+   * @return false if the chunk can never fit and has been dropped
+   */
+  private boolean reserve(Chunk chunk, int chunkSize)
+      throws InterruptedException {
+    while (true) {
+      long current = dataSize.get();
+      if (current + chunkSize <= MAX_MEM_USAGE) {
+        if (dataSize.compareAndSet(current, current + chunkSize)) {
+          return true;
+        }
+        continue;
+      }
+      if (current == 0) { // queue is empty, but data is still too big
+        log.error("JUMBO CHUNK SPOTTED: type= " + chunk.getDataType()
+            + " and source =" + chunk.getStreamName());
+        return false; // return without sending; otherwise we'd deadlock.
+      }
+      metrics.fullQueue.set(1);
+      lock.lockInterruptibly();
+      try {
+        waitingProducers.incrementAndGet();
+        try {
+          while (dataSize.get() != 0
+              && dataSize.get() + chunkSize > MAX_MEM_USAGE) {
+            notFull.await();
+          }
+        } finally {
+          waitingProducers.decrementAndGet();
+        }
+      } finally {
+        lock.unlock();
+      }
+      metrics.fullQueue.set(0);
+    }
+  }
+
+  private int stripeFor(Chunk chunk) {
+    Object owner = chunk.getInitiator();
+    int hash;
+    if (owner != null) {
+      hash = System.identityHashCode(owner);
+    } else {
+      hash = (int) Thread.currentThread().getId();
+    }
+    hash ^= (hash >>> 16);
+    return (hash & Integer.MAX_VALUE) % stripes.length;
+  }
+
+  /**
+   * @see org.apache.hadoop.chukwa.datacollection.ChunkQueue#collect(java.util.List,
+   *      int)
+   */
+  public void collect(List<Chunk> events, int maxSize)
+      throws InterruptedException {
+    int size = 0;
+    int drained = 0;
+    while (drained == 0) {
+      awaitNotEmpty();
+      int start;
+      synchronized (stripes) {
+        start = nextStripe;
+        nextStripe = (nextStripe + 1) % stripes.length;
+      }
+      for (int i = 0; i < stripes.length && size < maxSize; i++) {
+        ConcurrentLinkedQueue<Chunk> stripe = stripes[(start + i)
+            % stripes.length];
+        Chunk e;
+        while (size < maxSize && (e = stripe.poll()) != null) {
+          size += e.getData().length;
+          drained++;
+          events.add(e);
+        }
+      }
+    }
+    chunkCount.addAndGet(-drained);
+    long remaining = dataSize.addAndGet(-size);
+    metrics.removedChunk.inc(drained);
+    metrics.queueSize.set(chunkCount.get());
+    metrics.dataSize.set(remaining);
+    if (waitingProducers.get() > 0) {
+      lock.lock();
+      try {
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    if (log.isDebugEnabled()) {
+      log.debug("StripedMemLimitQueue.inQueueCount:" + chunkCount.get()
+          + "\tStripedMemLimitQueue.collectCount:" + events.size());
+    }
+  }
+
+  private void awaitNotEmpty() throws InterruptedException {
+    if (chunkCount.get() > 0) {
+      return;
+    }
+    lock.lockInterruptibly();
+    try {
+      waitingConsumers.incrementAndGet();
+      try {
+        while (chunkCount.get() == 0) {
+          notEmpty.await();
+        }
+      } finally {
+        waitingConsumers.decrementAndGet();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    return chunkCount.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void configure(Configuration conf) {
+    MAX_MEM_USAGE = QUEUE_SIZE;
+    int stripeCount = Runtime.getRuntime().availableProcessors();
+    if (conf != null) {
+      String limit = conf.get(CHUNK_QUEUE_LIMIT);
+      if (limit != null) {
+        try {
+          MAX_MEM_USAGE = Integer.parseInt(limit);
+        } catch (NumberFormatException nfe) {
+          log.error("Exception reading property " + CHUNK_QUEUE_LIMIT
+              + ". Defaulting internal queue size to " + QUEUE_SIZE);
+        }
+      }
+      stripeCount = conf.getInt(CHUNK_QUEUE_STRIPES, stripeCount);
+    }
+    if (stripeCount < 1) {
+      stripeCount = 1;
+    }
+    stripes = new ConcurrentLinkedQueue[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new ConcurrentLinkedQueue<Chunk>();
+    }
+    log.info("Using StripedMemLimitQueue limit of " + MAX_MEM_USAGE + " with "
+        + stripeCount + " stripes");
+  }
+}
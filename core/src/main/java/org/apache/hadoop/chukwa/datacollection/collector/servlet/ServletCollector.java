@@ -20,10 +20,11 @@ package org.apache.hadoop.chukwa.datacollection.collector.servlet;
 
 
 import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -37,6 +38,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.hadoop.chukwa.Chunk;
 import org.apache.hadoop.chukwa.ChunkImpl;
+import org.apache.hadoop.chukwa.datacollection.collector.metrics.ServletCollectorMetrics;
 import org.apache.hadoop.chukwa.datacollection.writer.ChukwaWriter;
 import org.apache.hadoop.chukwa.datacollection.writer.SeqFileWriter;
 import org.apache.hadoop.chukwa.datacollection.writer.WriterException;
@@ -54,10 +56,20 @@ public class ServletCollector extends HttpServlet {
    * If a chunk is committed; then the ack will start with the following string.
    */
   public static final String ACK_PREFIX = "ok: ";
+  /**
+   * Set to "true" by agents that resend whatever follows the acks in a
+   * response. Such a post may be committed for a prefix of it only, and the
+   * response to it starts with a line holding COMMITTED_PREFIX and the
+   * number of chunks in that prefix.
+   */
+  public static final String PARTIAL_COMMIT_HEADER = "X-Chukwa-Partial-Commit";
+  public static final String COMMITTED_PREFIX = "committed: ";
   transient ChukwaWriter writer = null;
 
   private static final long serialVersionUID = 6286162898591407111L;
   transient Logger log = Logger.getLogger(ServletCollector.class);
+  static final ServletCollectorMetrics metrics =
+    new ServletCollectorMetrics("chukwaCollector", "servletCollector");
   
   boolean COMPRESS;
   String CODEC_NAME;
@@ -75,6 +87,23 @@ public class ServletCollector extends HttpServlet {
   int numberHTTPConnection = 0;
   int numberchunks = 0;
   long lifetimechunks = 0;
+  long lifetimeBytes = 0;
+  long writtenBatches = 0;
+  long rejectedPosts = 0;
+
+  /**
+   * Posts larger than this many bytes, on the wire or in the data of their
+   * chunks, are refused; 0 means no limit.
+   */
+  public static final String MAX_POST_SIZE_OPT = "chukwaCollector.http.maxPostSize";
+  /**
+   * If positive, chunks are passed to the writer as they are decoded, in
+   * batches of about this many bytes, instead of after the whole post has
+   * been read. This only applies to posts that allow a partial commit.
+   */
+  public static final String STREAMING_BATCH_SIZE_OPT = "chukwaCollector.http.streamingBatchSize";
+  long MAX_POST_SIZE = 0;
+  int STREAMING_BATCH_SIZE = 0;
 
   transient Configuration conf;
 
@@ -117,6 +146,9 @@ public class ServletCollector extends HttpServlet {
       log.warn("failed to use user-chosen writer class, defaulting to SeqFileWriter", e);
     }
 
+    MAX_POST_SIZE = conf.getLong(MAX_POST_SIZE_OPT, 0);
+    STREAMING_BATCH_SIZE = conf.getInt(STREAMING_BATCH_SIZE_OPT, 0);
+
     COMPRESS = conf.getBoolean("chukwaAgent.output.compress", false);
     if( COMPRESS) {
 	    CODEC_NAME = conf.get( "chukwaAgent.output.compression.type", "org.apache.hadoop.io.compress.DefaultCodec");
@@ -159,6 +191,17 @@ public class ServletCollector extends HttpServlet {
 
       ServletOutputStream l_out = resp.getOutputStream();
       
+      // counts bytes on the wire, i.e. before decompression
+      CountingInputStream counter = new CountingInputStream(in);
+      in = counter;
+      if (MAX_POST_SIZE > 0 && req.getContentLength() > MAX_POST_SIZE) {
+        rejectedPosts++;
+        metrics.rejectedPosts.inc();
+        resp.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        l_out.print("Post exceeds " + MAX_POST_SIZE + " bytes");
+        return;
+      }
+
       DataInputStream di = null;
       boolean compressNetwork = COMPRESS;
       if( compressNetwork){
@@ -172,54 +215,83 @@ public class ServletCollector extends HttpServlet {
       final int numEvents = di.readInt();
       // log.info("saw " + numEvents+ " in request");
 
-      List<Chunk> events = new LinkedList<Chunk>();
       StringBuilder sb = new StringBuilder();
-
-      for (int i = 0; i < numEvents; i++) {
-        ChunkImpl logEvent = ChunkImpl.read(di);
-        events.add(logEvent);
-
-      }
-
       int responseStatus = HttpServletResponse.SC_OK;
 
       // write new data to data sync file
       if (writer != null) {
-        ChukwaWriter.CommitStatus result = writer.add(events);
-
-        // this is where we ACK this connection
-
-        if(result == ChukwaWriter.COMMIT_OK) {
-          // only count the chunks if result is commit or commit pending
-          numberchunks += events.size();
-          lifetimechunks += events.size();
-
-          for(Chunk receivedChunk: events) {
-            sb.append(ACK_PREFIX);
-            sb.append(receivedChunk.getData().length);
-            sb.append(" bytes ending at offset ");
-            sb.append(receivedChunk.getSeqID() - 1).append("\n");
+        // Only an agent that resends the chunks we do not ack can be
+        // answered with a committed prefix of its post. Its chunks go to
+        // the writer in sub-batches of about STREAMING_BATCH_SIZE bytes;
+        // any other post is written all at once, or not at all.
+        boolean partialCommit = Boolean.parseBoolean(
+            req.getHeader(PARTIAL_COMMIT_HEADER));
+        long batchSize = partialCommit ? STREAMING_BATCH_SIZE : 0;
+        List<Chunk> events = new ArrayList<Chunk>();
+        long batchBytes = 0;
+        long dataBytes = 0;
+        int committed = 0;
+        boolean tooLarge = false;
+        for (int i = 0; i < numEvents; i++) {
+          // the data of a chunk is not allocated if it would not fit
+          long budget = MAX_POST_SIZE > 0 ? MAX_POST_SIZE - dataBytes
+              : Long.MAX_VALUE;
+          ChunkImpl logEvent = ChunkImpl.read(di, budget);
+          if (logEvent == null
+              || (MAX_POST_SIZE > 0 && counter.getCount() > MAX_POST_SIZE)) {
+            tooLarge = true;
+            break;
           }
-        } else if(result instanceof ChukwaWriter.COMMIT_PENDING) {
-
-          // only count the chunks if result is commit or commit pending
-          numberchunks += events.size();
-          lifetimechunks += events.size();
-
-          for(String s: ((ChukwaWriter.COMMIT_PENDING) result).pendingEntries)
-            sb.append(s);
-        } else if(result == ChukwaWriter.COMMIT_FAIL) {
+          events.add(logEvent);
+          dataBytes += logEvent.getLength();
+          batchBytes += logEvent.getLength();
+          if (batchSize > 0 && batchBytes >= batchSize) {
+            responseStatus = writeBatch(events, sb);
+            if (responseStatus != HttpServletResponse.SC_OK) {
+              break;
+            }
+            committed += events.size();
+            events = new ArrayList<Chunk>();
+            batchBytes = 0;
+          }
+        }
+        if (tooLarge && (!partialCommit || committed + events.size() == 0)) {
+          rejectedPosts++;
+          metrics.rejectedPosts.inc();
+          responseStatus = HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        } else if (responseStatus == HttpServletResponse.SC_OK
+            && (!events.isEmpty() || committed == 0)) {
+          responseStatus = writeBatch(events, sb);
+          if (responseStatus == HttpServletResponse.SC_OK) {
+            committed += events.size();
+          }
+        }
+        if (responseStatus != HttpServletResponse.SC_OK && committed > 0) {
+          // the acks in sb cover the chunks already written; the agent
+          // resends the rest
+          responseStatus = HttpServletResponse.SC_OK;
+        }
+        if (committed < numEvents && responseStatus == HttpServletResponse.SC_OK) {
+          log.info("committed " + committed + " of " + numEvents
+              + " chunks from " + req.getRemoteHost());
+        } else if (responseStatus == HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE) {
+          sb.append("Post exceeds " + MAX_POST_SIZE + " bytes");
+        } else if (responseStatus == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
           sb.append("Commit failed");
-          responseStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
         }
+        lifetimeBytes += counter.getCount();
+        metrics.ingestedBytes.inc(counter.getCount());
 
+        resp.setStatus(responseStatus);
+        if (partialCommit && responseStatus == HttpServletResponse.SC_OK) {
+          l_out.print(COMMITTED_PREFIX + committed + "\n");
+        }
         l_out.print(sb.toString());
       } else {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         l_out.println("can't write: no writer");
       }
 
-      resp.setStatus(responseStatus);
-
     } catch (Throwable e) {
       log.warn("Exception talking to " + req.getRemoteHost() + " at t="
           + currentTime, e);
@@ -227,6 +299,83 @@ public class ServletCollector extends HttpServlet {
     }
   }
 
+  /**
+   * Hand one batch of chunks to the writer and append its acks to sb.
+   * @return the HTTP status for the post so far
+   */
+  private int writeBatch(List<Chunk> events, StringBuilder sb)
+      throws WriterException {
+    ChukwaWriter.CommitStatus result = writer.add(events);
+    writtenBatches++;
+    metrics.writtenBatches.inc();
+
+    // this is where we ACK this connection
+
+    if(result == ChukwaWriter.COMMIT_OK) {
+      // only count the chunks if result is commit or commit pending
+      numberchunks += events.size();
+      lifetimechunks += events.size();
+
+      for(Chunk receivedChunk: events) {
+        sb.append(ACK_PREFIX);
+        sb.append(((ChunkImpl) receivedChunk).getLength());
+        sb.append(" bytes ending at offset ");
+        sb.append(receivedChunk.getSeqID() - 1).append("\n");
+      }
+    } else if(result instanceof ChukwaWriter.COMMIT_PENDING) {
+
+      // only count the chunks if result is commit or commit pending
+      numberchunks += events.size();
+      lifetimechunks += events.size();
+
+      for(String s: ((ChukwaWriter.COMMIT_PENDING) result).pendingEntries)
+        sb.append(s);
+    } else if(result == ChukwaWriter.COMMIT_FAIL) {
+      return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+    }
+    return HttpServletResponse.SC_OK;
+  }
+
+  /**
+   * Counts the bytes read from the request body.
+   */
+  static class CountingInputStream extends FilterInputStream {
+    private long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse resp)
       throws ServletException, IOException {
@@ -250,6 +399,9 @@ public class ServletCollector extends HttpServlet {
           + numberHTTPConnection);
       out.println("numberchunks in time window:" + numberchunks);
       out.println("lifetimechunks:" + lifetimechunks);
+      out.println("lifetimebytes:" + lifetimeBytes);
+      out.println("writtenbatches:" + writtenBatches);
+      out.println("rejectedposts:" + rejectedPosts);
     } else {
       out.println("<html><body><h2>Chukwa servlet running</h2>");
       out.println("</body></html>");
@@ -41,7 +41,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.chukwa.Chunk;
 import org.apache.hadoop.chukwa.datacollection.ChunkQueue;
@@ -64,8 +72,23 @@ public class HttpConnector implements Connector, Runnable {
   public static final String MIN_POST_INTERVAL_OPT = "httpConnector.minPostInterval";
   public static final String MAX_SIZE_PER_POST_OPT = "httpConnector.maxPostSize";
   public static final String ASYNC_ACKS_OPT = "httpConnector.asyncAcks";
+  public static final String SENDER_THREADS_OPT = "httpConnector.senderThreads";
+  public static final String MAX_IN_FLIGHT_OPT = "httpConnector.maxInFlightPosts";
+  public static final String MIN_SIZE_PER_POST_OPT = "httpConnector.minPostSize";
+  public static final String TARGET_POST_LATENCY_OPT = "httpConnector.targetPostLatency";
 
   boolean ASYNC_ACKS = false;
+
+  /**
+   * With more than one sender thread, posts are pipelined: up to
+   * MAX_IN_FLIGHT batches are sent concurrently, each by its own
+   * ChukwaHttpSender, and the batch size adapts to keep post latency
+   * near TARGET_POST_LATENCY.
+   */
+  int SENDER_THREADS = 1;
+  int MAX_IN_FLIGHT = 0;
+  int MIN_SIZE_PER_POST = 64 * 1024;
+  int TARGET_POST_LATENCY = 2 * 1000;
   
   ChunkQueue chunkQueue;
 
@@ -75,6 +98,7 @@ public class HttpConnector implements Connector, Runnable {
   private volatile boolean stopMe = false;
   private Iterator<String> collectors = null;
   protected ChukwaSender connectorClient = null;
+  private PostPipeline pipeline = null;
 
   { //instance initializer block
     statTimer = new Timer();
@@ -106,12 +130,26 @@ public class HttpConnector implements Connector, Runnable {
     MAX_SIZE_PER_POST = conf.getInt(MAX_SIZE_PER_POST_OPT, MAX_SIZE_PER_POST);
     MIN_POST_INTERVAL = conf.getInt(MIN_POST_INTERVAL_OPT, MIN_POST_INTERVAL);
     ASYNC_ACKS = conf.getBoolean(ASYNC_ACKS_OPT, ASYNC_ACKS);
+    SENDER_THREADS = conf.getInt(SENDER_THREADS_OPT, SENDER_THREADS);
+    MAX_IN_FLIGHT = conf.getInt(MAX_IN_FLIGHT_OPT, 2 * SENDER_THREADS);
+    MIN_SIZE_PER_POST = Math.min(MAX_SIZE_PER_POST,
+        conf.getInt(MIN_SIZE_PER_POST_OPT, MIN_SIZE_PER_POST));
+    TARGET_POST_LATENCY = conf.getInt(TARGET_POST_LATENCY_OPT,
+        TARGET_POST_LATENCY);
+    if (SENDER_THREADS > 1 && ASYNC_ACKS) {
+      log.warn(SENDER_THREADS_OPT + " is not supported with " + ASYNC_ACKS_OPT
+          + ", using a single sender thread");
+      SENDER_THREADS = 1;
+    }
     (new Thread(this, "HTTP post thread")).start();
   }
 
   public void shutdown() {
     stopMe = true;
     connectorClient.stop();
+    if (pipeline != null) {
+      pipeline.shutdown();
+    }
   }
 
   public void run() {
@@ -152,6 +190,10 @@ public class HttpConnector implements Connector, Runnable {
 
     connectorClient.setCollectors(collectors);
 
+    if (SENDER_THREADS > 1) {
+      runPipelined();
+      return;
+    }
 
     try {
       long lastPost = System.currentTimeMillis();
@@ -194,6 +236,215 @@ public class HttpConnector implements Connector, Runnable {
     }
   }
 
+  /**
+   * Collect batches on this thread and hand them to a pool of sender
+   * threads, so that several posts can be in flight at once.
+   */
+  private void runPipelined() {
+    log.info("pipelining posts over " + SENDER_THREADS + " sender threads, "
+        + MAX_IN_FLIGHT + " posts in flight");
+    try {
+      List<ChukwaSender> senders = new ArrayList<ChukwaSender>();
+      senders.add(connectorClient);
+      for (int i = 1; i < SENDER_THREADS; i++) {
+        ChukwaSender sender = new ChukwaHttpSender(agent.getConfiguration());
+        sender.setCollectors(copyCollectors());
+        senders.add(sender);
+      }
+      // the senders share one connection manager
+      ChukwaHttpSender.ensureConnections(SENDER_THREADS);
+      pipeline = new PostPipeline(senders, MAX_IN_FLIGHT);
+    } catch (IOException e) {
+      log.error("Failed to retrieve list of collectors for sender threads", e);
+      agent.shutdown(true);
+      return;
+    }
+
+    int batchSize = MAX_SIZE_PER_POST;
+    try {
+      long lastPost = System.currentTimeMillis();
+      while (!stopMe && !pipeline.failed()) {
+        List<Chunk> newQueue = new ArrayList<Chunk>();
+        chunkQueue.collect(newQueue, batchSize);
+        boolean drained = chunkQueue.size() == 0;
+        pipeline.submit(newQueue);
+        batchSize = pipeline.adjustBatchSize(batchSize, MIN_SIZE_PER_POST,
+            MAX_SIZE_PER_POST, TARGET_POST_LATENCY);
+
+        long now = System.currentTimeMillis();
+        long delta = MIN_POST_INTERVAL - now + lastPost;
+        if (drained && delta > 0) {
+          Thread.sleep(delta); // queue is drained; wait for stuff to accumulate
+        }
+        lastPost = now;
+      }
+      if (pipeline.failed()) {
+        log.error("connector failed; shutting down agent");
+        agent.shutdown(true);
+      } else {
+        log.info("received stop() command so exiting run() loop to shutdown connector");
+      }
+    } catch (OutOfMemoryError e) {
+      log.warn("Bailing out", e);
+    } catch (InterruptedException e) {
+      // do nothing, let thread die.
+      log.warn("Bailing out", e);
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  /**
+   * Checkpoint a chunk committed by a pipelined post.
+   */
+  void reportCommit(ChukwaHttpSender.CommitListEntry cle) {
+    agent.reportCommit(cle.adaptor, cle.uuid);
+    chunkCount.incrementAndGet();
+  }
+
+  private Iterator<String> copyCollectors() throws IOException {
+    if (collectors instanceof RetryListOfCollectors) {
+      return ((RetryListOfCollectors) collectors).clone();
+    } else if (argDestination != null) {
+      ArrayList<String> tmp = new ArrayList<String>();
+      tmp.add(argDestination);
+      return tmp.iterator();
+    }
+    return DataFactory.getInstance().getCollectorURLs(agent.getConfiguration());
+  }
+
+  /**
+   * Sends batches on a fixed pool of senders, with a bounded number of
+   * batches in flight. Commits are reported to the agent in the order the
+   * batches were collected, so an adaptor's checkpoint never moves past
+   * data that is still in flight in an earlier post.
+   */
+  class PostPipeline {
+    private final BlockingQueue<ChukwaSender> idleSenders;
+    private final List<ChukwaSender> senders;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final TreeMap<Long, List<ChukwaHttpSender.CommitListEntry>> completed =
+        new TreeMap<Long, List<ChukwaHttpSender.CommitListEntry>>();
+    private long nextBatch = 0;
+    private long nextToReport = 0;
+    // cleared, under the lock on completed, by a batch without its commits
+    private boolean reporting = true;
+    private volatile boolean failed = false;
+    private final AtomicLong latencyEstimate = new AtomicLong(-1);
+
+    PostPipeline(List<ChukwaSender> senders, int maxInFlight) {
+      this.senders = senders;
+      this.idleSenders = new LinkedBlockingQueue<ChukwaSender>(senders);
+      this.inFlight = new Semaphore(Math.max(maxInFlight, senders.size()));
+      this.executor = Executors.newFixedThreadPool(senders.size(),
+          new ThreadFactory() {
+            private final AtomicInteger id = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "HTTP sender " + id.getAndIncrement());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+    }
+
+    boolean failed() {
+      return failed;
+    }
+
+    /**
+     * Queue a batch for sending, blocking while too many are in flight.
+     */
+    void submit(final List<Chunk> batch) throws InterruptedException {
+      inFlight.acquire();
+      final long batchId = nextBatch++;
+      executor.execute(new Runnable() {
+        public void run() {
+          // stays null unless the post completes
+          List<ChukwaHttpSender.CommitListEntry> results = null;
+          ChukwaSender sender = null;
+          try {
+            sender = idleSenders.take();
+            long start = System.currentTimeMillis();
+            results = sender.send(batch);
+            recordLatency(System.currentTimeMillis() - start);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } catch (IOException e) {
+            log.error("post failed on sender thread", e);
+            failed = true;
+          } finally {
+            if (sender != null) {
+              idleSenders.add(sender);
+            }
+            complete(batchId, results);
+            inFlight.release();
+          }
+        }
+      });
+    }
+
+    /**
+     * @param results are the commits of the batch, or null if its post
+     *        failed or was interrupted
+     */
+    private void complete(long batchId,
+        List<ChukwaHttpSender.CommitListEntry> results) {
+      synchronized (completed) {
+        completed.put(batchId, results);
+        while (!completed.isEmpty() && completed.firstKey() == nextToReport) {
+          List<ChukwaHttpSender.CommitListEntry> batchResults =
+              completed.remove(nextToReport);
+          // once a batch is missing its commits, later commits would skip
+          // over its data
+          if (batchResults == null) {
+            reporting = false;
+          }
+          if (reporting) {
+            for (ChukwaHttpSender.CommitListEntry cle : batchResults) {
+              reportCommit(cle);
+            }
+          }
+          nextToReport++;
+        }
+      }
+    }
+
+    private void recordLatency(long latency) {
+      long old = latencyEstimate.get();
+      // exponentially weighted moving average, weight 1/4 on new samples
+      long updated = old < 0 ? latency : (3 * old + latency) / 4;
+      latencyEstimate.set(updated);
+    }
+
+    /**
+     * Grow the batch while posts complete faster than the target latency,
+     * and shrink it when they are slower.
+     */
+    int adjustBatchSize(int current, int min, int max, int targetLatency) {
+      long latency = latencyEstimate.get();
+      if (latency < 0) {
+        return current;
+      }
+      long next = current;
+      if (latency > targetLatency) {
+        next = current * 3 / 4;
+      } else if (latency < targetLatency / 2) {
+        next = current * 5 / 4;
+      }
+      return (int) Math.max(min, Math.min(max, next));
+    }
+
+    void shutdown() {
+      executor.shutdownNow();
+      for (ChukwaSender sender : senders) {
+        if (sender != connectorClient) {
+          sender.stop();
+        }
+      }
+    }
+  }
+
   @Override
   public void reloadConfiguration() {
     Iterator<String> destinations = null;
@@ -322,7 +322,17 @@ public class AsyncAckSender extends ChukwaHttpSender{
     delayCommits(toDelay);
     return result;
   }
-  
+
+  /**
+   * Chunks acked as pending are left out of what postAndParseResponse
+   * returns, so send() could not tell them from chunks the collector
+   * skipped; posts are committed whole instead.
+   */
+  @Override
+  protected boolean acceptsPartialCommit() {
+    return false;
+  }
+
   @Override
   protected boolean failedCollector(String downed) {
     log.info("collector "+ downed + " down; resetting adaptors");
@@ -21,7 +21,6 @@ package org.apache.hadoop.chukwa.datacollection.sender;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -40,14 +39,19 @@ import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.ChunkImpl;
 import org.apache.hadoop.chukwa.datacollection.adaptor.Adaptor;
+import org.apache.hadoop.chukwa.datacollection.collector.servlet.ServletCollector;
 import org.apache.hadoop.chukwa.datacollection.sender.metrics.HttpSenderMetrics;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.log4j.Logger;
 
@@ -92,12 +96,34 @@ public class ChukwaHttpSender implements ChukwaSender {
   String CODEC_NAME;
   CompressionCodec codec;
 
+  static final int INITIAL_BUFFER = 64 * 1024;
+  // a buffer grown past this by an unusually large post is not kept
+  static final int MAX_RETAINED_BUFFER = 16 * 1024 * 1024;
+  DataOutputBuffer postBuffer = new DataOutputBuffer(INITIAL_BUFFER);
+
   static {
     connectionManager = new MultiThreadedHttpConnectionManager();
     client = new HttpClient(connectionManager);
     connectionManager.closeIdleConnections(1000);
   }
 
+  /**
+   * Let the connection manager shared by all senders open at least n
+   * connections, to one collector and in total, so that n senders can post
+   * at the same time.
+   */
+  public static void ensureConnections(int n) {
+    HttpConnectionManagerParams params = connectionManager.getParams();
+    synchronized (params) {
+      if (params.getDefaultMaxConnectionsPerHost() < n) {
+        params.setDefaultMaxConnectionsPerHost(n);
+      }
+      if (params.getMaxTotalConnections() < n) {
+        params.setMaxTotalConnections(n);
+      }
+    }
+  }
+
   public static class CommitListEntry {
     public Adaptor adaptor;
     public long uuid;
@@ -109,32 +135,34 @@ public class ChukwaHttpSender implements ChukwaSender {
     }
   }
 
-  // FIXME: probably we're better off with an EventListRequestEntity
-  static class BuffersRequestEntity implements RequestEntity {
-    List<DataOutputBuffer> buffers;
+  /**
+   * A post body serialized into one buffer: the number of chunks followed
+   * by the chunks themselves. The buffer belongs to the sender and is
+   * reused for the next post, so the content length is known up front and
+   * the body can be written in a single call.
+   */
+  static class BatchRequestEntity implements RequestEntity {
+    DataOutputBuffer buffer;
     boolean compress;
     CompressionCodec codec;
 
-    public BuffersRequestEntity(List<DataOutputBuffer> buf, boolean compress, CompressionCodec codec) {
-      buffers = buf;
+    public BatchRequestEntity(DataOutputBuffer buffer, boolean compress,
+        CompressionCodec codec) {
+      this.buffer = buffer;
       this.compress = compress;
       this.codec = codec;
     }
-    
-    private long getUncompressedContentLenght(){
-        long len = 4;// first we send post length, then buffers
-        for (DataOutputBuffer b : buffers)
-          len += b.getLength();
-        return len;
+
+    long getUncompressedContentLength() {
+      return buffer.getLength();
     }
 
     public long getContentLength() {
-    	if(compress) {
-    		return -1;
-    	}
-    	else {
-    		return getUncompressedContentLenght();
-    	}
+      if (compress) {
+        return -1;
+      } else {
+        return getUncompressedContentLength();
+      }
     }
 
     public String getContentType() {
@@ -145,22 +173,19 @@ public class ChukwaHttpSender implements ChukwaSender {
       return true;
     }
 
-    private void doWriteRequest( DataOutputStream out ) throws IOException {
-        out.writeInt(buffers.size());
-        for (DataOutputBuffer b : buffers)
-      	 out.write(b.getData(), 0, b.getLength());
-    }
-    
     public void writeRequest(OutputStream out) throws IOException {
-      if(compress) {
-          CompressionOutputStream cos = codec.createOutputStream(out);
-          DataOutputStream dos = new DataOutputStream( cos);
-          doWriteRequest( dos);
-          cos.finish();
+      if (!compress) {
+        out.write(buffer.getData(), 0, buffer.getLength());
+        return;
       }
-      else {
-          DataOutputStream dos = new DataOutputStream( out);
-          doWriteRequest( dos);
+      Compressor compressor = CodecPool.getCompressor(codec);
+      try {
+        CompressionOutputStream cos = compressor == null ? codec
+            .createOutputStream(out) : codec.createOutputStream(out, compressor);
+        cos.write(buffer.getData(), 0, buffer.getLength());
+        cos.finish();
+      } finally {
+        CodecPool.returnCompressor(compressor);
       }
     }
   }
@@ -216,51 +241,92 @@ public class ChukwaHttpSender implements ChukwaSender {
   @Override
   public List<CommitListEntry> send(List<Chunk> toSend)
       throws InterruptedException, IOException {
-    List<DataOutputBuffer> serializedEvents = new ArrayList<DataOutputBuffer>();
-    List<CommitListEntry> commitResults = new ArrayList<CommitListEntry>();
-
     int thisPost = postID++;
     int toSendSize = toSend.size();
     log.info("collected " + toSendSize + " chunks for post_"+thisPost);
 
-    // Serialize each chunk in turn into it's own DataOutputBuffer and add that
-    // buffer to serializedEvents
-    for (Chunk c : toSend) {
-      DataOutputBuffer b = new DataOutputBuffer(c.getSerializedSizeEstimate());
+    List<Chunk> pending = new ArrayList<Chunk>(toSend);
+    toSend.clear();
+    List<CommitListEntry> results = new ArrayList<CommitListEntry>();
+    try {
+      while (true) {
+        List<CommitListEntry> commitResults = serialize(pending);
+        BatchRequestEntity postData = new BatchRequestEntity(postBuffer, COMPRESS, codec);
+
+        PostMethod method = new PostMethod();
+        method.setRequestEntity(postData);
+        if (acceptsPartialCommit()) {
+          method.setRequestHeader(ServletCollector.PARTIAL_COMMIT_HEADER, "true");
+        }
+        StringBuilder sb = new StringBuilder( ">>>>>> HTTP post_");
+        sb.append( thisPost).append( " to ").append( currCollector).append( " length = ");
+        if( COMPRESS) {
+          sb.append( postData.getUncompressedContentLength())
+            .append( " of uncompressed data");
+        }
+        else {
+          sb.append( postData.getContentLength());
+        }
+        log.info( sb);
+
+        List<CommitListEntry> committed = postAndParseResponse(method, commitResults);
+        results.addAll(committed);
+        if (!acceptsPartialCommit() || committed.isEmpty()
+            || committed.size() >= pending.size()) {
+          break;
+        }
+        log.info("post_" + thisPost + ": collector committed " + committed.size()
+            + " of " + pending.size() + " chunks, resending the rest");
+        pending = new ArrayList<Chunk>(pending.subList(committed.size(), pending.size()));
+      }
+    } finally {
+      if (postBuffer.getData().length > MAX_RETAINED_BUFFER) {
+        postBuffer = new DataOutputBuffer(INITIAL_BUFFER);
+      }
+    }
+    log.info("post_" + thisPost + " sent " + toSendSize + " chunks, got back " + results.size() + " acks");
+    return results;
+  }
+
+  /**
+   * Serialize the chunks, preceded by their count, into the post buffer.
+   * @return one entry per chunk, used to ack it to the caller of send()
+   */
+  private List<CommitListEntry> serialize(List<Chunk> chunks) throws IOException {
+    List<CommitListEntry> commitResults = new ArrayList<CommitListEntry>();
+    postBuffer.reset();
+    postBuffer.writeInt(chunks.size());
+    for (Chunk c : chunks) {
       try {
-        c.write(b);
+        c.write(postBuffer);
       } catch (IOException err) {
         log.error("serialization threw IOException", err);
       }
-      serializedEvents.add(b);
       // store a CLE for this chunk which we will use to ack this chunk to the
       // caller of send()
       // (e.g. the agent will use the list of CLE's for checkpointing)
-      log.info("chunk seqID:"+c.getSeqID());
+      if (log.isDebugEnabled()) {
+        log.debug("chunk seqID:"+c.getSeqID());
+      }
       commitResults.add(new CommitListEntry(c.getInitiator(), c.getSeqID(), 
-         c.getSeqID() - c.getData().length));
+         c.getSeqID() - dataLength(c)));
     }
-    toSend.clear();
+    return commitResults;
+  }
 
-    // collect all serialized chunks into a single buffer to send
-    RequestEntity postData = new BuffersRequestEntity(serializedEvents, COMPRESS, codec);
-
-    PostMethod method = new PostMethod();
-    method.setRequestEntity(postData);
-    StringBuilder sb = new StringBuilder( ">>>>>> HTTP post_");
-    sb.append( thisPost).append( " to ").append( currCollector).append( " length = ");
-	if( COMPRESS) {
-		sb.append( ((BuffersRequestEntity)postData).getUncompressedContentLenght())
-			.append( " of uncompressed data");
-	}
-	else {
-		sb.append( postData.getContentLength());
-	}
-	log.info( sb);
-
-    List<CommitListEntry> results =  postAndParseResponse(method, commitResults);
-    log.info("post_" + thisPost + " sent " + toSendSize + " chunks, got back " + results.size() + " acks");
-    return results;
+  /**
+   * Whether send() resends the chunks following those the collector acked.
+   * If so, the collector may commit and ack a prefix of a post only.
+   */
+  protected boolean acceptsPartialCommit() {
+    return true;
+  }
+
+  private static int dataLength(Chunk c) {
+    if (c instanceof ChunkImpl) {
+      return ((ChunkImpl) c).getLength(); // avoids copying the data
+    }
+    return c.getData().length;
   }
   
   /**
@@ -274,8 +340,40 @@ public class ChukwaHttpSender implements ChukwaSender {
   public List<CommitListEntry> postAndParseResponse(PostMethod method, 
         List<CommitListEntry> expectedCommitResults)
   throws IOException, InterruptedException{
-    reliablySend(method, "chukwa"); //FIXME: shouldn't need to hardcode this here
-    return expectedCommitResults;
+    List<String> resp = reliablySend(method, "chukwa"); //FIXME: shouldn't need to hardcode this here
+    if (!acceptsPartialCommit()) {
+      return expectedCommitResults;
+    }
+    if (resp.isEmpty()) {
+      // the post was given up on
+      return new ArrayList<CommitListEntry>();
+    }
+    int committed = committedCount(resp);
+    if (committed < 0) {
+      // a collector which commits posts whole
+      return expectedCommitResults;
+    }
+    return expectedCommitResults.subList(0,
+        Math.min(committed, expectedCommitResults.size()));
+  }
+
+  /**
+   * @return the number of chunks the collector says it committed, or -1 if
+   *         the response does not say
+   */
+  static int committedCount(List<String> resp) {
+    String first = resp.get(0);
+    if (first.startsWith(ServletCollector.COMMITTED_PREFIX)) {
+      try {
+        return Integer.parseInt(first.substring(
+            ServletCollector.COMMITTED_PREFIX.length()).trim());
+      } catch (NumberFormatException e) {
+        // resending is safer than losing the chunks
+        log.warn("unexpected response: " + first);
+        return 0;
+      }
+    }
+    return -1;
   }
 
   /**
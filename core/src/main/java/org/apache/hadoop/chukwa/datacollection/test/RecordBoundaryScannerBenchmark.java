@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.apache.hadoop.chukwa.datacollection.adaptor.filetailer.RecordBoundaryScanner;
+
+/**
+ * Compares the byte-at-a-time record splitting formerly used by
+ * CharFileTailingAdaptorUTF8 with RecordBoundaryScanner.
+ *
+ * Usage: RecordBoundaryScannerBenchmark [bufferSize] [averageLineLength] [seconds]
+ */
+public class RecordBoundaryScannerBenchmark {
+
+  static int legacyScan(byte[] buf, ArrayList<Integer> offsets) {
+    for (int i = 0; i < buf.length; ++i) {
+      if (buf[i] == '\n') {
+        offsets.add(i);
+      }
+    }
+    int[] offsets_i = new int[offsets.size()];
+    for (int i = 0; i < offsets_i.length; ++i)
+      offsets_i[i] = offsets.get(i);
+    offsets.clear();
+    return offsets_i.length;
+  }
+
+  static int scannerScan(byte[] buf, RecordBoundaryScanner scanner) {
+    scanner.scan(buf);
+    return scanner.toArray().length;
+  }
+
+  static byte[] makeBuffer(int size, int lineLength) {
+    Random r = new Random(42);
+    byte[] buf = new byte[size];
+    for (int i = 0; i < size; i++) {
+      buf[i] = (byte) ('a' + r.nextInt(26));
+      if (r.nextInt(lineLength) == 0) {
+        buf[i] = '\n';
+      }
+    }
+    return buf;
+  }
+
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 128 * 1024;
+    int lineLength = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+    long seconds = args.length > 2 ? Long.parseLong(args[2]) : 5;
+    byte[] buf = makeBuffer(size, lineLength);
+
+    ArrayList<Integer> offsets = new ArrayList<Integer>();
+    RecordBoundaryScanner scanner = new RecordBoundaryScanner();
+    if (legacyScan(buf, offsets) != scannerScan(buf, scanner)) {
+      throw new IllegalStateException("implementations disagree");
+    }
+
+    for (int round = 0; round < 2; round++) { // first round is warm-up
+      long legacy = run(buf, seconds, offsets, null);
+      long swar = run(buf, seconds, null, scanner);
+      if (round > 0) {
+        System.out.println("buffer size " + size + ", average line length "
+            + lineLength);
+        System.out.println("legacy  : " + (legacy * size / (seconds * 1024 * 1024))
+            + " MB/s");
+        System.out.println("scanner : " + (swar * size / (seconds * 1024 * 1024))
+            + " MB/s");
+      }
+    }
+  }
+
+  private static long run(byte[] buf, long seconds, ArrayList<Integer> offsets,
+      RecordBoundaryScanner scanner) {
+    long end = System.currentTimeMillis() + seconds * 1000;
+    long iterations = 0;
+    long sink = 0;
+    while (System.currentTimeMillis() < end) {
+      for (int i = 0; i < 100; i++) {
+        sink += scanner == null ? legacyScan(buf, offsets) : scannerScan(buf,
+            scanner);
+      }
+      iterations += 100;
+    }
+    if (sink == 42) {
+      System.out.println(); // keep the JIT from dropping the loop
+    }
+    return iterations;
+  }
+}
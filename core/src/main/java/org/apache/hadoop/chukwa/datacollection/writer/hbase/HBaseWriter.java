@@ -19,11 +19,10 @@
 package org.apache.hadoop.chukwa.datacollection.writer.hbase;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.chukwa.Chunk;
@@ -31,33 +30,88 @@ import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
 import org.apache.hadoop.chukwa.datacollection.writer.ChukwaWriter;
 import org.apache.hadoop.chukwa.datacollection.writer.PipelineableWriter;
 import org.apache.hadoop.chukwa.datacollection.writer.WriterException;
-import org.apache.hadoop.chukwa.extraction.hbase.AbstractProcessor;
-import org.apache.hadoop.chukwa.extraction.hbase.ProcessorFactory;
-import org.apache.hadoop.chukwa.extraction.hbase.UnknownRecordTypeException;
+import org.apache.hadoop.chukwa.extraction.hbase.ParallelProcessor;
 import org.apache.hadoop.chukwa.util.ExceptionUtil;
+import org.apache.hadoop.chukwa.util.MetricValueCodec;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.log4j.Logger;
 
+/**
+ * Writes chunks to the chukwa and chukwa_meta HBase tables.
+ *
+ * The chunks passed to add() are parsed by a ParallelProcessor on
+ * hbase.writer.processor.threads threads, so add() calls from several
+ * senders do not wait for each other while parsing. By default the resulting
+ * puts are written with one put call per table and add(). With
+ * hbase.writer.batch.enabled set, they are handed to a shared
+ * BufferedMutator per table instead. The mutators flush whenever
+ * hbase.writer.flush.size bytes are buffered and every
+ * hbase.writer.flush.interval ms; add() flushes before it returns, so
+ * COMMIT_OK is only reported once the batch is stored.
+ *
+ * With hbase.writer.rollup.enabled set, the 1 minute, 1 hour and 1 day
+ * rollups of every numeric metric are kept by a RollupAggregator and
+ * written to the chukwa table every hbase.writer.rollup.interval ms.
+ */
 public class HBaseWriter extends PipelineableWriter {
   static Logger log = Logger.getLogger(HBaseWriter.class);
   private static final String CHUKWA_TABLE = "chukwa";
   private static final String CHUKWA_META_TABLE = "chukwa_meta";
+  public static final String BATCH_OPT = "hbase.writer.batch.enabled";
+  public static final String THREADS_OPT = "hbase.writer.processor.threads";
+  public static final String FLUSH_SIZE_OPT = "hbase.writer.flush.size";
+  public static final String FLUSH_INTERVAL_OPT = "hbase.writer.flush.interval";
+  static final long DEFAULT_FLUSH_SIZE = 4 * 1024 * 1024;
+  static final long DEFAULT_FLUSH_INTERVAL = 1000;
+  public static final String META_CACHE_SIZE_OPT = "hbase.writer.meta.cache.size";
+  public static final String META_CACHE_TTL_OPT = "hbase.writer.meta.cache.ttl";
+  public static final String ROLLUP_OPT = "hbase.writer.rollup.enabled";
+  public static final String ROLLUP_INTERVAL_OPT = "hbase.writer.rollup.interval";
+  public static final String ROLLUP_GRACE_OPT = "hbase.writer.rollup.grace";
+  static final long DEFAULT_ROLLUP_INTERVAL = 10 * 1000;
   boolean reportStats;
   volatile long dataSize = 0;
   final Timer statTimer;
-  private ArrayList<Put> output;
-  private Reporter reporter;
+  private MetaCache metaCache;
   private ChukwaConfiguration conf;
   private Configuration hconf;
   String defaultProcessor;
-  private static Connection connection;
-  
+  private String valueEncoding;
+  private static volatile Connection connection;
+
+  private final boolean batchMode;
+  private ParallelProcessor processors;
+  private int processorThreads;
+  private long flushSize;
+  private long flushInterval;
+  private BufferedMutator dataMutator;
+  private BufferedMutator metaMutator;
+  private RollupAggregator rollups;
+
+  private class FlushTask extends TimerTask {
+    public void run() {
+      try {
+        flushMutators();
+      } catch (IOException e) {
+        log.warn("Periodic flush to HBase failed: " + e.getMessage());
+      }
+    }
+  }
+
+  private class RollupTask extends TimerTask {
+    public void run() {
+      writeRollups();
+    }
+  }
+
   private class StatReportingTask extends TimerTask {
     private long lastTs = System.currentTimeMillis();
     private long lastDataSize = 0;
@@ -72,8 +126,14 @@ public class HBaseWriter extends PipelineableWriter {
       // refers only to data field, not including http or chukwa headers
       lastDataSize = ds;
 
-      log.info("stat=HBaseWriter|dataRate="
-          + dataRate);
+      if (metaCache != null) {
+        log.info("stat=HBaseWriter|dataRate=" + dataRate + "|metaCacheSize="
+            + metaCache.size() + "|metaCacheHits=" + metaCache.getHits()
+            + "|metaCacheMisses=" + metaCache.getMisses());
+      } else {
+        log.info("stat=HBaseWriter|dataRate="
+            + dataRate);
+      }
     }
   };
 
@@ -102,21 +162,99 @@ public class HBaseWriter extends PipelineableWriter {
     if (reportStats) {
       statTimer.schedule(new StatReportingTask(), 1000, 10 * 1000);
     }
-    output = new ArrayList<Put>();
-    try {
-      reporter = new Reporter();
-    } catch (NoSuchAlgorithmException e) {
-      throw new IOException("Can not register hashing algorithm.");
+    valueEncoding = conf.get(MetricValueCodec.ENCODING_OPT,
+        MetricValueCodec.STRING);
+    int metaCacheSize = conf.getInt(META_CACHE_SIZE_OPT,
+        MetaCache.DEFAULT_MAX_ENTRIES);
+    if (metaCacheSize > 0) {
+      metaCache = new MetaCache(metaCacheSize, conf.getLong(META_CACHE_TTL_OPT,
+          MetaCache.DEFAULT_TTL));
     }
     if (connection == null || connection.isClosed()) {
       connection = ConnectionFactory.createConnection(hconf);
     }
+    if (conf.getBoolean(ROLLUP_OPT, false)) {
+      rollups = new RollupAggregator(conf.getLong(ROLLUP_GRACE_OPT,
+          RollupAggregator.DEFAULT_GRACE));
+      long rollupInterval = conf.getLong(ROLLUP_INTERVAL_OPT,
+          DEFAULT_ROLLUP_INTERVAL);
+      statTimer.schedule(new RollupTask(), rollupInterval, rollupInterval);
+      log.info("HBaseWriter rollups written every " + rollupInterval + " ms");
+    }
+    processorThreads = conf.getInt(THREADS_OPT,
+        Runtime.getRuntime().availableProcessors());
+    if (processorThreads < 1) {
+      processorThreads = 1;
+    }
+    processors = new ParallelProcessor(conf, defaultProcessor, metaCache,
+        processorThreads);
+    processors.setValueEncoding(valueEncoding);
+    processors.setRollupAggregator(rollups);
+    batchMode = conf.getBoolean(BATCH_OPT, false);
+    if (batchMode) {
+      flushSize = conf.getLong(FLUSH_SIZE_OPT, DEFAULT_FLUSH_SIZE);
+      flushInterval = conf.getLong(FLUSH_INTERVAL_OPT, DEFAULT_FLUSH_INTERVAL);
+      if (flushInterval > 0) {
+        statTimer.schedule(new FlushTask(), flushInterval, flushInterval);
+      }
+      log.info("HBaseWriter batching with " + processorThreads
+          + " processor threads, flush size " + flushSize
+          + " bytes, flush interval " + flushInterval + " ms");
+    }
   }
 
   public void close() {
-    if (reportStats) {
+    if (reportStats || batchMode || rollups != null) {
       statTimer.cancel();
     }
+    processors.shutdown();
+    if (batchMode) {
+      closeMutators();
+    }
+    if (rollups != null) {
+      writeRollups();
+    }
+  }
+
+  /**
+   * Write the rollups which changed since the last call. If they can not be
+   * written, they are tried again with the next call. This runs on the
+   * timer thread, so it uses the current connection but leaves opening a
+   * new one to add().
+   */
+  private void writeRollups() {
+    Connection conn = connection;
+    if (conn == null || conn.isClosed()) {
+      log.warn("No HBase connection, rollups are written later");
+      return;
+    }
+    // collect() and retry() must not interleave, but the processors keep
+    // adding values meanwhile
+    synchronized (rollups) {
+      Table table = null;
+      try {
+        table = conn.getTable(TableName.valueOf(CHUKWA_TABLE));
+        List<Put> puts = rollups.collect(table);
+        if (!puts.isEmpty()) {
+          try {
+            table.put(puts);
+          } catch (IOException e) {
+            rollups.retry();
+            throw e;
+          }
+        }
+      } catch (IOException e) {
+        log.warn("Unable to write rollups to HBase: " + e.getMessage());
+      } finally {
+        if (table != null) {
+          try {
+            table.close();
+          } catch (IOException e) {
+            log.warn("Unable to close HBase table: " + e.getMessage());
+          }
+        }
+      }
+    }
   }
 
   public void init(Configuration conf) throws WriterException {
@@ -131,6 +269,9 @@ public class HBaseWriter extends PipelineableWriter {
 
   @Override
   public CommitStatus add(List<Chunk> chunks) throws WriterException {
+    if (batchMode) {
+      return addBatch(chunks);
+    }
     CommitStatus rv = ChukwaWriter.COMMIT_OK;
     Table hbase;
     Table meta;
@@ -144,25 +285,27 @@ public class HBaseWriter extends PipelineableWriter {
       }
       hbase = connection.getTable(TableName.valueOf(CHUKWA_TABLE));
       meta = connection.getTable(TableName.valueOf(CHUKWA_META_TABLE));
-      for(Chunk chunk : chunks) {
+      try {
+        // unparseable chunks are logged and skipped by the processors
+        ParallelProcessor.Result result = processors.process(chunks);
+        hbase.put(result.getData());
+        if (rollups != null) {
+          rollups.addAll(result.getRollups());
+        }
+        meta.put(result.getMeta());
+        if (metaCache != null) {
+          metaCache.addAll(result.getMetaKeys());
+        }
         synchronized (this) {
-          try {
-            AbstractProcessor processor = getProcessor(chunk.getDataType());
-            processor.process(chunk, output, reporter);
-            hbase.put(output);
-            meta.put(reporter.getInfo());
-          } catch (Throwable e) {
-            log.warn("Unable to process data:");
-            log.warn(new String(chunk.getData()));
-            log.warn(ExceptionUtil.getStackTrace(e));
-          }
-          dataSize += chunk.getData().length;
-          output.clear();
-          reporter.clear();
+          dataSize += result.getBytes();
         }
+      } finally {
+        hbase.close();
+        meta.close();
       }
-      hbase.close();
-      meta.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WriterException("Interrupted while writing to HBase");
     } catch (Exception e) {
       log.error(ExceptionUtil.getStackTrace(e));
       if(connection != null) {
@@ -180,29 +323,105 @@ public class HBaseWriter extends PipelineableWriter {
     return rv;
   }
 
-  private AbstractProcessor getProcessor(String dataType) throws UnknownRecordTypeException {
-    String processorClass = findProcessor(conf.get(dataType, defaultProcessor), defaultProcessor);
-    return ProcessorFactory.getProcessor(processorClass);
-  }
-
   /**
-   * Look for mapper parser class in the demux configuration.
-   * Demux configuration has been changed since CHUKWA-581 to
-   * support mapping of both mapper and reducer, and this utility
-   * class is to detect the mapper class and return the mapper
-   * class only.
-   *
+   * Parse the chunks on the processor threads, buffer the puts in the
+   * shared mutators and flush them. Unparseable chunks are logged and
+   * skipped as in the unbatched path, but a failed flush is reported to the
+   * caller so the batch is retried.
    */
-  private String findProcessor(String processors, String defaultProcessor) {
-    if(processors.startsWith(",")) {
-      // No mapper class defined.
-      return defaultProcessor;
-    } else if(processors.contains(",")) {
-      // Both mapper and reducer defined.
-      String[] parsers = processors.split(",");
-      return parsers[0];
-    }
-    // No reducer defined.
-    return processors;
+  private CommitStatus addBatch(List<Chunk> chunks) throws WriterException {
+    if (!chunks.isEmpty()) {
+      BufferedMutator data;
+      BufferedMutator meta;
+      try {
+        synchronized (this) {
+          openMutators();
+          data = dataMutator;
+          meta = metaMutator;
+        }
+      } catch (IOException e) {
+        log.error(ExceptionUtil.getStackTrace(e));
+        throw new WriterException("HBase is offline, retry later...");
+      }
+      long bytes;
+      try {
+        ParallelProcessor.Result result = processors.process(chunks);
+        data.mutate(result.getData());
+        meta.mutate(result.getMeta());
+        data.flush();
+        if (rollups != null) {
+          rollups.addAll(result.getRollups());
+        }
+        meta.flush();
+        if (metaCache != null) {
+          metaCache.addAll(result.getMetaKeys());
+        }
+        bytes = result.getBytes();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new WriterException("Interrupted while writing to HBase");
+      } catch (ExecutionException e) {
+        log.error(ExceptionUtil.getStackTrace(e.getCause()));
+        throw new WriterException("Unable to write batch to HBase, retry later...");
+      } catch (IOException e) {
+        log.error(ExceptionUtil.getStackTrace(e));
+        throw new WriterException("Unable to flush batch to HBase, retry later...");
+      }
+      synchronized (this) {
+        dataSize += bytes;
+      }
+    }
+    if (next != null) {
+      return next.add(chunks); //pass data through
+    }
+    return ChukwaWriter.COMMIT_OK;
+  }
+
+  private synchronized void openMutators() throws IOException {
+    if (connection == null || connection.isClosed()) {
+      closeMutators();
+      connection = ConnectionFactory.createConnection(hconf);
+    }
+    if (dataMutator == null) {
+      dataMutator = connection.getBufferedMutator(new BufferedMutatorParams(
+          TableName.valueOf(CHUKWA_TABLE)).writeBufferSize(flushSize));
+    }
+    if (metaMutator == null) {
+      metaMutator = connection.getBufferedMutator(new BufferedMutatorParams(
+          TableName.valueOf(CHUKWA_META_TABLE)).writeBufferSize(flushSize));
+    }
+  }
+
+  private void flushMutators() throws IOException {
+    BufferedMutator data;
+    BufferedMutator meta;
+    synchronized (this) {
+      data = dataMutator;
+      meta = metaMutator;
+    }
+    if (data != null) {
+      data.flush();
+    }
+    if (meta != null) {
+      meta.flush();
+    }
+  }
+
+  private synchronized void closeMutators() {
+    closeQuietly(dataMutator);
+    closeQuietly(metaMutator);
+    dataMutator = null;
+    metaMutator = null;
+  }
+
+  private void closeQuietly(BufferedMutator mutator) {
+    if (mutator == null) {
+      return;
+    }
+    try {
+      mutator.close();
+    } catch (IOException e) {
+      log.warn("Unable to flush HBase mutator on close: " + e.getMessage());
+    }
   }
 }
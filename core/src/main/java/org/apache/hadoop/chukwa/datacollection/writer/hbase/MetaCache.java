@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.datacollection.writer.hbase;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the chukwa_meta entries which have already been written, so
+ * Reporter only emits a Put for an entry the first time it is seen, or
+ * again after it has expired. Entries are only added once their Puts have
+ * been stored, so a failed write does not hide them.
+ *
+ * The cache holds at most maxEntries keys; the least recently added key is
+ * evicted first. Entries expire ttl ms after they were written, so
+ * rows lost on the HBase side are eventually rewritten. Instances are
+ * thread safe and meant to be shared by all reporters of a writer.
+ */
+public class MetaCache {
+  public static final int DEFAULT_MAX_ENTRIES = 100000;
+  public static final long DEFAULT_TTL = 60 * 60 * 1000;
+
+  private final long ttl;
+  private final Map<String, Long> entries;
+  private long hits = 0;
+  private long misses = 0;
+
+  public MetaCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+  }
+
+  public MetaCache(final int maxEntries, long ttl) {
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<String, Long>(1024, 0.75f, false) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @param key identifies the meta entry
+   * @return true if the entry was written and has not expired yet
+   */
+  public synchronized boolean contains(String key) {
+    Long expires = entries.get(key);
+    if (expires != null && expires > System.currentTimeMillis()) {
+      hits++;
+      return true;
+    }
+    misses++;
+    return false;
+  }
+
+  /**
+   * Record that the entries have been written.
+   *
+   * @param keys identify the meta entries
+   */
+  public synchronized void addAll(Collection<String> keys) {
+    long expires = System.currentTimeMillis() + ttl;
+    for (String key : keys) {
+      // remove first, so a refreshed key moves to the young end of the map
+      entries.remove(key);
+      entries.put(key, expires);
+    }
+  }
+
+  /**
+   * Forget every entry.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+}
@@ -23,9 +23,12 @@ import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.hadoop.hbase.client.Put;
 import org.mortbay.log.Log;
@@ -33,27 +36,49 @@ import org.mortbay.log.Log;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+/**
+ * Collects the chukwa_meta Puts produced while a chunk is processed.
+ *
+ * When a MetaCache is given, entries which were already written and have
+ * not expired produce no Put, and the hash and JSON payload of an entry are
+ * only computed when it is actually written. The entries of the Puts in
+ * getInfo() are added to the cache by commit(), once the Puts are stored;
+ * clear() drops them if the chunk could not be written. The values for the
+ * rollups are collected the same way, see getRollups().
+ */
 public class Reporter {
   private ArrayList<Put> meta = new ArrayList<Put>();
   private MessageDigest md5 = null;
   private final static Charset UTF8 = Charset.forName("UTF-8");
+  private final static byte[] COLUMN_FAMILY = "k".getBytes(UTF8);
+  private final static Type META_TYPE = new TypeToken<Map<String, String>>(){}.getType();
+  private final static Gson GSON = new Gson();
+  private final MetaCache cache;
+  private final Set<String> pending = new LinkedHashSet<String>();
+  private final List<RollupAggregator.Value> rollups =
+      new ArrayList<RollupAggregator.Value>();
 
   public Reporter() throws NoSuchAlgorithmException {
+    this(null);
+  }
+
+  /**
+   * @param cache is the cache of written meta entries shared by the
+   *        reporters of a writer, or null to write every entry
+   * @throws NoSuchAlgorithmException if md5 is not available
+   */
+  public Reporter(MetaCache cache) throws NoSuchAlgorithmException {
     md5 = MessageDigest.getInstance("md5");
+    this.cache = cache;
   }
 
   public void putSource(String type, String source) {
-    byte[] value = getHash(source);
-    String buffer;
-
+    if (!register(type, source, "source")) {
+      return;
+    }
     try {
-      Type metaType = new TypeToken<Map<String, String>>(){}.getType();
-      Map<String, String> meta = new HashMap<String, String>();
-      meta.put("sig", new String(value, UTF8));
-      meta.put("type", "source");
-      Gson gson = new Gson();
-      buffer = gson.toJson(meta, metaType);
-      put(type.getBytes(UTF8), source.getBytes(UTF8), buffer.toString().getBytes(UTF8));
+      byte[] value = getHash(source);
+      put(type.getBytes(UTF8), source.getBytes(UTF8), payload(value, "source"));
     } catch (Exception e) {
       Log.warn("Error encoding metadata.");
       Log.warn(e);
@@ -61,17 +86,13 @@ public class Reporter {
   }
 
   public void putMetric(String type, String metric) {
+    if (!register(type, metric, "metric")) {
+      return;
+    }
     String buf = new StringBuilder(type).append(".").append(metric).toString();
-    byte[] pk = getHash(buf);
-    String buffer;
     try {
-      Type metaType = new TypeToken<Map<String, String>>(){}.getType();
-      Map<String, String> meta = new HashMap<String, String>();
-      meta.put("sig", new String(pk, "UTF-8"));
-      meta.put("type", "metric");
-      Gson gson = new Gson();
-      buffer = gson.toJson(meta, metaType);
-      put(type.getBytes(UTF8), metric.getBytes(UTF8), buffer.toString().getBytes(UTF8));
+      byte[] pk = getHash(buf);
+      put(type.getBytes(UTF8), metric.getBytes(UTF8), payload(pk, "metric"));
     } catch (Exception e) {
       Log.warn("Error encoding metadata.");
       Log.warn(e);
@@ -79,23 +100,85 @@ public class Reporter {
   }
 
   public void put(String key, String source, String info) {
+    if (!register(key, source, info)) {
+      return;
+    }
     put(key.getBytes(UTF8), source.getBytes(UTF8), info.getBytes(UTF8));
   }
 
   public void put(byte[] key, byte[] source, byte[] info) {
     Put put = new Put(key);
-    put.addColumn("k".getBytes(UTF8), source, info);
+    put.addColumn(COLUMN_FAMILY, source, info);
     meta.add(put);
   }
 
+  /**
+   * Record the entries of the Puts in getInfo() as written.
+   */
+  public void commit() {
+    if (cache != null) {
+      cache.addAll(pending);
+    }
+    pending.clear();
+  }
+
   public void clear() {
     meta.clear();
+    pending.clear();
+    rollups.clear();
+  }
+
+  /**
+   * Report a numeric value of the chunk for the rollups of its row.
+   */
+  public void putRollup(byte[] row, long time, double value) {
+    rollups.add(new RollupAggregator.Value(row, time, value));
+  }
+
+  /**
+   * @return the values for the rollups, to be added to the RollupAggregator
+   *         once the data Puts of the chunk are stored
+   */
+  public List<RollupAggregator.Value> getRollups() {
+    return rollups;
   }
 
   public List<Put> getInfo() {
     return meta;
   }
 
+  /**
+   * @return the cache keys of the entries in getInfo(), for a caller which
+   *         stores the Puts of several chunks before it adds them to the
+   *         cache itself
+   */
+  public Collection<String> getPendingKeys() {
+    return pending;
+  }
+
+  /**
+   * @return true if the entry has to be written
+   */
+  private boolean register(String type, String column, String kind) {
+    if (cache == null) {
+      return true;
+    }
+    String key = new StringBuilder(type).append('\u0000').append(column)
+        .append('\u0000').append(kind).toString();
+    if (pending.contains(key) || cache.contains(key)) {
+      return false;
+    }
+    pending.add(key);
+    return true;
+  }
+
+  private static byte[] payload(byte[] sig, String type) {
+    Map<String, String> meta = new HashMap<String, String>();
+    meta.put("sig", new String(sig, UTF8));
+    meta.put("type", type);
+    return GSON.toJson(meta, META_TYPE).getBytes(UTF8);
+  }
+
   private byte[] getHash(String key) {
     byte[] hash = new byte[5];
     System.arraycopy(md5.digest(key.getBytes(UTF8)), 0, hash, 0, 5);
@@ -103,15 +186,11 @@ public class Reporter {
   }
 
   public void putClusterName(String type, String clusterName) {
+    if (!register(type, clusterName, "cluster")) {
+      return;
+    }
     byte[] value = getHash(clusterName);
-    String buffer;
-    Type metaType = new TypeToken<Map<String, String>>(){}.getType();
-    Map<String, String> meta = new HashMap<String, String>();
-    meta.put("sig", new String(value, UTF8));
-    meta.put("type", "cluster");
-    Gson gson = new Gson();
-    buffer = gson.toJson(meta, metaType);
-    put(type.getBytes(UTF8), clusterName.getBytes(UTF8), buffer.toString().getBytes(UTF8));
+    put(type.getBytes(UTF8), clusterName.getBytes(UTF8), payload(value, "cluster"));
   }
 
 }
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.datacollection.writer.hbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.chukwa.util.Rollup;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * Maintains the 1 minute, 1 hour and 1 day rollups of the metric values
+ * written by HBaseWriter.
+ *
+ * Processors report every numeric value of a chunk as a Value, and the
+ * writer adds them to the open buckets of their rows once the chunk is
+ * stored. It periodically calls collect() to write the buckets which have
+ * changed. A bucket is dropped from memory once it has been written and
+ * ended more than grace ms ago. A bucket which started before this
+ * aggregator was created, or which receives data after it was dropped, is
+ * merged with the rollup already stored in HBase before it is written.
+ *
+ * Rollups are exact as long as a row is only written by one collector at a
+ * time; a chunk which the agent sends again after it was stored is counted
+ * again. Instances are thread safe and shared by all processors of a writer.
+ */
+public class RollupAggregator {
+  public static final long DEFAULT_GRACE = 5 * 60 * 1000;
+
+  private final ConcurrentHashMap<BucketKey, Bucket> buckets =
+      new ConcurrentHashMap<BucketKey, Bucket>();
+  private final long grace;
+  private final long startTime = System.currentTimeMillis();
+
+  static class BucketKey {
+    final byte[] row;
+    final Rollup.Resolution resolution;
+    final long start;
+    private final int hash;
+
+    BucketKey(byte[] row, Rollup.Resolution resolution, long start) {
+      this.row = row;
+      this.resolution = resolution;
+      this.start = start;
+      this.hash = (Arrays.hashCode(row) * 31 + resolution.ordinal()) * 31
+          + (int) (start ^ (start >>> 32));
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BucketKey)) {
+        return false;
+      }
+      BucketKey k = (BucketKey) o;
+      return start == k.start && resolution == k.resolution
+          && Arrays.equals(row, k.row);
+    }
+  }
+
+  static class Bucket {
+    final Rollup rollup = new Rollup();
+    boolean dirty = false;
+    boolean merge;
+    boolean removed = false;
+
+    Bucket(boolean merge) {
+      this.merge = merge;
+    }
+  }
+
+  /**
+   * A value reported for a row, to be added once its chunk is stored.
+   */
+  public static class Value {
+    final byte[] row;
+    final long time;
+    final double value;
+
+    public Value(byte[] row, long time, double value) {
+      this.row = row;
+      this.time = time;
+      this.value = value;
+    }
+  }
+
+  public RollupAggregator() {
+    this(DEFAULT_GRACE);
+  }
+
+  /**
+   * @param grace is how long in ms a bucket is kept after it ended, to
+   *        collect late values
+   */
+  public RollupAggregator(long grace) {
+    this.grace = grace;
+  }
+
+  /**
+   * Add a value to the rollups of its row.
+   *
+   * @param row is the chukwa table row key of the value
+   * @param time is the timestamp of the value
+   * @param value is the metric value
+   */
+  public void add(byte[] row, long time, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for (Rollup.Resolution resolution : Rollup.Resolution.values()) {
+      long start = resolution.bucket(time);
+      BucketKey key = new BucketKey(row, resolution, start);
+      while (true) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+          Bucket created = new Bucket(start < startTime
+              || isClosed(resolution, start, now));
+          bucket = buckets.putIfAbsent(key, created);
+          if (bucket == null) {
+            bucket = created;
+          }
+        }
+        synchronized (bucket) {
+          if (!bucket.removed) {
+            bucket.rollup.add(value);
+            bucket.dirty = true;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Add values to the rollups of their rows.
+   *
+   * @param values were reported for chunks which have been stored
+   */
+  public void addAll(List<Value> values) {
+    for (Value v : values) {
+      add(v.row, v.time, v.value);
+    }
+  }
+
+  private boolean isClosed(Rollup.Resolution resolution, long start, long now) {
+    return start + resolution.getMillis() + grace < now;
+  }
+
+  /**
+   * Build the puts for every bucket which changed since the last call.
+   *
+   * @param table is used to read the stored rollups of buckets which have to
+   *        be merged, or null to overwrite them
+   * @return the puts to write to the chukwa table
+   * @throws IOException if stored rollups could not be read
+   */
+  public List<Put> collect(Table table) throws IOException {
+    long now = System.currentTimeMillis();
+    List<BucketKey> mergeKeys = new ArrayList<BucketKey>();
+    List<Get> gets = new ArrayList<Get>();
+    for (Map.Entry<BucketKey, Bucket> entry : buckets.entrySet()) {
+      Bucket bucket = entry.getValue();
+      synchronized (bucket) {
+        if (!bucket.merge) {
+          continue;
+        }
+        if (table == null) {
+          bucket.merge = false;
+          continue;
+        }
+      }
+      BucketKey key = entry.getKey();
+      Get get = new Get(key.row);
+      get.addColumn(key.resolution.getFamily(), qualifier(key.start));
+      gets.add(get);
+      mergeKeys.add(key);
+    }
+    if (!gets.isEmpty()) {
+      Result[] results = table.get(gets);
+      for (int i = 0; i < results.length; i++) {
+        BucketKey key = mergeKeys.get(i);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+          continue;
+        }
+        Rollup stored = null;
+        byte[] value = results[i].getValue(key.resolution.getFamily(),
+            qualifier(key.start));
+        if (value != null) {
+          stored = Rollup.fromBytes(value, 0, value.length);
+        }
+        synchronized (bucket) {
+          if (bucket.merge) {
+            if (stored != null) {
+              bucket.rollup.merge(stored);
+            }
+            bucket.merge = false;
+          }
+        }
+      }
+    }
+
+    List<Put> puts = new ArrayList<Put>();
+    Iterator<Map.Entry<BucketKey, Bucket>> it = buckets.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<BucketKey, Bucket> entry = it.next();
+      BucketKey key = entry.getKey();
+      Bucket bucket = entry.getValue();
+      synchronized (bucket) {
+        if (bucket.merge) {
+          continue;
+        }
+        if (bucket.dirty) {
+          Put put = new Put(key.row);
+          put.addColumn(key.resolution.getFamily(), qualifier(key.start),
+              key.start, bucket.rollup.toBytes());
+          puts.add(put);
+          bucket.dirty = false;
+        } else if (isClosed(key.resolution, key.start, now)) {
+          // written by an earlier call, and no more data is expected
+          bucket.removed = true;
+          it.remove();
+        }
+      }
+    }
+    return puts;
+  }
+
+  /**
+   * Mark every bucket as changed, after the puts of collect() could not be
+   * written.
+   */
+  public void retry() {
+    for (Bucket bucket : buckets.values()) {
+      synchronized (bucket) {
+        bucket.dirty = true;
+      }
+    }
+  }
+
+  /**
+   * @return the number of buckets held in memory
+   */
+  public int size() {
+    return buckets.size();
+  }
+
+  static byte[] qualifier(long start) {
+    return ByteBuffer.allocate(8).putLong(start).array();
+  }
+}
@@ -200,8 +200,8 @@ public class MetricDataLoader implements Callable {
     boolean isSuccessful = true;
     String recordType = null;
 
-    ChukwaRecordKey key = new ChukwaRecordKey();
-    ChukwaRecord record = new ChukwaRecord();
+    ChukwaRecordKey key = reader == null ? null : RecordUtil.newKey(reader);
+    ChukwaRecord record = reader == null ? null : RecordUtil.newRecord(reader);
     String cluster = null;
     int numOfRecords = 0;
     try {
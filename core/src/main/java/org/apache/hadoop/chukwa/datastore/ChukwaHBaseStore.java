@@ -20,23 +20,20 @@ package org.apache.hadoop.chukwa.datastore;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.TimeZone;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
 import org.apache.hadoop.chukwa.hicc.bean.Chart;
 import org.apache.hadoop.chukwa.hicc.bean.Dashboard;
-import org.apache.hadoop.chukwa.hicc.bean.HeatMapPoint;
 import org.apache.hadoop.chukwa.hicc.bean.Heatmap;
 import org.apache.hadoop.chukwa.hicc.bean.LineOptions;
 import org.apache.hadoop.chukwa.hicc.bean.Series;
@@ -44,12 +41,8 @@ import org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData;
 import org.apache.hadoop.chukwa.hicc.bean.Widget;
 import org.apache.hadoop.chukwa.hicc.rest.Examples;
 import org.apache.hadoop.chukwa.util.ExceptionUtil;
-import org.apache.hadoop.chukwa.util.HBaseUtil;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
-import org.apache.hadoop.hbase.TableName;
-import org.apache.hadoop.hbase.client.Connection;
-import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
@@ -59,6 +52,9 @@ import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
 import org.json.simple.JSONObject;
@@ -84,26 +80,47 @@ public class ChukwaHBaseStore {
   final static byte[] DASHBOARD_TYPE = "dashboard_meta".getBytes(UTF8);
   private static final String CHUKWA = "chukwa";
   private static final String CHUKWA_META = "chukwa_meta";
-  private static long MILLISECONDS_IN_DAY = 86400000L;
-  private static Connection connection = null;
+  private static final Object SERVICE_LOCK = new Object();
+  private static volatile HBaseQueryService queryService = null;
 
   public ChukwaHBaseStore() {
     super();
   }
 
-  public static synchronized void getHBaseConnection() throws IOException {
-    if (connection == null || connection.isClosed()) {
-      connection = ConnectionFactory.createConnection();
+  /**
+   * Reads do not hold the class lock, which is only used to serialize
+   * updates to charts and widgets, so they can run concurrently.
+   *
+   * @return the query service shared by all HICC requests
+   */
+  public static HBaseQueryService getQueryService() {
+    HBaseQueryService service = queryService;
+    if (service == null) {
+      synchronized (SERVICE_LOCK) {
+        service = queryService;
+        if (service == null) {
+          service = new HBaseQueryService(new ChukwaConfiguration());
+          queryService = service;
+        }
+      }
     }
+    return service;
+  }
+
+  public static void getHBaseConnection() throws IOException {
+    getQueryService().getConnection();
+  }
+
+  private static Table getTable(String name) throws IOException {
+    return getQueryService().getTable(name);
   }
   
-  public static synchronized void closeHBase() {
-    try {
-      if(connection != null) {
-        connection.close();
+  public static void closeHBase() {
+    synchronized (SERVICE_LOCK) {
+      if (queryService != null) {
+        queryService.close();
+        queryService = null;
       }
-    } catch(IOException e) {
-      LOG.warn("Unable to release HBase connection.");
     }
   }
   
@@ -134,207 +151,166 @@ public class ChukwaHBaseStore {
    * @param endTime end time
    * @return Series object
    */
-  public static synchronized Series getSeries(String metric, String source, long startTime,
+  public static Series getSeries(String metric, String source, long startTime,
       long endTime) {
-    String seriesName = new StringBuilder(metric).append(":").append(source).toString();
-    Series series = new Series(seriesName);
-    try {
-      // Swap start and end if the values are inverted.
-      if (startTime > endTime) {
-        long temp = endTime;
-        startTime = endTime;
-        endTime = temp;
-      }
-
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA));
-      Scan scan = new Scan();
-      Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-      c.setTimeInMillis(startTime);
-      int startDay = c.get(Calendar.DAY_OF_YEAR);
-      c.setTimeInMillis(endTime);
-      int endDay = c.get(Calendar.DAY_OF_YEAR);
-      long currentDay = startTime;
-      for (int i = startDay; i <= endDay; i++) {
-        byte[] rowKey = HBaseUtil.buildKey(currentDay, metric, source);
-
-        scan.addFamily(COLUMN_FAMILY);
-        scan.setStartRow(rowKey);
-        scan.setStopRow(rowKey);
-        scan.setTimeRange(startTime, endTime);
-        scan.setBatch(10000);
-
-        ResultScanner results = table.getScanner(scan);
-        Iterator<Result> it = results.iterator();
+    return getQueryService().getSeries(metric, source, startTime, endTime);
+  }
 
-        while (it.hasNext()) {
-          Result result = it.next();
-          for (Cell kv : result.rawCells()) {
-            byte[] key = CellUtil.cloneQualifier(kv);
-            long timestamp = ByteBuffer.wrap(key).getLong();
-            double value = Double
-                .parseDouble(new String(CellUtil.cloneValue(kv), UTF8));
-            series.add(timestamp, value);
-          }
-        }
-        results.close();
-        currentDay = currentDay + (i * MILLISECONDS_IN_DAY);
-      }
-      table.close();
-    } catch (IOException e) {
-      closeHBase();
+  /**
+   * @param metricGroup metric group name
+   * @return the metric names of metricGroup, served from the metadata cache
+   */
+  public static Set<String> getMetricNames(final String metricGroup) {
+    try {
+      return getMetadataCache().get("metrics\0" + metricGroup,
+          new MetadataCache.Loader() {
+            public Set<String> load() throws IOException {
+              return loadMetricNames(metricGroup);
+            }
+          });
+    } catch (Exception e) {
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
-    return series;
+    return new CopyOnWriteArraySet<String>();
   }
 
-  public static Set<String> getMetricNames(String metricGroup) {
+  private static Set<String> loadMetricNames(String metricGroup) throws IOException {
     Set<String> familyNames = new CopyOnWriteArraySet<String>();
+    Table table = getTable(CHUKWA_META);
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
       Get get = new Get(metricGroup.getBytes(UTF8));
       Result result = table.get(get);
       for (Cell kv : result.rawCells()) {
         JSONObject json = (JSONObject) JSONValue.parse(new String(CellUtil.cloneValue(kv), UTF8));
-        if (json.get("type").equals("metric")) {
+        if (json != null && "metric".equals(json.get("type"))) {
           familyNames.add(new String(CellUtil.cloneQualifier(kv), UTF8));
         }
       }
+    } finally {
       table.close();
-    } catch (Exception e) {
-      closeHBase();
-      LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return familyNames;
-
   }
 
+  /**
+   * @return the metric group names, served from the metadata cache
+   */
   public static Set<String> getMetricGroups() {
+    try {
+      return getMetadataCache().get("groups", new MetadataCache.Loader() {
+        public Set<String> load() throws IOException {
+          return loadMetricGroups();
+        }
+      });
+    } catch (Exception e) {
+      LOG.error(ExceptionUtil.getStackTrace(e));
+    }
+    return new CopyOnWriteArraySet<String>();
+  }
+
+  private static Set<String> loadMetricGroups() throws IOException {
     Set<String> metricGroups = new CopyOnWriteArraySet<String>();
+    Table table = getTable(CHUKWA_META);
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
       Scan scan = new Scan();
       scan.addFamily(KEY_NAMES);
+      // only the row keys are needed
+      scan.setFilter(new FilterList(new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
       ResultScanner rs = table.getScanner(scan);
-      Iterator<Result> it = rs.iterator();
-      while (it.hasNext()) {
-        Result result = it.next();
-        metricGroups.add(new String(result.getRow(), UTF8));
+      try {
+        Iterator<Result> it = rs.iterator();
+        while (it.hasNext()) {
+          Result result = it.next();
+          metricGroups.add(new String(result.getRow(), UTF8));
+        }
+      } finally {
+        rs.close();
       }
+    } finally {
       table.close();
-    } catch (Exception e) {
-      closeHBase();
-      LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return metricGroups;
   }
 
+  /**
+   * The sources are not stored by data type, so every data type shares one
+   * cached list of all sources.
+   *
+   * @param dataType data type name
+   * @return the source names, served from the metadata cache
+   */
   public static Set<String> getSourceNames(String dataType) {
+    try {
+      return getMetadataCache().get("sources", new MetadataCache.Loader() {
+        public Set<String> load() throws IOException {
+          return loadSourceNames();
+        }
+      });
+    } catch (Exception e) {
+      LOG.error(ExceptionUtil.getStackTrace(e));
+    }
+    return new HashSet<String>();
+  }
+
+  private static Set<String> loadSourceNames() throws IOException {
     Set<String> pk = new HashSet<String>();
+    Table table = getTable(CHUKWA_META);
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
       Scan scan = new Scan();
       scan.addFamily(KEY_NAMES);
       ResultScanner rs = table.getScanner(scan);
-      Iterator<Result> it = rs.iterator();
-      while (it.hasNext()) {
-        Result result = it.next();
-        for (Cell cell : result.rawCells()) {
-          JSONObject json = (JSONObject) JSONValue.parse(new String(CellUtil.cloneValue(cell), UTF8));
-          if (json!=null && json.get("type")!=null && json.get("type").equals("source")) {
-            pk.add(new String(CellUtil.cloneQualifier(cell), UTF8));
+      try {
+        Iterator<Result> it = rs.iterator();
+        while (it.hasNext()) {
+          Result result = it.next();
+          for (Cell cell : result.rawCells()) {
+            JSONObject json = (JSONObject) JSONValue.parse(new String(CellUtil.cloneValue(cell), UTF8));
+            if (json!=null && json.get("type")!=null && json.get("type").equals("source")) {
+              pk.add(new String(CellUtil.cloneQualifier(cell), UTF8));
+            }
           }
         }
+      } finally {
+        rs.close();
       }
-      rs.close();
+    } finally {
       table.close();
-    } catch (Exception e) {
-      closeHBase();
-      LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return pk;
   }
 
+  /**
+   * @return the cache of metric groups, metric names and source names
+   */
+  public static MetadataCache getMetadataCache() {
+    return getQueryService().getMetadataCache();
+  }
+
+  /**
+   * @return the cache of the points of metric series
+   */
+  public static SeriesCache getSeriesCache() {
+    return getQueryService().getSeriesCache();
+  }
+
   public static Heatmap getHeatmap(String metricGroup, String metric,
       long startTime, long endTime, double max, double scale, int width, int height) {
-    Heatmap heatmap = new Heatmap();
     Set<String> sources = getSourceNames(metricGroup);
     Set<String> metrics = getMetricNames(metricGroup);
-    List<Get> series = new ArrayList<Get>();
+    List<String> matched = new ArrayList<String>();
     String fullName = new StringBuilder(metricGroup).append(".").append(metric).toString();
-    try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA));
-      Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-      c.setTimeInMillis(startTime);
-      int startDay = c.get(Calendar.DAY_OF_YEAR);
-      c.setTimeInMillis(endTime);
-      int endDay = c.get(Calendar.DAY_OF_YEAR);
-      long currentDay = startTime;
-      for (int i = startDay; i <= endDay; i++) {
-        for (String m : metrics) {
-          if (m.startsWith(fullName)) {
-            for (String source : sources) {
-              byte[] rowKey = HBaseUtil.buildKey(currentDay, m, source);
-              Get serie = new Get(rowKey);
-              serie.addFamily(COLUMN_FAMILY);
-              serie.setTimeRange(startTime, endTime);
-              series.add(serie);
-            }
-          }
-        }
-        currentDay = currentDay + (i * MILLISECONDS_IN_DAY);
+    for (String m : metrics) {
+      if (m.startsWith(fullName)) {
+        matched.add(m);
       }
-      long timeRange = (endTime - startTime);
-      Result[] rs = table.get(series);
-      int index = 1;
-      // Series display in y axis
-      int y = 0;
-      HashMap<String, Integer> keyMap = new HashMap<String, Integer>();
-      for (Result result : rs) {
-        for(Cell cell : result.rawCells()) {
-          byte[] dest = new byte[5];
-          System.arraycopy(CellUtil.cloneRow(cell), 3, dest, 0, 5);
-          String source = new String(dest, UTF8);
-          long time = cell.getTimestamp();
-          // Time display in x axis
-          long delta = time - startTime;
-          double f = (double) delta / timeRange;
-          f = (double) f * width;
-          int x = (int) Math.round(f);
-          if (keyMap.containsKey(source)) {
-            y = keyMap.get(source);
-          } else {
-            keyMap.put(source, Integer.valueOf(index));
-            y = index;
-            index++;
-          }
-          double v = Double.parseDouble(new String(CellUtil.cloneValue(cell), UTF8));
-          heatmap.put(x, y, v);
-          if (v > max) {
-            max = v;
-          }
-        }
-      }
-      table.close();
-      int radius = height / index;
-      // Usually scale max from 0 to 100 for visualization
-      heatmap.putMax(scale);
-      for (HeatMapPoint point : heatmap.getHeatmap()) {
-        double round = point.count / max * scale;
-        round = Math.round(round * 100.0) / 100.0;
-        point.put(point.x, point.y * radius, round);
-      }
-      heatmap.putRadius(radius);
-      heatmap.putSeries(index -1);
-    } catch (IOException e) {
-      closeHBase();
-      LOG.error(ExceptionUtil.getStackTrace(e));
     }
-    return heatmap;
+    if (matched.isEmpty() || sources.isEmpty()) {
+      return new Heatmap();
+    }
+    // sorted, so a source keeps its row from one request to the next
+    List<String> rows = new ArrayList<String>(new TreeSet<String>(sources));
+    return getQueryService().getHeatmap(matched, rows, startTime, endTime,
+        max, scale, width, height);
   }
 
   /**
@@ -348,8 +324,7 @@ public class ChukwaHBaseStore {
   public static Set<String> getClusterNames(long startTime, long endTime) {
     Set<String> clusters = new HashSet<String>();
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Scan scan = new Scan();
       scan.addFamily(KEY_NAMES);
       ResultScanner rs = table.getScanner(scan);
@@ -365,7 +340,6 @@ public class ChukwaHBaseStore {
       }
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return clusters;
@@ -380,8 +354,7 @@ public class ChukwaHBaseStore {
   public static Chart getChart(String id) {
     Chart chart = null;
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Get get = new Get(CHART_TYPE);
       Result r = table.get(get);
       byte[] value = r.getValue(CHART_FAMILY, id.getBytes(UTF8));
@@ -391,7 +364,6 @@ public class ChukwaHBaseStore {
       }
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return chart;
@@ -405,8 +377,7 @@ public class ChukwaHBaseStore {
    */
   public static void putChart(String id, Chart chart) {
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Put put = new Put(CHART_TYPE);
       Gson gson = new Gson();
       String buffer = gson.toJson(chart);
@@ -414,7 +385,6 @@ public class ChukwaHBaseStore {
       table.put(put);
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     
@@ -519,7 +489,6 @@ public class ChukwaHBaseStore {
   public static synchronized String createChart(Chart chart) {
     String id = chart.getId();
     try {
-      getHBaseConnection();
       if (id != null) {
         // Check if there is existing chart with same id.
         Chart test = getChart(id);
@@ -532,7 +501,7 @@ public class ChukwaHBaseStore {
         id = String.valueOf(UUID.randomUUID());
       }
       chart.setId(id);
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Put put = new Put(CHART_TYPE);
       Gson gson = new Gson();
       String buffer = gson.toJson(chart);
@@ -540,7 +509,6 @@ public class ChukwaHBaseStore {
       table.put(put);
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
       id = null;
     }
@@ -555,110 +523,8 @@ public class ChukwaHBaseStore {
    * @param endTime sets the end time of metrics
    * @return A list of Series meta data
    */
-  public static synchronized ArrayList<org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData> getChartSeries(ArrayList<org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData> series, long startTime, long endTime) {
-    ArrayList<org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData> list = new ArrayList<org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData>();
-    try {
-      // Swap start and end if the values are inverted.
-      if (startTime > endTime) {
-        long temp = endTime;
-        startTime = endTime;
-        endTime = temp;
-      }
-      // Figure out the time range and determine the best resolution
-      // to fetch the data
-      long range = (endTime - startTime)
-        / (long) (MINUTES_IN_HOUR * MINUTE);
-      long sampleRate = 1;
-      if (range <= 1) {
-        sampleRate = 5;
-      } else if(range <= 24) {
-        sampleRate = 240;
-      } else if (range <= 720) {
-        sampleRate = 7200;
-      } else if(range >= 720) {
-        sampleRate = 87600;
-      }
-      double smoothing = (endTime - startTime)
-          / (double) (sampleRate * SECOND ) / (double) RESOLUTION;
-
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA));
-      Scan scan = new Scan();
-      Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-      c.setTimeInMillis(startTime);
-      int startDay = c.get(Calendar.DAY_OF_YEAR);
-      c.setTimeInMillis(endTime);
-      int endDay = c.get(Calendar.DAY_OF_YEAR);
-      for (org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData s : series) {
-        org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData clone = (org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData) s.clone();
-        long currentDay = startTime;
-        String[] parts = s.getUrl().toString().split("/");
-        String metric = parts[5];
-        String source = parts[6];
-        ArrayList<ArrayList<Number>> data = new ArrayList<ArrayList<Number>>();
-        for (int i = startDay; i <= endDay; i++) {
-          byte[] rowKey = HBaseUtil.buildKey(currentDay, metric, source);
-          scan.addFamily(COLUMN_FAMILY);
-          scan.setStartRow(rowKey);
-          scan.setStopRow(rowKey);
-          scan.setTimeRange(startTime, endTime);
-          scan.setBatch(10000);
-
-          ResultScanner results = table.getScanner(scan);
-          Iterator<Result> it = results.iterator();
-          double filteredValue = 0.0d;
-          long lastTime = startTime;
-          long totalElapsedTime = 0;
-          int initial = 0;
-          
-          while (it.hasNext()) {
-            Result result = it.next();
-            for (Cell kv : result.rawCells()) {
-              byte[] key = CellUtil.cloneQualifier(kv);
-              long timestamp = ByteBuffer.wrap(key).getLong();
-              double value = Double.parseDouble(new String(CellUtil.cloneValue(kv),
-                  UTF8));
-              if(initial==0) {
-                filteredValue = value;
-              }
-              long elapsedTime = (timestamp - lastTime) / SECOND;
-              lastTime = timestamp;
-              // Determine if there is any gap, if there is gap in data, reset
-              // calculation.
-              if (elapsedTime > (sampleRate * 5)) {
-                filteredValue = 0.0d;
-              } else {
-                if (smoothing != 0.0d) {
-                  // Apply low pass filter to calculate
-                  filteredValue = filteredValue + (double) ((double) elapsedTime * (double) ((double) (value - filteredValue) / smoothing));
-                } else {
-                  // Use original value
-                  filteredValue = value;
-                }
-              }
-              totalElapsedTime = totalElapsedTime + elapsedTime;
-              if (totalElapsedTime >= sampleRate) {
-                ArrayList<Number> points = new ArrayList<Number>();
-                points.add(timestamp);
-                points.add(filteredValue);
-                data.add(points);
-                totalElapsedTime = 0;
-              }
-            }
-            initial++;
-          }
-          results.close();
-          currentDay = currentDay + (i * MILLISECONDS_IN_DAY);
-        }
-        clone.setData(data);
-        list.add(clone);
-      }
-      table.close();
-    } catch (IOException|CloneNotSupportedException e) {
-      closeHBase();
-      LOG.error(ExceptionUtil.getStackTrace(e));
-    }
-    return list;
+  public static ArrayList<org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData> getChartSeries(ArrayList<org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData> series, long startTime, long endTime) {
+    return getQueryService().getChartSeries(series, startTime, endTime);
   }
 
   /**
@@ -668,11 +534,10 @@ public class ChukwaHBaseStore {
    * @param offset sets the starting point to return widgets
    * @return List of Widgets
    */
-  public static synchronized List<Widget> listWidget(int limit, int offset) {
+  public static List<Widget> listWidget(int limit, int offset) {
     ArrayList<Widget> list = new ArrayList<Widget>();
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Scan scan = new Scan();
       scan.setStartRow(WIDGET_TYPE);
       scan.setStopRow(WIDGET_TYPE);
@@ -697,54 +562,21 @@ public class ChukwaHBaseStore {
       rs.close();
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return list;
   }
 
-  public static synchronized List<String> getData(ArrayList<SeriesMetaData> series, long startTime, long endTime) {
-    ArrayList<String> data = new ArrayList<String>();
-    try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA));
-      Scan scan = new Scan();
-      for(SeriesMetaData s : series) {
-        String snapshot = "";
-        String[] parts = s.getUrl().toString().split("/");
-        String metric = parts[5];
-        String source = parts[6];
-        long currentDay = startTime;
-        byte[] rowKey = HBaseUtil.buildKey(currentDay, metric, source);
-        scan.addFamily(COLUMN_FAMILY);
-        scan.setStartRow(rowKey);
-        scan.setStopRow(rowKey);
-        scan.setTimeRange(startTime, endTime);
-        scan.setBatch(10000);
-        ResultScanner rs = table.getScanner(scan);
-        Iterator<Result> it = rs.iterator();
-        while(it.hasNext()) {
-          Result result = it.next();
-          for(Cell kv : result.rawCells()) {
-            snapshot = new String(CellUtil.cloneValue(kv));
-            if(snapshot.matches("-?\\d+(\\.\\d+)?")) {
-              int endOffset = snapshot.length();
-              if(snapshot.length() - snapshot.indexOf(".") > 2) {
-                endOffset = snapshot.indexOf(".") + 2;
-              }
-              snapshot = snapshot.substring(0, endOffset);
-            }
-          }
-        }
-        data.add(snapshot);
-        rs.close();
-      }
-      table.close();
-    } catch(Exception e) {
-      closeHBase();
-      LOG.error(ExceptionUtil.getStackTrace(e));
-    }
-    return data;
+  /**
+   * Return the latest value of multiple series of metrics stored in HBase.
+   * 
+   * @param series is SeriesMetaData object
+   * @param startTime sets the start time of metrics
+   * @param endTime sets the end time of metrics
+   * @return List of values, one for each series
+   */
+  public static List<String> getData(ArrayList<SeriesMetaData> series, long startTime, long endTime) {
+    return getQueryService().getData(series, startTime, endTime);
   }
 
   /**
@@ -753,11 +585,10 @@ public class ChukwaHBaseStore {
    * @param query is prefix query of widget title.
    * @return List of Widgets
    */
-  public static synchronized List<Widget> searchWidget(String query) {
+  public static List<Widget> searchWidget(String query) {
     ArrayList<Widget> list = new ArrayList<Widget>();
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Filter filter = new ColumnPrefixFilter(Bytes.toBytes(query));
       Scan scan = new Scan();
       scan.setStartRow(WIDGET_TYPE);
@@ -776,7 +607,6 @@ public class ChukwaHBaseStore {
       rs.close();
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return list;
@@ -788,11 +618,10 @@ public class ChukwaHBaseStore {
    * @param title is title of the widget.
    * @return List of Widgets
    */
-  public static synchronized Widget viewWidget(String title) {
+  public static Widget viewWidget(String title) {
     Widget w = null;
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Get widget = new Get(WIDGET_TYPE);
       widget.addColumn(COMMON_FAMILY, title.getBytes(UTF8));
       Result rs = table.get(widget);
@@ -801,7 +630,6 @@ public class ChukwaHBaseStore {
       w = gson.fromJson(new String(buffer, UTF8), Widget.class);
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return w;
@@ -817,8 +645,7 @@ public class ChukwaHBaseStore {
     boolean created = false;
     try {
       widget.tokenize();
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Get widgetTest = new Get(WIDGET_TYPE);
       widgetTest.addColumn(COMMON_FAMILY, widget.getTitle().getBytes(UTF8));
       if (table.exists(widgetTest)) {
@@ -834,7 +661,6 @@ public class ChukwaHBaseStore {
       }
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return created;
@@ -850,8 +676,7 @@ public class ChukwaHBaseStore {
   public static synchronized boolean updateWidget(String title, Widget widget) {
     boolean result = false;
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Delete oldWidget = new Delete(WIDGET_TYPE);
       oldWidget.addColumn(COMMON_FAMILY, title.getBytes(UTF8));
       table.delete(oldWidget);
@@ -863,7 +688,6 @@ public class ChukwaHBaseStore {
       table.close();
       result = true;
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
       LOG.error("Error in updating widget, original title: " + 
         title + " new title:" + widget.getTitle());
@@ -880,15 +704,13 @@ public class ChukwaHBaseStore {
   public static synchronized boolean deleteWidget(String title) {
     boolean result = false;
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Delete oldWidget = new Delete(WIDGET_TYPE);
       oldWidget.addColumn(COMMON_FAMILY, title.getBytes(UTF8));
       table.delete(oldWidget);
       table.close();
       result = true;
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
       LOG.error("Error in deleting widget: "+ title);
     }
@@ -898,14 +720,12 @@ public class ChukwaHBaseStore {
   public static boolean isDefaultExists() {
     boolean exists = false;
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Get dashboardTest = new Get(DASHBOARD_TYPE);
       dashboardTest.addColumn(COMMON_FAMILY, "default".getBytes(UTF8));
       exists = table.exists(dashboardTest);
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
     }
     return exists;
@@ -1001,13 +821,12 @@ public class ChukwaHBaseStore {
     }
   }
 
-  public static synchronized Dashboard getDashboard(String id, String user) {
+  public static Dashboard getDashboard(String id, String user) {
     Dashboard dash = null;
     String key = new StringBuilder().append(id).
         append("|").append(user).toString();
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Get dashboard = new Get(DASHBOARD_TYPE);
       dashboard.addColumn(COMMON_FAMILY, key.getBytes(UTF8));
       Result rs = table.get(dashboard);
@@ -1024,7 +843,6 @@ public class ChukwaHBaseStore {
       dash = gson.fromJson(new String(buffer, UTF8), Dashboard.class);
       table.close();
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
       LOG.error("Error retrieving dashboard, id: " + 
         id + " user:" + user);
@@ -1037,8 +855,7 @@ public class ChukwaHBaseStore {
     String key = new StringBuilder().append(id).
         append("|").append(user).toString();
     try {
-      getHBaseConnection();
-      Table table = connection.getTable(TableName.valueOf(CHUKWA_META));
+      Table table = getTable(CHUKWA_META);
       Put put = new Put(DASHBOARD_TYPE);
       Gson gson = new Gson();
       String buffer = gson.toJson(dash);
@@ -1047,7 +864,6 @@ public class ChukwaHBaseStore {
       table.close();
       result = true;
     } catch (Exception e) {
-      closeHBase();
       LOG.error(ExceptionUtil.getStackTrace(e));
       LOG.error("Error in updating dashboard, id: " + 
         id + " user:" + user);
@@ -0,0 +1,687 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.chukwa.hicc.bean.Heatmap;
+import org.apache.hadoop.chukwa.hicc.bean.Series;
+import org.apache.hadoop.chukwa.hicc.bean.SeriesMetaData;
+import org.apache.hadoop.chukwa.util.ExceptionUtil;
+import org.apache.hadoop.chukwa.util.HBaseUtil;
+import org.apache.hadoop.chukwa.util.MetricValueCodec;
+import org.apache.hadoop.chukwa.util.Rollup;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads metric series from the chukwa table for HICC.
+ *
+ * One service is shared by all requests. It holds the HBase connection,
+ * which is thread safe, and opens a Table handle per query, so queries from
+ * different users run concurrently instead of queueing on a lock. The
+ * series of a chart are fetched in parallel on a bounded pool, and every
+ * query gives up after chukwa.hicc.query.timeout ms; a series that times
+ * out is returned without data.
+ *
+ * With chukwa.hicc.query.rollups set, chart series over long ranges are
+ * read from the rollups written by HBaseWriter, at the resolution picked
+ * by QueryPlanner; a series without rollups falls back to the raw values.
+ *
+ * Series and chart series are kept in a SeriesCache, so a dashboard which
+ * refreshes every few seconds only reads the points it has not seen yet.
+ * Queries which time out are not cached.
+ */
+public class HBaseQueryService {
+  static Logger LOG = Logger.getLogger(HBaseQueryService.class);
+
+  public static final String THREADS_OPT = "chukwa.hicc.query.threads";
+  public static final String QUEUE_OPT = "chukwa.hicc.query.queue.size";
+  public static final String TIMEOUT_OPT = "chukwa.hicc.query.timeout";
+  public static final String ROLLUPS_OPT = "chukwa.hicc.query.rollups";
+  public static final int DEFAULT_THREADS = 16;
+  public static final int DEFAULT_QUEUE_SIZE = 1024;
+  public static final long DEFAULT_TIMEOUT = 30000;
+
+  private static final byte[] COLUMN_FAMILY = ChukwaHBaseStore.COLUMN_FAMILY;
+  private static final String CHUKWA = "chukwa";
+  private static final long MILLISECONDS_IN_DAY = 86400000L;
+  private static final int SECOND = ChukwaHBaseStore.SECOND;
+
+  private final Configuration hbaseConf;
+  private final ThreadPoolExecutor pool;
+  private final long timeout;
+  private final QueryPlanner planner;
+  private final MetadataCache metadata;
+  private final SeriesCache cache;
+  private volatile Connection connection = null;
+
+  public HBaseQueryService(Configuration conf) {
+    this(conf, HBaseConfiguration.create());
+  }
+
+  /**
+   * @param conf holds the chukwa.hicc.query options
+   * @param hbaseConf is used to connect to HBase
+   */
+  public HBaseQueryService(Configuration conf, Configuration hbaseConf) {
+    this.hbaseConf = hbaseConf;
+    int threads = Math.max(1, conf.getInt(THREADS_OPT, DEFAULT_THREADS));
+    int queueSize = Math.max(1, conf.getInt(QUEUE_OPT, DEFAULT_QUEUE_SIZE));
+    this.timeout = conf.getLong(TIMEOUT_OPT, DEFAULT_TIMEOUT);
+    this.metadata = new MetadataCache(conf.getInt(MetadataCache.SIZE_OPT,
+        MetadataCache.DEFAULT_MAX_ENTRIES), conf.getLong(
+        MetadataCache.REFRESH_OPT, MetadataCache.DEFAULT_REFRESH));
+    this.cache = new SeriesCache(conf.getLong(SeriesCache.SIZE_OPT,
+        SeriesCache.DEFAULT_MAX_POINTS), conf.getLong(SeriesCache.TTL_OPT,
+        SeriesCache.DEFAULT_TTL), conf.getLong(SeriesCache.BUCKET_OPT,
+        SeriesCache.DEFAULT_BUCKET));
+    if (conf.getBoolean(ROLLUPS_OPT, false)) {
+      this.planner = new QueryPlanner((int) ChukwaHBaseStore.RESOLUTION);
+    } else {
+      this.planner = null;
+    }
+    this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(queueSize),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger(0);
+
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HICC query " + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+          }
+        },
+        // when the queue is full, the request thread runs the scan itself
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    this.pool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return the shared HBase connection, reconnecting if it has been closed
+   *         or aborted
+   * @throws IOException if HBase is unavailable
+   */
+  public Connection getConnection() throws IOException {
+    Connection c = connection;
+    if (c == null || c.isClosed() || c.isAborted()) {
+      synchronized (this) {
+        c = connection;
+        if (c == null || c.isClosed() || c.isAborted()) {
+          c = ConnectionFactory.createConnection(hbaseConf);
+          connection = c;
+        }
+      }
+    }
+    return c;
+  }
+
+  /**
+   * @param name is the table name
+   * @return a new Table handle, which the caller must close
+   * @throws IOException if HBase is unavailable
+   */
+  public Table getTable(String name) throws IOException {
+    return getConnection().getTable(TableName.valueOf(name));
+  }
+
+  /**
+   * @return the query timeout in ms
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @return the cache of the names stored in chukwa_meta
+   */
+  public MetadataCache getMetadataCache() {
+    return metadata;
+  }
+
+  /**
+   * @return the cache of the points of metric series
+   */
+  public SeriesCache getSeriesCache() {
+    return cache;
+  }
+
+  /**
+   * Release the connection and stop the query threads.
+   */
+  public synchronized void close() {
+    pool.shutdownNow();
+    metadata.close();
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (IOException e) {
+        LOG.warn("Unable to release HBase connection.");
+      }
+      connection = null;
+    }
+  }
+
+  /**
+   * Scan the chukwa table for a full metric name based on time ranges.
+   *
+   * @param metric metric group name and metric name combined
+   * @param source source of the metric
+   * @param startTime start time
+   * @param endTime end time
+   * @return Series object
+   */
+  public Series getSeries(final String metric, final String source,
+      long startTime, long endTime) {
+    final String seriesName = new StringBuilder(metric).append(":")
+        .append(source).toString();
+    final long start = Math.min(startTime, endTime);
+    final long end = Math.max(startTime, endTime);
+    final long deadline = System.currentTimeMillis() + timeout;
+    Future<Series> f = pool.submit(new Callable<Series>() {
+      public Series call() throws IOException {
+        SeriesCache.Points points = cache.getSeries(seriesName, start, end,
+            new SeriesCache.Loader() {
+              public void load(long from, long to, SeriesCache.Points out)
+                  throws IOException {
+                readSeries(metric, source, from, to, out, deadline);
+              }
+            });
+        Series series = new Series(seriesName);
+        for (int i = 0; i < points.size(); i++) {
+          series.add(points.getTime(i), points.getValue(i));
+        }
+        return series;
+      }
+    });
+    Series series = await(f, deadline, seriesName);
+    return series == null ? new Series(seriesName) : series;
+  }
+
+  private void readSeries(String metric, String source, long start, long end,
+      SeriesCache.Points points, long deadline) throws IOException {
+    Scan scan = ScanBuilder.scan(rowKeys(metric, source, start, end),
+        COLUMN_FAMILY, start, end, null);
+    for (Cell kv : read(scan, deadline)) {
+      long timestamp = Bytes.toLong(kv.getQualifierArray(),
+          kv.getQualifierOffset());
+      double value = MetricValueCodec.decode(kv.getValueArray(),
+          kv.getValueOffset(), kv.getValueLength());
+      points.add(timestamp, value);
+    }
+    checkDeadline(deadline, metric + ":" + source);
+  }
+
+  /**
+   * Return data for multiple series of metrics. The series are read in
+   * parallel.
+   *
+   * @param series is SeriesMetaData object
+   * @param startTime sets the start time of metrics
+   * @param endTime sets the end time of metrics
+   * @return A list of Series meta data, in the order of series
+   */
+  public ArrayList<SeriesMetaData> getChartSeries(List<SeriesMetaData> series,
+      long startTime, long endTime) {
+    final long start = Math.min(startTime, endTime);
+    final long end = Math.max(startTime, endTime);
+    // Figure out the time range and determine the best resolution
+    // to fetch the data
+    long range = (end - start)
+        / (long) (ChukwaHBaseStore.MINUTES_IN_HOUR * ChukwaHBaseStore.MINUTE);
+    long rate = 1;
+    if (range <= 1) {
+      rate = 5;
+    } else if (range <= 24) {
+      rate = 240;
+    } else if (range <= 720) {
+      rate = 7200;
+    } else {
+      rate = 87600;
+    }
+    final long sampleRate = rate;
+    final double smoothing = (end - start) / (double) (sampleRate * SECOND)
+        / ChukwaHBaseStore.RESOLUTION;
+    final long deadline = System.currentTimeMillis() + timeout;
+    final long width = (long) ((end - start) / ChukwaHBaseStore.RESOLUTION);
+
+    ArrayList<SeriesMetaData> list = new ArrayList<SeriesMetaData>();
+    List<Future<ArrayList<ArrayList<Number>>>> futures =
+        new ArrayList<Future<ArrayList<ArrayList<Number>>>>();
+    for (SeriesMetaData s : series) {
+      String[] parts = s.getUrl().toString().split("/");
+      final String metric = parts[5];
+      final String source = parts[6];
+      futures.add(pool.submit(new Callable<ArrayList<ArrayList<Number>>>() {
+        public ArrayList<ArrayList<Number>> call() throws IOException {
+          SeriesCache.Points points = cache.getWindow(metric + ":" + source,
+              start, end, width, new SeriesCache.Loader() {
+                public void load(long from, long to, SeriesCache.Points out)
+                    throws IOException {
+                  for (ArrayList<Number> point : readChartSeries(metric,
+                      source, from, to, sampleRate, smoothing, deadline)) {
+                    out.add(point.get(0).longValue(),
+                        point.get(1).doubleValue());
+                  }
+                  checkDeadline(deadline, metric + ":" + source);
+                }
+              });
+          ArrayList<ArrayList<Number>> data =
+              new ArrayList<ArrayList<Number>>(points.size());
+          for (int i = 0; i < points.size(); i++) {
+            ArrayList<Number> point = new ArrayList<Number>(2);
+            point.add(points.getTime(i));
+            point.add(points.getValue(i));
+            data.add(point);
+          }
+          return data;
+        }
+      }));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      SeriesMetaData s = series.get(i);
+      ArrayList<ArrayList<Number>> data = await(futures.get(i), deadline,
+          s.getUrl().toString());
+      if (data == null) {
+        data = new ArrayList<ArrayList<Number>>();
+      }
+      try {
+        SeriesMetaData clone = (SeriesMetaData) s.clone();
+        clone.setData(data);
+        list.add(clone);
+      } catch (CloneNotSupportedException e) {
+        LOG.error(ExceptionUtil.getStackTrace(e));
+      }
+    }
+    return list;
+  }
+
+  private ArrayList<ArrayList<Number>> readChartSeries(String metric,
+      String source, long start, long end, long sampleRate, double smoothing,
+      long deadline) throws IOException {
+    if (planner != null) {
+      Rollup.Resolution resolution = planner.plan(start, end);
+      if (resolution != null) {
+        ArrayList<ArrayList<Number>> data = readRollupData(metric, source,
+            start, end, resolution, deadline);
+        if (data != null) {
+          return data;
+        }
+      }
+    }
+    return readChartData(metric, source, start, end, sampleRate, smoothing,
+        deadline);
+  }
+
+  private ArrayList<ArrayList<Number>> readChartData(String metric,
+      String source, long start, long end, long sampleRate, double smoothing,
+      long deadline) throws IOException {
+    ArrayList<ArrayList<Number>> data = new ArrayList<ArrayList<Number>>();
+    Scan scan = ScanBuilder.scan(rowKeys(metric, source, start, end),
+        COLUMN_FAMILY, start, end,
+        ScanBuilder.sample(start, end, (int) ChukwaHBaseStore.RESOLUTION));
+    double filteredValue = 0.0d;
+    long lastTime = start;
+    long totalElapsedTime = 0;
+    int initial = 0;
+    for (Cell kv : read(scan, deadline)) {
+      long timestamp = Bytes.toLong(kv.getQualifierArray(),
+          kv.getQualifierOffset());
+      double value = MetricValueCodec.decode(kv.getValueArray(),
+          kv.getValueOffset(), kv.getValueLength());
+      if (initial == 0) {
+        filteredValue = value;
+      }
+      long elapsedTime = (timestamp - lastTime) / SECOND;
+      lastTime = timestamp;
+      // Determine if there is any gap, if there is gap in data, reset
+      // calculation.
+      if (elapsedTime > (sampleRate * 5)) {
+        filteredValue = 0.0d;
+      } else {
+        if (smoothing != 0.0d) {
+          // Apply low pass filter to calculate
+          filteredValue = filteredValue + (double) ((double) elapsedTime
+              * (double) ((double) (value - filteredValue) / smoothing));
+        } else {
+          // Use original value
+          filteredValue = value;
+        }
+      }
+      totalElapsedTime = totalElapsedTime + elapsedTime;
+      if (totalElapsedTime >= sampleRate) {
+        ArrayList<Number> points = new ArrayList<Number>();
+        points.add(timestamp);
+        points.add(filteredValue);
+        data.add(points);
+        totalElapsedTime = 0;
+      }
+      initial++;
+    }
+    return data;
+  }
+
+  /**
+   * Read the average of every point of a chart series from the rollups of
+   * resolution, merging consecutive buckets to the width of a point.
+   *
+   * @return the points, or null if the stored rollups do not reach back to
+   *         the start of the range
+   */
+  private ArrayList<ArrayList<Number>> readRollupData(String metric,
+      String source, long start, long end, Rollup.Resolution resolution,
+      long deadline) throws IOException {
+    ArrayList<ArrayList<Number>> data = new ArrayList<ArrayList<Number>>();
+    long width = planner.pointWidth(resolution, start, end);
+    long first = resolution.bucket(start);
+    long slot = 0;
+    long firstBucket = Long.MAX_VALUE;
+    Rollup point = null;
+    Scan scan = ScanBuilder.scan(rowKeys(metric, source, start, end),
+        resolution.getFamily(), first, end, null);
+    for (Cell kv : read(scan, deadline)) {
+      Rollup bucket = Rollup.fromBytes(kv.getValueArray(),
+          kv.getValueOffset(), kv.getValueLength());
+      if (bucket == null) {
+        continue;
+      }
+      long time = Bytes.toLong(kv.getQualifierArray(),
+          kv.getQualifierOffset());
+      firstBucket = Math.min(firstBucket, time);
+      long s = first + ((time - first) / width) * width;
+      if (point == null || s != slot) {
+        addPoint(data, slot, point);
+        point = new Rollup();
+        slot = s;
+      }
+      point.merge(bucket);
+    }
+    if (!planner.covers(resolution, start, firstBucket)) {
+      return null;
+    }
+    addPoint(data, slot, point);
+    return data;
+  }
+
+  private static void addPoint(ArrayList<ArrayList<Number>> data, long time,
+      Rollup point) {
+    if (point != null && point.getCount() > 0) {
+      ArrayList<Number> points = new ArrayList<Number>();
+      points.add(time);
+      points.add(point.getAverage());
+      data.add(points);
+    }
+  }
+
+  /**
+   * Build a heatmap with one row per source. The sources are split into one
+   * partition per query thread, and every partition is read by one sampled
+   * scan into its own grid, so the partitions share no state until their
+   * rows are copied into the heatmap.
+   *
+   * @param metrics are the full metric names shown in the heatmap
+   * @param sources are the sources, in the order of the heatmap rows
+   * @param startTime is the time of the left edge
+   * @param endTime is the time of the right edge
+   * @param max is the value shown as scale, raised to the largest value
+   * @param scale is the largest value of the heatmap
+   * @param width is the heatmap width in pixels
+   * @param height is the heatmap height in pixels
+   * @return the heatmap; partitions which time out are left empty
+   */
+  public Heatmap getHeatmap(final List<String> metrics, List<String> sources,
+      long startTime, long endTime, double max, double scale, final int width,
+      int height) {
+    final long start = Math.min(startTime, endTime);
+    final long end = Math.max(startTime, endTime);
+    final long deadline = System.currentTimeMillis() + timeout;
+    int partitions = Math.max(1, Math.min(sources.size(),
+        pool.getMaximumPoolSize()));
+    List<List<String>> parts = new ArrayList<List<String>>(partitions);
+    for (int i = 0; i < partitions; i++) {
+      parts.add(new ArrayList<String>());
+    }
+    for (int i = 0; i < sources.size(); i++) {
+      parts.get(i % partitions).add(sources.get(i));
+    }
+    List<Future<HeatmapGrid>> futures = new ArrayList<Future<HeatmapGrid>>();
+    for (final List<String> part : parts) {
+      futures.add(pool.submit(new Callable<HeatmapGrid>() {
+        public HeatmapGrid call() throws IOException {
+          return readHeatmap(metrics, part, start, end, width, deadline);
+        }
+      }));
+    }
+    HeatmapGrid grid = new HeatmapGrid(sources.size(), start, end, width);
+    for (int i = 0; i < partitions; i++) {
+      HeatmapGrid part = await(futures.get(i), deadline, "heatmap of "
+          + parts.get(i).size() + " sources");
+      if (part != null) {
+        for (int j = 0; j < part.getSeries(); j++) {
+          grid.copyRow(i + j * partitions, part, j);
+        }
+      }
+    }
+    return grid.toHeatmap(max, scale, height);
+  }
+
+  private HeatmapGrid readHeatmap(List<String> metrics, List<String> sources,
+      long start, long end, int width, long deadline) throws IOException {
+    HeatmapGrid grid = new HeatmapGrid(sources.size(), start, end, width);
+    // the row of every key, a row key only holds one source
+    Map<byte[], Integer> series = new TreeMap<byte[], Integer>(
+        Bytes.BYTES_COMPARATOR);
+    List<byte[]> rows = new ArrayList<byte[]>();
+    for (int i = 0; i < sources.size(); i++) {
+      for (String metric : metrics) {
+        for (byte[] key : rowKeys(metric, sources.get(i), start, end)) {
+          series.put(key, i);
+          rows.add(key);
+        }
+      }
+    }
+    if (rows.isEmpty()) {
+      return grid;
+    }
+    Scan scan = ScanBuilder.scan(rows, COLUMN_FAMILY, start, end,
+        ScanBuilder.sample(start, end, width));
+    Table table = getTable(CHUKWA);
+    try {
+      ResultScanner results = table.getScanner(scan);
+      try {
+        Iterator<Result> it = results.iterator();
+        while (it.hasNext() && !expired(deadline)) {
+          Result result = it.next();
+          Integer y = series.get(result.getRow());
+          if (y == null) {
+            continue;
+          }
+          for (Cell kv : result.rawCells()) {
+            long timestamp = Bytes.toLong(kv.getQualifierArray(),
+                kv.getQualifierOffset());
+            double value = MetricValueCodec.decode(kv.getValueArray(),
+                kv.getValueOffset(), kv.getValueLength());
+            grid.put(y, timestamp, value);
+          }
+        }
+      } finally {
+        results.close();
+      }
+    } finally {
+      table.close();
+    }
+    return grid;
+  }
+
+  /**
+   * Return the latest value of multiple series of metrics. The series are
+   * read in parallel.
+   *
+   * @param series is SeriesMetaData object
+   * @param startTime sets the start time of metrics
+   * @param endTime sets the end time of metrics
+   * @return the latest value of each series, or "" if it has none
+   */
+  public List<String> getData(List<SeriesMetaData> series,
+      final long startTime, final long endTime) {
+    final long deadline = System.currentTimeMillis() + timeout;
+    List<Future<String>> futures = new ArrayList<Future<String>>();
+    for (SeriesMetaData s : series) {
+      String[] parts = s.getUrl().toString().split("/");
+      final String metric = parts[5];
+      final String source = parts[6];
+      futures.add(pool.submit(new Callable<String>() {
+        public String call() throws IOException {
+          return readSnapshot(metric, source, startTime, endTime, deadline);
+        }
+      }));
+    }
+    ArrayList<String> data = new ArrayList<String>();
+    for (int i = 0; i < futures.size(); i++) {
+      String snapshot = await(futures.get(i), deadline,
+          series.get(i).getUrl().toString());
+      data.add(snapshot == null ? "" : snapshot);
+    }
+    return data;
+  }
+
+  private String readSnapshot(String metric, String source, long startTime,
+      long endTime, long deadline) throws IOException {
+    String snapshot = "";
+    List<byte[]> rows = new ArrayList<byte[]>();
+    rows.add(HBaseUtil.buildKey(startTime, metric, source));
+    Scan scan = ScanBuilder.scan(rows, COLUMN_FAMILY, startTime, endTime,
+        null);
+    for (Cell kv : read(scan, deadline)) {
+      snapshot = MetricValueCodec.decodeText(kv.getValueArray(),
+          kv.getValueOffset(), kv.getValueLength());
+      if (snapshot.matches("-?\\d+(\\.\\d+)?")) {
+        int endOffset = snapshot.length();
+        if (snapshot.length() - snapshot.indexOf(".") > 2) {
+          endOffset = snapshot.indexOf(".") + 2;
+        }
+        snapshot = snapshot.substring(0, endOffset);
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * @return the row keys of metric and source for every day from startTime
+   *         to endTime
+   */
+  static List<byte[]> rowKeys(String metric, String source, long startTime,
+      long endTime) {
+    List<byte[]> keys = new ArrayList<byte[]>();
+    long day = startTime - (startTime % MILLISECONDS_IN_DAY);
+    for (; day <= endTime; day += MILLISECONDS_IN_DAY) {
+      byte[] key = HBaseUtil.buildKey(day, metric, source);
+      // a row holds several days, see HBaseUtil.buildKey
+      if (keys.isEmpty() || !Arrays.equals(key, keys.get(keys.size() - 1))) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Run a scan until it is exhausted or the deadline has passed.
+   *
+   * @return the cells of the results, in time order
+   */
+  private List<Cell> read(Scan scan, long deadline) throws IOException {
+    List<Result> list = new ArrayList<Result>();
+    Table table = getTable(CHUKWA);
+    try {
+      ResultScanner results = table.getScanner(scan);
+      try {
+        Iterator<Result> it = results.iterator();
+        while (it.hasNext() && !expired(deadline)) {
+          list.add(it.next());
+        }
+      } finally {
+        results.close();
+      }
+    } finally {
+      table.close();
+    }
+    return ScanBuilder.sortByTime(list);
+  }
+
+  private static boolean expired(long deadline) {
+    return System.currentTimeMillis() > deadline;
+  }
+
+  /**
+   * Fail a read which was cut short by the deadline, so its partial result
+   * is not cached.
+   */
+  private static void checkDeadline(long deadline, String query)
+      throws InterruptedIOException {
+    if (expired(deadline)) {
+      throw new InterruptedIOException("Query for " + query + " timed out");
+    }
+  }
+
+  /**
+   * Wait for a query until the deadline, cancelling it if it is late.
+   *
+   * @return the result, or null if the query failed or timed out
+   */
+  private <T> T await(Future<T> f, long deadline, String query) {
+    try {
+      long wait = Math.max(0, deadline - System.currentTimeMillis());
+      return f.get(wait, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      f.cancel(true);
+      LOG.warn("Query for " + query + " timed out after " + timeout + " ms");
+    } catch (ExecutionException e) {
+      LOG.error(ExceptionUtil.getStackTrace(e.getCause()));
+    } catch (InterruptedException e) {
+      f.cancel(true);
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.chukwa.hicc.bean.Heatmap;
+
+/**
+ * Accumulates the values of a heatmap in a grid with one row per series
+ * and one column per pixel of the heatmap width. A cell keeps the largest
+ * value that falls into it; cells without values hold NaN.
+ */
+class HeatmapGrid {
+  private final double[][] grid;
+  private final long start;
+  private final long range;
+  private final int width;
+
+  /**
+   * @param series is the number of rows
+   * @param start is the time of the first column
+   * @param end is the time of the last column
+   * @param width is the heatmap width in pixels
+   */
+  HeatmapGrid(int series, long start, long end, int width) {
+    this.start = start;
+    this.range = Math.max(1, end - start);
+    this.width = Math.max(1, width);
+    this.grid = new double[series][];
+  }
+
+  int getSeries() {
+    return grid.length;
+  }
+
+  /**
+   * @return the column of time
+   */
+  int column(long time) {
+    int x = (int) Math.round((double) (time - start) / range * width);
+    return Math.min(width, Math.max(0, x));
+  }
+
+  void put(int series, long time, double value) {
+    double[] row = grid[series];
+    if (row == null) {
+      row = new double[width + 1];
+      Arrays.fill(row, Double.NaN);
+      grid[series] = row;
+    }
+    int x = column(time);
+    if (Double.isNaN(row[x]) || value > row[x]) {
+      row[x] = value;
+    }
+  }
+
+  /**
+   * Copy a row of another grid of the same width.
+   */
+  void copyRow(int series, HeatmapGrid from, int fromSeries) {
+    grid[series] = from.grid[fromSeries];
+  }
+
+  /**
+   * @return the largest value of the grid, or NaN if it is empty
+   */
+  double max() {
+    double max = Double.NaN;
+    for (double[] row : grid) {
+      if (row != null) {
+        for (double v : row) {
+          if (!Double.isNaN(v) && (Double.isNaN(max) || v > max)) {
+            max = v;
+          }
+        }
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Build the heatmap of the non-empty rows, numbered from 1 and spread
+   * over height, with values scaled from 0 to scale.
+   *
+   * @param max is the value which is scaled to scale, raised to the largest
+   *        value of the grid
+   * @param scale is the largest value of the heatmap
+   * @param height is the heatmap height in pixels
+   * @return the heatmap, with one point per non-empty cell
+   */
+  Heatmap toHeatmap(double max, double scale, int height) {
+    Heatmap heatmap = new Heatmap();
+    double gridMax = max();
+    if (!Double.isNaN(gridMax) && gridMax > max) {
+      max = gridMax;
+    }
+    int series = 0;
+    for (double[] row : grid) {
+      if (row != null) {
+        series++;
+      }
+    }
+    int radius = height / (series + 1);
+    int y = 0;
+    for (double[] row : grid) {
+      if (row == null) {
+        continue;
+      }
+      y++;
+      for (int x = 0; x < row.length; x++) {
+        if (!Double.isNaN(row[x])) {
+          double round = row[x] / max * scale;
+          round = Math.round(round * 100.0) / 100.0;
+          heatmap.put(x, y * radius, round);
+        }
+      }
+    }
+    // Usually scale max from 0 to 100 for visualization
+    heatmap.putMax(scale);
+    heatmap.putRadius(radius);
+    heatmap.putSeries(series);
+    return heatmap;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.chukwa.util.ExceptionUtil;
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the metric groups, metric names and source names read from
+ * chukwa_meta, so HICC does not scan the table for every widget.
+ *
+ * The cache holds at most maxEntries names lists; the least recently used
+ * list is evicted first. A background thread reloads every list which is
+ * older than the refresh interval, so requests keep being served from
+ * memory while the list is brought up to date. Lists which have not been
+ * asked for during ten refresh intervals are dropped instead of reloaded.
+ * A failed load is not cached. Instances are thread safe.
+ */
+public class MetadataCache {
+  static Logger LOG = Logger.getLogger(MetadataCache.class);
+
+  public static final String SIZE_OPT = "chukwa.hicc.metadata.cache.size";
+  public static final String REFRESH_OPT = "chukwa.hicc.metadata.cache.refresh";
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+  public static final long DEFAULT_REFRESH = 60 * 1000;
+  private static final int IDLE_REFRESHES = 10;
+
+  /**
+   * Reads a list of names from HBase.
+   */
+  public interface Loader {
+    Set<String> load() throws IOException;
+  }
+
+  private static class Entry {
+    final Loader loader;
+    volatile Set<String> names;
+    volatile long loaded;
+    volatile long used;
+
+    Entry(Loader loader, Set<String> names, long now) {
+      this.loader = loader;
+      this.names = names;
+      this.loaded = now;
+      this.used = now;
+    }
+  }
+
+  private final Map<String, Entry> entries;
+  private final long refresh;
+  private final ScheduledExecutorService refresher;
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong refreshes = new AtomicLong(0);
+
+  /**
+   * @param maxEntries is the number of lists kept
+   * @param refresh is the age in ms after which a list is reloaded, or 0 to
+   *        never reload lists in the background
+   */
+  public MetadataCache(final int maxEntries, long refresh) {
+    this.refresh = refresh;
+    this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    if (refresh > 0) {
+      refresher = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "HICC metadata refresh");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      refresher.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          refresh(System.currentTimeMillis());
+        }
+      }, refresh, refresh, TimeUnit.MILLISECONDS);
+    } else {
+      refresher = null;
+    }
+  }
+
+  /**
+   * @param key identifies the list
+   * @param loader reads the list on a miss and on refresh
+   * @return the cached list, which must not be modified
+   * @throws IOException if the list is not cached and can not be loaded
+   */
+  public Set<String> get(String key, Loader loader) throws IOException {
+    long now = System.currentTimeMillis();
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    if (entry != null) {
+      entry.used = now;
+      hits.incrementAndGet();
+      return entry.names;
+    }
+    misses.incrementAndGet();
+    Set<String> names = Collections.unmodifiableSet(loader.load());
+    synchronized (entries) {
+      entries.put(key, new Entry(loader, names, now));
+    }
+    return names;
+  }
+
+  /**
+   * Reload the lists older than the refresh interval.
+   *
+   * @param now is the current time
+   */
+  void refresh(long now) {
+    List<Map.Entry<String, Entry>> stale = new ArrayList<Map.Entry<String, Entry>>();
+    synchronized (entries) {
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        if (now - e.getValue().loaded >= refresh) {
+          stale.add(e);
+        }
+      }
+    }
+    for (Map.Entry<String, Entry> e : stale) {
+      Entry entry = e.getValue();
+      if (now - entry.used >= IDLE_REFRESHES * refresh) {
+        synchronized (entries) {
+          if (entries.get(e.getKey()) == entry) {
+            entries.remove(e.getKey());
+          }
+        }
+        continue;
+      }
+      try {
+        entry.names = Collections.unmodifiableSet(entry.loader.load());
+        entry.loaded = System.currentTimeMillis();
+        refreshes.incrementAndGet();
+      } catch (IOException ex) {
+        // keep serving the old list, and try again next time
+        LOG.warn("Unable to refresh " + e.getKey() + ": "
+            + ExceptionUtil.getStackTrace(ex));
+      } catch (RuntimeException ex) {
+        LOG.warn("Unable to refresh " + e.getKey() + ": "
+            + ExceptionUtil.getStackTrace(ex));
+      }
+    }
+  }
+
+  /**
+   * Drop a list, so the next request reads it from HBase.
+   *
+   * @param key identifies the list
+   */
+  public void invalidate(String key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+  }
+
+  /**
+   * Drop every list.
+   */
+  public void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getRefreshes() {
+    return refreshes.get();
+  }
+
+  /**
+   * Stop the background refresh.
+   */
+  public void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import org.apache.hadoop.chukwa.util.Rollup;
+
+/**
+ * Picks the rollup resolution a chart series is read from.
+ *
+ * A chart needs about points values over its time range. The planner picks
+ * the coarsest resolution which still has that many buckets in the range;
+ * consecutive buckets are then merged down to the number of points. Short
+ * ranges, with fewer minutes than points, are read from the raw values.
+ * Rollups are only written from the time the writers enabled them, so a
+ * range which starts before the first stored bucket is read from the raw
+ * values as well.
+ */
+class QueryPlanner {
+  private final int points;
+
+  QueryPlanner(int points) {
+    this.points = Math.max(1, points);
+  }
+
+  /**
+   * @param startTime is the start of the range
+   * @param endTime is the end of the range
+   * @return the resolution to read, or null to read the raw values
+   */
+  Rollup.Resolution plan(long startTime, long endTime) {
+    long range = endTime - startTime;
+    Rollup.Resolution best = null;
+    for (Rollup.Resolution r : Rollup.Resolution.values()) {
+      if (range / r.getMillis() >= points) {
+        best = r;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @param resolution is the planned resolution
+   * @param startTime is the start of the range
+   * @param endTime is the end of the range
+   * @return the width in ms of one chart point, a multiple of the bucket
+   *         length of resolution
+   */
+  long pointWidth(Rollup.Resolution resolution, long startTime, long endTime) {
+    long buckets = (endTime - startTime) / resolution.getMillis();
+    return resolution.getMillis() * Math.max(1, buckets / points);
+  }
+
+  /**
+   * @param resolution is the planned resolution
+   * @param startTime is the start of the range
+   * @param firstBucket is the start of the earliest bucket read for the
+   *        range
+   * @return true if the rollups reach back to the start of the range,
+   *         allowing for one missing bucket at the start
+   */
+  boolean covers(Rollup.Resolution resolution, long startTime,
+      long firstBucket) {
+    return firstBucket <= resolution.bucket(startTime) + resolution.getMillis();
+  }
+}
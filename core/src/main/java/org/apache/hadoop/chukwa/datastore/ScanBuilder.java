@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter.RowRange;
+import org.apache.hadoop.hbase.filter.MultipleColumnPrefixFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Builds the scans of the chukwa table used by HICC, so that only the cells
+ * which are plotted are sent by the region servers.
+ *
+ * Every row of a series is read by a single scan: a MultiRowRangeFilter
+ * seeks from one day row to the next. Qualifiers are 8 byte big endian
+ * timestamps, so a ColumnRangeFilter seeks straight to the first cell of
+ * the time range. Long ranges can also be sampled: the timestamps are cut
+ * into windows of 2^16 ms, and a MultipleColumnPrefixFilter on the first 6
+ * bytes of the qualifier only returns every Nth window. All filters are
+ * stock HBase filters, so nothing has to be installed on the region
+ * servers.
+ */
+final class ScanBuilder {
+  static final int WINDOW_BITS = 16;
+  private static final int PREFIX_LENGTH = 8 - WINDOW_BITS / 8;
+  static final int BATCH = 10000;
+
+  private ScanBuilder() {
+  }
+
+  /**
+   * @return a filter passing the cells with a qualifier from start to end
+   */
+  static Filter timeRange(long start, long end) {
+    return new ColumnRangeFilter(Bytes.toBytes(start), true,
+        Bytes.toBytes(end), true);
+  }
+
+  /**
+   * @param start is the start of the range
+   * @param end is the end of the range
+   * @param points is the number of values needed over the range
+   * @return a filter passing about points windows evenly spread over the
+   *         range, or null if the range is too short to be sampled
+   */
+  static Filter sample(long start, long end, int points) {
+    long first = start >>> WINDOW_BITS;
+    long last = end >>> WINDOW_BITS;
+    long step = (last - first + 1) / Math.max(1, points);
+    if (step <= 1) {
+      return null;
+    }
+    List<byte[]> prefixes = new ArrayList<byte[]>();
+    for (long w = first; w <= last; w += step) {
+      prefixes.add(Arrays.copyOf(Bytes.toBytes(w << WINDOW_BITS),
+          PREFIX_LENGTH));
+    }
+    return new MultipleColumnPrefixFilter(
+        prefixes.toArray(new byte[prefixes.size()][]));
+  }
+
+  /**
+   * Build one scan reading family of all rows, restricted to the cells
+   * from start to end.
+   *
+   * @param rows are the row keys to read
+   * @param family is the column family to read
+   * @param start is the start of the time range
+   * @param end is the end of the time range
+   * @param sampling is an additional cell filter, or null
+   * @return the scan
+   * @throws IOException if the time range is invalid
+   */
+  static Scan scan(List<byte[]> rows, byte[] family, long start, long end,
+      Filter sampling) throws IOException {
+    List<RowRange> ranges = new ArrayList<RowRange>(rows.size());
+    byte[] first = null;
+    byte[] last = null;
+    for (byte[] row : rows) {
+      ranges.add(new RowRange(row, true, row, true));
+      if (first == null || Bytes.compareTo(row, first) < 0) {
+        first = row;
+      }
+      if (last == null || Bytes.compareTo(row, last) > 0) {
+        last = row;
+      }
+    }
+    FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+    if (ranges.size() > 1) {
+      filters.addFilter(new MultiRowRangeFilter(ranges));
+    }
+    filters.addFilter(timeRange(start, end));
+    if (sampling != null) {
+      filters.addFilter(sampling);
+    }
+    Scan scan = new Scan();
+    scan.addFamily(family);
+    if (first != null) {
+      scan.setStartRow(first);
+      // stop rows are exclusive, the smallest key after last
+      scan.setStopRow(Arrays.copyOf(last, last.length + 1));
+    }
+    scan.setTimeRange(start, end);
+    scan.setFilter(filters);
+    scan.setBatch(BATCH);
+    return scan;
+  }
+
+  /**
+   * Collect the cells of results in the order of their timestamps. The row
+   * keys of a series do not sort in time order, and rows overlap in time:
+   * a row key only holds the first two digits of the day of the year, so
+   * the row of day 10 also holds days 100 to 109, see RowKeyEncoder.
+   *
+   * @param results are the rows of one series
+   * @return the cells of all results, sorted by their qualifier timestamps
+   */
+  static List<Cell> sortByTime(List<Result> results) {
+    List<Cell> cells = new ArrayList<Cell>();
+    for (Result result : results) {
+      Cell[] raw = result.rawCells();
+      if (raw != null) {
+        cells.addAll(Arrays.asList(raw));
+      }
+    }
+    // each result is already sorted, which the merge sort takes advantage of
+    Collections.sort(cells, new Comparator<Cell>() {
+      public int compare(Cell a, Cell b) {
+        long ta = time(a);
+        long tb = time(b);
+        return ta < tb ? -1 : (ta == tb ? 0 : 1);
+      }
+    });
+    return cells;
+  }
+
+  private static long time(Cell cell) {
+    return Bytes.toLong(cell.getQualifierArray(), cell.getQualifierOffset());
+  }
+}
@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the points of metric series read by HICC, so dashboards which
+ * refresh every few seconds do not read the same cells from HBase again.
+ *
+ * Windows are aligned to buckets of chukwa.hicc.series.cache.bucket ms.
+ * For raw series, a request is served from the cached points of its series
+ * when its window starts inside the cached window and ends in the same
+ * bucket. When the window end has moved on to a later bucket, only the
+ * points after the last cached bucket are read, and the last cached bucket
+ * is read again to pick up points which were written late. Points older
+ * than the start of the latest window are dropped once they outnumber
+ * the window.
+ *
+ * Chart series are smoothed over their whole window, so they can not be
+ * extended; they are cached per window, aligned to the width of a chart
+ * point or the bucket, whichever is larger.
+ *
+ * Every series is read again from scratch once it is older than
+ * chukwa.hicc.series.cache.ttl ms, and the least recently used series are
+ * evicted when more than chukwa.hicc.series.cache.size points are cached.
+ * Instances are thread safe.
+ */
+public class SeriesCache {
+  public static final String SIZE_OPT = "chukwa.hicc.series.cache.size";
+  public static final String TTL_OPT = "chukwa.hicc.series.cache.ttl";
+  public static final String BUCKET_OPT = "chukwa.hicc.series.cache.bucket";
+  public static final long DEFAULT_MAX_POINTS = 1000000;
+  public static final long DEFAULT_TTL = 5 * 60 * 1000;
+  public static final long DEFAULT_BUCKET = 10 * 1000;
+
+  /**
+   * Reads the points of a series from HBase.
+   */
+  public interface Loader {
+    /**
+     * @param start is the first time to read
+     * @param end is the last time to read
+     * @param points receives the points, in time order
+     */
+    void load(long start, long end, Points points) throws IOException;
+  }
+
+  /**
+   * Time ordered points of a series.
+   */
+  public static class Points {
+    private long[] times;
+    private double[] values;
+    private int size = 0;
+
+    public Points() {
+      this(16);
+    }
+
+    Points(int capacity) {
+      times = new long[Math.max(1, capacity)];
+      values = new double[times.length];
+    }
+
+    public void add(long time, double value) {
+      if (size == times.length) {
+        times = Arrays.copyOf(times, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      times[size] = time;
+      values[size] = value;
+      size++;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public long getTime(int i) {
+      return times[i];
+    }
+
+    public double getValue(int i) {
+      return values[i];
+    }
+
+    /**
+     * @return the index of the first point at or after time
+     */
+    int indexOf(long time) {
+      int i = Arrays.binarySearch(times, 0, size, time);
+      if (i < 0) {
+        return -i - 1;
+      }
+      while (i > 0 && times[i - 1] == time) {
+        i--;
+      }
+      return i;
+    }
+
+    /**
+     * @return a copy of the points from start to end
+     */
+    Points slice(long start, long end) {
+      int from = indexOf(start);
+      int to = indexOf(end + 1);
+      Points copy = new Points(to - from);
+      for (int i = from; i < to; i++) {
+        copy.add(times[i], values[i]);
+      }
+      return copy;
+    }
+
+    /**
+     * Drop the points before time.
+     */
+    void dropBefore(long time) {
+      int from = indexOf(time);
+      if (from > 0) {
+        times = Arrays.copyOfRange(times, from, Math.max(from + 1, size));
+        values = Arrays.copyOfRange(values, from, Math.max(from + 1, size));
+        size -= from;
+      }
+    }
+
+    /**
+     * Replace the points from time on with tail.
+     */
+    void replaceFrom(long time, Points tail) {
+      size = indexOf(time);
+      for (int i = 0; i < tail.size; i++) {
+        add(tail.times[i], tail.values[i]);
+      }
+    }
+  }
+
+  private static class Entry {
+    final boolean extendable;
+    final long loaded;
+    long start;
+    long end;
+    Points points;
+    // points counted in cachedPoints, guarded by the entries lock
+    int counted = 0;
+    boolean cached = false;
+
+    Entry(boolean extendable, long start, long end, Points points, long now) {
+      this.extendable = extendable;
+      this.start = start;
+      this.end = end;
+      this.points = points;
+      this.loaded = now;
+    }
+  }
+
+  private final Map<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  private final long maxPoints;
+  private final long ttl;
+  private final long bucket;
+  private long cachedPoints = 0;
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong extensions = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  /**
+   * @param maxPoints is the number of points kept, or 0 to cache nothing
+   * @param ttl is the age in ms after which a series is read again
+   * @param bucket is the width in ms of the buckets windows are aligned to
+   */
+  public SeriesCache(long maxPoints, long ttl, long bucket) {
+    this.maxPoints = maxPoints;
+    this.ttl = ttl;
+    this.bucket = Math.max(1, bucket);
+  }
+
+  /**
+   * Return the points of a raw series, extending the cached points when
+   * the window end has moved forward.
+   *
+   * @param key identifies the series
+   * @param start is the start of the window
+   * @param end is the end of the window
+   * @param loader reads the points which are not cached
+   * @return the points from start to end
+   * @throws IOException if the points can not be loaded
+   */
+  public Points getSeries(String key, long start, long end, Loader loader)
+      throws IOException {
+    return getSeries(key, start, end, loader, System.currentTimeMillis());
+  }
+
+  Points getSeries(String key, long start, long end, Loader loader, long now)
+      throws IOException {
+    if (maxPoints <= 0) {
+      misses.incrementAndGet();
+      Points points = new Points();
+      loader.load(start, end, points);
+      return points;
+    }
+    Entry entry = lookup(key, now);
+    if (entry != null) {
+      synchronized (entry) {
+        if (entry.extendable && start >= entry.start) {
+          if (align(end) <= align(entry.end)) {
+            hits.incrementAndGet();
+            return entry.points.slice(start, end);
+          }
+          // read the last cached bucket again, as well as the new ones
+          long tail = Math.max(entry.start, align(entry.end));
+          Points points = new Points();
+          loader.load(tail, end, points);
+          entry.points.replaceFrom(tail, points);
+          entry.end = end;
+          if (start - entry.start > end - start) {
+            entry.start = align(start);
+            entry.points.dropBefore(entry.start);
+          }
+          extensions.incrementAndGet();
+          resize(entry, entry.points.size());
+          return entry.points.slice(start, end);
+        }
+      }
+    }
+    misses.incrementAndGet();
+    long alignedStart = align(start);
+    Points points = new Points();
+    loader.load(alignedStart, end, points);
+    put(key, new Entry(true, alignedStart, end, points, now));
+    return points.slice(start, end);
+  }
+
+  /**
+   * Return the points of a chart series, which are cached for the aligned
+   * window only.
+   *
+   * @param key identifies the series
+   * @param start is the start of the window
+   * @param end is the end of the window
+   * @param width is the width in ms of a point of the series
+   * @param loader reads the points on a miss
+   * @return the points of the window, which must not be modified
+   * @throws IOException if the points can not be loaded
+   */
+  public Points getWindow(String key, long start, long end, long width,
+      Loader loader) throws IOException {
+    return getWindow(key, start, end, width, loader,
+        System.currentTimeMillis());
+  }
+
+  Points getWindow(String key, long start, long end, long width,
+      Loader loader, long now) throws IOException {
+    long w = Math.max(width, bucket);
+    String windowKey = new StringBuilder(key).append('@').append(w)
+        .append(':').append(Math.floor((double) start / w))
+        .append(':').append(Math.floor((double) end / w)).toString();
+    Entry entry = maxPoints > 0 ? lookup(windowKey, now) : null;
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry.points;
+    }
+    misses.incrementAndGet();
+    Points points = new Points();
+    loader.load(start, end, points);
+    if (maxPoints > 0) {
+      put(windowKey, new Entry(false, start, end, points, now));
+    }
+    return points;
+  }
+
+  private long align(long time) {
+    return time - (((time % bucket) + bucket) % bucket);
+  }
+
+  /**
+   * @return the live entry of key, or null if there is none
+   */
+  private Entry lookup(String key, long now) {
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && now - entry.loaded >= ttl) {
+        remove(key);
+        entry = null;
+      }
+      return entry;
+    }
+  }
+
+  private void put(String key, Entry entry) {
+    synchronized (entries) {
+      remove(key);
+      entries.put(key, entry);
+      entry.cached = true;
+      entry.counted = entry.points.size();
+      cachedPoints += entry.counted;
+      evict();
+    }
+  }
+
+  private void resize(Entry entry, int size) {
+    synchronized (entries) {
+      if (entry.cached) {
+        cachedPoints += size - entry.counted;
+        entry.counted = size;
+        evict();
+      }
+    }
+  }
+
+  private void remove(String key) {
+    Entry old = entries.remove(key);
+    if (old != null) {
+      old.cached = false;
+      cachedPoints -= old.counted;
+    }
+  }
+
+  /**
+   * Evict the least recently used entries until the cache fits.
+   */
+  private void evict() {
+    Iterator<Entry> it = entries.values().iterator();
+    while (cachedPoints > maxPoints && it.hasNext()) {
+      Entry old = it.next();
+      old.cached = false;
+      cachedPoints -= old.counted;
+      it.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Drop every series.
+   */
+  public void invalidateAll() {
+    synchronized (entries) {
+      for (Entry entry : entries.values()) {
+        entry.cached = false;
+      }
+      entries.clear();
+      cachedPoints = 0;
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long getPoints() {
+    synchronized (entries) {
+      return cachedPoints;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getExtensions() {
+    return extensions.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+}
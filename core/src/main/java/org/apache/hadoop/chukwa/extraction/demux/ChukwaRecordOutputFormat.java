@@ -18,19 +18,45 @@
 
 package org.apache.hadoop.chukwa.extraction.demux;
 
+import java.io.IOException;
+import java.util.Map;
 
 import org.apache.hadoop.chukwa.extraction.demux.processor.Util;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
 import org.apache.hadoop.chukwa.extraction.engine.RecordUtil;
 import org.apache.hadoop.chukwa.util.HierarchyDataType;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
 import org.apache.hadoop.mapred.lib.MultipleSequenceFileOutputFormat;
+import org.apache.hadoop.util.Progressable;
 import org.apache.log4j.Logger;
 
 public class ChukwaRecordOutputFormat extends
     MultipleSequenceFileOutputFormat<ChukwaRecordKey, ChukwaRecord> {
   static Logger log = Logger.getLogger(ChukwaRecordOutputFormat.class);
 
+  // reduce types spread over several reducers by SkewAwarePartitioner
+  private Map<String, Integer> splits = null;
+  private final IndexedRecordOutputFormat indexedOutputFormat =
+      new IndexedRecordOutputFormat();
+
+  @Override
+  public RecordWriter<ChukwaRecordKey, ChukwaRecord> getRecordWriter(
+      FileSystem fs, JobConf job, String name, Progressable progress)
+      throws IOException {
+    splits = SkewAwarePartitioner.getSplits(job);
+    return super.getRecordWriter(fs, job, name, progress);
+  }
+
+  @Override
+  protected RecordWriter<ChukwaRecordKey, ChukwaRecord> getBaseRecordWriter(
+      FileSystem fs, JobConf job, String name, Progressable progress)
+      throws IOException {
+    return indexedOutputFormat.getRecordWriter(fs, job, name, progress);
+  }
+
   @Override
   protected String generateFileNameForKeyValue(ChukwaRecordKey key,
       ChukwaRecord record, String name) {
@@ -42,10 +68,25 @@ public class ChukwaRecordOutputFormat extends
     String output = RecordUtil.getClusterName(record) + "/"
         + key.getReduceType() + "/"
         + HierarchyDataType.getHierarchyDataTypeDirectory(key.getReduceType())
+        + partSuffix(key.getReduceType(), name)
         + Util.generateTimeOutput(record.getTime());
 
     // {log.info("ChukwaOutputFormat.fileName: [" + output +"]");}
 
     return output;
   }
+
+  /**
+   * Every reducer of a split reduce type writes the same file names, so
+   * they are told apart by the reducer number. MoveToRepository parses the
+   * time from the end of the name and ignores the rest.
+   *
+   * @return .reducer number for a split reduce type, or ""
+   */
+  String partSuffix(String reduceType, String name) {
+    if (splits == null || !splits.containsKey(reduceType) || name == null) {
+      return "";
+    }
+    return "." + name.substring(name.lastIndexOf('-') + 1);
+  }
 }
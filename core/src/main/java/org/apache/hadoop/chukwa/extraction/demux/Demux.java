@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.chukwa.ChukwaArchiveKey;
 import org.apache.hadoop.chukwa.ChunkImpl;
@@ -33,8 +34,10 @@ import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
 import org.apache.hadoop.chukwa.extraction.demux.processor.ChukwaOutputCollector;
 import org.apache.hadoop.chukwa.extraction.demux.processor.mapper.MapProcessor;
 import org.apache.hadoop.chukwa.extraction.demux.processor.mapper.MapProcessorFactory;
+import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.MergeableReduceProcessor;
 import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.ReduceProcessorFactory;
 import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.ReduceProcessor;
+import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.UnknownReduceTypeException;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
 import org.apache.hadoop.chukwa.util.ExceptionUtil;
@@ -54,6 +57,7 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -62,6 +66,8 @@ import org.apache.log4j.Logger;
 public class Demux extends Configured implements Tool {
   static Logger log = Logger.getLogger(Demux.class);
   public static Configuration jobConf = null;
+  // records of every reduce type in the last job, to plan the next one
+  private static volatile Map<String, Long> reduceTypeRecords = null;
   protected static void setJobConf(JobConf jobConf) {
     Demux.jobConf = jobConf;
   }
@@ -70,10 +76,53 @@ public class Demux extends Configured implements Tool {
     return Demux.jobConf;
   }
 
+  public static final String COMBINER_OPT = "chukwa.demux.combiner";
+  static final String IDENTITY_REDUCER =
+      "org.apache.hadoop.chukwa.extraction.demux.processor.reducer.IdentityReducer";
+
+  /**
+   * The processors of a reduce type are configured as
+   * mapProcessor,reduceProcessor[,combineProcessor] under the name of the
+   * reduce type, or chukwa.demux.reducer.default.processor.
+   */
+  private static String[] getProcessorClasses(Configuration conf,
+      String reduceType) {
+    String defaultProcessor = conf.get("chukwa.demux.reducer.default.processor",
+        "," + IDENTITY_REDUCER);
+    return conf.get(reduceType, defaultProcessor).split(",");
+  }
+
+  static ReduceProcessor getReduceProcessor(Configuration conf,
+      String reduceType) throws UnknownReduceTypeException {
+    String[] classes = getProcessorClasses(conf, reduceType);
+    String processClass = IDENTITY_REDUCER;
+    if (classes.length >= 2 && classes[1].trim().length() > 0) {
+      processClass = classes[1].trim();
+    }
+    return ReduceProcessorFactory.getProcessor(processClass);
+  }
+
+  /**
+   * @return the combine processor configured for reduceType, or its reduce
+   *         processor if that is a MergeableReduceProcessor, or null if the
+   *         records of reduceType are not combined
+   */
+  static ReduceProcessor getCombineProcessor(Configuration conf,
+      String reduceType) throws UnknownReduceTypeException {
+    String[] classes = getProcessorClasses(conf, reduceType);
+    if (classes.length >= 3 && classes[2].trim().length() > 0) {
+      return ReduceProcessorFactory.getProcessor(classes[2].trim());
+    }
+    ReduceProcessor processor = getReduceProcessor(conf, reduceType);
+    return processor instanceof MergeableReduceProcessor ? processor : null;
+  }
+
   public static class MapClass extends MapReduceBase implements
           Mapper<ChukwaArchiveKey, ChunkImpl, ChukwaRecordKey, ChukwaRecord> {
 
     private Configuration jobConf = null;
+    private MapSideAggregator aggregator = null;
+    private boolean compact = false;
 
     @Override
     public void configure(JobConf jobConf) {
@@ -81,16 +130,33 @@ public class Demux extends Configured implements Tool {
       setJobConf(jobConf);
     }
 
+    @Override
+    public void close() throws IOException {
+      if (aggregator != null) {
+        aggregator.flush();
+      }
+      super.close();
+    }
+
     private void setJobConf(JobConf jobConf) {
       this.jobConf = jobConf;
+      this.compact = RecordFormat.isCompact(jobConf);
     }
 
     public void map(ChukwaArchiveKey key, ChunkImpl chunk,
                     OutputCollector<ChukwaRecordKey, ChukwaRecord> output, Reporter reporter)
             throws IOException {
 
+      if (compact) {
+        output = new RecordFormat.Collector(output, true);
+      }
+      if (aggregator == null
+          && jobConf.getBoolean(MapSideAggregator.AGGREGATION_OPT, false)) {
+        aggregator = new MapSideAggregator(jobConf, output, reporter);
+      }
       ChukwaOutputCollector chukwaOutputCollector = new ChukwaOutputCollector(
-              "DemuxMapOutput", output, reporter);
+              "DemuxMapOutput", aggregator == null ? output : aggregator,
+              reporter);
       try {
         long duration = System.currentTimeMillis();
         if (log.isDebugEnabled()) {
@@ -138,15 +204,20 @@ public class Demux extends Configured implements Tool {
           Reducer<ChukwaRecordKey, ChukwaRecord, ChukwaRecordKey, ChukwaRecord> {
 
     private Configuration jobConf = null;
+    private boolean compact = false;
 
     public void configure(JobConf jobConf) {
       super.configure(jobConf);
       this.jobConf = jobConf;
+      this.compact = RecordFormat.isCompact(jobConf);
     }
 
     public void reduce(ChukwaRecordKey key, Iterator<ChukwaRecord> values,
                        OutputCollector<ChukwaRecordKey, ChukwaRecord> output, Reporter reporter)
             throws IOException {
+      if (compact) {
+        output = new RecordFormat.Collector(output, true);
+      }
       ChukwaOutputCollector chukwaOutputCollector = new ChukwaOutputCollector(
               "DemuxReduceOutput", output, reporter);
       try {
@@ -155,20 +226,8 @@ public class Demux extends Configured implements Tool {
         reporter.incrCounter("DemuxReduceInput", key.getReduceType()
                 + " total distinct keys", 1);
 
-        String defaultProcessor_classname = "org.apache.hadoop.chukwa.extraction.demux.processor.reducer" +
-                ".IdentityReducer";
-        String defaultProcessor = jobConf.get("chukwa.demux.reducer.default.processor",
-                "," + defaultProcessor_classname);
-
-        String processClass_pri = jobConf.get(key.getReduceType(), defaultProcessor);
-        String[] processClass_tmps = processClass_pri.split(",");
-        String processClass = null;
-        if (processClass_tmps.length != 2)
-          processClass = defaultProcessor_classname;
-        else
-          processClass = processClass_tmps[1];
-
-        ReduceProcessor processor = ReduceProcessorFactory.getProcessor(processClass);
+        ReduceProcessor processor = getReduceProcessor(jobConf,
+                key.getReduceType());
         System.out.println(processor.getClass().getName());
         processor.process(key, values, chukwaOutputCollector, reporter);
 
@@ -185,6 +244,46 @@ public class Demux extends Configured implements Tool {
     }
   }
 
+  /**
+   * Merges the map output of every reduce type with a combine processor,
+   * see getCombineProcessor; the records of other reduce types are passed
+   * through.
+   */
+  public static class CombineClass extends MapReduceBase implements
+          Reducer<ChukwaRecordKey, ChukwaRecord, ChukwaRecordKey, ChukwaRecord> {
+
+    private Configuration jobConf = null;
+    private boolean compact = false;
+
+    public void configure(JobConf jobConf) {
+      super.configure(jobConf);
+      this.jobConf = jobConf;
+      this.compact = RecordFormat.isCompact(jobConf);
+    }
+
+    public void reduce(ChukwaRecordKey key, Iterator<ChukwaRecord> values,
+                       OutputCollector<ChukwaRecordKey, ChukwaRecord> output, Reporter reporter)
+            throws IOException {
+      if (compact) {
+        output = new RecordFormat.Collector(output, true);
+      }
+      ReduceProcessor processor = null;
+      try {
+        processor = getCombineProcessor(jobConf, key.getReduceType());
+      } catch (UnknownReduceTypeException e) {
+        log.warn("Exception in Demux:Combine", e);
+      }
+      if (processor == null) {
+        while (values.hasNext()) {
+          output.collect(key, values.next());
+        }
+        return;
+      }
+      processor.process(key, values, new ChukwaOutputCollector(
+              "DemuxCombineOutput", output, reporter), reporter);
+    }
+  }
+
   static int printUsage() {
     System.out.println("Demux [-m <maps>] [-r <reduces>] <input> <output>");
     ToolRunner.printGenericCommandUsage(System.out);
@@ -219,9 +318,11 @@ public class Demux extends Configured implements Tool {
     conf.setMapperClass(Demux.MapClass.class);
     conf.setPartitionerClass(ChukwaRecordPartitioner.class);
     conf.setReducerClass(Demux.ReduceClass.class);
+    if (conf.getBoolean(COMBINER_OPT, false)) {
+      conf.setCombinerClass(Demux.CombineClass.class);
+    }
 
-    conf.setOutputKeyClass(ChukwaRecordKey.class);
-    conf.setOutputValueClass(ChukwaRecord.class);
+    RecordFormat.setRecordClasses(conf);
     conf.setOutputFormat(ChukwaRecordOutputFormat.class);
     conf.setJobPriority(JobPriority.VERY_HIGH);
     addParsers(conf);
@@ -255,7 +356,23 @@ public class Demux extends Configured implements Tool {
     FileInputFormat.setInputPaths(conf, other_args.get(0));
     FileOutputFormat.setOutputPath(conf, new Path(other_args.get(1)));
 
-    JobClient.runJob(conf);
+    boolean skew = conf.getBoolean(SkewAwarePartitioner.SKEW_OPT, false);
+    if (skew) {
+      conf.setPartitionerClass(SkewAwarePartitioner.class);
+      Map<String, Long> records = reduceTypeRecords;
+      if (records != null) {
+        SkewAwarePartitioner.addSplits(conf, SkewAwarePartitioner.plan(
+            records, conf.getNumReduceTasks()));
+      }
+      log.info("Demux reduce type splits: "
+          + conf.get(SkewAwarePartitioner.SPLITS_OPT, ""));
+    }
+
+    RunningJob job = JobClient.runJob(conf);
+    if (skew) {
+      reduceTypeRecords = SkewAwarePartitioner.getRecordCounts(
+          job.getCounters());
+    }
     return 0;
   }
 
@@ -26,8 +26,6 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
-import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
-import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
 import org.apache.hadoop.chukwa.util.HierarchyDataType;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileStatus;
@@ -40,8 +38,6 @@ import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobPriority;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
-import org.apache.hadoop.mapred.SequenceFileOutputFormat;
-import org.apache.hadoop.mapred.lib.IdentityMapper;
 import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.Tool;
 import org.apache.log4j.Logger;
@@ -247,12 +243,11 @@ public class HourlyChukwaRecordRolling extends Configured implements Tool {
     conf.setJobName("HourlyChukwa-Rolling");
     conf.setInputFormat(SequenceFileInputFormat.class);
 
-    conf.setMapperClass(IdentityMapper.class);
+    conf.setMapperClass(RecordFormat.ConvertingMapper.class);
     conf.setReducerClass(IdentityReducer.class);
 
-    conf.setOutputKeyClass(ChukwaRecordKey.class);
-    conf.setOutputValueClass(ChukwaRecord.class);
-    conf.setOutputFormat(SequenceFileOutputFormat.class);
+    RecordFormat.setRecordClasses(conf);
+    conf.setOutputFormat(IndexedRecordOutputFormat.class);
 
     log.info("HourlyChukwaRecordRolling input: " + args[0]);
     log.info("HourlyChukwaRecordRolling output: " + args[1]);
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux;
+
+import java.io.IOException;
+
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.RecordFileIndex;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Writes record files like SequenceFileOutputFormat, along with the time
+ * index sidecar of every file, see RecordFileIndex.
+ */
+public class IndexedRecordOutputFormat extends
+    SequenceFileOutputFormat<ChukwaRecordKey, ChukwaRecord> {
+
+  @Override
+  public RecordWriter<ChukwaRecordKey, ChukwaRecord> getRecordWriter(
+      FileSystem ignored, JobConf job, String name, Progressable progress)
+      throws IOException {
+    final Path file = FileOutputFormat.getTaskOutputPath(job, name);
+    final FileSystem fs = file.getFileSystem(job);
+    CompressionCodec codec = null;
+    CompressionType compressionType = CompressionType.NONE;
+    if (getCompressOutput(job)) {
+      compressionType = getOutputCompressionType(job);
+      Class<? extends CompressionCodec> codecClass = getOutputCompressorClass(
+          job, DefaultCodec.class);
+      codec = ReflectionUtils.newInstance(codecClass, job);
+    }
+    SequenceFile.Writer out = SequenceFile.createWriter(fs, job, file,
+        job.getOutputKeyClass(), job.getOutputValueClass(), compressionType,
+        codec, progress);
+    final RecordFileIndex.Writer writer = new RecordFileIndex.Writer(out,
+        job.getInt(RecordFileIndex.INTERVAL_OPT,
+            RecordFileIndex.DEFAULT_INTERVAL));
+
+    return new RecordWriter<ChukwaRecordKey, ChukwaRecord>() {
+      public void write(ChukwaRecordKey key, ChukwaRecord record)
+          throws IOException {
+        writer.append(key, record);
+      }
+
+      public void close(Reporter reporter) throws IOException {
+        writer.close(fs, file);
+      }
+    };
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.MergeableReduceProcessor;
+import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.ReduceProcessor;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.log4j.Logger;
+
+/**
+ * Buffers the map output of reduce types with a MergeableReduceProcessor
+ * and merges the records of every key with that processor before they are
+ * shuffled, so a key parsed from many lines of a chunk leaves the mapper as
+ * one record. Records of other reduce types are passed through.
+ *
+ * The buffer is flushed when the estimated size of the buffered records
+ * exceeds chukwa.demux.mapper.aggregation.memory bytes, and when the mapper
+ * is closed.
+ */
+public class MapSideAggregator implements
+    OutputCollector<ChukwaRecordKey, ChukwaRecord> {
+  static Logger log = Logger.getLogger(MapSideAggregator.class);
+
+  public static final String AGGREGATION_OPT = "chukwa.demux.mapper.aggregation";
+  public static final String MEMORY_OPT = "chukwa.demux.mapper.aggregation.memory";
+  public static final long DEFAULT_MEMORY = 64 * 1024 * 1024;
+  static final String COUNTER_GROUP = "DemuxMapAggregation";
+
+  private final Configuration conf;
+  private final OutputCollector<ChukwaRecordKey, ChukwaRecord> output;
+  private final Reporter reporter;
+  private final long maxMemory;
+  private final Map<ChukwaRecordKey, List<ChukwaRecord>> buffer =
+      new LinkedHashMap<ChukwaRecordKey, List<ChukwaRecord>>();
+  private final Map<String, ReduceProcessor> processors =
+      new HashMap<String, ReduceProcessor>();
+  private long memory = 0;
+
+  public MapSideAggregator(Configuration conf,
+      OutputCollector<ChukwaRecordKey, ChukwaRecord> output,
+      Reporter reporter) {
+    this.conf = conf;
+    this.output = output;
+    this.reporter = reporter;
+    this.maxMemory = conf.getLong(MEMORY_OPT, DEFAULT_MEMORY);
+  }
+
+  @Override
+  public void collect(ChukwaRecordKey key, ChukwaRecord record)
+      throws IOException {
+    ReduceProcessor processor = getProcessor(key.getReduceType());
+    if (processor == null) {
+      output.collect(key, record);
+      return;
+    }
+    // mappers reuse their key, so buffer a copy
+    ChukwaRecordKey copy = new ChukwaRecordKey(key.getReduceType(),
+        key.getKey());
+    List<ChukwaRecord> records = buffer.get(copy);
+    if (records == null) {
+      records = new ArrayList<ChukwaRecord>(2);
+      buffer.put(copy, records);
+    }
+    records.add(record);
+    memory += record.estimateSize() + 2 * key.getKey().length();
+    reporter.incrCounter(COUNTER_GROUP, "buffered records", 1);
+    if (memory > maxMemory) {
+      flush();
+    }
+  }
+
+  /**
+   * @return the processor which merges the records of reduceType, or null
+   *         if they are not merged on the mapper
+   */
+  private ReduceProcessor getProcessor(String reduceType) {
+    if (processors.containsKey(reduceType)) {
+      return processors.get(reduceType);
+    }
+    ReduceProcessor processor = null;
+    try {
+      ReduceProcessor p = Demux.getReduceProcessor(conf, reduceType);
+      if (p instanceof MergeableReduceProcessor) {
+        processor = p;
+      }
+    } catch (Exception e) {
+      log.warn("No reduce processor for " + reduceType
+          + ", not merging its records on the mapper", e);
+    }
+    processors.put(reduceType, processor);
+    return processor;
+  }
+
+  /**
+   * Merge and emit every buffered key.
+   */
+  public void flush() throws IOException {
+    for (Map.Entry<ChukwaRecordKey, List<ChukwaRecord>> e : buffer.entrySet()) {
+      ChukwaRecordKey key = e.getKey();
+      List<ChukwaRecord> records = e.getValue();
+      if (records.size() == 1) {
+        output.collect(key, records.get(0));
+      } else {
+        processors.get(key.getReduceType()).process(key, records.iterator(),
+            output, reporter);
+      }
+      reporter.incrCounter(COUNTER_GROUP, "merged keys", 1);
+    }
+    buffer.clear();
+    memory = 0;
+  }
+}
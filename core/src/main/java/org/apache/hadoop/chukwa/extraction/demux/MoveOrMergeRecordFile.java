@@ -22,8 +22,7 @@ package org.apache.hadoop.chukwa.extraction.demux;
 import java.io.IOException;
 import java.net.URI;
 import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
-import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
-import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.RecordFileIndex;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -35,8 +34,6 @@ import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
-import org.apache.hadoop.mapred.SequenceFileOutputFormat;
-import org.apache.hadoop.mapred.lib.IdentityMapper;
 import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -53,15 +50,14 @@ public class MoveOrMergeRecordFile extends Configured implements Tool {
     conf.setJobName("Chukwa-MoveOrMergeLogFile");
     conf.setInputFormat(SequenceFileInputFormat.class);
 
-    conf.setMapperClass(IdentityMapper.class);
+    conf.setMapperClass(RecordFormat.ConvertingMapper.class);
     conf.setReducerClass(IdentityReducer.class);
 
     // conf.setPartitionerClass(ChukwaPartitioner.class);
     // conf.setOutputFormat(ChukwaOutputFormat.class);
 
-    conf.setOutputKeyClass(ChukwaRecordKey.class);
-    conf.setOutputValueClass(ChukwaRecord.class);
-    conf.setOutputFormat(SequenceFileOutputFormat.class);
+    RecordFormat.setRecordClasses(conf);
+    conf.setOutputFormat(IndexedRecordOutputFormat.class);
 
     FileInputFormat.setInputPaths(conf, args[0]);
     FileOutputFormat.setOutputPath(conf, new Path(args[1]));
@@ -112,6 +108,7 @@ public class MoveOrMergeRecordFile extends Configured implements Tool {
             // Copy to final Location
             FileUtil.copy(fs, eventFilePath, fs, destFilePath, false, false,
                 conf);
+            RecordFileIndex.copy(fs, eventFilePath, destFilePath, conf);
           } else {
             System.out.println("Need to merge! : [" + destFilePath + "]");
             String strMrPath = datasourceDirectory.getPath().toString() + "/"
@@ -201,9 +198,11 @@ class DoMerge extends Thread {
       System.out.println("MR exit status: " + res);
       if (res == 0) {
         System.out.println("\t Moving output file : to [" + destFilePath + "]");
-        FileUtil.copy(fs, new Path(mergeArgs[1] + "/part-00000"), fs,
-            destFilePath, false, false, conf);
-        fs.rename(new Path(mergeArgs[1] + "/part-00000"), eventFilePath);
+        Path output = new Path(mergeArgs[1] + "/part-00000");
+        FileUtil.copy(fs, output, fs, destFilePath, false, false, conf);
+        RecordFileIndex.copy(fs, output, destFilePath, conf);
+        fs.rename(output, eventFilePath);
+        RecordFileIndex.rename(fs, output, eventFilePath);
       } else {
         throw new RuntimeException("Error in M/R merge operation!");
       }
@@ -28,6 +28,7 @@ import java.util.HashSet;
 import java.util.List;
 
 import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
+import org.apache.hadoop.chukwa.extraction.engine.RecordFileIndex;
 import org.apache.hadoop.chukwa.util.HierarchyDataType;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.FileStatus;
@@ -110,6 +111,10 @@ public class MoveToRepository {
       // <datasource>_<yyyyMMdd_HH_mm>.1.evt
 
       fileName = recordFile.getPath().getName();
+      if (fileName.endsWith(RecordFileIndex.SUFFIX)) {
+        // moved along with its record file
+        continue;
+      }
       log.info("processDatasourceDirectory processing RecordFile: (" + fileName
           + ")");
       log.info("fileName: " + fileName);
@@ -228,6 +233,9 @@ public class MoveToRepository {
         log.info(">>>>>>>>>>>> Before Rename" + recordFile + " -- "
             + destFilePath);
         boolean rename = fs.rename(recordFile,destFilePath);
+        if (rename) {
+          RecordFileIndex.rename(fs, recordFile, destFilePath);
+        }
         done = true;
         log.info(">>>>>>>>>>>> after Rename" + destFilePath + " , rename:"+rename);
         return destFilePath;
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux;
+
+import java.io.IOException;
+
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.CompactRecord;
+import org.apache.hadoop.chukwa.extraction.engine.CompactRecordKey;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Selects the format of the records demux shuffles and writes.
+ *
+ * With chukwa.demux.record.format set to hadoop-record, records are
+ * ChukwaRecordKey and ChukwaRecord in the Hadoop record encoding. With
+ * compact, they are CompactRecordKey and CompactRecord. A record file names
+ * its key and value class in its header, so readers which create their key
+ * and record from SequenceFile.Reader.getKeyClass() and getValueClass()
+ * read files of both formats side by side. Jobs which rewrite record files
+ * map them with ConvertingMapper, so their output is in the configured
+ * format whatever the format of their input.
+ */
+public class RecordFormat {
+  public static final String FORMAT_OPT = "chukwa.demux.record.format";
+  public static final String HADOOP_RECORD = "hadoop-record";
+  public static final String COMPACT = "compact";
+
+  private RecordFormat() {
+  }
+
+  public static boolean isCompact(Configuration conf) {
+    return COMPACT.equalsIgnoreCase(conf.get(FORMAT_OPT, HADOOP_RECORD));
+  }
+
+  /**
+   * Set the map output and output classes of a job writing records.
+   */
+  public static void setRecordClasses(JobConf conf) {
+    if (isCompact(conf)) {
+      conf.setOutputKeyClass(CompactRecordKey.class);
+      conf.setOutputValueClass(CompactRecord.class);
+    } else {
+      conf.setOutputKeyClass(ChukwaRecordKey.class);
+      conf.setOutputValueClass(ChukwaRecord.class);
+    }
+  }
+
+  /**
+   * @return key in the compact or the Hadoop record format, without a copy
+   *         if it already is
+   */
+  public static ChukwaRecordKey convert(ChukwaRecordKey key, boolean compact) {
+    if (compact) {
+      return CompactRecordKey.valueOf(key);
+    }
+    if (key.getClass() == ChukwaRecordKey.class) {
+      return key;
+    }
+    return new ChukwaRecordKey(key.getReduceType(), key.getKey());
+  }
+
+  /**
+   * @return record in the compact or the Hadoop record format, sharing its
+   *         fields if it is not already
+   */
+  public static ChukwaRecord convert(ChukwaRecord record, boolean compact) {
+    if (compact) {
+      return CompactRecord.valueOf(record);
+    }
+    if (record.getClass() == ChukwaRecord.class) {
+      return record;
+    }
+    ChukwaRecord copy = new ChukwaRecord();
+    copy.setTime(record.getTime());
+    copy.setMapFields(record.getMapFields());
+    return copy;
+  }
+
+  /**
+   * Converts the records collected by processors, which create
+   * ChukwaRecordKey and ChukwaRecord, to the configured format.
+   */
+  public static class Collector implements
+      OutputCollector<ChukwaRecordKey, ChukwaRecord> {
+    private final OutputCollector<ChukwaRecordKey, ChukwaRecord> output;
+    private final boolean compact;
+
+    public Collector(OutputCollector<ChukwaRecordKey, ChukwaRecord> output,
+        boolean compact) {
+      this.output = output;
+      this.compact = compact;
+    }
+
+    public void collect(ChukwaRecordKey key, ChukwaRecord record)
+        throws IOException {
+      output.collect(convert(key, compact), convert(record, compact));
+    }
+  }
+
+  /**
+   * An identity mapper for record files which converts their records to
+   * the configured format.
+   */
+  public static class ConvertingMapper extends MapReduceBase implements
+      Mapper<ChukwaRecordKey, ChukwaRecord, ChukwaRecordKey, ChukwaRecord> {
+    private boolean compact = false;
+
+    @Override
+    public void configure(JobConf conf) {
+      super.configure(conf);
+      compact = isCompact(conf);
+    }
+
+    public void map(ChukwaRecordKey key, ChukwaRecord record,
+        OutputCollector<ChukwaRecordKey, ChukwaRecord> output,
+        Reporter reporter) throws IOException {
+      output.collect(convert(key, compact), convert(record, compact));
+    }
+  }
+}
@@ -21,6 +21,7 @@ package org.apache.hadoop.chukwa.extraction.demux;
 
 import java.io.IOException;
 import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
+import org.apache.hadoop.chukwa.extraction.engine.RecordFileIndex;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
@@ -122,6 +123,9 @@ public class RecordMerger extends Thread {
         if (res == false) {
           log.info(">>>>>>>>>>>> Use standard copy rename failded");
           FileUtil.copy(fs, recordFile, fs, destFilePath, false, false, conf);
+          RecordFileIndex.copy(fs, recordFile, destFilePath, conf);
+        } else {
+          RecordFileIndex.rename(fs, recordFile, destFilePath);
         }
         done = true;
       } else {
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.log4j.Logger;
+
+/**
+ * Spreads the records of high volume reduce types over several reducers.
+ *
+ * ChukwaRecordPartitioner sends every record of a reduce type to one
+ * reducer, so a type like SystemMetrics keeps one reducer busy long after
+ * the others are done. This partitioner reads a split plan from
+ * chukwa.demux.partitioner.splits, a list of reduceType:reducers pairs, and
+ * sends the records of a listed type to that many consecutive reducers,
+ * starting at the reducer ChukwaRecordPartitioner would have picked. The
+ * reducer is chosen by the source in the record key, or with
+ * chukwa.demux.partitioner.split.by set to time, by the minute of the
+ * record, so equal keys still meet in the same reducer. Types which are not
+ * listed are partitioned like ChukwaRecordPartitioner does.
+ *
+ * With chukwa.demux.partitioner.skew set, Demux uses this partitioner and
+ * plans the splits from the DemuxMapOutput record counters of the previous
+ * Demux job; splits listed in the configuration take precedence.
+ * ChukwaRecordOutputFormat adds the reducer number to the names of the
+ * files of split types, so MoveToRepository moves them into the usual
+ * directory of their type.
+ */
+public class SkewAwarePartitioner<K, V> extends ChukwaRecordPartitioner<K, V> {
+  static Logger log = Logger.getLogger(SkewAwarePartitioner.class);
+
+  public static final String SKEW_OPT = "chukwa.demux.partitioner.skew";
+  public static final String SPLITS_OPT = "chukwa.demux.partitioner.splits";
+  public static final String SPLIT_BY_OPT = "chukwa.demux.partitioner.split.by";
+  public static final String SPLIT_BY_SOURCE = "source";
+  public static final String SPLIT_BY_TIME = "time";
+  static final String COUNTER_GROUP = "DemuxMapOutput";
+  static final String COUNTER_SUFFIX = " records";
+  static final long TIME_BUCKET = 60 * 1000;
+
+  private Map<String, Integer> splits = Collections.emptyMap();
+  private boolean byTime = false;
+
+  @Override
+  public void configure(JobConf conf) {
+    super.configure(conf);
+    splits = getSplits(conf);
+    byTime = SPLIT_BY_TIME.equalsIgnoreCase(conf.get(SPLIT_BY_OPT,
+        SPLIT_BY_SOURCE));
+  }
+
+  @Override
+  public int getPartition(ChukwaRecordKey key, ChukwaRecord record,
+      int numReduceTasks) {
+    Integer split = splits.get(key.getReduceType());
+    if (split == null || numReduceTasks < 2) {
+      return super.getPartition(key, record, numReduceTasks);
+    }
+    int reducers = Math.min(split, numReduceTasks);
+    int first = (key.getReduceType().hashCode() & Integer.MAX_VALUE)
+        % numReduceTasks;
+    int offset = (subKey(key.getKey()).hashCode() & Integer.MAX_VALUE)
+        % reducers;
+    return (first + offset) % numReduceTasks;
+  }
+
+  /**
+   * @return the part of a time/source/... record key which picks the
+   *         reducer, or the whole key if it has another format
+   */
+  String subKey(String key) {
+    int slash = key.indexOf('/');
+    if (slash < 0) {
+      return key;
+    }
+    if (byTime) {
+      try {
+        long time = Long.parseLong(key.substring(0, slash));
+        return Long.toString(time / TIME_BUCKET);
+      } catch (NumberFormatException e) {
+        return key;
+      }
+    }
+    int end = key.indexOf('/', slash + 1);
+    return end < 0 ? key.substring(slash + 1) : key.substring(slash + 1, end);
+  }
+
+  /**
+   * @param conf holds the split plan
+   * @return the number of reducers of every split reduce type
+   */
+  public static Map<String, Integer> getSplits(Configuration conf) {
+    Map<String, Integer> splits = new HashMap<String, Integer>();
+    for (String split : conf.getTrimmedStrings(SPLITS_OPT)) {
+      int colon = split.lastIndexOf(':');
+      if (colon <= 0) {
+        log.warn("Ignoring split without reducer count: " + split);
+        continue;
+      }
+      try {
+        int reducers = Integer.parseInt(split.substring(colon + 1).trim());
+        if (reducers > 1) {
+          splits.put(split.substring(0, colon).trim(), reducers);
+        }
+      } catch (NumberFormatException e) {
+        log.warn("Ignoring split with invalid reducer count: " + split);
+      }
+    }
+    return splits;
+  }
+
+  /**
+   * Split every reduce type with more records than a fair share of the
+   * reducers over as many reducers as it has fair shares.
+   *
+   * @param records is the number of records of every reduce type
+   * @param numReduceTasks is the number of reducers
+   * @return the split plan, in the format of chukwa.demux.partitioner.splits
+   */
+  public static String plan(Map<String, Long> records, int numReduceTasks) {
+    long total = 0;
+    for (long count : records.values()) {
+      total += count;
+    }
+    if (numReduceTasks < 2 || total == 0) {
+      return "";
+    }
+    List<String> splits = new ArrayList<String>();
+    double share = (double) total / numReduceTasks;
+    for (Map.Entry<String, Long> e : records.entrySet()) {
+      int reducers = (int) Math.min(numReduceTasks,
+          Math.ceil(e.getValue() / share));
+      if (reducers > 1) {
+        splits.add(e.getKey() + ":" + reducers);
+      }
+    }
+    Collections.sort(splits);
+    StringBuilder sb = new StringBuilder();
+    for (String split : splits) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(split);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Add a plan to the splits of conf, keeping the splits already listed.
+   */
+  public static void addSplits(Configuration conf, String plan) {
+    Map<String, Integer> configured = getSplits(conf);
+    StringBuilder sb = new StringBuilder(conf.get(SPLITS_OPT, "").trim());
+    for (String split : plan.split(",")) {
+      int colon = split.lastIndexOf(':');
+      if (colon > 0 && !configured.containsKey(split.substring(0, colon))) {
+        if (sb.length() > 0) {
+          sb.append(',');
+        }
+        sb.append(split);
+      }
+    }
+    conf.set(SPLITS_OPT, sb.toString());
+  }
+
+  /**
+   * @param counters are the counters of a Demux job
+   * @return the number of map output records of every reduce type
+   */
+  public static Map<String, Long> getRecordCounts(Counters counters) {
+    Map<String, Long> records = new HashMap<String, Long>();
+    if (counters == null) {
+      return records;
+    }
+    for (Counters.Counter counter : counters.getGroup(COUNTER_GROUP)) {
+      String name = counter.getName();
+      if (name.endsWith(COUNTER_SUFFIX) && !name.equals("total records")) {
+        records.put(name.substring(0, name.length() - COUNTER_SUFFIX.length()),
+            counter.getValue());
+      }
+    }
+    return records;
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux.processor.reducer;
+
+/**
+ * A ReduceProcessor whose records can be merged before they reach the
+ * reducer. Demux may call process() on any subset of the records of a key,
+ * on the mapper or as a combiner, and then again on its output mixed with
+ * the remaining records, so process() must only emit records under the key
+ * it was given, and processing its own output again must not change it.
+ */
+public interface MergeableReduceProcessor extends ReduceProcessor {
+}
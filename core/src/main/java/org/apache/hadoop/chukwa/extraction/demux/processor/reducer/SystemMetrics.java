@@ -27,7 +27,7 @@ import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.log4j.Logger;
 
-public class SystemMetrics implements ReduceProcessor {
+public class SystemMetrics implements MergeableReduceProcessor {
   static Logger log = Logger.getLogger(SystemMetrics.class);
 
   @Override
@@ -56,6 +56,19 @@ public class ChukwaRecord extends ChukwaRecordJT implements Record {
     return this.mapFields.containsKey(field);
   }
 
+  /**
+   * @return a rough estimate of the heap used by the fields of the record
+   */
+  public long estimateSize() {
+    long size = 64;
+    if (this.mapFields != null) {
+      for (Map.Entry<String, Buffer> field : this.mapFields.entrySet()) {
+        size += 96 + 2 * field.getKey().length() + field.getValue().getCount();
+      }
+    }
+    return size;
+  }
+
   public void removeValue(String field) {
     if (this.mapFields.containsKey(field)) {
       this.mapFields.remove(field);
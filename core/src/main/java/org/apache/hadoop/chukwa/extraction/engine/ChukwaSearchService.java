@@ -19,11 +19,13 @@
 package org.apache.hadoop.chukwa.extraction.engine;
 
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
 import org.apache.hadoop.chukwa.extraction.engine.datasource.DataSource;
 import org.apache.hadoop.chukwa.extraction.engine.datasource.DataSourceException;
 import org.apache.hadoop.chukwa.extraction.engine.datasource.DataSourceFactory;
+import org.apache.hadoop.chukwa.extraction.engine.datasource.record.ParallelRecordDataSource;
 
 public class ChukwaSearchService implements SearchService {
   private DataSourceFactory dataSourceFactory = DataSourceFactory.getInstance();
@@ -35,9 +37,23 @@ public class ChukwaSearchService implements SearchService {
     TreeMap<Long, List<Record>> records = new TreeMap<Long, List<Record>>();
     result.setRecords(records);
 
+    // record data sources are searched together, so that their records
+    // are merged into one page with one token
+    ParallelRecordDataSource recordDS = null;
+    List<String> recordDataSources = new ArrayList<String>();
     for (int i = 0; i < dataSources.length; i++) {
       DataSource ds = dataSourceFactory.getDataSource(dataSources[i]);
-      ds.search(result, cluster, dataSources[i], t0, t1, filter, token);
+      if (ds instanceof ParallelRecordDataSource) {
+        recordDS = (ParallelRecordDataSource) ds;
+        recordDataSources.add(dataSources[i]);
+      } else {
+        ds.search(result, cluster, dataSources[i], t0, t1, filter, token);
+      }
+    }
+    if (recordDS != null) {
+      recordDS.search(result, cluster,
+          recordDataSources.toArray(new String[recordDataSources.size()]), t0,
+          t1, filter, token);
     }
     return result;
   }
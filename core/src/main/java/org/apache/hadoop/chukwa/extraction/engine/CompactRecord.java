@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.record.Buffer;
+
+/**
+ * A ChukwaRecord serialized in a compact format instead of the Hadoop
+ * record encoding of ChukwaRecordJT.
+ *
+ * The time and the number of fields are written as varints. The name of
+ * each field is written as its varint id in FIELD_NAMES plus one, or as 0
+ * followed by the name for names which are not in the dictionary. Values
+ * are typed: decimal integers are written as a varint, decimals which
+ * Double.toString prints back exactly and which are longer than 8 bytes as
+ * an 8 byte double, and everything else as a varint length and the bytes.
+ * Values read back are byte for byte the ones written.
+ *
+ * Every record is self-contained, so records can still be sorted in the
+ * shuffle and read from any sync point of a SequenceFile. The dictionary is
+ * part of the format: names may only be appended to it.
+ */
+public class CompactRecord extends ChukwaRecord {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  static final byte TEXT = 0;
+  static final byte LONG = 1;
+  static final byte DOUBLE = 2;
+
+  static final String[] FIELD_NAMES = { Record.bodyField, Record.sourceField,
+      Record.applicationField, Record.tagsField, Record.chunkDataField,
+      Record.chunkExceptionField, Record.classField, Record.logLevelField,
+      "cluster", "type", "JOBID", "TASKID", "TASK_TYPE", "START_TIME",
+      "FINISH_TIME", "count" };
+  private static final Map<String, Integer> FIELD_IDS =
+      new HashMap<String, Integer>();
+  static {
+    for (int i = 0; i < FIELD_NAMES.length; i++) {
+      FIELD_IDS.put(FIELD_NAMES[i], i);
+    }
+  }
+
+  public CompactRecord() {
+  }
+
+  /**
+   * @return record itself if it is a CompactRecord, else a CompactRecord
+   *         sharing the fields of record
+   */
+  public static CompactRecord valueOf(ChukwaRecord record) {
+    if (record instanceof CompactRecord) {
+      return (CompactRecord) record;
+    }
+    CompactRecord compact = new CompactRecord();
+    compact.setTime(record.getTime());
+    compact.setMapFields(record.getMapFields());
+    return compact;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVLong(out, time);
+    if (mapFields == null) {
+      WritableUtils.writeVInt(out, 0);
+      return;
+    }
+    WritableUtils.writeVInt(out, mapFields.size());
+    for (Map.Entry<String, Buffer> field : mapFields.entrySet()) {
+      Integer id = FIELD_IDS.get(field.getKey());
+      if (id != null) {
+        WritableUtils.writeVInt(out, id + 1);
+      } else {
+        WritableUtils.writeVInt(out, 0);
+        Text.writeString(out, field.getKey());
+      }
+      writeValue(out, field.getValue());
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    time = WritableUtils.readVLong(in);
+    int count = WritableUtils.readVInt(in);
+    mapFields = new TreeMap<String, Buffer>();
+    for (int i = 0; i < count; i++) {
+      int id = WritableUtils.readVInt(in);
+      String name;
+      if (id == 0) {
+        name = Text.readString(in);
+      } else if (id <= FIELD_NAMES.length) {
+        name = FIELD_NAMES[id - 1];
+      } else {
+        throw new IOException("Unknown field id " + id);
+      }
+      mapFields.put(name, readValue(in));
+    }
+  }
+
+  private static void writeValue(DataOutput out, Buffer value)
+      throws IOException {
+    byte[] bytes = value.get();
+    int len = value.getCount();
+    if (isLong(bytes, len)) {
+      out.writeByte(LONG);
+      WritableUtils.writeVLong(out, parseLong(bytes, len));
+      return;
+    }
+    if (len > 8 && isDouble(bytes, len)) {
+      out.writeByte(DOUBLE);
+      out.writeDouble(Double.parseDouble(new String(bytes, 0, len, UTF8)));
+      return;
+    }
+    out.writeByte(TEXT);
+    WritableUtils.writeVInt(out, len);
+    out.write(bytes, 0, len);
+  }
+
+  private static Buffer readValue(DataInput in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+    case LONG:
+      return new Buffer(Long.toString(WritableUtils.readVLong(in))
+          .getBytes(UTF8));
+    case DOUBLE:
+      return new Buffer(Double.toString(in.readDouble()).getBytes(UTF8));
+    case TEXT:
+      byte[] bytes = new byte[WritableUtils.readVInt(in)];
+      in.readFully(bytes);
+      return new Buffer(bytes);
+    default:
+      throw new IOException("Unknown value type " + type);
+    }
+  }
+
+  /**
+   * @return true if the text is a decimal integer which Long.toString
+   *         prints back exactly: no sign but '-', no leading zeros
+   */
+  static boolean isLong(byte[] bytes, int len) {
+    int i = len > 0 && bytes[0] == '-' ? 1 : 0;
+    int digits = len - i;
+    if (digits < 1 || digits > 18) {
+      return false;
+    }
+    if (bytes[i] == '0' && (digits > 1 || i == 1)) {
+      return false;
+    }
+    for (; i < len; i++) {
+      if (bytes[i] < '0' || bytes[i] > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long parseLong(byte[] bytes, int len) {
+    int i = bytes[0] == '-' ? 1 : 0;
+    long value = 0;
+    for (int j = i; j < len; j++) {
+      value = value * 10 + (bytes[j] - '0');
+    }
+    return i == 1 ? -value : value;
+  }
+
+  /**
+   * @return true if the text is a double which Double.toString prints back
+   *         exactly
+   */
+  static boolean isDouble(byte[] bytes, int len) {
+    if (len > 24) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      byte b = bytes[i];
+      if ((b < '0' || b > '9') && b != '.' && b != '-' && b != 'E') {
+        return false;
+      }
+    }
+    String text = new String(bytes, 0, len, UTF8);
+    try {
+      return Double.toString(Double.parseDouble(text)).equals(text);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
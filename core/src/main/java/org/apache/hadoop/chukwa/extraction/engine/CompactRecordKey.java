@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * A ChukwaRecordKey serialized in a byte-comparable layout: the UTF-8 bytes
+ * of the reduce type and of the key, each followed by a 0x00 terminator.
+ * Inside a string, 0x00 is written as 0x01 0x01 and 0x01 as 0x01 0x02, so
+ * the terminator sorts before any longer string with the same prefix and
+ * escaping keeps the order of the strings.
+ *
+ * Comparing two serialized keys byte by byte gives the same order as
+ * ChukwaRecordKey.Comparator, without reading the string lengths first.
+ */
+public class CompactRecordKey extends ChukwaRecordKey {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final byte TERMINATOR = 0x00;
+  private static final byte ESCAPE = 0x01;
+
+  // reused by readFields, which is never called concurrently on one key
+  private byte[] buf = new byte[64];
+
+  public CompactRecordKey() {
+  }
+
+  public CompactRecordKey(String reduceType, String key) {
+    super(reduceType, key);
+  }
+
+  /**
+   * @return key itself if it is a CompactRecordKey, else a copy of it
+   */
+  public static CompactRecordKey valueOf(ChukwaRecordKey key) {
+    if (key instanceof CompactRecordKey) {
+      return (CompactRecordKey) key;
+    }
+    return new CompactRecordKey(key.getReduceType(), key.getKey());
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    writeString(out, getReduceType());
+    writeString(out, getKey());
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    setReduceType(readString(in));
+    setKey(readString(in));
+  }
+
+  private static void writeString(DataOutput out, String s)
+      throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    int escaped = 0;
+    for (byte b : bytes) {
+      if (b == TERMINATOR || b == ESCAPE) {
+        escaped++;
+      }
+    }
+    if (escaped == 0) {
+      out.write(bytes);
+      out.writeByte(TERMINATOR);
+      return;
+    }
+    byte[] encoded = new byte[bytes.length + escaped + 1];
+    int j = 0;
+    for (byte b : bytes) {
+      if (b == TERMINATOR || b == ESCAPE) {
+        encoded[j++] = ESCAPE;
+        encoded[j++] = (byte) (b + 1);
+      } else {
+        encoded[j++] = b;
+      }
+    }
+    encoded[j] = TERMINATOR;
+    out.write(encoded);
+  }
+
+  private String readString(DataInput in) throws IOException {
+    int len = 0;
+    for (byte b = in.readByte(); b != TERMINATOR; b = in.readByte()) {
+      if (b == ESCAPE) {
+        b = (byte) (in.readByte() - 1);
+      }
+      if (len == buf.length) {
+        buf = Arrays.copyOf(buf, len * 2);
+      }
+      buf[len++] = b;
+    }
+    return new String(buf, 0, len, UTF8);
+  }
+
+  /**
+   * Compares serialized keys as unsigned bytes.
+   */
+  public static class Comparator extends WritableComparator {
+    public Comparator() {
+      super(CompactRecordKey.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return compareBytes(b1, s1, l1, b2, s2, l2);
+    }
+  }
+
+  static {
+    WritableComparator.define(CompactRecordKey.class, new Comparator());
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.engine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * A sparse time index of a record file, kept in a sidecar file named after
+ * the record file with .idx appended.
+ *
+ * Records are sorted by key, not by time, so each entry holds the position
+ * of a record and the latest time of all the records before it. The latest
+ * times grow with the positions, so the records from t0 on are found by a
+ * binary search for the last entry whose latest time is before t0; no
+ * record before that position is at or after t0. Positions are taken right
+ * after a sync, so SequenceFile.Reader.seek() accepts them whatever the
+ * compression type of the file.
+ *
+ * The sidecar also holds the length of the record file it was written for,
+ * and is ignored if the record file has a different length.
+ */
+public class RecordFileIndex {
+  static Logger log = Logger.getLogger(RecordFileIndex.class);
+
+  public static final String INTERVAL_OPT = "chukwa.demux.index.interval";
+  public static final int DEFAULT_INTERVAL = 1000;
+  public static final String SUFFIX = ".idx";
+  private static final int VERSION = 1;
+
+  private long[] positions = new long[16];
+  private long[] times = new long[16];
+  private int size = 0;
+
+  /**
+   * Add an entry; entries must be added in position order.
+   *
+   * @param position is the position of a record
+   * @param latestTime is the latest time of the records before position
+   */
+  public void add(long position, long latestTime) {
+    if (size == positions.length) {
+      positions = Arrays.copyOf(positions, size * 2);
+      times = Arrays.copyOf(times, size * 2);
+    }
+    positions[size] = position;
+    times[size] = latestTime;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param t0 is the earliest time searched for
+   * @return the position to seek to before reading the records from t0 on,
+   *         or -1 to read from the start of the file
+   */
+  public long seekPosition(long t0) {
+    int low = 0;
+    int high = size - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (times[mid] < t0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found == -1 ? -1 : positions[found];
+  }
+
+  public static Path getIndexPath(Path recordFile) {
+    return recordFile.suffix(SUFFIX);
+  }
+
+  /**
+   * Write the index of recordFile to its sidecar file.
+   *
+   * @param fs is the file system of recordFile
+   * @param recordFile is the indexed file
+   * @param length is the length of recordFile
+   * @throws IOException if the sidecar can not be written
+   */
+  public void write(FileSystem fs, Path recordFile, long length)
+      throws IOException {
+    FSDataOutputStream out = fs.create(getIndexPath(recordFile), true);
+    try {
+      WritableUtils.writeVInt(out, VERSION);
+      WritableUtils.writeVLong(out, length);
+      WritableUtils.writeVInt(out, size);
+      long lastPosition = 0;
+      for (int i = 0; i < size; i++) {
+        WritableUtils.writeVLong(out, positions[i] - lastPosition);
+        WritableUtils.writeVLong(out, times[i]);
+        lastPosition = positions[i];
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @param fs is the file system of recordFile
+   * @param recordFile is a record file
+   * @return the index of recordFile, or null if it has no usable index
+   */
+  public static RecordFileIndex read(FileSystem fs, Path recordFile) {
+    Path indexFile = getIndexPath(recordFile);
+    FSDataInputStream in = null;
+    try {
+      if (!fs.exists(indexFile)) {
+        return null;
+      }
+      in = fs.open(indexFile);
+      int version = WritableUtils.readVInt(in);
+      if (version != VERSION) {
+        log.warn("Unknown version " + version + " of " + indexFile);
+        return null;
+      }
+      long length = WritableUtils.readVLong(in);
+      if (length != fs.getFileStatus(recordFile).getLen()) {
+        log.info("Ignoring stale index " + indexFile);
+        return null;
+      }
+      int size = WritableUtils.readVInt(in);
+      RecordFileIndex index = new RecordFileIndex();
+      long position = 0;
+      for (int i = 0; i < size; i++) {
+        position += WritableUtils.readVLong(in);
+        index.add(position, WritableUtils.readVLong(in));
+      }
+      return index;
+    } catch (IOException e) {
+      log.warn("Could not read " + indexFile, e);
+      return null;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Move the sidecar of src, if it has one, along with src.
+   */
+  public static void rename(FileSystem fs, Path src, Path dst)
+      throws IOException {
+    Path indexFile = getIndexPath(src);
+    if (fs.exists(indexFile)) {
+      fs.rename(indexFile, getIndexPath(dst));
+    }
+  }
+
+  /**
+   * Copy the sidecar of src, if it has one, along with src.
+   */
+  public static void copy(FileSystem fs, Path src, Path dst,
+      Configuration conf) throws IOException {
+    Path indexFile = getIndexPath(src);
+    if (fs.exists(indexFile)) {
+      FileUtil.copy(fs, indexFile, fs, getIndexPath(dst), false, true, conf);
+    }
+  }
+
+  /**
+   * Appends records to a record file and indexes every interval records.
+   */
+  public static class Writer {
+    private final SequenceFile.Writer out;
+    private final int interval;
+    private final RecordFileIndex index = new RecordFileIndex();
+    private long records = 0;
+    private long latestTime = Long.MIN_VALUE;
+
+    /**
+     * @param out writes the record file
+     * @param interval is the number of records between index entries, or
+     *          0 to write no index
+     */
+    public Writer(SequenceFile.Writer out, int interval) {
+      this.out = out;
+      this.interval = interval;
+    }
+
+    public void append(ChukwaRecordKey key, ChukwaRecord record)
+        throws IOException {
+      if (interval > 0 && records > 0 && records % interval == 0) {
+        out.sync();
+        index.add(out.getLength(), latestTime);
+      }
+      out.append(key, record);
+      latestTime = Math.max(latestTime, record.getTime());
+      records++;
+    }
+
+    /**
+     * Close the record file and write its index, if it has any entries.
+     *
+     * @param fs is the file system of file
+     * @param file is the record file written by out
+     * @throws IOException if the file or its index can not be written
+     */
+    public void close(FileSystem fs, Path file) throws IOException {
+      out.close();
+      if (index.size() > 0) {
+        index.write(fs, file, fs.getFileStatus(file).getLen());
+      }
+    }
+  }
+}
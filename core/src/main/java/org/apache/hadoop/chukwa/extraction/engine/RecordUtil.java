@@ -22,6 +22,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.util.ReflectionUtils;
 
 /**
  * Various utility methods.
@@ -60,6 +62,25 @@ public class RecordUtil {
 
     return "undefined";
   }
-  
+
+  /**
+   * Record files name their key class in their header, ChukwaRecordKey or
+   * CompactRecordKey, and reader.next() only accepts a key of that class.
+   * @param reader is an open record file
+   * @return a key to read the records of reader into
+   */
+  public static ChukwaRecordKey newKey(SequenceFile.Reader reader) {
+    return ReflectionUtils.newInstance(
+        reader.getKeyClass().asSubclass(ChukwaRecordKey.class), null);
+  }
+
+  /**
+   * @param reader is an open record file
+   * @return a ChukwaRecord or CompactRecord, whichever reader holds
+   */
+  public static ChukwaRecord newRecord(SequenceFile.Reader reader) {
+    return ReflectionUtils.newInstance(
+        reader.getValueClass().asSubclass(ChukwaRecord.class), null);
+  }
 
 }
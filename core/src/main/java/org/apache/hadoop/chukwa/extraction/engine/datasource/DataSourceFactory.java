@@ -19,14 +19,17 @@
 package org.apache.hadoop.chukwa.extraction.engine.datasource;
 
 
+import java.io.IOException;
 import java.util.HashMap;
 import org.apache.hadoop.chukwa.extraction.engine.datasource.database.DatabaseDS;
-import org.apache.hadoop.chukwa.extraction.engine.datasource.record.ChukwaRecordDataSource;
+import org.apache.hadoop.chukwa.extraction.engine.datasource.record.ParallelRecordDataSource;
 
 public class DataSourceFactory {
   private static Object lock = new Object();
   private static DataSourceFactory factory = null;
   private HashMap<String, DataSource> dataSources = new HashMap<String, DataSource>();
+  // every record data source shares one search thread pool
+  private ParallelRecordDataSource recordDS = null;
 
   private DataSourceFactory() {
     // TODO load from config Name + class + threadSafe?
@@ -47,14 +50,20 @@ public class DataSourceFactory {
     return factory;
   }
 
-  public DataSource getDataSource(String datasourceName)
+  public synchronized DataSource getDataSource(String datasourceName)
       throws DataSourceException {
     if (dataSources.containsKey(datasourceName)) {
       return dataSources.get(datasourceName);
     } else {
-      DataSource hsdfsDS = new ChukwaRecordDataSource();
-      dataSources.put(datasourceName, hsdfsDS);
-      return hsdfsDS;
+      if (recordDS == null) {
+        try {
+          recordDS = new ParallelRecordDataSource();
+        } catch (IOException e) {
+          throw new DataSourceException(e);
+        }
+      }
+      dataSources.put(datasourceName, recordDS);
+      return recordDS;
       // TODO proto only!
       // throw new DataSourceException("Unknown datasource");
     }
@@ -35,6 +35,8 @@ import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaSearchResult;
 import org.apache.hadoop.chukwa.extraction.engine.Record;
+import org.apache.hadoop.chukwa.extraction.engine.RecordFileIndex;
+import org.apache.hadoop.chukwa.extraction.engine.RecordUtil;
 import org.apache.hadoop.chukwa.extraction.engine.SearchResult;
 import org.apache.hadoop.chukwa.extraction.engine.Token;
 import org.apache.hadoop.chukwa.extraction.engine.datasource.DataSource;
@@ -294,14 +296,20 @@ public class ChukwaRecordDataSource implements DataSource {
 
       long timestamp = 0;
       int listSize = 0;
-      ChukwaRecordKey key = new ChukwaRecordKey();
-      ChukwaRecord record = new ChukwaRecord();
-
       r = new SequenceFile.Reader(fs, new Path(fileName), conf);
+      ChukwaRecordKey key = RecordUtil.newKey(r);
+      ChukwaRecord record = RecordUtil.newRecord(r);
 
       log.debug("readData Open2 [" + fileName + "]");
       if ((fileName.equals(res.fileName)) && (res.position != -1)) {
         r.seek(res.position);
+      } else {
+        // skip the records before t0 if the file has a time index
+        RecordFileIndex index = RecordFileIndex.read(fs, new Path(fileName));
+        long position = index == null ? -1 : index.seekPosition(t0);
+        if (position != -1) {
+          r.seek(position);
+        }
       }
       res.fileName = fileName;
 
@@ -329,7 +337,7 @@ public class ChukwaRecordDataSource implements DataSource {
 
             if (valid) {
               records.add(record);
-              record = new ChukwaRecord();
+              record = RecordUtil.newRecord(r);
               listSize = records.size();
               if (listSize >= maxRows) {
                 // maxRow so stop here
@@ -26,6 +26,7 @@ import java.util.List;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
 import org.apache.hadoop.chukwa.extraction.engine.Record;
+import org.apache.hadoop.chukwa.extraction.engine.RecordUtil;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -64,8 +65,8 @@ public class ChukwaSequenceFileParser {
       long offset = 0;
 
       // HdfsWriter.HdfsWriterKey key = new HdfsWriter.HdfsWriterKey();
-      ChukwaRecordKey key = new ChukwaRecordKey();
-      ChukwaRecord record = new ChukwaRecord();
+      ChukwaRecordKey key = RecordUtil.newKey(r);
+      ChukwaRecord record = RecordUtil.newRecord(r);
 
       while (r.next(key, record)) {
         lineCount++;
@@ -97,7 +98,7 @@ public class ChukwaSequenceFileParser {
 
             if (valid) {
               records.add(record);
-              record = new ChukwaRecord();
+              record = RecordUtil.newRecord(r);
               listSize = records.size();
               if (listSize > maxRows) {
                 records.remove(0);
@@ -0,0 +1,547 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.engine.datasource.record;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.Record;
+import org.apache.hadoop.chukwa.extraction.engine.RecordFileIndex;
+import org.apache.hadoop.chukwa.extraction.engine.RecordUtil;
+import org.apache.hadoop.chukwa.extraction.engine.SearchResult;
+import org.apache.hadoop.chukwa.extraction.engine.Token;
+import org.apache.hadoop.chukwa.extraction.engine.datasource.DataSource;
+import org.apache.hadoop.chukwa.extraction.engine.datasource.DataSourceException;
+import org.apache.hadoop.chukwa.inputtools.mdl.DataConfig;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.log4j.Logger;
+
+/**
+ * Searches the record files of the repository on a pool of threads.
+ *
+ * The record files of each day of the search are found with one recursive
+ * listing of the day directory. Files which were merged into a rolled file
+ * are skipped: a day with a DailyDone file is read from the files directly
+ * in the day directory, and an hour with an HourlyDone file from the files
+ * directly in the hour directory. Files whose day, hour or 5 minute slot
+ * is outside of the search are not opened.
+ *
+ * Each file is read by a task on a pool of chukwa.engine.search.threads
+ * threads. Record files are sorted by key rather than time, so a task reads
+ * the file from the position its time index gives for the start of the
+ * search, matches the filter against the records in the time range and
+ * keeps the earliest chukwa.engine.search.page.size of them. The sorted
+ * runs of all files are then merged on time into a page.
+ *
+ * Records are ordered by time, then by file and position in the file. The
+ * records of a block compressed file share the position of their block, so
+ * they are also ordered by their index in the block. The token of a page
+ * holds its last record, and a search with that token returns the next
+ * page.
+ */
+public class ParallelRecordDataSource implements DataSource {
+  static Logger log = Logger.getLogger(ParallelRecordDataSource.class);
+
+  public static final String ROOT_FOLDER_OPT = "chukwa.engine.dsDirectory.rootFolder";
+  public static final String THREADS_OPT = "chukwa.engine.search.threads";
+  public static final String PAGE_SIZE_OPT = "chukwa.engine.search.page.size";
+  public static final int DEFAULT_THREADS = 8;
+  public static final int DEFAULT_PAGE_SIZE = 200;
+
+  static final String DAILY_DONE = "_DailyDone_";
+  static final String HOURLY_DONE = "_HourlyDone_";
+  private static final long HOUR = 60 * 60 * 1000L;
+  private static final long SLOT = 5 * 60 * 1000L;
+
+  private final Configuration conf;
+  private final FileSystem fs;
+  private final String rootFolder;
+  private final int pageSize;
+  private final ThreadPoolExecutor pool;
+
+  public ParallelRecordDataSource() throws IOException {
+    this(new DataConfig(), new ChukwaConfiguration());
+  }
+
+  private ParallelRecordDataSource(DataConfig dataConfig, Configuration conf)
+      throws IOException {
+    this(conf, FileSystem.get(conf), dataConfig.get(ROOT_FOLDER_OPT),
+        getInt(dataConfig, THREADS_OPT, DEFAULT_THREADS),
+        getInt(dataConfig, PAGE_SIZE_OPT, DEFAULT_PAGE_SIZE));
+  }
+
+  /**
+   * @param conf is used to open the record files
+   * @param fs holds the repository
+   * @param rootFolder is the root of the repository
+   * @param threads is the number of files read at the same time
+   * @param pageSize is the number of records returned by a search
+   */
+  ParallelRecordDataSource(Configuration conf, FileSystem fs,
+      String rootFolder, int threads, int pageSize) {
+    this.conf = conf;
+    this.fs = fs;
+    this.rootFolder = rootFolder;
+    this.pageSize = Math.max(1, pageSize);
+    threads = Math.max(1, threads);
+    this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger(0);
+
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Record search " + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    this.pool.allowCoreThreadTimeOut(true);
+  }
+
+  private static int getInt(DataConfig dataConfig, String name, int value) {
+    String s = dataConfig.get(name);
+    if (s != null) {
+      try {
+        value = Integer.parseInt(s.trim());
+      } catch (NumberFormatException e) {
+        log.warn("Invalid " + name + ": " + s);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * A record read from a file, or the last record of a page.
+   */
+  static class Hit implements Comparable<Hit> {
+    final long time;
+    final String file;
+    final long position;
+    final int ordinal;
+    final Record record;
+
+    Hit(long time, String file, long position, int ordinal, Record record) {
+      this.time = time;
+      this.file = file;
+      this.position = position;
+      this.ordinal = ordinal;
+      this.record = record;
+    }
+
+    public int compareTo(Hit other) {
+      if (time != other.time) {
+        return time < other.time ? -1 : 1;
+      }
+      int c = file.compareTo(other.file);
+      if (c != 0) {
+        return c;
+      }
+      if (position != other.position) {
+        return position < other.position ? -1 : 1;
+      }
+      return ordinal < other.ordinal ? -1 : (ordinal == other.ordinal ? 0 : 1);
+    }
+  }
+
+  /**
+   * A record file and the times its records can have.
+   */
+  static class RecordFile {
+    final Path path;
+    final long start;
+    final long end;
+
+    RecordFile(Path path, long start, long end) {
+      this.path = path;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
+  @Override
+  public SearchResult search(SearchResult result, String cluster,
+      String dataSource, long t0, long t1, String filter, Token token)
+      throws DataSourceException {
+    return search(result, cluster, new String[] { dataSource }, t0, t1,
+        filter, token);
+  }
+
+  /**
+   * Search the records of several data sources, merged into one page.
+   *
+   * @param result receives the records and the token of the next page
+   * @param cluster is the cluster to search
+   * @param dataSources are the data sources to search
+   * @param t0 is the start of the search
+   * @param t1 is the end of the search, exclusive
+   * @param filter is matched against the field values, or null
+   * @param token is the token of the previous page, or null
+   * @return result
+   * @throws DataSourceException if the files can not be listed
+   */
+  public SearchResult search(SearchResult result, String cluster,
+      String[] dataSources, long t0, long t1, String filter, Token token)
+      throws DataSourceException {
+    Hit after = parseToken(token);
+    long start = after == null ? t0 : Math.max(t0, after.time);
+    if (filter != null && filter.isEmpty()) {
+      filter = null;
+    }
+    if (token == null) {
+      token = new Token();
+    }
+
+    List<Future<List<Hit>>> futures = new ArrayList<Future<List<Hit>>>();
+    List<Hit> page;
+    try {
+      for (String dataSource : dataSources) {
+        Path dsDirectory = new Path(rootFolder + "/" + cluster + "/"
+            + dataSource);
+        for (RecordFile file : listRecordFiles(dsDirectory, start, t1)) {
+          futures.add(pool.submit(new FileSearch(file.path, start, t1,
+              filter, after, pageSize + 1)));
+        }
+      }
+      List<List<Hit>> runs = new ArrayList<List<Hit>>(futures.size());
+      for (Future<List<Hit>> future : futures) {
+        runs.add(future.get());
+      }
+      page = merge(runs, pageSize + 1);
+    } catch (IOException e) {
+      throw new DataSourceException(e);
+    } catch (ExecutionException e) {
+      throw new DataSourceException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DataSourceException(e);
+    } finally {
+      for (Future<List<Hit>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    log.debug("Searched " + futures.size() + " files, found " + page.size()
+        + " records");
+
+    token.hasMore = page.size() > pageSize;
+    if (token.hasMore) {
+      page.remove(pageSize);
+    }
+    TreeMap<Long, List<Record>> records = result.getRecords();
+    for (Hit hit : page) {
+      List<Record> list = records.get(hit.time);
+      if (list == null) {
+        list = new LinkedList<Record>();
+        records.put(hit.time, list);
+      }
+      list.add(hit.record);
+    }
+    if (!page.isEmpty()) {
+      Hit last = page.get(page.size() - 1);
+      token.key = last.time + "|" + last.position + "|" + last.ordinal + "|"
+          + last.file;
+    }
+    result.setToken(token);
+    return result;
+  }
+
+  /**
+   * @return the last record of the previous page, or null if token does
+   *         not hold one
+   */
+  static Hit parseToken(Token token) {
+    if (token == null || token.key == null) {
+      return null;
+    }
+    String[] vars = token.key.split("\\|", 4);
+    if (vars.length == 4) {
+      try {
+        return new Hit(Long.parseLong(vars[0]), vars[3],
+            Long.parseLong(vars[1]), Integer.parseInt(vars[2]), null);
+      } catch (NumberFormatException e) {
+        // fall through
+      }
+    }
+    log.warn("Ignoring invalid token: [" + token.key + "]");
+    return null;
+  }
+
+  /**
+   * List the record files of a data source which can hold records from t0
+   * to t1.
+   */
+  List<RecordFile> listRecordFiles(Path dsDirectory, long t0, long t1)
+      throws IOException {
+    List<RecordFile> files = new ArrayList<RecordFile>();
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(t0);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    while (calendar.getTimeInMillis() < t1) {
+      Path dayDirectory = new Path(dsDirectory, sdf.format(calendar.getTime()));
+      listDay(dayDirectory, calendar, t0, t1, files);
+      calendar.add(Calendar.DAY_OF_MONTH, 1);
+    }
+    return files;
+  }
+
+  private void listDay(Path dayDirectory, Calendar day, long t0, long t1,
+      List<RecordFile> files) throws IOException {
+    // SystemMetrics/20080922/SystemMetrics_DailyDone_20080922.1.evt
+    // SystemMetrics/20080922/12/SystemMetrics_HourlyDone_20080922_12.1.evt
+    // SystemMetrics/20080922/12/25/SystemMetrics_20080922_12_25.1.evt
+    List<Path> paths = new ArrayList<Path>();
+    Set<String> hourlyDone = new HashSet<String>();
+    boolean dailyDone = false;
+    int depth = dayDirectory.depth();
+    try {
+      RemoteIterator<LocatedFileStatus> it = fs.listFiles(dayDirectory, true);
+      while (it.hasNext()) {
+        Path path = it.next().getPath();
+        String name = path.getName();
+        if (!name.endsWith(".evt")) {
+          continue;
+        }
+        int level = path.depth() - depth;
+        if (level == 1 && name.contains(DAILY_DONE)) {
+          dailyDone = true;
+        } else if (level == 2 && name.contains(HOURLY_DONE)) {
+          hourlyDone.add(path.getParent().getName());
+        }
+        paths.add(path);
+      }
+    } catch (FileNotFoundException e) {
+      return;
+    }
+
+    long dayStart = day.getTimeInMillis();
+    Calendar calendar = (Calendar) day.clone();
+    calendar.add(Calendar.DAY_OF_MONTH, 1);
+    long dayEnd = calendar.getTimeInMillis();
+    for (Path path : paths) {
+      int level = path.depth() - depth;
+      long start = dayStart;
+      long end = dayEnd;
+      if (level > 1) {
+        String hour = level == 2 ? path.getParent().getName() : path
+            .getParent().getParent().getName();
+        if (dailyDone || level > 3
+            || (level == 3 && hourlyDone.contains(hour))) {
+          continue;
+        }
+        try {
+          calendar = (Calendar) day.clone();
+          calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(hour));
+          start = calendar.getTimeInMillis();
+          end = start + HOUR;
+          if (level == 3) {
+            start += Integer.parseInt(path.getParent().getName()) * 60 * 1000L;
+            end = start + SLOT;
+          }
+        } catch (NumberFormatException e) {
+          log.warn("Skipping record file outside of an hour: " + path);
+          continue;
+        }
+      }
+      if (start < t1 && end > t0) {
+        files.add(new RecordFile(path, start, end));
+      }
+    }
+  }
+
+  /**
+   * Reads the records of a file which are in the search, and returns the
+   * earliest of them in order.
+   */
+  private class FileSearch implements Callable<List<Hit>> {
+    private final Path path;
+    private final long t0;
+    private final long t1;
+    private final String filter;
+    private final Hit after;
+    private final int limit;
+
+    FileSearch(Path path, long t0, long t1, String filter, Hit after,
+        int limit) {
+      this.path = path;
+      this.t0 = t0;
+      this.t1 = t1;
+      this.filter = filter;
+      this.after = after;
+      this.limit = limit;
+    }
+
+    public List<Hit> call() {
+      String file = path.toString();
+      // the latest kept record is at the head
+      PriorityQueue<Hit> kept = new PriorityQueue<Hit>(16,
+          Collections.reverseOrder());
+      SequenceFile.Reader r = null;
+      try {
+        r = new SequenceFile.Reader(fs, path, conf);
+        ChukwaRecordKey key = RecordUtil.newKey(r);
+        ChukwaRecord record = RecordUtil.newRecord(r);
+        RecordFileIndex index = RecordFileIndex.read(fs, path);
+        long position = index == null ? -1 : index.seekPosition(t0);
+        if (position != -1) {
+          r.seek(position);
+        }
+        long end = -1;
+        int ordinal = 0;
+        while (r.next(key, record)) {
+          // reading starts at a block, so neither the end of a record nor
+          // its index among the records ending there depends on where
+          if (r.getPosition() == end) {
+            ordinal++;
+          } else {
+            end = r.getPosition();
+            ordinal = 0;
+          }
+          long time = record.getTime();
+          if (time < t0 || time >= t1) {
+            continue;
+          }
+          Hit hit = new Hit(time, file, end, ordinal, record);
+          if ((after != null && hit.compareTo(after) <= 0)
+              || (kept.size() == limit && hit.compareTo(kept.peek()) > 0)
+              || !matches(record, filter)) {
+            continue;
+          }
+          kept.add(hit);
+          if (kept.size() > limit) {
+            kept.poll();
+          }
+          record = RecordUtil.newRecord(r);
+        }
+      } catch (IOException e) {
+        log.warn("Failed to read " + file, e);
+      } finally {
+        if (r != null) {
+          try {
+            r.close();
+          } catch (IOException e) {
+            log.debug("Failed to close " + file, e);
+          }
+        }
+      }
+      List<Hit> hits = new ArrayList<Hit>(kept);
+      Collections.sort(hits);
+      return hits;
+    }
+  }
+
+  /**
+   * @param record is the record to match
+   * @param filter is the text to look for, or null to match every record
+   * @return true if a field value of record contains filter, ignoring case
+   */
+  static boolean matches(ChukwaRecord record, String filter) {
+    if (filter == null) {
+      return true;
+    }
+    for (String field : record.getFields()) {
+      String value = record.getValue(field);
+      int last = value.length() - filter.length();
+      for (int i = 0; i <= last; i++) {
+        if (value.regionMatches(true, i, filter, 0, filter.length())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Merge sorted runs of records.
+   *
+   * @param runs are the records of each file, in order
+   * @param limit is the number of records to return
+   * @return the first limit records of all runs, in order
+   */
+  static List<Hit> merge(List<List<Hit>> runs, int limit) {
+    PriorityQueue<Run> heads = new PriorityQueue<Run>(Math.max(1,
+        runs.size()));
+    for (List<Hit> hits : runs) {
+      Run run = new Run(hits.iterator());
+      if (run.head != null) {
+        heads.add(run);
+      }
+    }
+    List<Hit> merged = new ArrayList<Hit>();
+    while (merged.size() < limit && !heads.isEmpty()) {
+      Run run = heads.poll();
+      merged.add(run.head);
+      if (run.advance()) {
+        heads.add(run);
+      }
+    }
+    return merged;
+  }
+
+  private static class Run implements Comparable<Run> {
+    private final Iterator<Hit> it;
+    Hit head;
+
+    Run(Iterator<Hit> it) {
+      this.it = it;
+      advance();
+    }
+
+    boolean advance() {
+      head = it.hasNext() ? it.next() : null;
+      return head != null;
+    }
+
+    public int compareTo(Run other) {
+      return head.compareTo(other.head);
+    }
+  }
+}
@@ -26,7 +26,9 @@ import java.util.ArrayList;
 
 import org.apache.hadoop.chukwa.Chunk;
 import org.apache.hadoop.chukwa.datacollection.writer.hbase.Reporter;
+import org.apache.hadoop.chukwa.datacollection.writer.hbase.RollupAggregator;
 import org.apache.hadoop.chukwa.util.HBaseUtil;
+import org.apache.hadoop.chukwa.util.MetricValueCodec;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.log4j.Logger;
 
@@ -47,11 +49,53 @@ public abstract class AbstractProcessor {
   long time = System.currentTimeMillis();
   Chunk chunk = null;
   MessageDigest md5 = null;
+  boolean binaryValues = false;
+  RollupAggregator rollups = null;
 
   public AbstractProcessor() throws NoSuchAlgorithmException {
     md5 = MessageDigest.getInstance("md5");
   }
 
+  /**
+   * Select how metric values are stored, see MetricValueCodec.
+   *
+   * @param encoding is MetricValueCodec.STRING or MetricValueCodec.BINARY
+   */
+  public void setValueEncoding(String encoding) {
+    binaryValues = MetricValueCodec.isBinary(encoding);
+  }
+
+  /**
+   * @param value is a metric value as UTF-8 text
+   * @return the value in the configured encoding
+   */
+  protected byte[] encodeValue(byte[] value) {
+    return binaryValues ? MetricValueCodec.encodeText(value) : value;
+  }
+
+  /**
+   * @param rollups enables reporting numeric values for the rollups, see
+   *        Reporter.getRollups(), or null to not maintain rollups
+   */
+  public void setRollupAggregator(RollupAggregator rollups) {
+    this.rollups = rollups;
+  }
+
+  private void addRollup(byte[] key, long time, byte[] value) {
+    if (rollups == null || value.length == 0) {
+      return;
+    }
+    byte first = value[0];
+    if ((first < '0' || first > '9') && first != '-' && first != '.') {
+      return; // not a number
+    }
+    try {
+      reporter.putRollup(key, time, MetricValueCodec.decode(value));
+    } catch (NumberFormatException e) {
+      // text values have no rollup
+    }
+  }
+
   protected abstract void parse(byte[] recordEntry) throws Throwable;
 
   /**
@@ -71,8 +115,9 @@ public abstract class AbstractProcessor {
     byte[] key = HBaseUtil.buildKey(time, primaryKey, source);
     Put put = new Put(key);
     byte[] timeInBytes = ByteBuffer.allocate(8).putLong(time).array();
-    put.addColumn(CF, timeInBytes, time, value);
+    put.addColumn(CF, timeInBytes, time, encodeValue(value));
     output.add(put);
+    addRollup(key, time, value);
     reporter.putMetric(chunk.getDataType(), primaryKey);
     reporter.putSource(chunk.getDataType(), source);
   }
@@ -95,8 +140,9 @@ public abstract class AbstractProcessor {
     byte[] key = HBaseUtil.buildKey(time, primaryKey, sourceHelper);
     Put put = new Put(key);
     byte[] timeInBytes = ByteBuffer.allocate(8).putLong(time).array();
-    put.addColumn(CF, timeInBytes, time, value);
+    put.addColumn(CF, timeInBytes, time, encodeValue(value));
     output.add(put);
+    addRollup(key, time, value);
     reporter.putMetric(chunk.getDataType(), primaryKey);
   }
 
@@ -18,18 +18,20 @@
 
 package org.apache.hadoop.chukwa.extraction.hbase;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
+import org.apache.hadoop.chukwa.extraction.hbase.JsonTokenReader.Token;
 import org.apache.hadoop.chukwa.util.ExceptionUtil;
 
+/**
+ * Stores the metrics records of the Hadoop metrics sink, a sequence of flat
+ * JSON objects, one cell per metric. Records are read with a
+ * JsonTokenReader, so metric values are copied from the chunk into the
+ * cells without building an object tree.
+ */
 public class HadoopMetricsProcessor extends AbstractProcessor {
   
   static Logger LOG = Logger.getLogger(HadoopMetricsProcessor.class);
@@ -39,59 +41,112 @@ public class HadoopMetricsProcessor extends AbstractProcessor {
   static final String hostName = "Hostname";
   static final String processName = "ProcessName";
   static final byte[] cf = "t".getBytes(Charset.forName("UTF-8"));
+  static final byte[] timestampBytes = JsonTokenReader.ascii(timestampField);
+  static final byte[] contextNameBytes = JsonTokenReader.ascii(contextNameField);
+  static final byte[] recordNameBytes = JsonTokenReader.ascii(recordNameField);
+  static final byte[] hostNameBytes = JsonTokenReader.ascii(hostName);
+  static final byte[] processNameBytes = JsonTokenReader.ascii(processName);
+
+  private final JsonTokenReader json = new JsonTokenReader();
 
   public HadoopMetricsProcessor() throws NoSuchAlgorithmException {
   }
 
   @Override
   protected void parse(byte[] recordEntry) throws Throwable {
-    String body = new String(recordEntry, Charset.forName("UTF-8"));
-    int start = 0;
-    int end = 0;
+    json.reset(recordEntry);
     try {
-      while(true) {
-        start = body.indexOf('{', end);
-        end = body.indexOf('}', start)+1;
-        if (start == -1)
-          break;
-
-        JSONObject json = (JSONObject) JSONValue.parse(body.substring(start,end));
-
-        time = ((Long) json.get(timestampField)).longValue();
-        String contextName = (String) json.get(contextNameField);
-        String recordName = (String) json.get(recordNameField);
-        String src = ((String) json.get(hostName)).toLowerCase();
-        if(json.get(processName)!=null) {
-          src = new StringBuilder(src).append(":").append(json.get(processName)).toString();
-        }
-        for(Entry<String, Object> entry : (Set<Map.Entry>) json.entrySet()) {
-          String keyName = entry.getKey();
-          if (timestampField.intern() == keyName.intern()) {
-            continue;
-          } else if (contextNameField.intern() == keyName.intern()) {
-            continue;
-          } else if (recordNameField.intern() == keyName.intern()) {
-            continue;
-          } else if (hostName.intern() == keyName.intern()) {
-            continue;
-          } else if (processName.intern() == keyName.intern()) {
-            continue;
-          } else {
-            if(json.get(keyName)!=null) {
-              String v = entry.getValue().toString();
-              String primaryKey = new StringBuilder(contextName).append(".")
-                .append(recordName).append(".").append(keyName).toString();
-              addRecord(time, primaryKey, src, v.getBytes(Charset.forName("UTF-8")), output);
-            }
-          }
+      Token t;
+      while ((t = json.next()) != Token.END) {
+        if (t == Token.START_OBJECT) {
+          parseRecord();
         }
       }
     } catch(Exception e) {
       LOG.warn("Unparsable data:");
-      LOG.warn(body);
+      LOG.warn(new String(recordEntry, Charset.forName("UTF-8")));
       LOG.warn(ExceptionUtil.getStackTrace(e));
       // Skip unparsable data.
     }
   }
 
+  /**
+   * Read the header fields of the record starting at the current position,
+   * then go over the record again and store every other non-null field.
+   */
+  private void parseRecord() throws IOException {
+    int recordStart = json.position();
+    String contextName = null;
+    String recordName = null;
+    String host = null;
+    String process = null;
+    boolean hasTime = false;
+    while (json.next() == Token.FIELD_NAME) {
+      int field = headerField();
+      json.next();
+      switch (field) {
+      case 0:
+        time = json.getLong();
+        hasTime = true;
+        break;
+      case 1:
+        contextName = json.getText();
+        break;
+      case 2:
+        recordName = json.getText();
+        break;
+      case 3:
+        host = json.getText();
+        break;
+      case 4:
+        process = json.current() == Token.NULL ? null : json.getText();
+        break;
+      default:
+        json.skipChildren();
+      }
+    }
+    if (!hasTime || host == null) {
+      throw new IOException("Metrics record without " + timestampField
+          + " or " + hostName);
+    }
+    int recordEnd = json.position();
+    String src = host.toLowerCase();
+    if (process != null) {
+      src = new StringBuilder(src).append(":").append(process).toString();
+    }
+    String prefix = new StringBuilder(String.valueOf(contextName)).append(".")
+        .append(recordName).append(".").toString();
+    json.seek(recordStart);
+    while (json.next() == Token.FIELD_NAME) {
+      boolean header = headerField() >= 0;
+      String keyName = header ? null : json.getFieldName();
+      json.next();
+      if (header || json.current() == Token.NULL) {
+        json.skipChildren();
+        continue;
+      }
+      addRecord(time, prefix + keyName, src, json.getValueBytes(), output);
+    }
+    json.seek(recordEnd);
+  }
+
+  /**
+   * @return the index of the current field name among the record header
+   *         fields, or -1 for a metric
+   */
+  private int headerField() {
+    if (json.textEquals(timestampBytes)) {
+      return 0;
+    } else if (json.textEquals(contextNameBytes)) {
+      return 1;
+    } else if (json.textEquals(recordNameBytes)) {
+      return 2;
+    } else if (json.textEquals(hostNameBytes)) {
+      return 3;
+    } else if (json.textEquals(processNameBytes)) {
+      return 4;
+    }
+    return -1;
+  }
+
 }
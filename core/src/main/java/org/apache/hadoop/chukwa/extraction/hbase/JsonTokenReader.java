@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.extraction.hbase;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.hadoop.chukwa.util.MetricValueCodec;
+
+/**
+ * A pull tokenizer for the JSON produced by the metrics adaptors, reading
+ * directly from the chunk's byte array.
+ *
+ * Tokens are reported as offsets into the buffer, so skipping a value or
+ * copying a number into a cell does not create any intermediate String or
+ * boxed number. Field names are decoded once and kept in a small cache,
+ * since the same few names repeat in every chunk. The tokenizer is lenient:
+ * commas and colons are treated as separators and a string followed by a
+ * colon is a field name.
+ *
+ * Instances are not thread safe; each processor keeps its own.
+ */
+class JsonTokenReader {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int NAME_CACHE_SIZE = 256;
+
+  enum Token {
+    START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, STRING,
+    NUMBER, TRUE, FALSE, NULL, END
+  }
+
+  private byte[] buf;
+  private int pos;
+  private int limit;
+  private Token token;
+  private int start;
+  private int end;
+  private boolean escaped;
+  private boolean integral;
+
+  private final String[] names = new String[NAME_CACHE_SIZE];
+  private final byte[][] nameBytes = new byte[NAME_CACHE_SIZE][];
+
+  void reset(byte[] buf) {
+    reset(buf, 0, buf.length);
+  }
+
+  void reset(byte[] buf, int offset, int limit) {
+    this.buf = buf;
+    this.pos = offset;
+    this.limit = limit;
+    this.token = null;
+  }
+
+  /**
+   * @return the offset following the current token
+   */
+  int position() {
+    return pos;
+  }
+
+  /**
+   * Continue reading at an offset previously returned by position().
+   */
+  void seek(int position) {
+    pos = position;
+    token = null;
+  }
+
+  Token current() {
+    return token;
+  }
+
+  Token next() throws IOException {
+    escaped = false;
+    while (pos < limit) {
+      byte b = buf[pos];
+      if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == ','
+          || b == ':') {
+        pos++;
+      } else {
+        break;
+      }
+    }
+    if (pos >= limit) {
+      return token = Token.END;
+    }
+    start = pos;
+    byte b = buf[pos];
+    switch (b) {
+    case '{':
+      end = ++pos;
+      return token = Token.START_OBJECT;
+    case '}':
+      end = ++pos;
+      return token = Token.END_OBJECT;
+    case '[':
+      end = ++pos;
+      return token = Token.START_ARRAY;
+    case ']':
+      end = ++pos;
+      return token = Token.END_ARRAY;
+    case '"':
+      readString();
+      return token = isFollowedByColon() ? Token.FIELD_NAME : Token.STRING;
+    case 't':
+      return token = readLiteral("true", Token.TRUE);
+    case 'f':
+      return token = readLiteral("false", Token.FALSE);
+    case 'n':
+      return token = readLiteral("null", Token.NULL);
+    default:
+      if (b == '-' || (b >= '0' && b <= '9')) {
+        readNumber();
+        return token = Token.NUMBER;
+      }
+      throw new IOException("Unexpected character '" + (char) b
+          + "' at offset " + pos);
+    }
+  }
+
+  private void readString() throws IOException {
+    int i = pos + 1;
+    while (i < limit) {
+      byte b = buf[i];
+      if (b == '"') {
+        start = pos + 1;
+        end = i;
+        pos = i + 1;
+        return;
+      } else if (b == '\\') {
+        escaped = true;
+        i += 2;
+      } else {
+        i++;
+      }
+    }
+    throw new IOException("Unterminated string at offset " + pos);
+  }
+
+  private boolean isFollowedByColon() {
+    int i = pos;
+    while (i < limit && (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\n'
+        || buf[i] == '\r')) {
+      i++;
+    }
+    return i < limit && buf[i] == ':';
+  }
+
+  private Token readLiteral(String literal, Token t) throws IOException {
+    int len = literal.length();
+    if (pos + len > limit) {
+      throw new IOException("Unexpected end of input at offset " + pos);
+    }
+    for (int i = 0; i < len; i++) {
+      if (buf[pos + i] != literal.charAt(i)) {
+        throw new IOException("Unexpected literal at offset " + pos);
+      }
+    }
+    pos += len;
+    end = pos;
+    return t;
+  }
+
+  private void readNumber() {
+    integral = true;
+    int i = pos;
+    if (buf[i] == '-') {
+      i++;
+    }
+    while (i < limit) {
+      byte b = buf[i];
+      if (b >= '0' && b <= '9') {
+        i++;
+      } else if (b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-') {
+        integral = false;
+        i++;
+      } else {
+        break;
+      }
+    }
+    end = i;
+    pos = i;
+  }
+
+  /**
+   * Skip the rest of the current value. After START_OBJECT or START_ARRAY
+   * this consumes everything up to and including the matching end token;
+   * for any other token it does nothing.
+   */
+  void skipChildren() throws IOException {
+    if (token != Token.START_OBJECT && token != Token.START_ARRAY) {
+      return;
+    }
+    int depth = 1;
+    while (depth > 0) {
+      Token t = next();
+      if (t == Token.START_OBJECT || t == Token.START_ARRAY) {
+        depth++;
+      } else if (t == Token.END_OBJECT || t == Token.END_ARRAY) {
+        depth--;
+      } else if (t == Token.END) {
+        throw new IOException("Unexpected end of input");
+      }
+    }
+  }
+
+  /**
+   * @return true if the current token is a NUMBER without fraction or
+   *         exponent
+   */
+  boolean isIntegral() {
+    return token == Token.NUMBER && integral;
+  }
+
+  long getLong() {
+    if (token != Token.NUMBER || !integral) {
+      return (long) getDouble();
+    }
+    if (end - start > 18) {
+      return Long.parseLong(new String(buf, start, end - start, UTF8));
+    }
+    int i = start;
+    boolean negative = buf[i] == '-';
+    if (negative) {
+      i++;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      value = value * 10 + (buf[i] - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Numbers are converted without creating a String whenever
+   * MetricValueCodec.parseDecimal can do so exactly.
+   */
+  double getDouble() {
+    if (token != Token.NUMBER) {
+      return Double.parseDouble(getText());
+    }
+    return MetricValueCodec.parseDecimal(buf, start, end);
+  }
+
+  /**
+   * @return the text of the current token, unescaped for strings
+   */
+  String getText() {
+    if (!escaped || (token != Token.STRING && token != Token.FIELD_NAME)) {
+      return new String(buf, start, end - start, UTF8);
+    }
+    return unescape();
+  }
+
+  /**
+   * @return the current field name, shared with earlier identical names
+   */
+  String getFieldName() {
+    if (escaped) {
+      return unescape();
+    }
+    int len = end - start;
+    int h = len;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + buf[i];
+    }
+    int slot = (h ^ (h >>> 16)) & (NAME_CACHE_SIZE - 1);
+    byte[] cached = nameBytes[slot];
+    if (cached != null && cached.length == len && regionEquals(cached)) {
+      return names[slot];
+    }
+    String name = new String(buf, start, len, UTF8);
+    nameBytes[slot] = Arrays.copyOfRange(buf, start, end);
+    names[slot] = name;
+    return name;
+  }
+
+  /**
+   * @param ascii is the expected text
+   * @return true if the text of the current token is ascii
+   */
+  boolean textEquals(byte[] ascii) {
+    return !escaped && end - start == ascii.length && regionEquals(ascii);
+  }
+
+  private boolean regionEquals(byte[] other) {
+    for (int i = 0; i < other.length; i++) {
+      if (buf[start + i] != other[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copy the current value as it should be stored in a cell: strings
+   * unescaped, scalars as written, and objects or arrays as their raw JSON.
+   * For objects and arrays the value is consumed.
+   */
+  byte[] getValueBytes() throws IOException {
+    if (token == Token.START_OBJECT || token == Token.START_ARRAY) {
+      int from = start;
+      skipChildren();
+      return Arrays.copyOfRange(buf, from, pos);
+    }
+    if (escaped && token == Token.STRING) {
+      return unescape().getBytes(UTF8);
+    }
+    return Arrays.copyOfRange(buf, start, end);
+  }
+
+  private String unescape() {
+    String raw = new String(buf, start, end - start, UTF8);
+    StringBuilder sb = new StringBuilder(raw.length());
+    for (int i = 0; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (c != '\\' || i + 1 >= raw.length()) {
+        sb.append(c);
+        continue;
+      }
+      char e = raw.charAt(++i);
+      switch (e) {
+      case 'b':
+        sb.append('\b');
+        break;
+      case 'f':
+        sb.append('\f');
+        break;
+      case 'n':
+        sb.append('\n');
+        break;
+      case 'r':
+        sb.append('\r');
+        break;
+      case 't':
+        sb.append('\t');
+        break;
+      case 'u':
+        if (i + 4 < raw.length()) {
+          sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+          i += 4;
+        }
+        break;
+      default:
+        sb.append(e);
+      }
+    }
+    return sb.toString();
+  }
+
+  static byte[] ascii(String s) {
+    return s.getBytes(UTF8);
+  }
+}
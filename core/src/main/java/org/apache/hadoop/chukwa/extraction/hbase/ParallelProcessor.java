@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.extraction.hbase;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.datacollection.writer.hbase.MetaCache;
+import org.apache.hadoop.chukwa.datacollection.writer.hbase.Reporter;
+import org.apache.hadoop.chukwa.datacollection.writer.hbase.RollupAggregator;
+import org.apache.hadoop.chukwa.util.ExceptionUtil;
+import org.apache.hadoop.chukwa.util.MetricValueCodec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.log4j.Logger;
+
+/**
+ * Converts a batch of chunks to HBase Puts on a pool of threads.
+ *
+ * Chunks are partitioned by source, and each partition is parsed in order
+ * by one thread with its own processor instances and Reporter, so the Puts
+ * of a source keep the order of its chunks. The Puts of all partitions are
+ * merged into one data list and one meta list.
+ */
+public class ParallelProcessor {
+  static Logger log = Logger.getLogger(ParallelProcessor.class);
+
+  private final Configuration conf;
+  private final String defaultProcessor;
+  private final MetaCache metaCache;
+  private final int threads;
+  private final ExecutorService pool;
+  private final ThreadLocal<Reporter> reporters = new ThreadLocal<Reporter>();
+  private volatile String valueEncoding = MetricValueCodec.STRING;
+  private volatile RollupAggregator rollups = null;
+
+  /**
+   * The Puts produced from a batch of chunks.
+   */
+  public static class Result {
+    private final List<Put> data = new ArrayList<Put>();
+    private final List<Put> meta = new ArrayList<Put>();
+    private final List<String> metaKeys = new ArrayList<String>();
+    private final List<RollupAggregator.Value> rollups =
+        new ArrayList<RollupAggregator.Value>();
+    private long bytes = 0;
+    private int failed = 0;
+
+    public List<Put> getData() {
+      return data;
+    }
+
+    public List<Put> getMeta() {
+      return meta;
+    }
+
+    /**
+     * @return the MetaCache keys of the entries in getMeta(), to be added
+     *         to the cache once those Puts are stored
+     */
+    public List<String> getMetaKeys() {
+      return metaKeys;
+    }
+
+    /**
+     * @return the values for the rollups, to be added once the Puts in
+     *         getData() are stored
+     */
+    public List<RollupAggregator.Value> getRollups() {
+      return rollups;
+    }
+
+    /**
+     * @return the number of chunk data bytes in the batch
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return the number of chunks which could not be parsed
+     */
+    public int getFailed() {
+      return failed;
+    }
+
+    private void merge(Result other) {
+      data.addAll(other.data);
+      meta.addAll(other.meta);
+      metaKeys.addAll(other.metaKeys);
+      rollups.addAll(other.rollups);
+      bytes += other.bytes;
+      failed += other.failed;
+    }
+  }
+
+  /**
+   * @param conf maps data types to processor classes
+   * @param defaultProcessor is used for unmapped data types
+   * @param metaCache is shared by the reporters of all threads, or null
+   * @param threads is the number of processing threads
+   */
+  public ParallelProcessor(Configuration conf, String defaultProcessor,
+      MetaCache metaCache, int threads) {
+    this.conf = conf;
+    this.defaultProcessor = defaultProcessor;
+    this.metaCache = metaCache;
+    this.threads = Math.max(1, threads);
+    this.pool = Executors.newFixedThreadPool(this.threads,
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger(0);
+
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HBase processor "
+                + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+  }
+
+  /**
+   * @param valueEncoding is the metric value encoding passed to the
+   *        processors, see MetricValueCodec
+   */
+  public void setValueEncoding(String valueEncoding) {
+    this.valueEncoding = valueEncoding;
+  }
+
+  /**
+   * @param rollups is passed to the processors, or null to not maintain
+   *        rollups; the values are returned in Result.getRollups()
+   */
+  public void setRollupAggregator(RollupAggregator rollups) {
+    this.rollups = rollups;
+  }
+
+  /**
+   * Parse a batch of chunks. Chunks which fail to parse are logged and
+   * skipped.
+   *
+   * @param chunks is the batch
+   * @return the merged Puts of the batch
+   * @throws InterruptedException if interrupted while waiting for the
+   *         processing threads
+   * @throws ExecutionException if a processing thread failed
+   */
+  public Result process(List<Chunk> chunks) throws InterruptedException,
+      ExecutionException {
+    int partitions = Math.min(threads, chunks.size());
+    if (partitions <= 1) {
+      return processPartition(chunks);
+    }
+    List<List<Chunk>> parts = new ArrayList<List<Chunk>>(partitions);
+    for (int i = 0; i < partitions; i++) {
+      parts.add(new ArrayList<Chunk>());
+    }
+    for (Chunk chunk : chunks) {
+      String source = chunk.getSource();
+      int hash = source == null ? 0 : source.hashCode();
+      parts.get((hash & Integer.MAX_VALUE) % partitions).add(chunk);
+    }
+    List<Future<Result>> futures = new ArrayList<Future<Result>>(partitions);
+    for (final List<Chunk> part : parts) {
+      if (part.isEmpty()) {
+        continue;
+      }
+      futures.add(pool.submit(new Callable<Result>() {
+        public Result call() throws Exception {
+          return processPartition(part);
+        }
+      }));
+    }
+    Result result = new Result();
+    for (Future<Result> future : futures) {
+      result.merge(future.get());
+    }
+    return result;
+  }
+
+  private Result processPartition(List<Chunk> chunks) {
+    Reporter reporter = getReporter();
+    ArrayList<Put> output = new ArrayList<Put>();
+    Result result = new Result();
+    for (Chunk chunk : chunks) {
+      try {
+        String processorClass = ProcessorFactory.findProcessor(conf,
+            chunk.getDataType(), defaultProcessor);
+        AbstractProcessor processor = ProcessorFactory
+            .getLocalProcessor(processorClass);
+        processor.setValueEncoding(valueEncoding);
+        processor.setRollupAggregator(rollups);
+        processor.process(chunk, output, reporter);
+        result.data.addAll(output);
+        result.meta.addAll(reporter.getInfo());
+        result.metaKeys.addAll(reporter.getPendingKeys());
+        result.rollups.addAll(reporter.getRollups());
+      } catch (Throwable e) {
+        log.warn("Unable to process data:");
+        log.warn(new String(chunk.getData()));
+        log.warn(ExceptionUtil.getStackTrace(e));
+        result.failed++;
+      } finally {
+        output.clear();
+        reporter.clear();
+      }
+      result.bytes += chunk.getData().length;
+    }
+    return result;
+  }
+
+  private Reporter getReporter() {
+    Reporter reporter = reporters.get();
+    if (reporter == null) {
+      try {
+        reporter = new Reporter(metaCache);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("Can not register hashing algorithm.",
+            e);
+      }
+      reporters.set(reporter);
+    }
+    return reporter;
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+}
@@ -20,12 +20,25 @@ package org.apache.hadoop.chukwa.extraction.hbase;
 
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.conf.Configuration;
 import org.apache.log4j.Logger;
 
 public class ProcessorFactory {
   static Logger log = Logger.getLogger(ProcessorFactory.class);
 
-  private static HashMap<String, AbstractProcessor> processors = new HashMap<String, AbstractProcessor>(); // registry
+  private static Map<String, AbstractProcessor> processors = new ConcurrentHashMap<String, AbstractProcessor>(); // registry
+
+  // per-thread registries, for callers which process chunks concurrently
+  private static ThreadLocal<Map<String, AbstractProcessor>> localProcessors =
+      new ThreadLocal<Map<String, AbstractProcessor>>() {
+        @Override
+        protected Map<String, AbstractProcessor> initialValue() {
+          return new HashMap<String, AbstractProcessor>();
+        }
+      };
 
   public ProcessorFactory() {
   }
@@ -35,16 +48,7 @@ public class ProcessorFactory {
     if (processors.containsKey(parserClass)) {
       return processors.get(parserClass);
     } else {
-      AbstractProcessor processor = null;
-      try {
-        processor = (AbstractProcessor) Class.forName(parserClass).getConstructor()
-            .newInstance();
-      } catch (ClassNotFoundException e) {
-        throw new UnknownRecordTypeException("Unknown parserClass:"
-            + parserClass, e);
-      } catch (Exception e) {
-        throw new UnknownRecordTypeException("error constructing processor", e);
-      }
+      AbstractProcessor processor = newProcessor(parserClass);
 
       // TODO using a ThreadSafe/reuse flag to actually decide if we want
       // to reuse the same processor again and again
@@ -52,4 +56,72 @@ public class ProcessorFactory {
       return processor;
     }
   }
+
+  /**
+   * Return the processor instance of the calling thread. Each thread gets
+   * its own instance per class, so processors never see concurrent calls.
+   *
+   * @param parserClass is the processor class name
+   * @return the processor of the calling thread
+   * @throws UnknownRecordTypeException if the class can not be constructed
+   */
+  public static AbstractProcessor getLocalProcessor(String parserClass)
+      throws UnknownRecordTypeException {
+    Map<String, AbstractProcessor> local = localProcessors.get();
+    AbstractProcessor processor = local.get(parserClass);
+    if (processor == null) {
+      processor = newProcessor(parserClass);
+      local.put(parserClass, processor);
+    }
+    return processor;
+  }
+
+  /**
+   * Look for mapper parser class in the demux configuration.
+   * Demux configuration has been changed since CHUKWA-581 to
+   * support mapping of both mapper and reducer, and this utility
+   * class is to detect the mapper class and return the mapper
+   * class only.
+   *
+   * @param conf is the configuration mapping data types to parsers
+   * @param dataType is the data type of the chunk
+   * @param defaultProcessor is used when no mapper class is configured
+   * @return the processor class name
+   */
+  public static String findProcessor(Configuration conf, String dataType,
+      String defaultProcessor) {
+    String processors = conf.get(dataType, defaultProcessor);
+    if(processors.startsWith(",")) {
+      // No mapper class defined.
+      return defaultProcessor;
+    } else if(processors.contains(",")) {
+      // Both mapper and reducer defined.
+      String[] parsers = processors.split(",");
+      return parsers[0];
+    }
+    // No reducer defined.
+    return processors;
+  }
+
+  /**
+   * Construct a new processor instance which is not shared through the
+   * registry. Processors keep per-chunk state, so callers which parse
+   * chunks concurrently need one instance per thread.
+   *
+   * @param parserClass is the processor class name
+   * @return a new processor
+   * @throws UnknownRecordTypeException if the class can not be constructed
+   */
+  public static AbstractProcessor newProcessor(String parserClass)
+      throws UnknownRecordTypeException {
+    try {
+      return (AbstractProcessor) Class.forName(parserClass).getConstructor()
+          .newInstance();
+    } catch (ClassNotFoundException e) {
+      throw new UnknownRecordTypeException("Unknown parserClass:"
+          + parserClass, e);
+    } catch (Exception e) {
+      throw new UnknownRecordTypeException("error constructing processor", e);
+    }
+  }
 }
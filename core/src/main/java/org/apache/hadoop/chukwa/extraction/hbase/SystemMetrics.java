@@ -22,19 +22,43 @@
  */
 package org.apache.hadoop.chukwa.extraction.hbase;
 
-import java.nio.charset.Charset;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Arrays;
 
-import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
+import org.apache.hadoop.chukwa.extraction.hbase.JsonTokenReader.Token;
 
+/**
+ * The chunk is read with a JsonTokenReader instead of being built into a
+ * json-simple object tree: metric values are copied from the chunk into
+ * the cells as they were written by the adaptor, and only the values which
+ * are aggregated are converted to numbers.
+ */
 public class SystemMetrics extends AbstractProcessor {
+  private static final byte[] TIMESTAMP = JsonTokenReader.ascii("timestamp");
+  private static final byte[] CPU = JsonTokenReader.ascii("cpu");
+  private static final byte[] UPTIME = JsonTokenReader.ascii("uptime");
+  private static final byte[] LOADAVG = JsonTokenReader.ascii("loadavg");
+  private static final byte[] MEMORY = JsonTokenReader.ascii("memory");
+  private static final byte[] SWAP = JsonTokenReader.ascii("swap");
+  private static final byte[] NETWORK = JsonTokenReader.ascii("network");
+  private static final byte[] DISK = JsonTokenReader.ascii("disk");
+  private static final byte[] COMBINED = JsonTokenReader.ascii("combined");
+  private static final byte[] USER = JsonTokenReader.ascii("user");
+  private static final byte[] SYS = JsonTokenReader.ascii("sys");
+  private static final byte[] IDLE = JsonTokenReader.ascii("idle");
+  private static final String[] LOAD_AVERAGES = { "LoadAverage.1",
+      "LoadAverage.5", "LoadAverage.15" };
+  private static final String[] NETWORK_FIELDS = { "RxBytes", "RxDropped",
+      "RxErrors", "RxPackets", "TxBytes", "TxCollisions", "TxErrors",
+      "TxPackets" };
+  private static final String[] DISK_FIELDS = { "ReadBytes", "Reads",
+      "WriteBytes", "Writes", "Total", "Used" };
+
+  private final JsonTokenReader json = new JsonTokenReader();
+  private final double[] cpuTotals = new double[4];
+  private final double[] networkTotals = new double[NETWORK_FIELDS.length];
+  private final double[] diskTotals = new double[DISK_FIELDS.length];
 
   public SystemMetrics() throws NoSuchAlgorithmException {
     super();
@@ -42,151 +66,182 @@ public class SystemMetrics extends AbstractProcessor {
 
   @Override
   protected void parse(byte[] recordEntry) throws Throwable {
-    String buffer = new String(recordEntry, Charset.forName("UTF-8"));
-    JSONObject json = (JSONObject) JSONValue.parse(buffer);
-    time = ((Long) json.get("timestamp")).longValue();
-    ChukwaRecord record = new ChukwaRecord();
-    JSONArray cpuList = (JSONArray) json.get("cpu");
-    double combined = 0.0;
-    double user = 0.0;
-    double sys = 0.0;
-    double idle = 0.0;
-    int actualSize = 0;
-    for (int i = 0; i < cpuList.size(); i++) {
-      JSONObject cpu = (JSONObject) cpuList.get(i);
-      // Work around for sigar returning null sometimes for cpu metrics on
-      // pLinux
-      if (cpu.get("combined") == null) {
-        continue;
-      }
-      actualSize++;
-      combined = combined + Double.parseDouble(cpu.get("combined").toString());
-      user = user + Double.parseDouble(cpu.get("user").toString());
-      sys = sys + Double.parseDouble(cpu.get("sys").toString());
-      idle = idle + Double.parseDouble(cpu.get("idle").toString());
-      for(Entry<String, Object> entry : (Set<Map.Entry>) cpu.entrySet()) {
-        String key = entry.getKey();
-        addRecord("cpu." + key + "." + i, String.valueOf(entry.getValue()));
+    json.reset(recordEntry);
+    time = readTimestamp();
+    json.reset(recordEntry);
+    expect(Token.START_OBJECT);
+    int cpuCount = 0;
+    Arrays.fill(cpuTotals, 0);
+    Arrays.fill(networkTotals, 0);
+    Arrays.fill(diskTotals, 0);
+    while (json.next() == Token.FIELD_NAME) {
+      if (json.textEquals(CPU)) {
+        expect(Token.START_ARRAY);
+        for (int i = 0; json.next() == Token.START_OBJECT; i++) {
+          if (parseCpu(i)) {
+            cpuCount++;
+          }
+        }
+      } else if (json.textEquals(UPTIME)) {
+        json.next();
+        addRecord("Uptime", json.getValueBytes());
+      } else if (json.textEquals(LOADAVG)) {
+        expect(Token.START_ARRAY);
+        for (int i = 0; json.next() != Token.END_ARRAY; i++) {
+          if (json.current() == Token.END) {
+            throw new IOException("Unterminated loadavg array");
+          }
+          if (i < LOAD_AVERAGES.length) {
+            addRecord(LOAD_AVERAGES[i], json.getValueBytes());
+          } else {
+            json.skipChildren();
+          }
+        }
+      } else if (json.textEquals(MEMORY)) {
+        parseGroup("memory.");
+      } else if (json.textEquals(SWAP)) {
+        parseGroup("swap.");
+      } else if (json.textEquals(NETWORK)) {
+        // the first interface is loopback and is not part of the totals
+        sumInterfaces(NETWORK_FIELDS, networkTotals, 1);
+      } else if (json.textEquals(DISK)) {
+        sumInterfaces(DISK_FIELDS, diskTotals, 0);
+      } else {
+        json.next();
+        json.skipChildren();
       }
     }
-    combined = combined / actualSize;
-    user = user / actualSize;
-    sys = sys / actualSize;
-    idle = idle / actualSize;
-    addRecord("cpu.combined", Double.toString(combined));
-    addRecord("cpu.user", Double.toString(user));
-    addRecord("cpu.idle", Double.toString(idle));
-    addRecord("cpu.sys", Double.toString(sys));
 
-    addRecord("Uptime", json.get("uptime").toString());
-    JSONArray loadavg = (JSONArray) json.get("loadavg");
-    addRecord("LoadAverage.1", loadavg.get(0).toString());
-    addRecord("LoadAverage.5", loadavg.get(1).toString());
-    addRecord("LoadAverage.15", loadavg.get(2).toString());
+    addRecord("cpu.combined", Double.toString(cpuTotals[0] / cpuCount));
+    addRecord("cpu.user", Double.toString(cpuTotals[1] / cpuCount));
+    addRecord("cpu.idle", Double.toString(cpuTotals[3] / cpuCount));
+    addRecord("cpu.sys", Double.toString(cpuTotals[2] / cpuCount));
 
-    record = new ChukwaRecord();
-    JSONObject memory = (JSONObject) json.get("memory");
-    for(Entry<String, Object> entry : (Set<Map.Entry>) memory.entrySet()) {
-      String key = entry.getKey();
-      addRecord("memory." + key, String.valueOf(entry.getValue()));
+    for (int i = 0; i < NETWORK_FIELDS.length; i++) {
+      addRecord("network." + NETWORK_FIELDS[i],
+          Double.toString(networkTotals[i]));
+    }
+    for (int i = 0; i < DISK_FIELDS.length; i++) {
+      addRecord("disk." + DISK_FIELDS[i], Double.toString(diskTotals[i]));
     }
+    addRecord("disk.PercentUsed", Double.toString(diskTotals[5] / diskTotals[4]));
+  }
 
-    record = new ChukwaRecord();
-    JSONObject swap = (JSONObject) json.get("swap");
-    for(Map.Entry<String, Object> entry : (Set<Map.Entry>) swap.entrySet()) {
-      addRecord("swap." + entry.getKey(), String.valueOf(entry.getValue()));
+  /**
+   * @return the top level timestamp field, which may appear anywhere in
+   *         the object
+   */
+  private long readTimestamp() throws IOException {
+    expect(Token.START_OBJECT);
+    while (json.next() == Token.FIELD_NAME) {
+      boolean found = json.textEquals(TIMESTAMP);
+      json.next();
+      if (found) {
+        return json.getLong();
+      }
+      json.skipChildren();
     }
+    throw new IOException("No timestamp in system metrics");
+  }
 
-    double rxBytes = 0;
-    double rxDropped = 0;
-    double rxErrors = 0;
-    double rxPackets = 0;
-    double txBytes = 0;
-    double txCollisions = 0;
-    double txErrors = 0;
-    double txPackets = 0;
-    record = new ChukwaRecord();
-    JSONArray netList = (JSONArray) json.get("network");
-    for (int i = 0; i < netList.size(); i++) {
-      JSONObject netIf = (JSONObject) netList.get(i);
-      for(Map.Entry<String, Object> entry : (Set<Map.Entry>) netIf.entrySet()) {
-        String key = entry.getKey();
-        long value = 0;
-        if(entry.getValue() instanceof Long) {
-          value = (Long) entry.getValue();
-        }
-        record.add(key + "." + i, String.valueOf(entry.getValue()));
-        if (i != 0) {
-          if (key.equals("RxBytes")) {
-            rxBytes = rxBytes + value;
-          } else if (key.equals("RxDropped")) {
-            rxDropped = rxDropped + value;
-          } else if (key.equals("RxErrors")) {
-            rxErrors = rxErrors + value;
-          } else if (key.equals("RxPackets")) {
-            rxPackets = rxPackets + value;
-          } else if (key.equals("TxBytes")) {
-            txBytes = txBytes + value;
-          } else if (key.equals("TxCollisions")) {
-            txCollisions = txCollisions + value;
-          } else if (key.equals("TxErrors")) {
-            txErrors = txErrors + value;
-          } else if (key.equals("TxPackets")) {
-            txPackets = txPackets + value;
-          }
+  /**
+   * Store every field of the cpu object at index, unless sigar reported
+   * null for combined, which happens sometimes on pLinux.
+   *
+   * @return true if the cpu was stored and counted in the totals
+   */
+  private boolean parseCpu(int index) throws IOException {
+    int objectStart = json.position();
+    double combined = 0;
+    double user = 0;
+    double sys = 0;
+    double idle = 0;
+    boolean valid = false;
+    while (json.next() == Token.FIELD_NAME) {
+      byte[] field = null;
+      if (json.textEquals(COMBINED)) {
+        field = COMBINED;
+      } else if (json.textEquals(USER)) {
+        field = USER;
+      } else if (json.textEquals(SYS)) {
+        field = SYS;
+      } else if (json.textEquals(IDLE)) {
+        field = IDLE;
+      }
+      json.next();
+      if (field == COMBINED) {
+        valid = json.current() != Token.NULL;
+        if (valid) {
+          combined = json.getDouble();
         }
+      } else if (field == USER) {
+        user = json.getDouble();
+      } else if (field == SYS) {
+        sys = json.getDouble();
+      } else if (field == IDLE) {
+        idle = json.getDouble();
+      } else {
+        json.skipChildren();
       }
     }
+    if (!valid) {
+      return false;
+    }
+    cpuTotals[0] += combined;
+    cpuTotals[1] += user;
+    cpuTotals[2] += sys;
+    cpuTotals[3] += idle;
+    int objectEnd = json.position();
+    json.seek(objectStart);
+    String suffix = "." + index;
+    while (json.next() == Token.FIELD_NAME) {
+      String name = json.getFieldName();
+      json.next();
+      addRecord("cpu." + name + suffix, json.getValueBytes());
+    }
+    json.seek(objectEnd);
+    return true;
+  }
 
-    addRecord("network.RxBytes", Double.toString(rxBytes));
-    addRecord("network.RxDropped", Double.toString(rxDropped));
-    addRecord("network.RxErrors", Double.toString(rxErrors));
-    addRecord("network.RxPackets", Double.toString(rxPackets));
-    addRecord("network.TxBytes", Double.toString(txBytes));
-    addRecord("network.TxCollisions", Double.toString(txCollisions));
-    addRecord("network.TxErrors", Double.toString(txErrors));
-    addRecord("network.TxPackets", Double.toString(txPackets));
+  private void parseGroup(String prefix) throws IOException {
+    expect(Token.START_OBJECT);
+    while (json.next() == Token.FIELD_NAME) {
+      String name = json.getFieldName();
+      json.next();
+      addRecord(prefix + name, json.getValueBytes());
+    }
+  }
 
-    double readBytes = 0;
-    double reads = 0;
-    double writeBytes = 0;
-    double writes = 0;
-    double total = 0;
-    double used = 0;
-    record = new ChukwaRecord();
-    JSONArray diskList = (JSONArray) json.get("disk");
-    for (int i = 0; i < diskList.size(); i++) {
-      JSONObject disk = (JSONObject) diskList.get(i);
-      for(Entry<String, Object> entry : (Set<Map.Entry>) disk.entrySet()) {
-        String key = entry.getKey();
-        long value = 0;
-        if(entry.getValue() instanceof Long) {
-          value = (Long) entry.getValue();
-        }
-        record.add(key + "." + i, String.valueOf(entry.getValue()));
-        if (key.equals("ReadBytes")) {
-          readBytes = readBytes + value;
-        } else if (key.equals("Reads")) {
-          reads = reads + Long.valueOf(value);;
-        } else if (key.equals("WriteBytes")) {
-          writeBytes = writeBytes + value;
-        } else if (key.equals("Writes")) {
-          writes = writes + value;
-        } else if (key.equals("Total")) {
-          total = total + value;
-        } else if (key.equals("Used")) {
-          used = used + value;
+  /**
+   * Sum the integral values of fields over an array of interface objects,
+   * starting at interface first.
+   */
+  private void sumInterfaces(String[] fields, double[] totals, int first)
+      throws IOException {
+    expect(Token.START_ARRAY);
+    for (int i = 0; json.next() == Token.START_OBJECT; i++) {
+      while (json.next() == Token.FIELD_NAME) {
+        String name = json.getFieldName();
+        json.next();
+        if (i >= first && json.isIntegral()) {
+          for (int f = 0; f < fields.length; f++) {
+            if (fields[f].equals(name)) {
+              totals[f] += json.getLong();
+              break;
+            }
+          }
+        } else {
+          json.skipChildren();
         }
       }
     }
-    double percentUsed = used / total;
-    addRecord("disk.ReadBytes", Double.toString(readBytes));
-    addRecord("disk.Reads", Double.toString(reads));
-    addRecord("disk.WriteBytes", Double.toString(writeBytes));
-    addRecord("disk.Writes", Double.toString(writes));
-    addRecord("disk.Total", Double.toString(total));
-    addRecord("disk.Used", Double.toString(used));
-    addRecord("disk.PercentUsed", Double.toString(percentUsed));
+  }
+
+  private void expect(Token expected) throws IOException {
+    if (json.next() != expected) {
+      throw new IOException("Expected " + expected + " but found "
+          + json.current() + " at offset " + json.position());
+    }
   }
 
 }
@@ -21,11 +21,14 @@ import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -37,6 +40,8 @@ import javax.ws.rs.core.Response;
 
 import org.apache.hadoop.chukwa.datacollection.agent.rest.Examples;
 import org.apache.hadoop.chukwa.datastore.ChukwaHBaseStore;
+import org.apache.hadoop.chukwa.datastore.MetadataCache;
+import org.apache.hadoop.chukwa.datastore.SeriesCache;
 import org.apache.hadoop.chukwa.hicc.TimeHandler;
 import org.apache.hadoop.chukwa.hicc.bean.Series;
 
@@ -193,4 +198,68 @@ public class MetricsController {
     return rows;
   }
 
+  /**
+   * Statistics of the cache of metric groups, metric names and source names
+   * 
+   * @return cache size, hits, misses and background refreshes
+   */
+  @GET
+  @Path("cache/schema")
+  @Produces("application/json")
+  public String getSchemaCacheStats() {
+    MetadataCache cache = ChukwaHBaseStore.getMetadataCache();
+    Map<String, Long> stats = new LinkedHashMap<String, Long>();
+    stats.put("size", Long.valueOf(cache.size()));
+    stats.put("hits", cache.getHits());
+    stats.put("misses", cache.getMisses());
+    stats.put("refreshes", cache.getRefreshes());
+    return new Gson().toJson(stats);
+  }
+
+  /**
+   * Drop the cached metric groups, metric names and source names, so they
+   * are read again from HBase
+   * 
+   * @return HTTP OK
+   */
+  @DELETE
+  @Path("cache/schema")
+  public Response invalidateSchemaCache() {
+    ChukwaHBaseStore.getMetadataCache().invalidateAll();
+    return Response.ok().build();
+  }
+
+  /**
+   * Statistics of the cache of metric series points
+   * 
+   * @return cached series and points, hits, misses, extensions of cached
+   *         series and evictions
+   */
+  @GET
+  @Path("cache/series")
+  @Produces("application/json")
+  public String getSeriesCacheStats() {
+    SeriesCache cache = ChukwaHBaseStore.getSeriesCache();
+    Map<String, Long> stats = new LinkedHashMap<String, Long>();
+    stats.put("size", Long.valueOf(cache.size()));
+    stats.put("points", cache.getPoints());
+    stats.put("hits", cache.getHits());
+    stats.put("misses", cache.getMisses());
+    stats.put("extensions", cache.getExtensions());
+    stats.put("evictions", cache.getEvictions());
+    return new Gson().toJson(stats);
+  }
+
+  /**
+   * Drop the cached metric series, so they are read again from HBase
+   * 
+   * @return HTTP OK
+   */
+  @DELETE
+  @Path("cache/series")
+  public Response invalidateSeriesCache() {
+    ChukwaHBaseStore.getSeriesCache().invalidateAll();
+    return Response.ok().build();
+  }
+
 }
@@ -24,6 +24,7 @@ import java.net.URISyntaxException;
 import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
 import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.RecordUtil;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
@@ -44,8 +45,8 @@ public class DumpRecord {
 
     SequenceFile.Reader r = new SequenceFile.Reader(fs, new Path(args[0]), conf);
 
-    ChukwaRecordKey key = new ChukwaRecordKey();
-    ChukwaRecord record = new ChukwaRecord();
+    ChukwaRecordKey key = RecordUtil.newKey(r);
+    ChukwaRecord record = RecordUtil.newRecord(r);
     try {
       while (r.next(key, record)) {
         System.out.println("\t ===== KEY   ===== ");
@@ -17,27 +17,14 @@
  */
 package org.apache.hadoop.chukwa.util;
 
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Calendar;
-import java.util.TimeZone;
 
-import org.apache.hadoop.chukwa.extraction.hbase.AbstractProcessor;
 import org.apache.log4j.Logger;
-import org.mortbay.log.Log;
 
 public class HBaseUtil {
   private static Logger LOG = Logger.getLogger(HBaseUtil.class);
-  
-  static MessageDigest md5 = null;
-  static {
-    try {
-      md5 = MessageDigest.getInstance("md5");
-    } catch (NoSuchAlgorithmException e) {
-      LOG.warn(ExceptionUtil.getStackTrace(e));
-    }
-  }
+
+  private static final RowKeyEncoder encoder = new RowKeyEncoder();
 
   public HBaseUtil() throws NoSuchAlgorithmException {
   }
@@ -50,32 +37,17 @@ public class HBaseUtil {
   }
 
   public static byte[] buildKey(long time, String primaryKey) {
-    Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-    c.setTimeInMillis(time);
-    byte[] day = Integer.toString(c.get(Calendar.DAY_OF_YEAR)).getBytes(Charset.forName("UTF-8"));
-    byte[] pk = getHash(primaryKey);
-    byte[] key = new byte[14];
-    System.arraycopy(day, 0, key, 0, day.length);
-    System.arraycopy(pk, 0, key, 2, 6);
-    return key;
+    return encoder.encode(time, primaryKey);
   }
   
   public static byte[] buildKey(long time, String primaryKey, String source) {
-    Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-    c.setTimeInMillis(time);
-    byte[] day = Integer.toString(c.get(Calendar.DAY_OF_YEAR)).getBytes(Charset.forName("UTF-8"));
-    byte[] pk = getHash(primaryKey);
-    byte[] src = getHash(source);
-    byte[] key = new byte[14];
-    System.arraycopy(day, 0, key, 0, day.length);
-    System.arraycopy(pk, 0, key, 2, 6);
-    System.arraycopy(src, 0, key, 8, 6);
-    return key;
+    return encoder.encode(time, primaryKey, source);
   }
-  
-  private static byte[] getHash(String key) {
-    byte[] hash = new byte[6];
-    System.arraycopy(md5.digest(key.getBytes(Charset.forName("UTF-8"))), 0, hash, 0, 6);
-    return hash;
+
+  /**
+   * @return the shared encoder behind buildKey
+   */
+  public static RowKeyEncoder getEncoder() {
+    return encoder;
   }
 }
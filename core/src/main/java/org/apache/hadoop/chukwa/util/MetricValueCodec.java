@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * Encodes metric values stored in the chukwa table.
+ *
+ * Values have always been stored as UTF-8 decimal strings. With the binary
+ * encoding, numeric values are stored as a type marker followed by the
+ * number: 0x00 and the 8 byte IEEE 754 double, or 0x01 and the zigzag
+ * varint of a long. Neither marker can start a decimal string, so decode()
+ * reads cells written with either encoding, and values which are not
+ * numbers are always stored as strings.
+ */
+public class MetricValueCodec {
+  public static final String ENCODING_OPT = "chukwa.hbase.value.encoding";
+  public static final String STRING = "string";
+  public static final String BINARY = "binary";
+
+  static final byte DOUBLE_MARKER = 0x00;
+  static final byte LONG_MARKER = 0x01;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private MetricValueCodec() {
+  }
+
+  /**
+   * @param encoding is the configured encoding name
+   * @return true if encoding selects the binary encoding
+   */
+  public static boolean isBinary(String encoding) {
+    return BINARY.equalsIgnoreCase(encoding);
+  }
+
+  public static byte[] encodeDouble(double value) {
+    byte[] buf = new byte[9];
+    buf[0] = DOUBLE_MARKER;
+    long bits = Double.doubleToLongBits(value);
+    for (int i = 8; i > 0; i--) {
+      buf[i] = (byte) bits;
+      bits >>>= 8;
+    }
+    return buf;
+  }
+
+  public static byte[] encodeLong(long value) {
+    long zigzag = (value << 1) ^ (value >> 63);
+    byte[] tmp = new byte[11];
+    int len = 0;
+    tmp[len++] = LONG_MARKER;
+    while ((zigzag & ~0x7FL) != 0) {
+      tmp[len++] = (byte) ((zigzag & 0x7F) | 0x80);
+      zigzag >>>= 7;
+    }
+    tmp[len++] = (byte) zigzag;
+    byte[] buf = new byte[len];
+    System.arraycopy(tmp, 0, buf, 0, len);
+    return buf;
+  }
+
+  /**
+   * Convert a value written as decimal text to the binary encoding.
+   *
+   * @param text is the UTF-8 value
+   * @return the binary value, or text itself if it is not a number
+   */
+  public static byte[] encodeText(byte[] text) {
+    int len = text.length;
+    if (len == 0 || len > 20) {
+      return text.length == 0 ? text : encodeTextSlow(text);
+    }
+    int i = text[0] == '-' ? 1 : 0;
+    if (i == len) {
+      return text;
+    }
+    boolean integral = true;
+    for (int j = i; j < len; j++) {
+      byte b = text[j];
+      if (b < '0' || b > '9') {
+        integral = false;
+        break;
+      }
+    }
+    if (integral && len - i <= 18) {
+      long value = 0;
+      for (int j = i; j < len; j++) {
+        value = value * 10 + (text[j] - '0');
+      }
+      return encodeLong(i == 1 ? -value : value);
+    }
+    return encodeTextSlow(text);
+  }
+
+  private static byte[] encodeTextSlow(byte[] text) {
+    String s = new String(text, UTF8);
+    if (s.isEmpty() || !(Character.isDigit(s.charAt(0)) || s.charAt(0) == '-'
+        || s.charAt(0) == '.')) {
+      return text; // NaN, null or a string
+    }
+    try {
+      return encodeDouble(parseDecimal(text, 0, text.length));
+    } catch (NumberFormatException e) {
+      return text;
+    }
+  }
+
+  /**
+   * Decode a cell value written with either encoding.
+   *
+   * @param buf holds the value
+   * @param offset is the start of the value
+   * @param length is the length of the value
+   * @return the value as a double
+   * @throws NumberFormatException if the value is not a number
+   */
+  public static double decode(byte[] buf, int offset, int length) {
+    if (length > 0) {
+      if (buf[offset] == DOUBLE_MARKER && length == 9) {
+        long bits = 0;
+        for (int i = 1; i < 9; i++) {
+          bits = (bits << 8) | (buf[offset + i] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+      } else if (buf[offset] == LONG_MARKER) {
+        return decodeLong(buf, offset, length);
+      }
+    }
+    return parseDecimal(buf, offset, offset + length);
+  }
+
+  private static long decodeLong(byte[] buf, int offset, int length) {
+    long zigzag = 0;
+    int shift = 0;
+    for (int i = 1; i < length && shift < 64; i++, shift += 7) {
+      byte b = buf[offset + i];
+      zigzag |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      }
+    }
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  public static double decode(byte[] value) {
+    return decode(value, 0, value.length);
+  }
+
+  /**
+   * Decode a cell value written with either encoding as text.
+   *
+   * @param buf holds the value
+   * @param offset is the start of the value
+   * @param length is the length of the value
+   * @return the value as it would have been written by the string encoding
+   */
+  public static String decodeText(byte[] buf, int offset, int length) {
+    if (length > 0) {
+      if (buf[offset] == DOUBLE_MARKER && length == 9) {
+        return Double.toString(decode(buf, offset, length));
+      } else if (buf[offset] == LONG_MARKER) {
+        return Long.toString(decodeLong(buf, offset, length));
+      }
+    }
+    return new String(buf, offset, length, UTF8);
+  }
+
+  /**
+   * Parse decimal text. Numbers of the form -ddd.ddd with at most 15
+   * significant digits are converted exactly without creating a String;
+   * anything else goes through Double.parseDouble.
+   *
+   * @param buf holds the text
+   * @param start is the offset of the first character
+   * @param end is the offset after the last character
+   * @return the parsed value
+   * @throws NumberFormatException if the text is not a number
+   */
+  public static double parseDecimal(byte[] buf, int start, int end) {
+    int i = start;
+    boolean negative = i < end && buf[i] == '-';
+    if (negative) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int allDigits = 0;
+    int fraction = -1;
+    for (; i < end; i++) {
+      byte b = buf[i];
+      if (b >= '0' && b <= '9') {
+        mantissa = mantissa * 10 + (b - '0');
+        allDigits++;
+        if (mantissa != 0) {
+          digits++;
+        }
+        if (fraction >= 0) {
+          fraction++;
+        }
+      } else if (b == '.' && fraction < 0) {
+        fraction = 0;
+      } else {
+        break;
+      }
+    }
+    if (i < end || allDigits == 0 || digits > 15
+        || fraction >= POWERS_OF_TEN.length) {
+      return Double.parseDouble(new String(buf, start, end - start, UTF8));
+    }
+    double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+    return negative ? -value : value;
+  }
+}
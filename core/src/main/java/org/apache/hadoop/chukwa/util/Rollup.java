@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * Min, max, sum and count of the metric values in one time bucket.
+ *
+ * Rollups are stored in the same chukwa table row as the raw values of the
+ * day they belong to, with one column family per resolution. The qualifier
+ * is the 8 byte start time of the bucket and the value is 32 bytes: min,
+ * max and sum as IEEE 754 doubles followed by the count as a long.
+ */
+public class Rollup {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  public static final int SIZE = 32;
+
+  public enum Resolution {
+    MINUTE(60 * 1000L, "m"),
+    HOUR(60 * 60 * 1000L, "h"),
+    DAY(24 * 60 * 60 * 1000L, "d");
+
+    private final long millis;
+    private final byte[] family;
+
+    private Resolution(long millis, String family) {
+      this.millis = millis;
+      this.family = family.getBytes(UTF8);
+    }
+
+    /**
+     * @return the length of a bucket in ms
+     */
+    public long getMillis() {
+      return millis;
+    }
+
+    /**
+     * @return the column family holding rollups of this resolution
+     */
+    public byte[] getFamily() {
+      return family;
+    }
+
+    /**
+     * @param time is a timestamp in ms
+     * @return the start of the bucket containing time
+     */
+    public long bucket(long time) {
+      long r = time % millis;
+      return r < 0 ? time - r - millis : time - r;
+    }
+  }
+
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+  private double sum = 0;
+  private long count = 0;
+
+  public void add(double value) {
+    if (value < min) {
+      min = value;
+    }
+    if (value > max) {
+      max = value;
+    }
+    sum += value;
+    count++;
+  }
+
+  public void merge(Rollup other) {
+    if (other.count == 0) {
+      return;
+    }
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    sum += other.sum;
+    count += other.count;
+  }
+
+  public double getMin() {
+    return min;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  public double getSum() {
+    return sum;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getAverage() {
+    return count == 0 ? Double.NaN : sum / count;
+  }
+
+  public byte[] toBytes() {
+    byte[] buf = new byte[SIZE];
+    putLong(buf, 0, Double.doubleToLongBits(min));
+    putLong(buf, 8, Double.doubleToLongBits(max));
+    putLong(buf, 16, Double.doubleToLongBits(sum));
+    putLong(buf, 24, count);
+    return buf;
+  }
+
+  /**
+   * @param buf holds the stored rollup
+   * @param offset is the start of the rollup
+   * @param length is the length of the rollup
+   * @return the rollup, or null if the value is not a rollup
+   */
+  public static Rollup fromBytes(byte[] buf, int offset, int length) {
+    if (length != SIZE) {
+      return null;
+    }
+    Rollup r = new Rollup();
+    r.min = Double.longBitsToDouble(getLong(buf, offset));
+    r.max = Double.longBitsToDouble(getLong(buf, offset + 8));
+    r.sum = Double.longBitsToDouble(getLong(buf, offset + 16));
+    r.count = getLong(buf, offset + 24);
+    return r;
+  }
+
+  private static void putLong(byte[] buf, int offset, long value) {
+    for (int i = offset + 7; i >= offset; i--) {
+      buf[i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static long getLong(byte[] buf, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      value = (value << 8) | (buf[i] & 0xFF);
+    }
+    return value;
+  }
+}
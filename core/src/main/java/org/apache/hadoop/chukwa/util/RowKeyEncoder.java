@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the 14 byte row keys of the chukwa table.
+ *
+ * A key is the UTC day of year written as decimal digits, followed by the
+ * first 6 bytes of the md5 of the primary key at offset 2 and the first 6
+ * bytes of the md5 of the source at offset 8. The day of year is computed
+ * arithmetically instead of through a Calendar, and each thread keeps its
+ * own MessageDigest and a bounded LRU cache of hash prefixes, so encoding
+ * a key for a metric and source seen before only allocates the key itself.
+ *
+ * Instances are thread safe. The keys are identical to the ones produced by
+ * earlier versions of HBaseUtil.buildKey, including the third digit of the
+ * day being overwritten by the primary key hash.
+ */
+public class RowKeyEncoder {
+  public static final int KEY_LENGTH = 14;
+  public static final int HASH_LENGTH = 6;
+  public static final int DEFAULT_CACHE_SIZE = 10000;
+  private static final long MS_PER_DAY = 24L * 60 * 60 * 1000;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final int cacheSize;
+  private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>() {
+    @Override
+    protected Hasher initialValue() {
+      return new Hasher(cacheSize);
+    }
+  };
+
+  public RowKeyEncoder() {
+    this(DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param cacheSize is the number of hash prefixes cached per thread
+   */
+  public RowKeyEncoder(int cacheSize) {
+    this.cacheSize = cacheSize;
+  }
+
+  /**
+   * @param time is timestamp in epoch
+   * @param primaryKey is the metric group and metric name
+   * @return row key without a source part
+   */
+  public byte[] encode(long time, String primaryKey) {
+    byte[] key = new byte[KEY_LENGTH];
+    writeDay(time, key);
+    System.arraycopy(hashers.get().hash(primaryKey), 0, key, 2, HASH_LENGTH);
+    return key;
+  }
+
+  /**
+   * @param time is timestamp in epoch
+   * @param primaryKey is the metric group and metric name
+   * @param source is data source name
+   * @return row key
+   */
+  public byte[] encode(long time, String primaryKey, String source) {
+    byte[] key = new byte[KEY_LENGTH];
+    writeDay(time, key);
+    Hasher hasher = hashers.get();
+    System.arraycopy(hasher.hash(primaryKey), 0, key, 2, HASH_LENGTH);
+    System.arraycopy(hasher.hash(source), 0, key, 8, HASH_LENGTH);
+    return key;
+  }
+
+  /**
+   * Only the first two digits of the day fit in front of the primary key
+   * hash; a single digit day is followed by a zero byte.
+   */
+  private static void writeDay(long time, byte[] key) {
+    int day = dayOfYear(time);
+    if (day < 10) {
+      key[0] = (byte) ('0' + day);
+    } else if (day < 100) {
+      key[0] = (byte) ('0' + day / 10);
+      key[1] = (byte) ('0' + day % 10);
+    } else {
+      key[0] = (byte) ('0' + day / 100);
+      key[1] = (byte) ('0' + (day / 10) % 10);
+    }
+  }
+
+  /**
+   * @param time is timestamp in epoch
+   * @return the UTC day of year, starting at 1
+   */
+  static int dayOfYear(long time) {
+    long days = floorDiv(time, MS_PER_DAY);
+    // civil-from-days with years starting on March 1st
+    long z = days + 719468;
+    long era = floorDiv(z, 146097);
+    long doe = z - era * 146097;
+    long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    long year = yoe + era * 400;
+    long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    long mp = (5 * doy + 2) / 153;
+    long month = mp < 10 ? mp + 3 : mp - 9;
+    if (month <= 2) {
+      year++;
+    }
+    return (int) (days - daysFromCivil(year) + 1);
+  }
+
+  /**
+   * @return days from the epoch to January 1st of year
+   */
+  private static long daysFromCivil(long year) {
+    long y = year - 1; // January belongs to the previous March based year
+    long era = floorDiv(y, 400);
+    long yoe = y - era * 400;
+    long doy = 306; // days from March 1st to January 1st
+    long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    if ((x % y != 0) && ((x ^ y) < 0)) {
+      q--;
+    }
+    return q;
+  }
+
+  private static class Hasher {
+    private final MessageDigest md5;
+    private final Map<String, byte[]> cache;
+    private final boolean caching;
+
+    Hasher(final int cacheSize) {
+      caching = cacheSize > 0;
+      try {
+        md5 = MessageDigest.getInstance("md5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("md5 is not available", e);
+      }
+      cache = new LinkedHashMap<String, byte[]>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+          return size() > cacheSize;
+        }
+      };
+    }
+
+    /**
+     * @return the cached hash prefix, which must not be modified
+     */
+    byte[] hash(String key) {
+      byte[] hash = cache.get(key);
+      if (hash == null) {
+        hash = new byte[HASH_LENGTH];
+        System.arraycopy(md5.digest(key.getBytes(UTF8)), 0, hash, 0,
+            HASH_LENGTH);
+        if (caching) {
+          cache.put(key, hash);
+        }
+      }
+      return hash;
+    }
+  }
+}
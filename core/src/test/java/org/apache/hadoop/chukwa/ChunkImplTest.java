@@ -19,6 +19,7 @@ package org.apache.hadoop.chukwa;
 
 
 import java.io.IOException;
+import java.util.Arrays;
 import junit.framework.TestCase;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
@@ -54,4 +55,16 @@ public class ChunkImplTest extends TestCase {
     c.addTag("foo=\"bar\"");
     assertEquals("bar", c.getTag("foo"));
   }
+
+  public void testWrap() {
+    byte[] data = "foo\nbar\n".getBytes();
+    Chunk copied = new ChunkImpl("type", "stream", data.length, data, null);
+    Chunk wrapped = ChunkImpl.wrap("type", "stream", data.length, data, null);
+    assertEquals(data.length, wrapped.getSeqID());
+    assertTrue(Arrays.equals(copied.getData(), wrapped.getData()));
+    // wrapped chunks share the caller's array, copied ones do not
+    data[0] = 'g';
+    assertEquals('f', copied.getData()[0]);
+    assertEquals('g', wrapped.getData()[0]);
+  }
 }
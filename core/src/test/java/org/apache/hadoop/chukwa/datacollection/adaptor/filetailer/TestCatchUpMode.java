@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.datacollection.agent.ChukwaAgent;
+import org.apache.hadoop.chukwa.datacollection.connector.ChunkCatcherConnector;
+import org.apache.hadoop.chukwa.util.TempFileUtil;
+import org.apache.hadoop.conf.Configuration;
+
+import junit.framework.TestCase;
+
+public class TestCatchUpMode extends TestCase {
+
+  public void testCatchUp() throws IOException, InterruptedException,
+      ChukwaAgent.AlreadyRunningException {
+    Configuration conf = new Configuration();
+    conf.set("chukwaAgent.control.port", "0");
+    conf.setInt("chukwaAgent.adaptor.context.switch.time", 100);
+    conf.setInt(LWFTAdaptor.MAX_READ_SIZE_OPT, 256);
+    conf.setLong(LWFTAdaptor.CATCH_UP_THRESHOLD_OPT, 512);
+    conf.setInt(LWFTAdaptor.CATCH_UP_WINDOW_OPT, 1024);
+    ChukwaAgent agent = ChukwaAgent.getAgent(conf);
+    agent.start();
+    ChunkCatcherConnector chunks = new ChunkCatcherConnector();
+    chunks.start();
+
+    File testFile = TempFileUtil.makeTestFile("testCatchUp", 200);
+    String adaptorId = agent.processAddCommand("add org.apache.hadoop.chukwa."
+        + "datacollection.adaptor.filetailer.CharFileTailingAdaptorUTF8 "
+        + "lines " + testFile + " 0");
+    assertNotNull(adaptorId);
+
+    int line = 0;
+    long lastSeqID = 0;
+    while (lastSeqID < testFile.length()) {
+      Chunk c = chunks.waitForAChunk(10 * 1000);
+      assertNotNull("backlog was not read", c);
+      assertTrue(c.getSeqID() > lastSeqID);
+      assertTrue(c.getData().length <= 256);
+      int recStart = 0;
+      for (int offset : c.getRecordOffsets()) {
+        String record = new String(c.getData(), recStart, offset - recStart + 1);
+        assertEquals(line + " abcdefghijklmnopqrstuvwxyz\n", record);
+        recStart = offset + 1;
+        line++;
+      }
+      lastSeqID = c.getSeqID();
+    }
+    assertEquals(200, line);
+    assertEquals(testFile.length(), lastSeqID);
+
+    agent.stopAdaptor(adaptorId, false);
+    agent.shutdown();
+    chunks.shutdown();
+    testFile.delete();
+  }
+
+}
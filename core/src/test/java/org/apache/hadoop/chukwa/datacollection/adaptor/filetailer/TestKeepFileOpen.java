@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.datacollection.ChunkReceiver;
+import org.apache.hadoop.chukwa.datacollection.adaptor.AdaptorShutdownPolicy;
+import org.apache.hadoop.chukwa.datacollection.agent.AdaptorManager;
+import org.apache.hadoop.chukwa.util.TempFileUtil;
+
+import junit.framework.TestCase;
+
+public class TestKeepFileOpen extends TestCase implements ChunkReceiver {
+
+  final CountDownLatch adding = new CountDownLatch(1);
+  final CountDownLatch queueFull = new CountDownLatch(1);
+
+  /**
+   * Blocks like a full chunk queue.
+   */
+  @Override
+  public void add(Chunk event) throws InterruptedException {
+    adding.countDown();
+    queueFull.await();
+  }
+
+  public void testShutdownWhileQueueIsFull() throws Exception {
+    File testFile = TempFileUtil.makeTestFile("testShutdownWhileQueueIsFull",
+        10);
+    final LWFTAdaptor adaptor = new LWFTAdaptor();
+    adaptor.parseArgs("raw", testFile.getAbsolutePath(), AdaptorManager.NULL);
+    adaptor.keepFileOpen = true;
+    adaptor.start("id", "raw", 0, this);
+    try {
+      assertTrue("file was not read", adding.await(10, TimeUnit.SECONDS));
+
+      final CountDownLatch stopped = new CountDownLatch(1);
+      Thread stopper = new Thread() {
+        public void run() {
+          try {
+            adaptor.shutdown(AdaptorShutdownPolicy.HARD_STOP);
+            stopped.countDown();
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+      };
+      stopper.setDaemon(true);
+      stopper.start();
+      // the tailer thread is blocked in add(), and must not block shutdown
+      assertTrue("shutdown waited for the chunk queue",
+          stopped.await(10, TimeUnit.SECONDS));
+    } finally {
+      queueFull.countDown();
+      testFile.delete();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
+
+import static org.apache.hadoop.chukwa.util.TempFileUtil.makeTestFile;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
+import org.apache.hadoop.chukwa.datacollection.agent.ChukwaAgent;
+import org.apache.hadoop.chukwa.datacollection.agent.ChukwaAgent.AlreadyRunningException;
+import org.apache.hadoop.chukwa.datacollection.connector.ChunkCatcherConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParallelFileTailer {
+  private ChukwaAgent agent;
+  private String adaptorId;
+  private File testFile;
+
+  @Before
+  public void setUp() {
+    // the tailer is shared by every adaptor in the JVM; make sure this test
+    // creates its own instead of reusing one left by an earlier test
+    LWFTAdaptor.resetTailer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    agent.stopAdaptor(adaptorId, false);
+    agent.shutdown();
+    if (testFile != null) {
+      testFile.delete();
+    }
+    LWFTAdaptor.resetTailer();
+  }
+
+  @Test
+  public void testChangeNotification() throws AlreadyRunningException,
+      IOException, InterruptedException {
+    ChukwaConfiguration cc = new ChukwaConfiguration();
+    cc.setInt(ParallelFileTailer.THREADS_OPT, 2);
+    // make sure only the watch service can pick up the appended data
+    cc.setInt("chukwaAgent.adaptor.context.switch.time", 60 * 1000);
+    cc.setInt(ParallelFileTailer.RESCAN_OPT, 60 * 1000);
+    agent = ChukwaAgent.getAgent(cc);
+    agent.start();
+
+    ChunkCatcherConnector chunks = new ChunkCatcherConnector();
+    chunks.start();
+
+    File baseDir = new File(System.getProperty("test.build.data", "/tmp"));
+    testFile = makeTestFile("testChangeNotification", 1, baseDir);
+    adaptorId = agent.processAddCommand("add adaptor_test ="
+        + "filetailer.FileTailingAdaptor testChangeNotification "
+        + testFile.getCanonicalPath() + " 0");
+    LWFTAdaptor adaptor = (LWFTAdaptor) agent.getAdaptor(adaptorId);
+    assertTrue(adaptor.getTailer() instanceof ParallelFileTailer);
+
+    Chunk c = chunks.waitForAChunk(10 * 1000);
+    assertNotNull("initial content was not tailed", c);
+    long firstEnd = c.getSeqID();
+
+    FileOutputStream fos = new FileOutputStream(testFile, true);
+    fos.write("appended line\n".getBytes());
+    fos.close();
+
+    c = chunks.waitForAChunk(20 * 1000);
+    assertNotNull("appended content was not tailed", c);
+    assertEquals(firstEnd + "appended line\n".length(), c.getSeqID());
+    chunks.shutdown();
+  }
+
+}
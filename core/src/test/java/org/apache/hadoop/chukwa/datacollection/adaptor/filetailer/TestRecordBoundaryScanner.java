@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.adaptor.filetailer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestRecordBoundaryScanner extends TestCase {
+
+  private static final byte[] ESCAPE = { 4 };
+
+  private static int[] naiveScan(byte[] buf, byte[] escape) {
+    List<Integer> offsets = new ArrayList<Integer>();
+    for (int i = 0; i < buf.length; i++) {
+      if (buf[i] == '\n' && (escape == null || i == 0 || buf[i - 1] != escape[0])) {
+        offsets.add(i);
+      }
+    }
+    int[] result = new int[offsets.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = offsets.get(i);
+    }
+    return result;
+  }
+
+  public void testMatchesByteLoop() {
+    Random r = new Random(1);
+    RecordBoundaryScanner scanner = new RecordBoundaryScanner();
+    for (int round = 0; round < 2000; round++) {
+      byte[] buf = new byte[r.nextInt(300)];
+      for (int i = 0; i < buf.length; i++) {
+        switch (r.nextInt(5)) {
+        case 0: buf[i] = '\n'; break;
+        case 1: buf[i] = 4; break;
+        case 2: buf[i] = (byte) 0x8A; break; // '\n' with the high bit set
+        default: buf[i] = (byte) r.nextInt(256);
+        }
+      }
+      int[] expected = naiveScan(buf, null);
+      assertEquals(expected.length, scanner.scan(buf));
+      assertTrue(Arrays.equals(expected, scanner.toArray()));
+      assertEquals(expected.length == 0 ? -1 : expected[expected.length - 1],
+          scanner.lastIndexOf(buf));
+
+      expected = naiveScan(buf, ESCAPE);
+      assertEquals(expected.length, scanner.scan(buf, ESCAPE));
+      assertTrue(Arrays.equals(expected, scanner.toArray()));
+    }
+  }
+
+  public void testGrowsPastInitialCapacity() {
+    byte[] buf = new byte[1000];
+    Arrays.fill(buf, (byte) '\n');
+    RecordBoundaryScanner scanner = new RecordBoundaryScanner();
+    assertEquals(1000, scanner.scan(buf));
+    assertEquals(999, scanner.last());
+    assertEquals(0, scanner.scan(new byte[0]));
+  }
+}
@@ -77,6 +77,24 @@ public class TestChunkQueue extends TestCase {
     testNonBlockingNature(nbmlq);
   }
 
+  public void testStripedMemLimitQueue() {
+    conf.set(CHUNK_QUEUE, "org.apache.hadoop.chukwa.datacollection.agent.StripedMemLimitQueue");
+    ChunkQueue smlq = df.createEventQueue();
+    assertTrue(smlq instanceof StripedMemLimitQueue);
+    testBlockingNature(smlq);
+  }
+
+  public void testStripedMemLimitQueueMetrics() throws InterruptedException {
+    StripedMemLimitQueue q = new StripedMemLimitQueue(conf);
+    q.add(putList.get(0));
+    q.add(putList.get(1));
+    assertEquals(2, StripedMemLimitQueue.metrics.queueSize.get());
+    assertEquals(2 * data.length, StripedMemLimitQueue.metrics.dataSize.get());
+    q.collect(new ArrayList<Chunk>(), Integer.MAX_VALUE);
+    assertEquals(0, StripedMemLimitQueue.metrics.queueSize.get());
+    assertEquals(0, StripedMemLimitQueue.metrics.dataSize.get());
+  }
+
   /**
    * Putter thread gets a list of chunks and adds all of them
    * to the ChunkQueue
@@ -0,0 +1,411 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.ChunkImpl;
+import org.apache.hadoop.chukwa.datacollection.collector.servlet.ServletCollector;
+import org.apache.hadoop.chukwa.datacollection.sender.ChukwaHttpSender;
+import org.apache.hadoop.chukwa.datacollection.sender.ChukwaHttpSender.CommitListEntry;
+import org.apache.hadoop.chukwa.datacollection.writer.ChukwaWriter;
+import org.apache.hadoop.chukwa.datacollection.writer.WriterException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+
+/**
+ * Posts to a ServletCollector that hands chunks to its writer in
+ * sub-batches, or stops reading part way through a post.
+ */
+public class TestServletCollector extends TestCase {
+
+  static final int CHUNK_SIZE = 100;
+
+  /**
+   * Records each batch it is given, and fails the calls to add() whose
+   * (zero based) index is in failing.
+   */
+  public static class BatchWriter implements ChukwaWriter {
+    static List<List<Chunk>> batches = new ArrayList<List<Chunk>>();
+    static List<Integer> failing = new ArrayList<Integer>();
+    static int calls = 0;
+
+    static void reset(Integer... fail) {
+      batches.clear();
+      failing = Arrays.asList(fail);
+      calls = 0;
+    }
+
+    static int written() {
+      int n = 0;
+      for (List<Chunk> batch : batches) {
+        n += batch.size();
+      }
+      return n;
+    }
+
+    @Override
+    public CommitStatus add(List<Chunk> chunks) throws WriterException {
+      if (failing.contains(calls++)) {
+        return COMMIT_FAIL;
+      }
+      batches.add(new ArrayList<Chunk>(chunks));
+      return COMMIT_OK;
+    }
+
+    @Override
+    public void close() throws WriterException {
+    }
+
+    @Override
+    public void init(Configuration c) throws WriterException {
+    }
+  }
+
+  /**
+   * A post whose length is not declared up front, as when it is
+   * compressed or sent chunked.
+   */
+  static class UnsizedRequest extends MockHttpServletRequest {
+    UnsizedRequest() {
+      super("POST", "/chukwa");
+    }
+
+    @Override
+    public int getContentLength() {
+      return -1;
+    }
+  }
+
+  Configuration conf;
+
+  protected void setUp() {
+    conf = new Configuration();
+    conf.set("chukwaCollector.writerClass", BatchWriter.class.getName());
+    BatchWriter.reset();
+  }
+
+  private ServletCollector startCollector() throws ServletException {
+    ServletCollector collector = new ServletCollector(conf);
+    collector.init(new MockServletConfig());
+    return collector;
+  }
+
+  private static List<Chunk> chunks(int n) {
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    for (int i = 1; i <= n; i++) {
+      byte[] data = new byte[CHUNK_SIZE];
+      Arrays.fill(data, (byte) ('a' + i));
+      chunks.add(new ChunkImpl("testtype", "sname", i * CHUNK_SIZE, data, null));
+    }
+    return chunks;
+  }
+
+  private static byte[] postBody(List<Chunk> chunks) throws IOException {
+    DataOutputBuffer buf = new DataOutputBuffer();
+    buf.writeInt(chunks.size());
+    for (Chunk c : chunks) {
+      c.write(buf);
+    }
+    return Arrays.copyOf(buf.getData(), buf.getLength());
+  }
+
+  private static MockHttpServletResponse post(ServletCollector collector,
+      MockHttpServletRequest req, List<Chunk> chunks, boolean partialCommit)
+      throws Exception {
+    req.setContent(postBody(chunks));
+    if (partialCommit) {
+      req.addHeader(ServletCollector.PARTIAL_COMMIT_HEADER, "true");
+    }
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    collector.service(req, resp);
+    return resp;
+  }
+
+  private static MockHttpServletResponse post(ServletCollector collector,
+      List<Chunk> chunks, boolean partialCommit) throws Exception {
+    return post(collector, new MockHttpServletRequest("POST", "/chukwa"),
+        chunks, partialCommit);
+  }
+
+  private static List<String> lines(MockHttpServletResponse resp)
+      throws IOException {
+    String body = resp.getContentAsString();
+    if (body.length() == 0) {
+      return Collections.emptyList();
+    }
+    return Arrays.asList(body.split("\n"));
+  }
+
+  /**
+   * @return the ack lines of a response, after checking the number of
+   *         committed chunks it starts with, if any, against them
+   */
+  private static List<String> acks(MockHttpServletResponse resp)
+      throws IOException {
+    List<String> acks = lines(resp);
+    if (!acks.isEmpty()
+        && acks.get(0).startsWith(ServletCollector.COMMITTED_PREFIX)) {
+      assertEquals(ServletCollector.COMMITTED_PREFIX + (acks.size() - 1),
+          acks.get(0));
+      acks = acks.subList(1, acks.size());
+    }
+    return acks;
+  }
+
+  private static void assertAcks(int n, MockHttpServletResponse resp)
+      throws IOException {
+    List<String> acks = acks(resp);
+    assertEquals(n, acks.size());
+    for (String ack : acks) {
+      assertTrue(ack, ack.startsWith(ServletCollector.ACK_PREFIX));
+    }
+  }
+
+  public void testStreamingWritesSubBatches() throws Exception {
+    conf.setInt(ServletCollector.STREAMING_BATCH_SIZE_OPT, 2 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+
+    MockHttpServletResponse resp = post(collector, chunks(5), true);
+    assertEquals(200, resp.getStatus());
+    assertEquals(ServletCollector.COMMITTED_PREFIX + 5, lines(resp).get(0));
+    assertAcks(5, resp);
+    assertEquals(3, BatchWriter.batches.size());
+    assertEquals(2, BatchWriter.batches.get(0).size());
+    assertEquals(2, BatchWriter.batches.get(1).size());
+    assertEquals(1, BatchWriter.batches.get(2).size());
+  }
+
+  public void testNoStreamingWithoutPartialCommit() throws Exception {
+    conf.setInt(ServletCollector.STREAMING_BATCH_SIZE_OPT, 2 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+
+    MockHttpServletResponse resp = post(collector, chunks(5), false);
+    assertEquals(200, resp.getStatus());
+    assertEquals(5, lines(resp).size());
+    assertAcks(5, resp);
+    assertEquals(1, BatchWriter.batches.size());
+  }
+
+  public void testFailedSubBatchAcksCommittedPrefix() throws Exception {
+    conf.setInt(ServletCollector.STREAMING_BATCH_SIZE_OPT, 2 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+    BatchWriter.reset(1);
+
+    MockHttpServletResponse resp = post(collector, chunks(5), true);
+    assertEquals(200, resp.getStatus());
+    assertAcks(2, resp);
+    assertEquals(2, BatchWriter.written());
+  }
+
+  public void testFailedFirstSubBatch() throws Exception {
+    conf.setInt(ServletCollector.STREAMING_BATCH_SIZE_OPT, 2 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+    BatchWriter.reset(0);
+
+    MockHttpServletResponse resp = post(collector, chunks(5), true);
+    assertEquals(503, resp.getStatus());
+    assertEquals(0, BatchWriter.written());
+  }
+
+  public void testDeclaredSizeOverLimit() throws Exception {
+    conf.setLong(ServletCollector.MAX_POST_SIZE_OPT, 3 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+
+    MockHttpServletResponse resp = post(collector, chunks(5), true);
+    assertEquals(413, resp.getStatus());
+    assertEquals(0, BatchWriter.written());
+  }
+
+  public void testSizeLimitMidStream() throws Exception {
+    // the post is read until its bytes on the wire pass the limit
+    conf.setLong(ServletCollector.MAX_POST_SIZE_OPT, 3 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+
+    MockHttpServletResponse resp = post(collector, new UnsizedRequest(),
+        chunks(5), true);
+    assertEquals(200, resp.getStatus());
+    List<String> acks = acks(resp);
+    assertTrue(acks.size() > 0 && acks.size() < 5);
+    assertAcks(acks.size(), resp);
+    assertEquals(acks.size(), BatchWriter.written());
+  }
+
+  public void testDeclaredChunkLengthOverLimit() throws Exception {
+    conf.setLong(ServletCollector.MAX_POST_SIZE_OPT, 3 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+
+    // a chunk claiming about 2GB of data, which is never sent
+    byte[] body = postBody(chunks(1));
+    body = Arrays.copyOf(body, body.length - CHUNK_SIZE);
+    DataOutputBuffer offset = new DataOutputBuffer();
+    offset.writeInt(Integer.MAX_VALUE - 1);
+    System.arraycopy(offset.getData(), 0, body, body.length - 4, 4);
+
+    MockHttpServletRequest req = new UnsizedRequest();
+    req.setContent(body);
+    req.addHeader(ServletCollector.PARTIAL_COMMIT_HEADER, "true");
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    collector.service(req, resp);
+    assertEquals(413, resp.getStatus());
+    assertEquals(0, BatchWriter.written());
+  }
+
+  public void testNoWriter() throws Exception {
+    ServletCollector collector = startCollector();
+    collector.setWriter(null);
+
+    MockHttpServletResponse resp = post(collector, chunks(2), true);
+    assertEquals(503, resp.getStatus());
+  }
+
+  public void testSizeLimitMidStreamWithoutPartialCommit() throws Exception {
+    conf.setLong(ServletCollector.MAX_POST_SIZE_OPT, 3 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+
+    MockHttpServletResponse resp = post(collector, new UnsizedRequest(),
+        chunks(5), false);
+    assertEquals(413, resp.getStatus());
+    assertEquals(0, BatchWriter.written());
+  }
+
+  /**
+   * Hands its posts straight to a collector instead of sending them over
+   * the network.
+   */
+  static class LoopbackSender extends ChukwaHttpSender {
+    final ServletCollector collector;
+
+    LoopbackSender(Configuration conf, ServletCollector collector) {
+      super(conf);
+      this.collector = collector;
+      setCollectors(Collections.singletonList("http://localhost/").iterator());
+    }
+
+    @Override
+    protected List<String> doRequest(HttpMethodBase method, String dest)
+        throws IOException, HttpException {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      ((PostMethod) method).getRequestEntity().writeRequest(body);
+      MockHttpServletRequest req = new MockHttpServletRequest("POST", "/chukwa");
+      req.setContent(body.toByteArray());
+      Header partial = method.getRequestHeader(ServletCollector.PARTIAL_COMMIT_HEADER);
+      if (partial != null) {
+        req.addHeader(partial.getName(), partial.getValue());
+      }
+      MockHttpServletResponse resp = new MockHttpServletResponse();
+      try {
+        collector.service(req, resp);
+      } catch (ServletException e) {
+        throw new IOException(e);
+      }
+      if (resp.getStatus() != 200) {
+        throw new HttpException("got back " + resp.getStatus());
+      }
+      return lines(resp);
+    }
+  }
+
+  /**
+   * Answers its posts with the given responses, in turn.
+   */
+  static class CannedSender extends ChukwaHttpSender {
+    final List<List<String>> responses = new ArrayList<List<String>>();
+    int posts = 0;
+
+    CannedSender(Configuration conf) {
+      super(conf);
+      setCollectors(Collections.singletonList("http://localhost/").iterator());
+    }
+
+    @Override
+    protected List<String> doRequest(HttpMethodBase method, String dest) {
+      return responses.get(posts++);
+    }
+  }
+
+  public void testSenderCountsCommittedChunksOnly() throws Exception {
+    CannedSender sender = new CannedSender(conf);
+    // the pending entries of a writer are not one line per chunk
+    sender.responses.add(Arrays.asList(ServletCollector.COMMITTED_PREFIX + 1,
+        "pending 1", "pending 2", "pending 3"));
+    sender.responses.add(Arrays.asList(ServletCollector.COMMITTED_PREFIX + 2));
+
+    List<Chunk> toSend = chunks(3);
+    List<Chunk> sent = new ArrayList<Chunk>(toSend);
+    List<CommitListEntry> commits = sender.send(toSend);
+    assertEquals(2, sender.posts);
+    assertEquals(3, commits.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(sent.get(i).getSeqID(), commits.get(i).uuid);
+    }
+  }
+
+  public void testSenderWithoutCommittedCount() throws Exception {
+    CannedSender sender = new CannedSender(conf);
+    // a collector which commits whole posts
+    sender.responses.add(Arrays.asList(ServletCollector.ACK_PREFIX + "100"));
+    assertEquals(3, sender.send(chunks(3)).size());
+    // a post given up on
+    sender.responses.add(new ArrayList<String>());
+    assertEquals(0, sender.send(chunks(3)).size());
+    assertEquals(2, sender.posts);
+  }
+
+  public void testSenderResendsUncommittedChunks() throws Exception {
+    conf.setInt(ServletCollector.STREAMING_BATCH_SIZE_OPT, 2 * CHUNK_SIZE);
+    ServletCollector collector = startCollector();
+    BatchWriter.reset(1);
+    LoopbackSender sender = new LoopbackSender(conf, collector);
+
+    List<Chunk> toSend = chunks(5);
+    List<Chunk> sent = new ArrayList<Chunk>(toSend);
+    List<CommitListEntry> commits = sender.send(toSend);
+
+    assertEquals(5, commits.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(sent.get(i).getSeqID(), commits.get(i).uuid);
+    }
+    // each chunk is written exactly once, and in order
+    List<Chunk> written = new ArrayList<Chunk>();
+    for (List<Chunk> batch : BatchWriter.batches) {
+      written.addAll(batch);
+    }
+    assertEquals(5, written.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(sent.get(i).getSeqID(), written.get(i).getSeqID());
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.connector.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.ChunkImpl;
+import org.apache.hadoop.chukwa.datacollection.sender.ChukwaHttpSender.CommitListEntry;
+import org.apache.hadoop.chukwa.datacollection.sender.ChukwaSender;
+
+import junit.framework.TestCase;
+
+public class TestPostPipeline extends TestCase {
+
+  /**
+   * Records the commits reported by the pipeline instead of checkpointing
+   * them with an agent.
+   */
+  static class RecordingConnector extends HttpConnector {
+    final List<Long> commits =
+        Collections.synchronizedList(new ArrayList<Long>());
+
+    RecordingConnector() {
+      super(null);
+      statTimer.cancel();
+    }
+
+    @Override
+    void reportCommit(CommitListEntry cle) {
+      commits.add(cle.uuid);
+    }
+  }
+
+  /**
+   * Sends batches of one chunk, whose sequence id names the batch. A batch
+   * with a gate waits for it to open, a failing batch throws an
+   * IOException and an interrupted batch an InterruptedException.
+   */
+  static class ScriptedSender implements ChukwaSender {
+    final Map<Long, CountDownLatch> gates;
+    final Set<Long> failing;
+    final Set<Long> interrupted;
+    final List<Long> sent;
+
+    ScriptedSender(Map<Long, CountDownLatch> gates, Set<Long> failing,
+        Set<Long> interrupted, List<Long> sent) {
+      this.gates = gates;
+      this.failing = failing;
+      this.interrupted = interrupted;
+      this.sent = sent;
+    }
+
+    public List<CommitListEntry> send(List<Chunk> chunks)
+        throws InterruptedException, IOException {
+      long batch = chunks.get(0).getSeqID();
+      CountDownLatch gate = gates.get(batch);
+      if (gate != null) {
+        gate.await();
+      }
+      if (failing.contains(batch)) {
+        throw new IOException("post of batch " + batch + " failed");
+      }
+      if (interrupted.contains(batch)) {
+        throw new InterruptedException("post of batch " + batch);
+      }
+      List<CommitListEntry> committed = new ArrayList<CommitListEntry>();
+      for (Chunk c : chunks) {
+        committed.add(new CommitListEntry(null, c.getSeqID(), 0));
+      }
+      sent.add(batch);
+      return committed;
+    }
+
+    public void setCollectors(Iterator<String> collectors) {
+    }
+
+    public void stop() {
+    }
+  }
+
+  private RecordingConnector connector;
+  private Map<Long, CountDownLatch> gates;
+  private Set<Long> failing;
+  private Set<Long> interrupted;
+  private List<Long> sent;
+
+  protected void setUp() {
+    connector = new RecordingConnector();
+    gates = new ConcurrentHashMap<Long, CountDownLatch>();
+    failing = Collections.synchronizedSet(new HashSet<Long>());
+    interrupted = Collections.synchronizedSet(new HashSet<Long>());
+    sent = Collections.synchronizedList(new ArrayList<Long>());
+  }
+
+  private HttpConnector.PostPipeline pipeline(int senders, int maxInFlight) {
+    List<ChukwaSender> list = new ArrayList<ChukwaSender>();
+    for (int i = 0; i < senders; i++) {
+      list.add(new ScriptedSender(gates, failing, interrupted, sent));
+    }
+    return connector.new PostPipeline(list, maxInFlight);
+  }
+
+  private static List<Chunk> batch(long id) {
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    chunks.add(new ChunkImpl("DataType", "StreamName", id, "data".getBytes(),
+        null));
+    return chunks;
+  }
+
+  private static List<Long> ids(long... ids) {
+    List<Long> list = new ArrayList<Long>();
+    for (long id : ids) {
+      list.add(id);
+    }
+    return list;
+  }
+
+  /**
+   * Wait until list has at least size elements.
+   */
+  private static void waitForSize(List<Long> list, int size)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10 * 1000;
+    while (list.size() < size && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue("timed out waiting for " + size + " elements in " + list,
+        list.size() >= size);
+  }
+
+  public void testCommitsInOrderWhenPostsCompleteOutOfOrder()
+      throws InterruptedException {
+    CountDownLatch gate = new CountDownLatch(1);
+    gates.put(0L, gate);
+    HttpConnector.PostPipeline pipeline = pipeline(2, 3);
+    try {
+      pipeline.submit(batch(0));
+      pipeline.submit(batch(1));
+      pipeline.submit(batch(2));
+      waitForSize(sent, 2);
+      assertEquals(ids(1, 2), sent);
+      // the checkpoint must not move past batch 0, which is still in flight
+      assertTrue(connector.commits.isEmpty());
+
+      gate.countDown();
+      waitForSize(connector.commits, 3);
+      assertEquals(ids(0, 1, 2), connector.commits);
+      assertFalse(pipeline.failed());
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  public void testFailedPostInTheMiddleIsRetried() throws InterruptedException {
+    CountDownLatch gate = new CountDownLatch(1);
+    gates.put(1L, gate);
+    failing.add(1L);
+    HttpConnector.PostPipeline pipeline = pipeline(2, 3);
+    try {
+      pipeline.submit(batch(0));
+      pipeline.submit(batch(1));
+      pipeline.submit(batch(2));
+      waitForSize(sent, 2);
+      waitForSize(connector.commits, 1);
+      assertEquals(ids(0), connector.commits);
+
+      gate.countDown();
+      long deadline = System.currentTimeMillis() + 10 * 1000;
+      while (!pipeline.failed() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(pipeline.failed());
+      pipeline.submit(batch(3));
+      waitForSize(sent, 3);
+      Thread.sleep(100);
+      // batches 2 and 3 were sent, but committing them would skip over
+      // batch 1
+      assertEquals(ids(0), connector.commits);
+    } finally {
+      pipeline.shutdown();
+    }
+
+    // the agent restarts from its checkpoint and sends the data again
+    failing.clear();
+    sent.clear();
+    pipeline = pipeline(2, 3);
+    try {
+      pipeline.submit(batch(1));
+      pipeline.submit(batch(2));
+      pipeline.submit(batch(3));
+      waitForSize(connector.commits, 4);
+      assertEquals(ids(0, 1, 2, 3), connector.commits);
+      assertFalse(pipeline.failed());
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  public void testInterruptedPostStopsLaterCommits()
+      throws InterruptedException {
+    CountDownLatch gate = new CountDownLatch(1);
+    gates.put(1L, gate);
+    interrupted.add(1L);
+    HttpConnector.PostPipeline pipeline = pipeline(2, 3);
+    try {
+      pipeline.submit(batch(0));
+      pipeline.submit(batch(1));
+      pipeline.submit(batch(2));
+      waitForSize(sent, 2);
+      waitForSize(connector.commits, 1);
+
+      gate.countDown();
+      pipeline.submit(batch(3));
+      waitForSize(sent, 3);
+      Thread.sleep(100);
+      // batch 1 was never acked, so the checkpoint must stay before it
+      assertEquals(ids(0), connector.commits);
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.sender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.ChunkImpl;
+import org.apache.hadoop.chukwa.datacollection.collector.CaptureWriter;
+import org.apache.hadoop.chukwa.datacollection.collector.servlet.ServletCollector;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+
+/**
+ * Checks the compressed post body written by the sender against the
+ * collector that has to decode it.
+ */
+public class TestCompressedPost extends TestCase {
+
+  Configuration conf;
+  CompressionCodec codec;
+
+  protected void setUp() {
+    conf = new Configuration();
+    conf.setBoolean("chukwaAgent.output.compress", true);
+    conf.set("chukwaCollector.writerClass", CaptureWriter.class.getCanonicalName());
+    codec = ReflectionUtils.newInstance(DefaultCodec.class, conf);
+    CaptureWriter.outputs.clear();
+  }
+
+  private static DataOutputBuffer serialize(Chunk... chunks) throws IOException {
+    DataOutputBuffer buf = new DataOutputBuffer();
+    buf.writeInt(chunks.length);
+    for (Chunk c : chunks) {
+      c.write(buf);
+    }
+    return buf;
+  }
+
+  public void testCompressedRoundTrip() throws Exception {
+    byte[] first = "first chunk".getBytes();
+    byte[] second = new byte[100 * 1024];
+    Arrays.fill(second, (byte) 'x');
+    ChunkImpl c1 = new ChunkImpl("testtype", "sname", first.length, first, null);
+    ChunkImpl c2 = new ChunkImpl("testtype", "sname",
+        first.length + second.length, second, null);
+
+    ChukwaHttpSender.BatchRequestEntity entity = new ChukwaHttpSender.BatchRequestEntity(
+        serialize(c1, c2), true, codec);
+    assertEquals(-1, entity.getContentLength());
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    entity.writeRequest(wire);
+    assertTrue(wire.size() < entity.getUncompressedContentLength());
+
+    ServletCollector collector = new ServletCollector(conf);
+    collector.init(new MockServletConfig());
+    MockHttpServletRequest req = new MockHttpServletRequest("POST", "/chukwa");
+    req.setContent(wire.toByteArray());
+    MockHttpServletResponse resp = new MockHttpServletResponse();
+    collector.service(req, resp);
+
+    assertEquals(200, resp.getStatus());
+    String[] acks = resp.getContentAsString().split("\n");
+    assertEquals(2, acks.length);
+    for (String ack : acks) {
+      assertTrue(ack.startsWith(ServletCollector.ACK_PREFIX));
+    }
+    assertEquals(2, CaptureWriter.outputs.size());
+    assertTrue(Arrays.equals(first, CaptureWriter.outputs.get(0).getData()));
+    assertTrue(Arrays.equals(second, CaptureWriter.outputs.get(1).getData()));
+    assertEquals(c2.getSeqID(), CaptureWriter.outputs.get(1).getSeqID());
+  }
+
+  public void testCompressorReturnedWhenWriteFails() throws Exception {
+    byte[] data = "sometestdata".getBytes();
+    ChunkImpl c = new ChunkImpl("testtype", "sname", data.length, data, null);
+    ChukwaHttpSender.BatchRequestEntity entity = new ChukwaHttpSender.BatchRequestEntity(
+        serialize(c), true, codec);
+    OutputStream broken = new OutputStream() {
+      public void write(int b) throws IOException {
+        throw new IOException("connection reset");
+      }
+    };
+
+    int leased = CodecPool.getLeasedCompressorsCount(codec);
+    for (int i = 0; i < 3; i++) {
+      try {
+        entity.writeRequest(broken);
+        fail("write to a broken stream should throw");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(leased, CodecPool.getLeasedCompressorsCount(codec));
+    }
+  }
+}
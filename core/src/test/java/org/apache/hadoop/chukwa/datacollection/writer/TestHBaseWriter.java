@@ -33,6 +33,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
@@ -103,4 +104,48 @@ public class TestHBaseWriter extends TestCase{
       Assert.fail(e.getMessage());
     }
   }
+
+  public void testBatchWriter() throws Exception {
+    createTable("chukwa", "t", "a");
+    createTable("chukwa_meta", "k");
+    ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+    for (int i = 0; i < 20; i++) {
+      ChunkImpl chunk = new ChunkImpl("BatchTest", "name", timestamp + i,
+          ("record " + i).getBytes(), null);
+      chunk.setSource("host" + i);
+      chunks.add(chunk);
+    }
+    cc.setBoolean(HBaseWriter.BATCH_OPT, true);
+    cc.setInt(HBaseWriter.THREADS_OPT, 4);
+    hbw = new HBaseWriter(cc, conf);
+    hbw.init(cc);
+    try {
+      Assert.assertEquals(ChukwaWriter.COMMIT_OK, hbw.add(chunks));
+      // add() only returns after the flush, so the rows must be visible
+      Assert.assertEquals(chunks.size(), countRows("chukwa"));
+      Assert.assertTrue(countRows("chukwa_meta") > 0);
+    } finally {
+      hbw.close();
+    }
+  }
+
+  private void createTable(String name, String... families) throws Exception {
+    HTableDescriptor desc = new HTableDescriptor(TableName.valueOf(name));
+    for (String family : families) {
+      desc.addFamily(new HColumnDescriptor(family));
+    }
+    util.getHBaseAdmin().createTable(desc);
+  }
+
+  private int countRows(String name) throws Exception {
+    Table t = util.getConnection().getTable(TableName.valueOf(name));
+    ResultScanner scanner = t.getScanner(new Scan());
+    int rows = 0;
+    for (Result res : scanner) {
+      rows++;
+    }
+    scanner.close();
+    t.close();
+    return rows;
+  }
 }
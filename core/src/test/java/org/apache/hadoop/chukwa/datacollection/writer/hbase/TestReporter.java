@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.datacollection.writer.hbase;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestReporter extends TestCase {
+
+  public void testDuplicatesSuppressed() throws Exception {
+    MetaCache cache = new MetaCache(100, 60 * 1000);
+    Reporter reporter = new Reporter(cache);
+    reporter.putSource("SystemMetrics", "host1");
+    reporter.putMetric("SystemMetrics", "cpu.user");
+    assertEquals(2, reporter.getInfo().size());
+    reporter.commit();
+    reporter.clear();
+
+    // a second reporter sharing the cache sees the entries as written
+    Reporter other = new Reporter(cache);
+    other.putSource("SystemMetrics", "host1");
+    other.putMetric("SystemMetrics", "cpu.user");
+    other.putMetric("SystemMetrics", "cpu.sys");
+    assertEquals(1, other.getInfo().size());
+    assertEquals(2, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  public void testSameNameDifferentKind() throws Exception {
+    Reporter reporter = new Reporter(new MetaCache());
+    reporter.putSource("Type", "x");
+    reporter.putMetric("Type", "x");
+    reporter.putClusterName("Type", "x");
+    assertEquals(3, reporter.getInfo().size());
+  }
+
+  public void testExpiry() throws Exception {
+    MetaCache cache = new MetaCache(100, 1);
+    Reporter reporter = new Reporter(cache);
+    reporter.putSource("SystemMetrics", "host1");
+    reporter.commit();
+    Thread.sleep(10);
+    reporter.putSource("SystemMetrics", "host1");
+    assertEquals(2, reporter.getInfo().size());
+  }
+
+  public void testDuplicatesWithinChunk() throws Exception {
+    Reporter reporter = new Reporter(new MetaCache());
+    reporter.putSource("SystemMetrics", "host1");
+    reporter.putSource("SystemMetrics", "host1");
+    assertEquals(1, reporter.getInfo().size());
+  }
+
+  public void testClearedEntriesWrittenAgain() throws Exception {
+    MetaCache cache = new MetaCache();
+    Reporter reporter = new Reporter(cache);
+    reporter.putSource("SystemMetrics", "host1");
+    reporter.putMetric("SystemMetrics", "cpu.user");
+    // the chunk failed, so its Puts were never written
+    reporter.clear();
+    assertEquals(0, cache.size());
+
+    reporter.putSource("SystemMetrics", "host1");
+    reporter.putMetric("SystemMetrics", "cpu.user");
+    assertEquals(2, reporter.getInfo().size());
+    reporter.commit();
+    reporter.clear();
+    assertEquals(2, cache.size());
+
+    reporter.putSource("SystemMetrics", "host1");
+    assertEquals(0, reporter.getInfo().size());
+  }
+
+  public void testEviction() throws Exception {
+    MetaCache cache = new MetaCache(2, 60 * 1000);
+    cache.addAll(Arrays.asList("a", "b", "c"));
+    assertEquals(2, cache.size());
+    assertFalse(cache.contains("a"));
+    assertTrue(cache.contains("c"));
+    cache.addAll(Arrays.asList("a"));
+    assertTrue(cache.contains("a"));
+    assertFalse(cache.contains("b"));
+  }
+
+  public void testWithoutCache() throws Exception {
+    Reporter reporter = new Reporter();
+    reporter.putSource("SystemMetrics", "host1");
+    reporter.putSource("SystemMetrics", "host1");
+    assertEquals(2, reporter.getInfo().size());
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datacollection.writer.hbase;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hbase.client.Put;
+
+public class TestRollupAggregator extends TestCase {
+  private static final byte[] ROW = "row1".getBytes();
+  private static final byte[] OTHER_ROW = "row2".getBytes();
+
+  public void testChangedBucketsAreWritten() throws Exception {
+    RollupAggregator rollups = new RollupAggregator();
+    long now = System.currentTimeMillis();
+    rollups.add(ROW, now, 1.0);
+    rollups.add(ROW, now, 2.0);
+    rollups.add(OTHER_ROW, now, 3.0);
+    // minute, hour and day bucket of each row
+    assertEquals(6, rollups.size());
+    List<Put> puts = rollups.collect(null);
+    assertEquals(6, puts.size());
+    assertTrue(rollups.collect(null).isEmpty());
+
+    rollups.add(ROW, now, 4.0);
+    assertEquals(3, rollups.collect(null).size());
+  }
+
+  public void testRetry() throws Exception {
+    RollupAggregator rollups = new RollupAggregator();
+    rollups.add(ROW, System.currentTimeMillis(), 1.0);
+    assertEquals(3, rollups.collect(null).size());
+    rollups.retry();
+    assertEquals(3, rollups.collect(null).size());
+  }
+
+  public void testClosedBucketsAreDropped() throws Exception {
+    RollupAggregator rollups = new RollupAggregator(0);
+    long old = System.currentTimeMillis() - 3 * 24 * 60 * 60 * 1000L;
+    rollups.add(ROW, old, 1.0);
+    rollups.add(ROW, old + 1, Double.NaN);
+    assertEquals(3, rollups.collect(null).size());
+    // dropped only once they have been written
+    assertEquals(3, rollups.size());
+    assertTrue(rollups.collect(null).isEmpty());
+    assertEquals(0, rollups.size());
+  }
+}
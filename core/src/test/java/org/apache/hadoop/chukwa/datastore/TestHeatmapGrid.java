@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.util.List;
+
+import org.apache.hadoop.chukwa.hicc.bean.HeatMapPoint;
+import org.apache.hadoop.chukwa.hicc.bean.Heatmap;
+
+import junit.framework.TestCase;
+
+public class TestHeatmapGrid extends TestCase {
+
+  public void testColumns() {
+    HeatmapGrid grid = new HeatmapGrid(1, 1000, 2000, 10);
+    assertEquals(0, grid.column(1000));
+    assertEquals(5, grid.column(1500));
+    assertEquals(10, grid.column(2000));
+    assertEquals(0, grid.column(0));
+    assertEquals(10, grid.column(5000));
+  }
+
+  public void testCellKeepsLargestValue() {
+    HeatmapGrid grid = new HeatmapGrid(2, 0, 100, 10);
+    grid.put(0, 50, 3);
+    grid.put(0, 51, 7);
+    grid.put(0, 52, 5);
+    assertEquals(7.0, grid.max());
+    Heatmap heatmap = grid.toHeatmap(1, 100, 40);
+    List<HeatMapPoint> points = heatmap.getHeatmap();
+    assertEquals(1, points.size());
+    assertEquals(5, points.get(0).x);
+    assertEquals(100.0, points.get(0).count);
+  }
+
+  public void testEmptyRowsAreSkipped() {
+    HeatmapGrid grid = new HeatmapGrid(3, 0, 100, 10);
+    grid.put(0, 0, 10);
+    grid.put(2, 100, 20);
+    Heatmap heatmap = grid.toHeatmap(40, 100, 30);
+    assertEquals(2, heatmap.getSeries());
+    assertEquals(10, heatmap.getRadius());
+    assertEquals(100.0, heatmap.getMax());
+    List<HeatMapPoint> points = heatmap.getHeatmap();
+    assertEquals(2, points.size());
+    assertEquals(10, points.get(0).y);
+    assertEquals(25.0, points.get(0).count);
+    assertEquals(20, points.get(1).y);
+    assertEquals(10, points.get(1).x);
+    assertEquals(50.0, points.get(1).count);
+  }
+
+  public void testCopyRow() {
+    HeatmapGrid part = new HeatmapGrid(1, 0, 100, 10);
+    part.put(0, 30, 1);
+    HeatmapGrid grid = new HeatmapGrid(4, 0, 100, 10);
+    grid.copyRow(3, part, 0);
+    Heatmap heatmap = grid.toHeatmap(1, 100, 20);
+    assertEquals(1, heatmap.getSeries());
+    assertEquals(3, heatmap.getHeatmap().get(0).x);
+  }
+
+  public void testEmptyGrid() {
+    HeatmapGrid grid = new HeatmapGrid(2, 0, 100, 10);
+    assertTrue(Double.isNaN(grid.max()));
+    Heatmap heatmap = grid.toHeatmap(1, 100, 40);
+    assertEquals(0, heatmap.getSeries());
+    assertTrue(heatmap.getHeatmap().isEmpty());
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestMetadataCache extends TestCase {
+
+  private static class CountingLoader implements MetadataCache.Loader {
+    int loads = 0;
+    boolean fail = false;
+
+    public Set<String> load() throws IOException {
+      if (fail) {
+        throw new IOException("HBase is offline");
+      }
+      loads++;
+      Set<String> names = new HashSet<String>();
+      names.add("name" + loads);
+      return names;
+    }
+  }
+
+  public void testHitsAndMisses() throws Exception {
+    MetadataCache cache = new MetadataCache(10, 0);
+    CountingLoader loader = new CountingLoader();
+    assertTrue(cache.get("groups", loader).contains("name1"));
+    assertTrue(cache.get("groups", loader).contains("name1"));
+    assertEquals(1, loader.loads);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    cache.invalidate("groups");
+    assertTrue(cache.get("groups", loader).contains("name2"));
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+  }
+
+  public void testFailedLoadIsNotCached() throws Exception {
+    MetadataCache cache = new MetadataCache(10, 0);
+    CountingLoader loader = new CountingLoader();
+    loader.fail = true;
+    try {
+      cache.get("sources", loader);
+      fail("load error not reported");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, cache.size());
+    loader.fail = false;
+    assertTrue(cache.get("sources", loader).contains("name1"));
+  }
+
+  public void testEviction() throws Exception {
+    MetadataCache cache = new MetadataCache(2, 0);
+    CountingLoader loader = new CountingLoader();
+    cache.get("a", loader);
+    cache.get("b", loader);
+    cache.get("a", loader);
+    cache.get("c", loader);
+    assertEquals(2, cache.size());
+    // b was the least recently used list
+    cache.get("a", loader);
+    assertEquals(3, loader.loads);
+    cache.get("b", loader);
+    assertEquals(4, loader.loads);
+  }
+
+  public void testRefresh() throws Exception {
+    MetadataCache cache = new MetadataCache(10, 60 * 1000);
+    try {
+      CountingLoader loader = new CountingLoader();
+      cache.get("groups", loader);
+      long now = System.currentTimeMillis();
+      cache.refresh(now);
+      assertEquals(1, loader.loads);
+
+      cache.refresh(now + 60 * 1000);
+      assertEquals(2, loader.loads);
+      assertEquals(1, cache.getRefreshes());
+      assertTrue(cache.get("groups", loader).contains("name2"));
+
+      // a failed refresh keeps the old list
+      loader.fail = true;
+      cache.refresh(now + 3 * 60 * 1000);
+      assertTrue(cache.get("groups", loader).contains("name2"));
+
+      // lists nobody asked for are dropped
+      cache.refresh(now + 11 * 60 * 1000);
+      assertEquals(0, cache.size());
+    } finally {
+      cache.close();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import org.apache.hadoop.chukwa.util.Rollup;
+
+import junit.framework.TestCase;
+
+public class TestQueryPlanner extends TestCase {
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+
+  public void testPlan() {
+    QueryPlanner planner = new QueryPlanner(360);
+    long end = 1353981082318L;
+    assertNull(planner.plan(end - HOUR, end));
+    assertNull(planner.plan(end - 5 * HOUR, end));
+    assertEquals(Rollup.Resolution.MINUTE, planner.plan(end - 6 * HOUR, end));
+    assertEquals(Rollup.Resolution.MINUTE, planner.plan(end - 7 * DAY, end));
+    assertEquals(Rollup.Resolution.HOUR, planner.plan(end - 30 * DAY, end));
+    assertEquals(Rollup.Resolution.DAY, planner.plan(end - 400 * DAY, end));
+  }
+
+  public void testPointWidth() {
+    QueryPlanner planner = new QueryPlanner(360);
+    long end = 1353981082318L;
+    assertEquals(MINUTE, planner.pointWidth(Rollup.Resolution.MINUTE,
+        end - 6 * HOUR, end));
+    // a week of minutes is merged into points of 28 minutes
+    assertEquals(28 * MINUTE, planner.pointWidth(Rollup.Resolution.MINUTE,
+        end - 7 * DAY, end));
+    assertEquals(2 * HOUR, planner.pointWidth(Rollup.Resolution.HOUR,
+        end - 30 * DAY, end));
+  }
+
+  public void testCovers() {
+    QueryPlanner planner = new QueryPlanner(360);
+    long end = 1353981082318L;
+    long start = end - 30 * DAY;
+    long first = Rollup.Resolution.HOUR.bucket(start);
+    assertTrue(planner.covers(Rollup.Resolution.HOUR, start, first));
+    // the bucket of the start may not be written yet
+    assertTrue(planner.covers(Rollup.Resolution.HOUR, start, first + HOUR));
+    // rollups enabled two days ago do not cover a 30 day range
+    assertFalse(planner.covers(Rollup.Resolution.HOUR, start,
+        Rollup.Resolution.HOUR.bucket(end - 2 * DAY)));
+    // no rollups at all
+    assertFalse(planner.covers(Rollup.Resolution.HOUR, start, Long.MAX_VALUE));
+  }
+}
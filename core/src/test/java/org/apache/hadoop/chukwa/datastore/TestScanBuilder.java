@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.chukwa.util.HBaseUtil;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.MultipleColumnPrefixFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+public class TestScanBuilder extends TestCase {
+  private static final long HOUR = 60 * 60 * 1000L;
+  private static final long DAY = 24 * HOUR;
+
+  public void testShortRangesAreNotSampled() {
+    long end = 1353981082318L;
+    assertNull(ScanBuilder.sample(end - HOUR, end, 360));
+    assertNull(ScanBuilder.sample(end - 6 * HOUR, end, 360));
+  }
+
+  public void testSample() {
+    long end = 1353981082318L;
+    long start = end - 30 * DAY;
+    MultipleColumnPrefixFilter filter = (MultipleColumnPrefixFilter)
+        ScanBuilder.sample(start, end, 360);
+    byte[][] prefixes = filter.getPrefix();
+    assertTrue(prefixes.length >= 360);
+    assertTrue(prefixes.length <= 2 * 360);
+    long window = 1L << ScanBuilder.WINDOW_BITS;
+    long previous = -1;
+    for (byte[] prefix : prefixes) {
+      assertEquals(6, prefix.length);
+      byte[] qualifier = new byte[8];
+      System.arraycopy(prefix, 0, qualifier, 0, 6);
+      long time = Bytes.toLong(qualifier);
+      assertTrue(time > start - window && time <= end);
+      assertTrue(time > previous);
+      previous = time;
+    }
+  }
+
+  public void testRowKeys() {
+    long start = 1353981082318L;
+    // the days of the year from 330 to 339 share a row
+    List<byte[]> rows = HBaseQueryService.rowKeys("SystemMetrics.cpu.user",
+        "host1", start, start + 5 * DAY);
+    assertEquals(1, rows.size());
+    rows = HBaseQueryService.rowKeys("SystemMetrics.cpu.user", "host1",
+        start, start + 15 * DAY);
+    assertEquals(2, rows.size());
+  }
+
+  private static Result row(byte[] key, long... times) {
+    Cell[] cells = new Cell[times.length];
+    for (int i = 0; i < times.length; i++) {
+      cells[i] = new KeyValue(key, Bytes.toBytes("t"), Bytes.toBytes(times[i]),
+          Bytes.toBytes(times[i]));
+    }
+    return Result.create(cells);
+  }
+
+  public void testSortByTimeAcrossSharedRows() {
+    // 2016-01-01
+    long year = 1451606400000L;
+    long day10 = year + 9 * DAY;
+    long day11 = year + 10 * DAY;
+    long day105 = year + 104 * DAY;
+    byte[] row10 = HBaseUtil.buildKey(day10, "SystemMetrics.cpu.user", "host1");
+    byte[] row11 = HBaseUtil.buildKey(day11, "SystemMetrics.cpu.user", "host1");
+    assertTrue(Arrays.equals(row10,
+        HBaseUtil.buildKey(day105, "SystemMetrics.cpu.user", "host1")));
+
+    // the scan returns the row of days 10 and 100 to 109 first
+    List<Result> results = new ArrayList<Result>();
+    results.add(row(row10, day10, day10 + HOUR, day105, day105 + HOUR));
+    results.add(row(row11, day11, day11 + HOUR));
+    List<Cell> cells = ScanBuilder.sortByTime(results);
+
+    long[] expected = { day10, day10 + HOUR, day11, day11 + HOUR, day105,
+        day105 + HOUR };
+    assertEquals(expected.length, cells.size());
+    for (int i = 0; i < expected.length; i++) {
+      Cell cell = cells.get(i);
+      assertEquals(expected[i], Bytes.toLong(cell.getQualifierArray(),
+          cell.getQualifierOffset()));
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.datastore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestSeriesCache extends TestCase {
+
+  /**
+   * Serves a point every second, and records the windows it was asked for.
+   */
+  private static class RecordingLoader implements SeriesCache.Loader {
+    List<long[]> loads = new ArrayList<long[]>();
+    boolean fail = false;
+
+    public void load(long start, long end, SeriesCache.Points points)
+        throws IOException {
+      if (fail) {
+        throw new IOException("HBase is offline");
+      }
+      loads.add(new long[] { start, end });
+      for (long t = ((start + 999) / 1000) * 1000; t <= end; t += 1000) {
+        points.add(t, t / 1000);
+      }
+    }
+  }
+
+  public void testHitInSameBucket() throws Exception {
+    SeriesCache cache = new SeriesCache(1000, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    SeriesCache.Points points = cache.getSeries("m:s", 100000, 160000,
+        loader, 0);
+    assertEquals(61, points.size());
+    assertEquals(100000, points.getTime(0));
+    points = cache.getSeries("m:s", 105000, 165000, loader, 5000);
+    assertEquals(1, loader.loads.size());
+    assertEquals(56, points.size());
+    assertEquals(105000, points.getTime(0));
+    assertEquals(160000, points.getTime(points.size() - 1));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  public void testExtendWindowEnd() throws Exception {
+    SeriesCache cache = new SeriesCache(1000, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    cache.getSeries("m:s", 100000, 160000, loader, 0);
+    SeriesCache.Points points = cache.getSeries("m:s", 110000, 175000,
+        loader, 15000);
+    assertEquals(2, loader.loads.size());
+    // only the last cached bucket and the new points are read
+    assertEquals(160000, loader.loads.get(1)[0]);
+    assertEquals(175000, loader.loads.get(1)[1]);
+    assertEquals(66, points.size());
+    for (int i = 0; i < points.size(); i++) {
+      assertEquals(110000 + i * 1000, points.getTime(i));
+    }
+    assertEquals(1, cache.getExtensions());
+    assertEquals(76, cache.getPoints());
+  }
+
+  public void testEarlierStartIsAMiss() throws Exception {
+    SeriesCache cache = new SeriesCache(1000, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    cache.getSeries("m:s", 100000, 160000, loader, 0);
+    SeriesCache.Points points = cache.getSeries("m:s", 50000, 160000,
+        loader, 0);
+    assertEquals(2, loader.loads.size());
+    assertEquals(111, points.size());
+    assertEquals(2, cache.getMisses());
+  }
+
+  public void testTtl() throws Exception {
+    SeriesCache cache = new SeriesCache(1000, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    cache.getSeries("m:s", 100000, 160000, loader, 0);
+    cache.getSeries("m:s", 100000, 160000, loader, 60000);
+    assertEquals(2, loader.loads.size());
+    assertEquals(100000, loader.loads.get(1)[0]);
+  }
+
+  public void testEvictionBySize() throws Exception {
+    SeriesCache cache = new SeriesCache(150, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    cache.getSeries("a", 100000, 160000, loader, 0);
+    cache.getSeries("b", 100000, 160000, loader, 0);
+    assertEquals(2, cache.size());
+    cache.getSeries("a", 100000, 160000, loader, 0);
+    cache.getSeries("c", 100000, 160000, loader, 0);
+    assertEquals(2, cache.size());
+    assertEquals(122, cache.getPoints());
+    assertEquals(1, cache.getEvictions());
+    cache.getSeries("a", 100000, 160000, loader, 0);
+    assertEquals(3, loader.loads.size());
+  }
+
+  public void testFailedLoadIsNotCached() throws Exception {
+    SeriesCache cache = new SeriesCache(1000, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    loader.fail = true;
+    try {
+      cache.getSeries("m:s", 100000, 160000, loader, 0);
+      fail("load error not reported");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, cache.size());
+  }
+
+  public void testWindow() throws Exception {
+    SeriesCache cache = new SeriesCache(10000, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    cache.getWindow("m:s", 100000, 3700000, 10000, loader, 0);
+    cache.getWindow("m:s", 101000, 3701000, 10000, loader, 1000);
+    assertEquals(1, loader.loads.size());
+    cache.getWindow("m:s", 110000, 3710000, 10000, loader, 10000);
+    assertEquals(2, loader.loads.size());
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getPoints());
+  }
+
+  public void testDisabled() throws Exception {
+    SeriesCache cache = new SeriesCache(0, 60000, 10000);
+    RecordingLoader loader = new RecordingLoader();
+    cache.getSeries("m:s", 100000, 160000, loader, 0);
+    cache.getSeries("m:s", 100000, 160000, loader, 0);
+    assertEquals(2, loader.loads.size());
+    assertEquals(0, cache.size());
+  }
+}
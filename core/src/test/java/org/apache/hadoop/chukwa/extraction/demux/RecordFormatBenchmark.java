@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.CompactRecord;
+import org.apache.hadoop.chukwa.extraction.engine.CompactRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.Record;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Compares the demux map output in the Hadoop record and the compact
+ * record format: the bytes shuffled for records like SystemMetrics
+ * produces, and the time to sort their serialized keys with the raw
+ * comparator of each format, as the map side sort does.
+ *
+ * Usage: RecordFormatBenchmark [records] [rounds]
+ */
+public class RecordFormatBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    Random r = new Random(42);
+    ChukwaRecordKey[] keys = new ChukwaRecordKey[records];
+    ChukwaRecord[] values = new ChukwaRecord[records];
+    long start = 1400000000000L;
+    for (int i = 0; i < records; i++) {
+      long time = start + r.nextInt(3600) * 1000L;
+      String host = "host" + r.nextInt(500) + ".example.com";
+      keys[i] = new ChukwaRecordKey("SystemMetrics", (time / 3600000 * 3600000)
+          + "/" + host + "/" + time);
+      ChukwaRecord record = new ChukwaRecord();
+      record.setTime(time);
+      record.add(Record.sourceField, host);
+      record.add(Record.tagsField, "cluster=\"demo\"");
+      record.add(Record.applicationField, "SystemMetrics");
+      record.add("cpu_user_pcnt", Double.toString(r.nextDouble() * 100));
+      record.add("cpu_idle_pcnt", Double.toString(r.nextDouble() * 100));
+      record.add("mem_used", Long.toString(r.nextInt(Integer.MAX_VALUE)));
+      record.add("mem_total", "17179869184");
+      record.add("load_1", String.format("%.2f", r.nextDouble() * 8));
+      values[i] = record;
+    }
+    Serialized hadoopRecord = new Serialized(keys, values, false);
+    Serialized compact = new Serialized(keys, values, true);
+    System.out.println(records + " records");
+    System.out.println("hadoop-record : " + hadoopRecord.keyBytes
+        + " key bytes, " + hadoopRecord.valueBytes + " value bytes");
+    System.out.println("compact       : " + compact.keyBytes
+        + " key bytes, " + compact.valueBytes + " value bytes");
+    for (int round = 0; round <= rounds; round++) { // first round is warm-up
+      long hadoopRecordMs = hadoopRecord.sort(
+          WritableComparator.get(ChukwaRecordKey.class));
+      long compactMs = compact.sort(
+          WritableComparator.get(CompactRecordKey.class));
+      if (round > 0) {
+        System.out.println("sort hadoop-record " + hadoopRecordMs
+            + " ms, compact " + compactMs + " ms");
+      }
+    }
+  }
+
+  /**
+   * Map output serialized into one buffer, like the map side sort buffer.
+   */
+  private static class Serialized {
+    final byte[] data;
+    final int[] offsets;
+    final int[] lengths;
+    long keyBytes = 0;
+    long valueBytes = 0;
+
+    Serialized(ChukwaRecordKey[] keys, ChukwaRecord[] values, boolean compact)
+        throws IOException {
+      DataOutputBuffer out = new DataOutputBuffer();
+      offsets = new int[keys.length];
+      lengths = new int[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        offsets[i] = out.getLength();
+        RecordFormat.convert(keys[i], compact).write(out);
+        lengths[i] = out.getLength() - offsets[i];
+        keyBytes += lengths[i];
+        int valueStart = out.getLength();
+        RecordFormat.convert(values[i], compact).write(out);
+        valueBytes += out.getLength() - valueStart;
+      }
+      data = Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    long sort(final WritableComparator comparator) {
+      Integer[] order = new Integer[offsets.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      long start = System.currentTimeMillis();
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          return comparator.compare(data, offsets[a], lengths[a], data,
+              offsets[b], lengths[b]);
+        }
+      });
+      return System.currentTimeMillis() - start;
+    }
+  }
+}
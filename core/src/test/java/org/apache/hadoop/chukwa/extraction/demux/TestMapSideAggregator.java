@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.IdentityReducer;
+import org.apache.hadoop.chukwa.extraction.demux.processor.reducer.MockMergeableReduceProcessor;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import junit.framework.TestCase;
+
+public class TestMapSideAggregator extends TestCase {
+
+  private static final String MERGEABLE =
+      "org.apache.hadoop.chukwa.extraction.demux.processor.reducer.MockMergeableReduceProcessor";
+
+  private static class ListCollector implements
+      OutputCollector<ChukwaRecordKey, ChukwaRecord> {
+    List<ChukwaRecordKey> keys = new ArrayList<ChukwaRecordKey>();
+    List<ChukwaRecord> records = new ArrayList<ChukwaRecord>();
+
+    public void collect(ChukwaRecordKey key, ChukwaRecord record) {
+      keys.add(key);
+      records.add(record);
+    }
+  }
+
+  private static ChukwaRecord record(long count) {
+    ChukwaRecord record = new ChukwaRecord();
+    record.add("count", Long.toString(count));
+    return record;
+  }
+
+  private static JobConf conf() {
+    JobConf conf = new JobConf();
+    conf.set("Metrics", "SomeMapper," + MERGEABLE);
+    return conf;
+  }
+
+  public void testMergesRecordsOfAKey() throws IOException {
+    ListCollector output = new ListCollector();
+    MapSideAggregator aggregator = new MapSideAggregator(conf(), output,
+        Reporter.NULL);
+    // mappers reuse their key
+    ChukwaRecordKey key = new ChukwaRecordKey();
+    key.setReduceType("Metrics");
+    for (int i = 1; i <= 3; i++) {
+      key.setKey("0/host1/" + (i % 2));
+      aggregator.collect(key, record(i));
+    }
+    key.setReduceType("Logs");
+    key.setKey("0/host1/0");
+    aggregator.collect(key, record(10));
+    assertEquals(1, output.records.size());
+    assertEquals("Logs", output.keys.get(0).getReduceType());
+
+    aggregator.flush();
+    assertEquals(3, output.records.size());
+    assertEquals("0/host1/1", output.keys.get(1).getKey());
+    assertEquals("4", output.records.get(1).getValue("count"));
+    assertEquals("0/host1/0", output.keys.get(2).getKey());
+    assertEquals("2", output.records.get(2).getValue("count"));
+
+    aggregator.flush();
+    assertEquals(3, output.records.size());
+  }
+
+  public void testFlushesWhenFull() throws IOException {
+    JobConf conf = conf();
+    conf.setLong(MapSideAggregator.MEMORY_OPT, 1);
+    ListCollector output = new ListCollector();
+    MapSideAggregator aggregator = new MapSideAggregator(conf, output,
+        Reporter.NULL);
+    aggregator.collect(new ChukwaRecordKey("Metrics", "0/host1/0"), record(1));
+    assertEquals(1, output.records.size());
+  }
+
+  public void testCombineProcessor() throws Exception {
+    JobConf conf = conf();
+    conf.set("Logs", "SomeMapper,"
+        + "org.apache.hadoop.chukwa.extraction.demux.processor.reducer.IdentityReducer");
+    conf.set("Traces", "SomeMapper,"
+        + "org.apache.hadoop.chukwa.extraction.demux.processor.reducer.IdentityReducer,"
+        + MERGEABLE);
+    assertTrue(Demux.getCombineProcessor(conf, "Metrics")
+        instanceof MockMergeableReduceProcessor);
+    assertNull(Demux.getCombineProcessor(conf, "Logs"));
+    assertTrue(Demux.getCombineProcessor(conf, "Traces")
+        instanceof MockMergeableReduceProcessor);
+    assertTrue(Demux.getReduceProcessor(conf, "Traces")
+        instanceof IdentityReducer);
+  }
+}
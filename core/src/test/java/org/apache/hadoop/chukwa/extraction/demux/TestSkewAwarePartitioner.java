@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.demux;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+
+import junit.framework.TestCase;
+
+public class TestSkewAwarePartitioner extends TestCase {
+
+  private static final int REDUCERS = 8;
+
+  private static SkewAwarePartitioner<ChukwaRecordKey, ChukwaRecord> partitioner(
+      String splits, String splitBy) {
+    JobConf conf = new JobConf();
+    conf.set(SkewAwarePartitioner.SPLITS_OPT, splits);
+    if (splitBy != null) {
+      conf.set(SkewAwarePartitioner.SPLIT_BY_OPT, splitBy);
+    }
+    SkewAwarePartitioner<ChukwaRecordKey, ChukwaRecord> p =
+        new SkewAwarePartitioner<ChukwaRecordKey, ChukwaRecord>();
+    p.configure(conf);
+    return p;
+  }
+
+  public void testUnsplitTypeKeepsItsReducer() {
+    SkewAwarePartitioner<ChukwaRecordKey, ChukwaRecord> p = partitioner(
+        "SystemMetrics:4", null);
+    ChukwaRecordPartitioner<ChukwaRecordKey, ChukwaRecord> plain =
+        new ChukwaRecordPartitioner<ChukwaRecordKey, ChukwaRecord>();
+    for (int i = 0; i < 100; i++) {
+      ChukwaRecordKey key = new ChukwaRecordKey("HadoopLog", i + "/host" + i
+          + "/x");
+      assertEquals(plain.getPartition(key, null, REDUCERS),
+          p.getPartition(key, null, REDUCERS));
+    }
+  }
+
+  public void testSplitBySource() {
+    SkewAwarePartitioner<ChukwaRecordKey, ChukwaRecord> p = partitioner(
+        "SystemMetrics:4", null);
+    int first = ("SystemMetrics".hashCode() & Integer.MAX_VALUE) % REDUCERS;
+    Set<Integer> used = new HashSet<Integer>();
+    for (int i = 0; i < 200; i++) {
+      String source = "host" + (i % 50);
+      int part = p.getPartition(new ChukwaRecordKey("SystemMetrics", i
+          + "/" + source + "/cpu"), null, REDUCERS);
+      // every record of a source meets in one reducer
+      assertEquals(part, p.getPartition(new ChukwaRecordKey("SystemMetrics",
+          (i + 1000) + "/" + source + "/mem"), null, REDUCERS));
+      int offset = (source.hashCode() & Integer.MAX_VALUE) % 4;
+      assertEquals((first + offset) % REDUCERS, part);
+      used.add(part);
+    }
+    assertEquals(4, used.size());
+  }
+
+  public void testSplitByTime() {
+    SkewAwarePartitioner<ChukwaRecordKey, ChukwaRecord> p = partitioner(
+        "SystemMetrics:3", SkewAwarePartitioner.SPLIT_BY_TIME);
+    long minute = SkewAwarePartitioner.TIME_BUCKET;
+    assertEquals(p.getPartition(new ChukwaRecordKey("SystemMetrics",
+        (5 * minute) + "/a/cpu"), null, REDUCERS), p.getPartition(
+        new ChukwaRecordKey("SystemMetrics", (5 * minute + 10) + "/b/cpu"),
+        null, REDUCERS));
+    Set<Integer> used = new HashSet<Integer>();
+    for (int i = 0; i < 30; i++) {
+      used.add(p.getPartition(new ChukwaRecordKey("SystemMetrics",
+          (i * minute) + "/a/cpu"), null, REDUCERS));
+    }
+    assertEquals(3, used.size());
+  }
+
+  public void testSplitIsCappedByReducers() {
+    SkewAwarePartitioner<ChukwaRecordKey, ChukwaRecord> p = partitioner(
+        "SystemMetrics:16", null);
+    for (int i = 0; i < 100; i++) {
+      int part = p.getPartition(new ChukwaRecordKey("SystemMetrics", i
+          + "/host" + i + "/cpu"), null, 2);
+      assertTrue(part >= 0 && part < 2);
+    }
+    assertEquals(0, p.getPartition(new ChukwaRecordKey("SystemMetrics",
+        "1/host/cpu"), null, 1));
+  }
+
+  public void testGetSplits() {
+    JobConf conf = new JobConf();
+    conf.set(SkewAwarePartitioner.SPLITS_OPT,
+        "SystemMetrics:4, HadoopLog : 2,Df:1,Bad,Worse:x");
+    Map<String, Integer> splits = SkewAwarePartitioner.getSplits(conf);
+    assertEquals(2, splits.size());
+    assertEquals(Integer.valueOf(4), splits.get("SystemMetrics"));
+    assertEquals(Integer.valueOf(2), splits.get("HadoopLog"));
+  }
+
+  public void testPlan() {
+    Map<String, Long> records = new HashMap<String, Long>();
+    records.put("SystemMetrics", 700L);
+    records.put("HadoopLog", 250L);
+    records.put("Df", 50L);
+    // a fair share of 10 reducers is 100 records
+    assertEquals("HadoopLog:3,SystemMetrics:7",
+        SkewAwarePartitioner.plan(records, 10));
+    assertEquals("", SkewAwarePartitioner.plan(records, 1));
+    assertEquals("", SkewAwarePartitioner.plan(new HashMap<String, Long>(),
+        10));
+  }
+
+  public void testAddSplitsKeepsConfiguredSplits() {
+    JobConf conf = new JobConf();
+    conf.set(SkewAwarePartitioner.SPLITS_OPT, "SystemMetrics:2");
+    SkewAwarePartitioner.addSplits(conf, "HadoopLog:3,SystemMetrics:7");
+    Map<String, Integer> splits = SkewAwarePartitioner.getSplits(conf);
+    assertEquals(Integer.valueOf(2), splits.get("SystemMetrics"));
+    assertEquals(Integer.valueOf(3), splits.get("HadoopLog"));
+  }
+
+  public void testRecordCounts() {
+    Counters counters = new Counters();
+    counters.incrCounter("DemuxMapOutput", "total records", 30);
+    counters.incrCounter("DemuxMapOutput", "SystemMetrics records", 20);
+    counters.incrCounter("DemuxMapOutput", "Df records", 10);
+    counters.incrCounter("DemuxMapInput", "total chunks", 3);
+    Map<String, Long> records = SkewAwarePartitioner.getRecordCounts(counters);
+    assertEquals(2, records.size());
+    assertEquals(Long.valueOf(20), records.get("SystemMetrics"));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+
+import junit.framework.TestCase;
+
+public class TestCompactRecord extends TestCase {
+
+  private static byte[] serialize(Writable w) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    w.write(out);
+    byte[] bytes = new byte[out.getLength()];
+    System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  private static <T extends Writable> T deserialize(byte[] bytes, T w)
+      throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(bytes, bytes.length);
+    w.readFields(in);
+    return w;
+  }
+
+  private static ChukwaRecord record() {
+    ChukwaRecord record = new ChukwaRecord();
+    record.setTime(1234567890123L);
+    record.add(Record.sourceField, "host1.example.com");
+    record.add(Record.tagsField, "cluster=\"demo\"");
+    record.add("cpu_user_pcnt", "12.5");
+    record.add("cpu_idle_pcnt", "87.49999999999999");
+    record.add("mem_total", "16777216");
+    record.add("negative", "-42");
+    record.add("zero", "0");
+    record.add("padded", "007");
+    record.add("minus zero", "-0");
+    record.add("empty", "");
+    record.add("text", "a value with \u00e9 and \u0000");
+    record.add("exponent", "1.0E-5");
+    return record;
+  }
+
+  public void testRecordRoundTrip() throws IOException {
+    ChukwaRecord record = record();
+    CompactRecord copy = deserialize(
+        serialize(CompactRecord.valueOf(record)), new CompactRecord());
+    assertEquals(record.getTime(), copy.getTime());
+    assertEquals(record.getFields().length, copy.getFields().length);
+    for (String field : record.getFields()) {
+      assertEquals(field, record.getValue(field), copy.getValue(field));
+    }
+    assertEquals(record, copy);
+  }
+
+  public void testEmptyRecord() throws IOException {
+    CompactRecord copy = deserialize(serialize(new CompactRecord()),
+        new CompactRecord());
+    assertEquals(0, copy.getFields().length);
+  }
+
+  public void testSmallerThanHadoopRecord() throws IOException {
+    ChukwaRecord record = record();
+    assertTrue(serialize(CompactRecord.valueOf(record)).length
+        < serialize(record).length);
+  }
+
+  public void testTypedValues() {
+    assertTrue(isLong("123"));
+    assertTrue(isLong("-5"));
+    assertTrue(isLong("0"));
+    assertFalse(isLong("007"));
+    assertFalse(isLong("-0"));
+    assertFalse(isLong("+5"));
+    assertFalse(isLong("-"));
+    assertFalse(isLong("12345678901234567890"));
+    assertTrue(isDouble("87.49999999999999"));
+    assertFalse(isDouble("87.50"));
+    assertFalse(isDouble("NaN"));
+  }
+
+  private static boolean isLong(String s) {
+    byte[] b = s.getBytes();
+    return CompactRecord.isLong(b, b.length);
+  }
+
+  private static boolean isDouble(String s) {
+    byte[] b = s.getBytes();
+    return CompactRecord.isDouble(b, b.length);
+  }
+
+  public void testKeyRoundTrip() throws IOException {
+    CompactRecordKey key = new CompactRecordKey("SystemMetrics",
+        "1234/host1\u0000x/1234");
+    CompactRecordKey copy = deserialize(serialize(key),
+        new CompactRecordKey());
+    assertEquals("SystemMetrics", copy.getReduceType());
+    assertEquals("1234/host1\u0000x/1234", copy.getKey());
+    assertEquals(key, copy);
+    assertEquals(new ChukwaRecordKey("SystemMetrics", "1234/host1\u0000x/1234"),
+        copy);
+  }
+
+  public void testKeyOrder() throws IOException {
+    String[] values = { "", "a", "a\u0000", "a\u0000b", "a\u0001",
+        "a\u0001\u0001", "a\u0002", "ab", "b", "\u00e9" };
+    List<ChukwaRecordKey> keys = new ArrayList<ChukwaRecordKey>();
+    for (String reduceType : values) {
+      for (String key : values) {
+        keys.add(new ChukwaRecordKey(reduceType, key));
+      }
+    }
+    WritableComparator hadoopRecord = WritableComparator.get(
+        ChukwaRecordKey.class);
+    WritableComparator compact = WritableComparator.get(
+        CompactRecordKey.class);
+    assertTrue(compact instanceof CompactRecordKey.Comparator);
+    for (ChukwaRecordKey k1 : keys) {
+      byte[] r1 = serialize(k1);
+      byte[] c1 = serialize(CompactRecordKey.valueOf(k1));
+      for (ChukwaRecordKey k2 : keys) {
+        byte[] r2 = serialize(k2);
+        byte[] c2 = serialize(CompactRecordKey.valueOf(k2));
+        int expected = Integer.signum(hadoopRecord.compare(r1, 0, r1.length,
+            r2, 0, r2.length));
+        int actual = Integer.signum(compact.compare(c1, 0, c1.length, c2, 0,
+            c2.length));
+        assertEquals(k1 + " " + k2, expected, actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+
+import junit.framework.TestCase;
+
+public class TestRecordFileIndex extends TestCase {
+  private Configuration conf;
+  private FileSystem fs;
+  private Path file;
+
+  protected void setUp() throws IOException {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    File dir = new File(System.getProperty("test.build.data", "/tmp"));
+    file = new Path(new File(dir, "TestRecordFileIndex_"
+        + System.currentTimeMillis() + ".evt").getAbsolutePath());
+  }
+
+  protected void tearDown() throws IOException {
+    fs.delete(file, false);
+    fs.delete(RecordFileIndex.getIndexPath(file), false);
+  }
+
+  public void testSeekPosition() {
+    RecordFileIndex index = new RecordFileIndex();
+    assertEquals(-1, index.seekPosition(100));
+    index.add(1000, 50);
+    index.add(2000, 150);
+    index.add(3000, 150);
+    index.add(4000, 300);
+    assertEquals(-1, index.seekPosition(50));
+    assertEquals(1000, index.seekPosition(51));
+    assertEquals(1000, index.seekPosition(150));
+    assertEquals(3000, index.seekPosition(151));
+    assertEquals(4000, index.seekPosition(1000));
+  }
+
+  public void testStaleIndex() throws IOException {
+    fs.create(file).close();
+    assertNull(RecordFileIndex.read(fs, file));
+    RecordFileIndex index = new RecordFileIndex();
+    index.add(10, 100);
+    index.write(fs, file, 0);
+    assertEquals(1, RecordFileIndex.read(fs, file).size());
+    index.write(fs, file, 42);
+    assertNull(RecordFileIndex.read(fs, file));
+  }
+
+  public void testIndexedFile() throws IOException {
+    Random r = new Random(42);
+    int records = 1000;
+    long t0 = 600;
+    SequenceFile.Writer out = SequenceFile.createWriter(fs, conf, file,
+        ChukwaRecordKey.class, ChukwaRecord.class);
+    RecordFileIndex.Writer writer = new RecordFileIndex.Writer(out, 50);
+    int expected = 0;
+    for (int i = 0; i < records; i++) {
+      // mostly increasing, like records sorted by time partition and host
+      long time = i + r.nextInt(100);
+      if (time >= t0) {
+        expected++;
+      }
+      ChukwaRecord record = new ChukwaRecord();
+      record.setTime(time);
+      record.add(Record.bodyField, "record " + i);
+      writer.append(new ChukwaRecordKey("Test", "key" + i), record);
+    }
+    writer.close(fs, file);
+
+    RecordFileIndex index = RecordFileIndex.read(fs, file);
+    assertNotNull(index);
+    assertEquals(records / 50 - 1, index.size());
+    long position = index.seekPosition(t0);
+    assertTrue(position > 0);
+
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+    try {
+      reader.seek(position);
+      ChukwaRecordKey key = new ChukwaRecordKey();
+      ChukwaRecord record = new ChukwaRecord();
+      int read = 0;
+      int found = 0;
+      while (reader.next(key, record)) {
+        read++;
+        if (record.getTime() >= t0) {
+          found++;
+        }
+      }
+      assertEquals(expected, found);
+      assertTrue(read < records);
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.extraction.engine.datasource.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecord;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaRecordKey;
+import org.apache.hadoop.chukwa.extraction.engine.ChukwaSearchResult;
+import org.apache.hadoop.chukwa.extraction.engine.Record;
+import org.apache.hadoop.chukwa.extraction.engine.SearchResult;
+import org.apache.hadoop.chukwa.extraction.engine.Token;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+
+import junit.framework.TestCase;
+
+public class TestParallelRecordDataSource extends TestCase {
+  private static final String CLUSTER = "demo";
+  private static final String DS = "Logs";
+  private static final long MINUTE = 60 * 1000L;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private File root;
+  // 2008-09-22 12:00 local time
+  private long noon;
+
+  protected void setUp() throws IOException {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    root = new File(System.getProperty("test.build.data", "/tmp"),
+        "TestParallelRecordDataSource_" + System.currentTimeMillis());
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(2008, Calendar.SEPTEMBER, 22, 12, 0);
+    noon = calendar.getTimeInMillis();
+  }
+
+  protected void tearDown() throws IOException {
+    FileUtil.fullyDelete(root);
+  }
+
+  private ParallelRecordDataSource dataSource(int pageSize) {
+    return new ParallelRecordDataSource(conf, fs, root.getAbsolutePath(), 4,
+        pageSize);
+  }
+
+  /**
+   * Write a record file, with the records in key order.
+   */
+  private void write(String file, long... times) throws IOException {
+    write(file, SequenceFile.CompressionType.NONE, times);
+  }
+
+  private void write(String file, SequenceFile.CompressionType compression,
+      long... times) throws IOException {
+    Path path = new Path(root.getAbsolutePath() + "/" + CLUSTER + "/" + DS
+        + "/20080922/" + file);
+    SequenceFile.Writer out = SequenceFile.createWriter(fs, conf, path,
+        ChukwaRecordKey.class, ChukwaRecord.class, compression);
+    for (int i = 0; i < times.length; i++) {
+      ChukwaRecord record = new ChukwaRecord();
+      record.setTime(times[i]);
+      record.add("body", "line " + (times[i] - noon) / MINUTE + " of " + file);
+      record.add("seq", String.valueOf(i));
+      out.append(new ChukwaRecordKey(DS, "key" + i), record);
+    }
+    out.close();
+  }
+
+  private static List<Long> times(SearchResult result) {
+    List<Long> times = new ArrayList<Long>();
+    for (Map.Entry<Long, List<Record>> entry : result.getRecords().entrySet()) {
+      for (int i = 0; i < entry.getValue().size(); i++) {
+        times.add(entry.getKey());
+      }
+    }
+    return times;
+  }
+
+  private SearchResult search(ParallelRecordDataSource ds, long t0, long t1,
+      String filter, Token token) throws Exception {
+    SearchResult result = new ChukwaSearchResult();
+    result.setRecords(new TreeMap<Long, List<Record>>());
+    return ds.search(result, CLUSTER, DS, t0, t1, filter, token);
+  }
+
+  public void testMergesFilesOnTime() throws Exception {
+    write("12/0/Logs_20080922_12_0.1.evt", noon + 3 * MINUTE, noon + MINUTE);
+    write("12/5/Logs_20080922_12_5.1.evt", noon + 6 * MINUTE);
+    write("13/0/Logs_20080922_13_0.1.evt", noon + 61 * MINUTE);
+    write("Logs_20080922.1.evt", noon + 2 * MINUTE, noon - MINUTE);
+
+    ParallelRecordDataSource ds = dataSource(200);
+    SearchResult result = search(ds, noon, noon + 60 * MINUTE, null, null);
+    List<Long> expected = new ArrayList<Long>();
+    expected.add(noon + MINUTE);
+    expected.add(noon + 2 * MINUTE);
+    expected.add(noon + 3 * MINUTE);
+    expected.add(noon + 6 * MINUTE);
+    assertEquals(expected, times(result));
+    assertFalse(result.getToken().hasMore);
+
+    result = search(ds, noon, noon + 60 * MINUTE, "LINE 6 OF", null);
+    assertEquals(1, times(result).size());
+    assertEquals(noon + 6 * MINUTE, result.getRecords().firstKey().longValue());
+  }
+
+  public void testRolledFilesReplaceMergedFiles() throws Exception {
+    write("12/Logs_HourlyDone_20080922_12.1.evt", noon + MINUTE,
+        noon + 6 * MINUTE);
+    // raw data which was not deleted by the hourly rolling
+    write("12/0/Logs_20080922_12_0.1.evt", noon + MINUTE);
+    write("13/0/Logs_20080922_13_0.1.evt", noon + 61 * MINUTE);
+
+    ParallelRecordDataSource ds = dataSource(200);
+    assertEquals(3, times(search(ds, noon, noon + 2 * 60 * MINUTE, null,
+        null)).size());
+
+    write("Logs_DailyDone_20080922.1.evt", noon + MINUTE, noon + 6 * MINUTE,
+        noon + 61 * MINUTE);
+    assertEquals(3, times(search(ds, noon, noon + 2 * 60 * MINUTE, null,
+        null)).size());
+  }
+
+  public void testPages() throws Exception {
+    write("12/0/Logs_20080922_12_0.1.evt", noon + 2 * MINUTE, noon + MINUTE,
+        noon + 2 * MINUTE, noon + 4 * MINUTE);
+    write("12/5/Logs_20080922_12_5.1.evt", noon + 7 * MINUTE, noon + 5 * MINUTE);
+    write("Logs_20080922.1.evt", noon + 2 * MINUTE, noon + 4 * MINUTE);
+
+    long t1 = noon + 60 * MINUTE;
+    List<Long> expected = times(search(dataSource(200), noon, t1, null, null));
+    assertEquals(8, expected.size());
+
+    ParallelRecordDataSource ds = dataSource(3);
+    List<Long> paged = new ArrayList<Long>();
+    Token token = null;
+    int pages = 0;
+    do {
+      SearchResult result = search(ds, noon, t1, null, token);
+      paged.addAll(times(result));
+      token = result.getToken();
+      pages++;
+    } while (token.hasMore);
+    assertEquals(3, pages);
+    assertEquals(expected, paged);
+
+    // a token of the old data source starts from the beginning
+    token = new Token();
+    token.key = "20080922|12|0|1|0|0|file";
+    assertEquals(expected.subList(0, 3), times(search(ds, noon, t1, null,
+        token)));
+  }
+
+  public void testPagesWithinCompressedBlock() throws Exception {
+    // the records of a block share its position in the file
+    long t = noon + MINUTE;
+    write("12/0/Logs_20080922_12_0.1.evt", SequenceFile.CompressionType.BLOCK,
+        t, t, t, t, t);
+
+    ParallelRecordDataSource ds = dataSource(2);
+    List<Record> paged = new ArrayList<Record>();
+    Token token = null;
+    do {
+      SearchResult result = search(ds, noon, noon + 60 * MINUTE, null, token);
+      for (List<Record> records : result.getRecords().values()) {
+        paged.addAll(records);
+      }
+      token = result.getToken();
+    } while (token.hasMore);
+    // every record of the block is returned once, in the order of the file
+    assertEquals(5, paged.size());
+    for (int i = 0; i < paged.size(); i++) {
+      assertEquals(String.valueOf(i), paged.get(i).getValue("seq"));
+    }
+  }
+}
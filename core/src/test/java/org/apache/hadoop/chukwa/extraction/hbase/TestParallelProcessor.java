@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.extraction.hbase;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.chukwa.Chunk;
+import org.apache.hadoop.chukwa.ChunkImpl;
+import org.apache.hadoop.chukwa.conf.ChukwaConfiguration;
+import org.apache.hadoop.chukwa.datacollection.writer.hbase.MetaCache;
+import org.apache.hadoop.chukwa.datacollection.writer.hbase.RollupAggregator;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+public class TestParallelProcessor extends TestCase {
+  private static final String DEFAULT =
+      "org.apache.hadoop.chukwa.extraction.hbase.DefaultProcessor";
+  private static final byte[] DATA_FAMILY = Bytes.toBytes("t");
+
+  public void testPerSourceOrder() throws Exception {
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    long bytes = 0;
+    for (int i = 0; i < 200; i++) {
+      byte[] data = Bytes.toBytes("record " + i);
+      ChunkImpl chunk = new ChunkImpl("Unmapped", "stream", i, data, null);
+      chunk.setSource("host" + (i % 7));
+      chunks.add(chunk);
+      bytes += data.length;
+    }
+    ParallelProcessor processor = new ParallelProcessor(
+        new ChukwaConfiguration(), DEFAULT, null, 4);
+    try {
+      ParallelProcessor.Result result = processor.process(chunks);
+      assertEquals(bytes, result.getBytes());
+      assertEquals(0, result.getFailed());
+      // DefaultProcessor writes the chunk and its tags, and reports the
+      // source and the record for every chunk
+      assertEquals(2 * chunks.size(), result.getData().size());
+      assertEquals(2 * chunks.size(), result.getMeta().size());
+
+      Map<String, Integer> last = new HashMap<String, Integer>();
+      for (Put put : result.getData()) {
+        List<Cell> cells = put.getFamilyCellMap().get(DATA_FAMILY);
+        if (cells == null) {
+          continue; // tags
+        }
+        String value = Bytes.toString(CellUtil.cloneValue(cells.get(0)));
+        int record = Integer.parseInt(value.substring("record ".length()));
+        String row = Bytes.toStringBinary(put.getRow());
+        Integer previous = last.put(row, record);
+        assertTrue("out of order for " + row,
+            previous == null || previous < record);
+      }
+      assertEquals(7, last.size());
+    } finally {
+      processor.shutdown();
+    }
+  }
+
+  /**
+   * Reports the record length as a metric, then fails on records reading
+   * "fail".
+   */
+  public static class FailingProcessor extends AbstractProcessor {
+    public FailingProcessor() throws NoSuchAlgorithmException {
+      super();
+    }
+
+    @Override
+    protected void parse(byte[] recordEntry) throws Throwable {
+      addRecord("length", String.valueOf(recordEntry.length));
+      if ("fail".equals(Bytes.toString(recordEntry))) {
+        throw new IllegalArgumentException("unparseable record");
+      }
+    }
+  }
+
+  public void testMetaOfFailedChunkWrittenLater() throws Exception {
+    ChukwaConfiguration conf = new ChukwaConfiguration();
+    conf.set("Failing", FailingProcessor.class.getName());
+    MetaCache cache = new MetaCache();
+    ParallelProcessor processor = new ParallelProcessor(conf, DEFAULT, cache, 1);
+    try {
+      ChunkImpl bad = new ChunkImpl("Failing", "stream", 4,
+          Bytes.toBytes("fail"), null);
+      bad.setSource("host1");
+      ParallelProcessor.Result result = processor.process(
+          Collections.<Chunk>singletonList(bad));
+      assertEquals(1, result.getFailed());
+      assertTrue(result.getMeta().isEmpty());
+      assertTrue(result.getMetaKeys().isEmpty());
+      cache.addAll(result.getMetaKeys());
+
+      ChunkImpl good = new ChunkImpl("Failing", "stream", 6,
+          Bytes.toBytes("42"), null);
+      good.setSource("host1");
+      result = processor.process(Collections.<Chunk>singletonList(good));
+      assertEquals(0, result.getFailed());
+      // the source and the metric are reported, although the failed chunk
+      // reported them before
+      assertEquals(2, result.getMeta().size());
+      assertEquals(2, result.getMetaKeys().size());
+      cache.addAll(result.getMetaKeys());
+
+      result = processor.process(Collections.<Chunk>singletonList(good));
+      assertTrue(result.getMeta().isEmpty());
+    } finally {
+      processor.shutdown();
+    }
+  }
+
+  public void testRollupsOfFailedChunkNotReported() throws Exception {
+    ChukwaConfiguration conf = new ChukwaConfiguration();
+    conf.set("Failing", FailingProcessor.class.getName());
+    RollupAggregator rollups = new RollupAggregator();
+    ParallelProcessor processor = new ParallelProcessor(conf, DEFAULT, null, 1);
+    processor.setRollupAggregator(rollups);
+    try {
+      ChunkImpl bad = new ChunkImpl("Failing", "stream", 4,
+          Bytes.toBytes("fail"), null);
+      bad.setSource("host1");
+      ParallelProcessor.Result result = processor.process(
+          Collections.<Chunk>singletonList(bad));
+      assertEquals(1, result.getFailed());
+      assertTrue(result.getRollups().isEmpty());
+
+      ChunkImpl good = new ChunkImpl("Failing", "stream", 6,
+          Bytes.toBytes("42"), null);
+      good.setSource("host1");
+      result = processor.process(Collections.<Chunk>singletonList(good));
+      assertEquals(1, result.getRollups().size());
+      // nothing is counted until the writer has stored the chunk
+      assertEquals(0, rollups.size());
+      rollups.addAll(result.getRollups());
+      // minute, hour and day bucket
+      assertEquals(3, rollups.size());
+    } finally {
+      processor.shutdown();
+    }
+  }
+
+  public void testLocalProcessorsPerThread() throws Exception {
+    final AbstractProcessor[] seen = new AbstractProcessor[2];
+    Thread t = new Thread() {
+      public void run() {
+        try {
+          seen[0] = ProcessorFactory.getLocalProcessor(DEFAULT);
+          seen[1] = ProcessorFactory.getLocalProcessor(DEFAULT);
+        } catch (UnknownRecordTypeException e) {
+          fail(e.getMessage());
+        }
+      }
+    };
+    t.start();
+    t.join();
+    AbstractProcessor mine = ProcessorFactory.getLocalProcessor(DEFAULT);
+    assertSame(seen[0], seen[1]);
+    assertNotSame(mine, seen[0]);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.extraction.hbase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.chukwa.ChunkImpl;
+import org.apache.hadoop.chukwa.datacollection.writer.hbase.Reporter;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+public class TestSystemMetrics extends TestCase {
+  private static final byte[] DATA_FAMILY = Bytes.toBytes("t");
+
+  private static final String SAMPLE = "{\"memory\":{\"Total\":130980773888,"
+      + "\"UsedPercent\":4.493927773730516,\"FreePercent\":95.50607222626948,"
+      + "\"ActualFree\":125094592512,\"ActualUsed\":5886181376,"
+      + "\"Free\":34487599104,\"Used\":96493174784,\"Ram\":124920},"
+      + "\"uptime\":495307.98,"
+      + "\"cpu\":[{\"combined\":0.607,\"user\":0.49,\"idle\":0.35,\"sys\":0.116},"
+      + "{\"combined\":0.898,\"user\":0.69,\"idle\":0.06,\"sys\":0.202},"
+      + "{\"combined\":null,\"user\":null,\"idle\":null,\"sys\":null}],"
+      + "\"loadavg\":[0.16,0.09,0.06],"
+      + "\"disk\":[{\"ReadBytes\":220000000000,\"Reads\":12994476,\"DevName\":\"sda\"},"
+      + "{\"ReadBytes\":678910987,\"Reads\":276,\"DevName\":\"sdb\"}],"
+      + "\"network\":[{\"RxBytes\":7234832487,\"Name\":\"lo\"},"
+      + "{\"RxBytes\":8123023483,\"Name\":\"eth0\"}],"
+      + "\"timestamp\":1353981082318}";
+
+  private List<Put> process(String json) throws Throwable {
+    byte[] data = Bytes.toBytes(json);
+    ChunkImpl chunk = new ChunkImpl("SystemMetrics", "stream", data.length,
+        data, null);
+    chunk.setSource("host1");
+    ArrayList<Put> output = new ArrayList<Put>();
+    new SystemMetrics().process(chunk, output, new Reporter());
+    return output;
+  }
+
+  private static Set<String> values(List<Put> puts) {
+    Set<String> values = new HashSet<String>();
+    for (Put put : puts) {
+      List<Cell> cells = put.getFamilyCellMap().get(DATA_FAMILY);
+      if (cells != null) {
+        for (Cell cell : cells) {
+          values.add(Bytes.toString(CellUtil.cloneValue(cell)));
+        }
+      }
+    }
+    return values;
+  }
+
+  public void testParse() throws Throwable {
+    List<Put> puts = process(SAMPLE);
+    // 8 cpu fields of the two valid cpus, 4 cpu averages, uptime, 3 load
+    // averages, 8 memory fields, 8 network and 7 disk totals, and the tags
+    assertEquals(40, puts.size());
+    Set<String> values = values(puts);
+    assertTrue(values.contains("0.7525"));
+    assertTrue(values.contains("495307.98"));
+    assertTrue(values.contains("130980773888"));
+    assertTrue(values.contains("0.16"));
+    // loopback is left out of the network totals
+    assertTrue(values.contains(Double.toString(8123023483.0)));
+    assertTrue(values.contains(Double.toString(220678910987.0)));
+    for (Put put : puts) {
+      List<Cell> cells = put.getFamilyCellMap().get(DATA_FAMILY);
+      if (cells != null) {
+        assertEquals(1353981082318L, cells.get(0).getTimestamp());
+      }
+    }
+  }
+
+  public void testFieldOrderDoesNotMatter() throws Throwable {
+    String reordered = "{\"timestamp\":1353981082318,"
+        + SAMPLE.substring(1, SAMPLE.indexOf(",\"timestamp\"")) + "}";
+    assertEquals(values(process(SAMPLE)), values(process(reordered)));
+  }
+
+  public void testReader() throws Exception {
+    JsonTokenReader reader = new JsonTokenReader();
+    reader.reset(Bytes.toBytes("{\"a\":[1,-2.5,\"x\\\"y\",null],\"b\":{\"c\":{}}}"));
+    assertEquals(JsonTokenReader.Token.START_OBJECT, reader.next());
+    assertEquals(JsonTokenReader.Token.FIELD_NAME, reader.next());
+    assertEquals("a", reader.getFieldName());
+    assertEquals(JsonTokenReader.Token.START_ARRAY, reader.next());
+    assertEquals(JsonTokenReader.Token.NUMBER, reader.next());
+    assertTrue(reader.isIntegral());
+    assertEquals(1, reader.getLong());
+    reader.next();
+    assertEquals(-2.5, reader.getDouble());
+    assertEquals(JsonTokenReader.Token.STRING, reader.next());
+    assertEquals("x\"y", reader.getText());
+    assertEquals(JsonTokenReader.Token.NULL, reader.next());
+    assertEquals(JsonTokenReader.Token.END_ARRAY, reader.next());
+    assertEquals(JsonTokenReader.Token.FIELD_NAME, reader.next());
+    assertEquals(JsonTokenReader.Token.START_OBJECT, reader.next());
+    assertEquals("{\"c\":{}}", Bytes.toString(reader.getValueBytes()));
+    assertEquals(JsonTokenReader.Token.END_OBJECT, reader.next());
+    assertEquals(JsonTokenReader.Token.END, reader.next());
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.util;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Measures how fast ChukwaHBaseStore turns chukwa table cells into series
+ * values: the former copy and Double.parseDouble of every string cell,
+ * MetricValueCodec on the same string cells, and MetricValueCodec on
+ * binary cells. Cell sizes are also reported.
+ *
+ * Usage: MetricValueCodecBenchmark [cells] [seconds]
+ */
+public class MetricValueCodecBenchmark {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  public static void main(String[] args) {
+    int cells = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+    Random r = new Random(42);
+    byte[][] text = new byte[cells][];
+    byte[][] binary = new byte[cells][];
+    long textBytes = 0;
+    long binaryBytes = 0;
+    for (int i = 0; i < cells; i++) {
+      // a mix of counters and gauges like SystemMetrics produces
+      String v = i % 2 == 0 ? Long.toString(r.nextInt(Integer.MAX_VALUE))
+          : Double.toString(r.nextDouble() * 100);
+      text[i] = v.getBytes(UTF8);
+      binary[i] = MetricValueCodec.encodeText(text[i]);
+      textBytes += text[i].length;
+      binaryBytes += binary[i].length;
+    }
+    for (int round = 0; round < 2; round++) { // first round is warm-up
+      long legacy = run(text, seconds, true);
+      long strings = run(text, seconds, false);
+      long binaries = run(binary, seconds, false);
+      if (round > 0) {
+        System.out.println(cells + " cells, " + textBytes + " bytes as text, "
+            + binaryBytes + " bytes as binary");
+        System.out.println("parseDouble   : " + legacy / seconds + " cells/s");
+        System.out.println("decode string : " + strings / seconds + " cells/s");
+        System.out.println("decode binary : " + binaries / seconds + " cells/s");
+      }
+    }
+  }
+
+  private static long run(byte[][] cells, long seconds, boolean legacy) {
+    long end = System.currentTimeMillis() + seconds * 1000;
+    long decoded = 0;
+    double sink = 0;
+    while (System.currentTimeMillis() < end) {
+      for (byte[] cell : cells) {
+        if (legacy) {
+          byte[] copy = new byte[cell.length]; // CellUtil.cloneValue
+          System.arraycopy(cell, 0, copy, 0, cell.length);
+          sink += Double.parseDouble(new String(copy, UTF8));
+        } else {
+          sink += MetricValueCodec.decode(cell, 0, cell.length);
+        }
+      }
+      decoded += cells.length;
+    }
+    if (sink == 42) {
+      System.out.println(); // keep the JIT from dropping the loop
+    }
+    return decoded;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.util;
+
+import java.security.MessageDigest;
+
+/**
+ * Measures row keys per second for the Calendar based encoding HBaseUtil
+ * used to do and for RowKeyEncoder, on a working set of metrics and sources
+ * like the one produced by SystemMetrics chunks.
+ *
+ * Usage: RowKeyEncoderBenchmark [threads] [metrics] [sources] [seconds]
+ */
+public class RowKeyEncoderBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int metrics = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    int sources = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    long seconds = args.length > 3 ? Long.parseLong(args[3]) : 5;
+    String[] metricNames = new String[metrics];
+    for (int i = 0; i < metrics; i++) {
+      metricNames[i] = "SystemMetrics.metric" + i;
+    }
+    String[] sourceNames = new String[sources];
+    for (int i = 0; i < sources; i++) {
+      sourceNames[i] = "host" + i + ".example.com";
+    }
+    RowKeyEncoder encoder = new RowKeyEncoder();
+
+    for (int round = 0; round < 2; round++) { // first round is warm-up
+      long legacy = run(threads, seconds, metricNames, sourceNames, null);
+      long encoded = run(threads, seconds, metricNames, sourceNames, encoder);
+      if (round > 0) {
+        System.out.println(threads + " threads, " + metrics + " metrics, "
+            + sources + " sources");
+        System.out.println("legacy  : " + legacy / seconds + " keys/s");
+        System.out.println("encoder : " + encoded / seconds + " keys/s");
+      }
+    }
+  }
+
+  private static long run(int threads, final long seconds,
+      final String[] metrics, final String[] sources,
+      final RowKeyEncoder encoder) throws Exception {
+    final long[] counts = new long[threads];
+    final Object lock = new Object(); // legacy code shared one digest
+    final MessageDigest md5 = MessageDigest.getInstance("md5");
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] = new Thread() {
+        public void run() {
+          long end = System.currentTimeMillis() + seconds * 1000;
+          long time = 1400000000000L;
+          long keys = 0;
+          long sink = 0;
+          while (System.currentTimeMillis() < end) {
+            for (int s = 0; s < sources.length; s++) {
+              for (int m = 0; m < metrics.length; m++) {
+                byte[] key;
+                if (encoder == null) {
+                  synchronized (lock) {
+                    key = TestRowKeyEncoder.legacyKey(md5, time, metrics[m],
+                        sources[s]);
+                  }
+                } else {
+                  key = encoder.encode(time, metrics[m], sources[s]);
+                }
+                sink += key[13];
+                keys++;
+              }
+            }
+            time += 1000;
+          }
+          counts[id] = keys + (sink == 42 ? 1 : 0);
+        }
+      };
+      workers[t].start();
+    }
+    long total = 0;
+    for (int t = 0; t < threads; t++) {
+      workers[t].join();
+      total += counts[t];
+    }
+    return total;
+  }
+}
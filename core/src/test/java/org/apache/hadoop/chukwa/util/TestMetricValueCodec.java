@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.util;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestMetricValueCodec extends TestCase {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static double roundTrip(String text) {
+    return MetricValueCodec.decode(MetricValueCodec.encodeText(text
+        .getBytes(UTF8)));
+  }
+
+  public void testLongs() {
+    long[] values = { 0, 1, -1, 63, -64, 64, 127, 128, 1353981082318L,
+        -1353981082318L, 999999999999999999L, -999999999999999999L };
+    for (long v : values) {
+      byte[] encoded = MetricValueCodec.encodeLong(v);
+      assertEquals(MetricValueCodec.LONG_MARKER, encoded[0]);
+      assertEquals((double) v, MetricValueCodec.decode(encoded));
+      assertEquals((double) v, roundTrip(Long.toString(v)));
+    }
+    // small counters take two bytes instead of their digits
+    assertEquals(2, MetricValueCodec.encodeText("42".getBytes(UTF8)).length);
+  }
+
+  public void testDoubles() {
+    String[] values = { "0.5", "-2.25", "4.493927773730516", "1e3",
+        "1.0E-5", "495307.98", "12345678901234567890" };
+    for (String v : values) {
+      assertEquals(v, Double.parseDouble(v), roundTrip(v));
+    }
+    assertEquals(9, MetricValueCodec.encodeDouble(Math.PI).length);
+    assertEquals(Math.PI, MetricValueCodec.decode(MetricValueCodec
+        .encodeDouble(Math.PI)));
+  }
+
+  public void testStringCellsStillDecode() {
+    Random r = new Random(7);
+    for (int i = 0; i < 10000; i++) {
+      String v = Double.toString(r.nextDouble() * Math.pow(10, r.nextInt(10)));
+      assertEquals(Double.parseDouble(v), MetricValueCodec.decode(v
+          .getBytes(UTF8)));
+    }
+    assertTrue(Double.isNaN(MetricValueCodec.decode("NaN".getBytes(UTF8))));
+  }
+
+  public void testNonNumbersStayText() {
+    String[] values = { "eth0", "null", "NaN", "1.2.3", "-", "", "12abc" };
+    for (String v : values) {
+      byte[] text = v.getBytes(UTF8);
+      assertSame(v, text, MetricValueCodec.encodeText(text));
+    }
+  }
+
+  public void testDecodeSlice() {
+    byte[] encoded = MetricValueCodec.encodeDouble(2.5);
+    byte[] cell = new byte[encoded.length + 4];
+    System.arraycopy(encoded, 0, cell, 2, encoded.length);
+    assertEquals(2.5, MetricValueCodec.decode(cell, 2, encoded.length));
+    byte[] text = "xx17.5yy".getBytes(UTF8);
+    assertEquals(17.5, MetricValueCodec.decode(text, 2, 4));
+  }
+
+  public void testDecodeText() {
+    assertEquals("1353981082318", text(MetricValueCodec.encodeLong(1353981082318L)));
+    assertEquals("999999999999999999",
+        text(MetricValueCodec.encodeText("999999999999999999".getBytes(UTF8))));
+    assertEquals("2.5", text(MetricValueCodec.encodeDouble(2.5)));
+    assertEquals("eth0", text("eth0".getBytes(UTF8)));
+    assertEquals("17.25", text("17.25".getBytes(UTF8)));
+  }
+
+  private static String text(byte[] value) {
+    return MetricValueCodec.decodeText(value, 0, value.length);
+  }
+}
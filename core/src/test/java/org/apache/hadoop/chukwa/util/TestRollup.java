@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.chukwa.util;
+
+import junit.framework.TestCase;
+
+public class TestRollup extends TestCase {
+
+  public void testBuckets() {
+    long time = 1353981082318L;
+    assertEquals(1353981060000L, Rollup.Resolution.MINUTE.bucket(time));
+    assertEquals(1353978000000L, Rollup.Resolution.HOUR.bucket(time));
+    assertEquals(1353974400000L, Rollup.Resolution.DAY.bucket(time));
+    assertEquals(1353974400000L, Rollup.Resolution.DAY.bucket(1353974400000L));
+    assertEquals(-60000L, Rollup.Resolution.MINUTE.bucket(-1));
+  }
+
+  public void testAggregate() {
+    Rollup r = new Rollup();
+    assertTrue(Double.isNaN(r.getAverage()));
+    r.add(3);
+    r.add(-1);
+    r.add(4);
+    assertEquals(-1.0, r.getMin());
+    assertEquals(4.0, r.getMax());
+    assertEquals(6.0, r.getSum());
+    assertEquals(3, r.getCount());
+    assertEquals(2.0, r.getAverage());
+
+    Rollup other = new Rollup();
+    other.add(10);
+    r.merge(other);
+    r.merge(new Rollup());
+    assertEquals(-1.0, r.getMin());
+    assertEquals(10.0, r.getMax());
+    assertEquals(4, r.getCount());
+    assertEquals(4.0, r.getAverage());
+  }
+
+  public void testBytes() {
+    Rollup r = new Rollup();
+    r.add(0.25);
+    r.add(1353981082318.0);
+    byte[] value = r.toBytes();
+    assertEquals(Rollup.SIZE, value.length);
+    byte[] cell = new byte[value.length + 3];
+    System.arraycopy(value, 0, cell, 3, value.length);
+    Rollup copy = Rollup.fromBytes(cell, 3, value.length);
+    assertEquals(r.getMin(), copy.getMin());
+    assertEquals(r.getMax(), copy.getMax());
+    assertEquals(r.getSum(), copy.getSum());
+    assertEquals(r.getCount(), copy.getCount());
+    assertNull(Rollup.fromBytes("12.5".getBytes(), 0, 4));
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.chukwa.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestRowKeyEncoder extends TestCase {
+
+  /**
+   * The Calendar based encoding HBaseUtil used before RowKeyEncoder.
+   */
+  static byte[] legacyKey(MessageDigest md5, long time, String primaryKey,
+      String source) {
+    Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    c.setTimeInMillis(time);
+    Charset utf8 = Charset.forName("UTF-8");
+    byte[] day = Integer.toString(c.get(Calendar.DAY_OF_YEAR)).getBytes(utf8);
+    byte[] key = new byte[14];
+    System.arraycopy(day, 0, key, 0, day.length);
+    System.arraycopy(md5.digest(primaryKey.getBytes(utf8)), 0, key, 2, 6);
+    if (source != null) {
+      System.arraycopy(md5.digest(source.getBytes(utf8)), 0, key, 8, 6);
+    }
+    return key;
+  }
+
+  public void testMatchesLegacyKeys() throws Exception {
+    MessageDigest md5 = MessageDigest.getInstance("md5");
+    RowKeyEncoder encoder = new RowKeyEncoder(4);
+    Random r = new Random(42);
+    long start = 946684800000L; // 2000-01-01
+    for (int i = 0; i < 100000; i++) {
+      long time = start + (long) (r.nextDouble() * 40L * 365 * 86400000L);
+      String metric = "SystemMetrics.cpu." + r.nextInt(10);
+      String source = "host" + r.nextInt(10);
+      assertTrue(Arrays.equals(legacyKey(md5, time, metric, source),
+          encoder.encode(time, metric, source)));
+      assertTrue(Arrays.equals(legacyKey(md5, time, metric, null),
+          encoder.encode(time, metric)));
+    }
+  }
+
+  public void testDayBoundaries() throws Exception {
+    Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    for (int year = 1970; year <= 2100; year++) {
+      c.clear();
+      c.set(year, Calendar.JANUARY, 1);
+      assertEquals(1, RowKeyEncoder.dayOfYear(c.getTimeInMillis()));
+      c.set(year, Calendar.DECEMBER, 31, 23, 59, 59);
+      assertEquals(c.get(Calendar.DAY_OF_YEAR),
+          RowKeyEncoder.dayOfYear(c.getTimeInMillis()));
+    }
+  }
+
+  public void testConcurrentUse() throws Exception {
+    final RowKeyEncoder encoder = new RowKeyEncoder();
+    final MessageDigest md5 = MessageDigest.getInstance("md5");
+    final byte[] expected = legacyKey(md5, 1400000000000L, "Group.metric",
+        "host");
+    final AtomicInteger failures = new AtomicInteger(0);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            // a different key in between defeats the cache half the time
+            encoder.encode(1400000000000L, "Group.other" + i, "host" + i);
+            if (!Arrays.equals(expected, encoder.encode(1400000000000L,
+                "Group.metric", "host"))) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(0, failures.get());
+  }
+}